@@ -0,0 +1,44 @@
+# Copyright (C) 2017 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+#
+# Builds the expectation cache of a libcore test package from the expectation
+# files in LOCAL_CTS_CORE_EXPECTATIONS, and bundles it as the
+# /core-expectations.cache java resource of the package. The core test runner
+# reads it when given the core-expectations-cache argument, which must name the
+# same expectation files as the core-expectation arguments.
+#
+# Include it before building the package.
+#
+
+CORE_EXPECTATION_CACHE_JAR := $(HOST_OUT_JAVA_LIBRARIES)/cts-core-expectation-cache.jar
+
+core_expectation_cache := $(call intermediates-dir-for,APPS,$(LOCAL_PACKAGE_NAME),,COMMON)/core-expectations.cache
+$(core_expectation_cache): PRIVATE_EXPECTATIONS := $(foreach file,$(LOCAL_CTS_CORE_EXPECTATIONS),-e $(file))
+
+# Regenerate the cache if an expectation file, the generator jar, the package's Android.mk, or
+# this file is changed.
+$(core_expectation_cache): $(LOCAL_CTS_CORE_EXPECTATIONS) $(CORE_EXPECTATION_CACHE_JAR) \
+		$(LOCAL_PATH)/Android.mk cts/build/core_expectation_cache.mk
+	@echo Generating: $@
+	$(hide) mkdir -p $(dir $@)
+	$(hide) java -cp $(CORE_EXPECTATION_CACHE_JAR) com.android.cts.core.runner.ExpectationCache \
+						$(PRIVATE_EXPECTATIONS) \
+						-o $@
+
+LOCAL_JAVA_RESOURCE_FILES += $(core_expectation_cache)
+LOCAL_ADDITIONAL_DEPENDENCIES += $(core_expectation_cache)
+
+# Reset variables
+LOCAL_CTS_CORE_EXPECTATIONS :=
@@ -276,6 +276,13 @@ public class CompatibilityBuildHelper {
         return new File(getResultDir(), "test_runs.txt");
     }
 
+    /**
+     * @return a {@link File} in the resultsDir for recording module runtimes across sessions
+     */
+    public File getModuleRuntimesFile() throws FileNotFoundException {
+        return new File(getResultsDir(), "module_runtimes.txt");
+    }
+
     /**
      * @return a {@link String} to use for directory suffixes created from the given time.
      */
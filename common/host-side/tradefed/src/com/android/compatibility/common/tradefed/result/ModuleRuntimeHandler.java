@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A helper class for recording and retrieving the measured runtimes of modules.
+ * <p/>
+ * Runtimes are stored in the results directory, shared by all sessions, as an exponentially
+ * weighted average per device build fingerprint and module ID.
+ */
+public class ModuleRuntimeHandler {
+
+    private static final String DELIMITER = "\t";
+    // Weight given to the newest measurement when updating the average.
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    /**
+     * Get the recorded runtimes of modules run against the given build fingerprint.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} from which to retrieve the runtimes
+     * file
+     * @param fingerprint the build fingerprint of the device
+     * @return a mapping of module IDs to average runtime in milliseconds, empty if none are
+     * recorded
+     */
+    public static synchronized Map<String, Long> getRuntimes(
+            final CompatibilityBuildHelper buildHelper, String fingerprint) {
+        Map<String, Long> runtimes = new HashMap<>();
+        if (fingerprint == null) {
+            return runtimes;
+        }
+        Map<String, Map<String, Long>> all = readRuntimes(buildHelper);
+        if (all.containsKey(fingerprint)) {
+            runtimes.putAll(all.get(fingerprint));
+        }
+        return runtimes;
+    }
+
+    /**
+     * Fold the given measured runtimes into the recorded averages for the build fingerprint.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} used to write the runtimes file
+     * @param fingerprint the build fingerprint of the device the modules ran on
+     * @param runtimes a mapping of module IDs to measured runtime in milliseconds
+     */
+    public static synchronized void addRuntimes(final CompatibilityBuildHelper buildHelper,
+            String fingerprint, Map<String, Long> runtimes) {
+        if (fingerprint == null || fingerprint.isEmpty() || runtimes.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, Long>> all = readRuntimes(buildHelper);
+        Map<String, Long> averages = all.get(fingerprint);
+        if (averages == null) {
+            averages = new HashMap<>();
+            all.put(fingerprint, averages);
+        }
+        for (Map.Entry<String, Long> entry : runtimes.entrySet()) {
+            Long previous = averages.get(entry.getKey());
+            long runtime = entry.getValue();
+            if (previous != null) {
+                runtime = Math.round(SMOOTHING_FACTOR * runtime
+                        + (1 - SMOOTHING_FACTOR) * previous);
+            }
+            averages.put(entry.getKey(), runtime);
+        }
+        try {
+            File f = buildHelper.getModuleRuntimesFile();
+            FileUtil.writeToFile(mapToString(all), f);
+        } catch (IOException e) {
+            CLog.e("Exception while writing module runtimes file.");
+            CLog.e(e);
+        }
+    }
+
+    private static Map<String, Map<String, Long>> readRuntimes(
+            final CompatibilityBuildHelper buildHelper) {
+        try {
+            File f = buildHelper.getModuleRuntimesFile();
+            if (!f.exists() || f.length() == 0) {
+                return new HashMap<>();
+            }
+            return stringToMap(FileUtil.readStringFromFile(f));
+        } catch (IOException e) {
+            CLog.e("Could not read module runtimes file");
+            CLog.e(e);
+            return new HashMap<>();
+        }
+    }
+
+    private static String mapToString(Map<String, Map<String, Long>> map) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, Long>> fingerprint : map.entrySet()) {
+            for (Map.Entry<String, Long> entry : fingerprint.getValue().entrySet()) {
+                sb.append(fingerprint.getKey()).append(DELIMITER)
+                        .append(entry.getKey()).append(DELIMITER)
+                        .append(entry.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, Map<String, Long>> stringToMap(String str) {
+        Map<String, Map<String, Long>> map = new HashMap<>();
+        for (String line : str.split("\n")) {
+            String[] parts = line.split(DELIMITER);
+            if (parts.length != 3) {
+                continue;
+            }
+            Map<String, Long> runtimes = map.get(parts[0]);
+            if (runtimes == null) {
+                runtimes = new HashMap<>();
+                map.put(parts[0], runtimes);
+            }
+            try {
+                runtimes.put(parts[1], Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                CLog.w("Ignoring malformed module runtime entry: %s", line);
+            }
+        }
+        return map;
+    }
+}
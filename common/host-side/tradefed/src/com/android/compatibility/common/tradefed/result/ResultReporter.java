@@ -19,7 +19,9 @@ import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.result.InvocationFailureHandler;
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
+import com.android.compatibility.common.tradefed.util.ParallelZipUtil;
 import com.android.compatibility.common.tradefed.util.RetryType;
+import com.android.compatibility.common.util.ChecksumReporter;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
@@ -28,6 +30,8 @@ import com.android.compatibility.common.util.InvocationResult;
 import com.android.compatibility.common.util.MetricsStore;
 import com.android.compatibility.common.util.ReportLog;
 import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultJournal;
+import com.android.compatibility.common.util.ResultStringStore;
 import com.android.compatibility.common.util.ResultUploader;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.ddmlib.Log.LogLevel;
@@ -51,7 +55,6 @@ import com.android.tradefed.result.TestSummary;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.TimeUtil;
-import com.android.tradefed.util.ZipUtil;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -61,6 +64,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -77,6 +81,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     private static final String RESULT_KEY = "COMPATIBILITY_TEST_RESULT";
     private static final String CTS_PREFIX = "cts:";
     private static final String BUILD_INFO = CTS_PREFIX + "build_";
+    private static final String BUILD_FINGERPRINT = BUILD_INFO + "fingerprint";
 
     @Option(name = CompatibilityTest.RETRY_OPTION,
             shortName = 'r',
@@ -97,12 +102,25 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     @Option(name = "disable-result-posting", description = "Disable result posting into report server.")
     private boolean mDisableResultPosting = false;
 
+    @Option(name = "result-posting-attempts", description = "Maximum number of attempts to post "
+            + "the results into the report server. Only retry if the server ignores duplicates.")
+    private int mResultPostingAttempts = 1;
+
     @Option(name = "include-test-log-tags", description = "Include test log tags in report.")
     private boolean mIncludeTestLogTags = false;
 
     @Option(name = "use-log-saver", description = "Also saves generated result with log saver")
     private boolean mUseLogSaver = false;
 
+    @Option(name = "stream-results", description = "Journal each module result to disk as it "
+            + "completes instead of holding all results in memory until the invocation ends.")
+    private boolean mStreamResults = false;
+
+    @Option(name = "compact-results", description = "Share equal test names and messages across "
+            + "results and keep stack traces in a file on disk until the results are written, "
+            + "to reduce the memory used by large invocations.")
+    private boolean mCompactResults = false;
+
     private CompatibilityBuildHelper mBuildHelper;
     private File mResultDir = null;
     private File mLogDir = null;
@@ -118,6 +136,16 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     private String mDeviceSerial = UNKNOWN_DEVICE;
     private Set<String> mMasterDeviceSerials = new HashSet<>();
     private Set<IBuildInfo> mMasterBuildInfos = new HashSet<>();
+    // Measured runtime of the modules of the invocation, keyed by module ID. Only used by the
+    // master ResultReporter, which sums the runtimes of the parts of a module run by each shard.
+    private Map<String, Long> mModuleRuntimes = new HashMap<>();
+    // Nullable. Only used by the master ResultReporter when streaming results.
+    private ResultJournal mJournal;
+    // IDs of the modules appended to mJournal, which are no longer held in mResult.
+    private Set<String> mJournaledModuleIds = new HashSet<>();
+    // Nullable. Created by the master ResultReporter when compacting results, and shared with the
+    // shards.
+    private ResultStringStore mStringStore;
 
     // mCurrentTestNum and mTotalTestsInModule track the progress within the module
     // Note that this count is not necessarily equal to the count of tests contained
@@ -170,6 +198,12 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         if (isShardResultReporter()) {
             // Shard ResultReporters forward invocationStarted to the mMasterResultReporter
             mMasterResultReporter.invocationStarted(buildInfo);
+            synchronized(this) {
+                mStringStore = mMasterResultReporter.getStringStore();
+                if (mStringStore != null && mResult instanceof InvocationResult) {
+                    ((InvocationResult) mResult).setStringStore(mStringStore);
+                }
+            }
             return;
         }
 
@@ -195,6 +229,23 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         }
     }
 
+    /**
+     * @return a store keeping the stack traces of the results in a temporary file, or in memory if
+     * the file cannot be created
+     */
+    private static ResultStringStore createStringStore() {
+        try {
+            return new ResultStringStore(FileUtil.createTempFile("result-traces", ".txt"));
+        } catch (IOException e) {
+            CLog.w("Failed to create stack trace file, keeping stack traces in memory: %s", e);
+            return new ResultStringStore();
+        }
+    }
+
+    private synchronized ResultStringStore getStringStore() {
+        return mStringStore;
+    }
+
     /**
      * Create directory structure where results and logs will be written.
      */
@@ -209,6 +260,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 mResult = ResultHandler.findResult(mBuildHelper.getResultsDir(), mRetrySessionId);
             }
             mResult.setStartTime(mBuildHelper.getStartTime());
+            if (mCompactResults && mResult instanceof InvocationResult) {
+                mStringStore = createStringStore();
+                ((InvocationResult) mResult).setStringStore(mStringStore);
+            }
             mResultDir = mBuildHelper.getResultDir();
             if (mResultDir != null) {
                 mResultDir.mkdirs();
@@ -228,6 +283,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         info("Results Directory: " + mResultDir.getAbsolutePath());
 
         mUploader = new ResultUploader(mResultServer, mBuildHelper.getSuiteName());
+        mUploader.setMaxAttempts(mResultPostingAttempts);
         try {
             mLogDir = new File(mBuildHelper.getLogsDir(),
                     CompatibilityBuildHelper.getDirSuffix(mBuildHelper.getStartTime()));
@@ -367,9 +423,34 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             mMasterResultReporter.mergeModuleResult(mCurrentModuleResult);
             mCurrentModuleResult.resetTestRuns();
             mCurrentModuleResult.resetRuntime();
+            if (mStreamResults) {
+                // The master holds on to the results, no need to keep them here as well.
+                mResult.removeModule(mCurrentModuleResult.getId());
+            }
+        } else {
+            synchronized(this) {
+                addModuleRuntime(mCurrentModuleResult.getId(), elapsedTime);
+                if (mStreamResults) {
+                    journalModuleResult(mCurrentModuleResult);
+                }
+            }
+            if (mStreamResults) {
+                mCurrentModuleResult.resetTestRuns();
+                mCurrentModuleResult.resetRuntime();
+            }
         }
     }
 
+    /**
+     * Add to the runtime of the given module measured during this invocation. Note: this method
+     * is meant to be used by the master ResultReporter.
+     */
+    private void addModuleRuntime(String moduleId, long elapsedTime) {
+        Long moduleRuntime = mModuleRuntimes.get(moduleId);
+        mModuleRuntimes.put(moduleId,
+                (moduleRuntime == null) ? elapsedTime : moduleRuntime + elapsedTime);
+    }
+
     /**
      * Directly add a module result. Note: this method is meant to be used by
      * a shard ResultReporter.
@@ -379,6 +460,36 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         // contained in mResult. This is useful for retries and allows the final
         // report from a retry to contain all test results.
         synchronized(this) {
+            addModuleRuntime(moduleResult.getId(), moduleResult.getRuntime());
+            if (mStreamResults) {
+                IModuleResult existingModuleResult = mResult.removeModule(moduleResult.getId());
+                if (existingModuleResult != null) {
+                    // Merge with the results of a previous session before journaling.
+                    existingModuleResult.mergeFrom(moduleResult);
+                    moduleResult = existingModuleResult;
+                }
+                journalModuleResult(moduleResult);
+            } else {
+                mResult.mergeModuleResult(moduleResult);
+            }
+        }
+    }
+
+    /**
+     * Append a module result to the journal, removing it from mResult. If the result cannot be
+     * journaled, it is held in mResult until the end of the invocation instead.
+     */
+    private void journalModuleResult(IModuleResult moduleResult) {
+        try {
+            if (mJournal == null) {
+                mJournal = new ResultJournal(mResultDir);
+            }
+            mJournal.append(moduleResult);
+            mResult.removeModule(moduleResult.getId());
+            mJournaledModuleIds.add(moduleResult.getId());
+        } catch (IOException e) {
+            warn("Could not journal result of module %s, keeping it in memory: %s",
+                    moduleResult.getId(), e.getMessage());
             mResult.mergeModuleResult(moduleResult);
         }
     }
@@ -432,6 +543,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             if (++invocationEndedCount < mMasterBuildInfos.size()) {
                 return;
             }
+            recordModuleRuntimes();
             finalizeResults(elapsedTime);
         }
     }
@@ -461,33 +573,46 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         // Include a record in the report of all expected modules ids, even if they weren't
         // executed.
         for (String moduleId : allExpectedModules) {
-            mResult.getOrCreateModule(moduleId);
+            if (!mJournaledModuleIds.contains(moduleId)) {
+                mResult.getOrCreateModule(moduleId);
+            }
         }
 
-        String moduleProgress = String.format("%d of %d",
-                mResult.getModuleCompleteCount(), mResult.getModules().size());
-
-        info("Invocation finished in %s. PASSED: %d, FAILED: %d, MODULES: %s",
-                TimeUtil.formatElapsedTime(elapsedTime),
-                mResult.countResults(TestStatus.PASS),
-                mResult.countResults(TestStatus.FAIL),
-                moduleProgress);
-
         long startTime = mResult.getStartTime();
         try {
             // Zip the full test results directory.
             copyDynamicConfigFiles(mBuildHelper.getDynamicConfigFiles(), mResultDir);
             copyFormattingFiles(mResultDir, mBuildHelper.getSuiteName());
-
-            File resultFile = ResultHandler.writeResults(mBuildHelper.getSuiteName(),
-                    mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
-                    mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
-                    elapsedTime + startTime, mReferenceUrl, getLogUrl(),
-                    mBuildHelper.getCommandLineArgs());
             if (mRetrySessionId != null) {
+                // Copy before the checksum is created, so that it covers the copied files and
+                // can reuse the previous session's checksums for them.
                 copyRetryFiles(ResultHandler.getResultDirectory(
                         mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
             }
+
+            File resultFile;
+            if (mJournal != null) {
+                resultFile = mJournal.writeResults(mBuildHelper.getSuiteName(),
+                        mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
+                        mBuildHelper.getSuiteBuild(), mResult, startTime,
+                        elapsedTime + startTime, mReferenceUrl, getLogUrl(),
+                        mBuildHelper.getCommandLineArgs());
+                info("Invocation finished in %s. PASSED: %d, FAILED: %d, MODULES: %d of %d",
+                        TimeUtil.formatElapsedTime(elapsedTime), mJournal.getPassedCount(),
+                        mJournal.getFailedCount(), mJournal.getModuleCompleteCount(),
+                        mJournal.getModuleCount());
+            } else {
+                info("Invocation finished in %s. PASSED: %d, FAILED: %d, MODULES: %d of %d",
+                        TimeUtil.formatElapsedTime(elapsedTime),
+                        mResult.countResults(TestStatus.PASS),
+                        mResult.countResults(TestStatus.FAIL),
+                        mResult.getModuleCompleteCount(), mResult.getModules().size());
+                resultFile = ResultHandler.writeResults(mBuildHelper.getSuiteName(),
+                        mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
+                        mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
+                        elapsedTime + startTime, mReferenceUrl, getLogUrl(),
+                        mBuildHelper.getCommandLineArgs());
+            }
             File zippedResults = zipResults(mResultDir);
 
             // Create failure report after zip file so extra data is not uploaded
@@ -506,9 +631,31 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         } catch (IOException | XmlPullParserException e) {
             CLog.e("[%s] Exception while saving result XML.", mDeviceSerial);
             CLog.e(e);
+        } finally {
+            // The results have been written, their stack traces are no longer needed.
+            StreamUtil.close(mStringStore);
         }
     }
 
+    /**
+     * Record the runtimes of the modules of the invocation against the device's build
+     * fingerprint, so that later sessions can schedule modules based on them. A module split
+     * across shards is recorded once, with the sum of the runtimes of its parts. Runtimes are not
+     * recorded for retries or filtered runs, where modules may only have been partially run.
+     * Note: this method is meant to be used by the master ResultReporter.
+     */
+    private void recordModuleRuntimes() {
+        String args = mBuildHelper.getRecentCommandLineArgs();
+        if (mModuleRuntimes.isEmpty() || mRetrySessionId != null
+                || (args != null && isFilteredRun(args))) {
+            return;
+        }
+        String fingerprint = mBuildHelper.getBuildInfo().getBuildAttributes().get(
+                BUILD_FINGERPRINT);
+        ModuleRuntimeHandler.addRuntimes(mBuildHelper, fingerprint, mModuleRuntimes);
+        mModuleRuntimes.clear();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -655,11 +802,18 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         }
         return !(RetryType.FAILED.equals(mRetryType)
                 || RetryType.CUSTOM.equals(mRetryType)
-                || args.contains(CompatibilityTest.INCLUDE_FILTER_OPTION)
+                || isFilteredRun(args));
+    }
+
+    /**
+     * Returns whether the invocation command-line arguments filter the tests run within modules.
+     */
+    private static boolean isFilteredRun(String args) {
+        return args.contains(CompatibilityTest.INCLUDE_FILTER_OPTION)
                 || args.contains(CompatibilityTest.EXCLUDE_FILTER_OPTION)
                 || args.contains(CompatibilityTest.SUBPLAN_OPTION)
                 || args.matches(String.format(".* (-%s|--%s) .*",
-                CompatibilityTest.TEST_OPTION_SHORT_NAME, CompatibilityTest.TEST_OPTION)));
+                CompatibilityTest.TEST_OPTION_SHORT_NAME, CompatibilityTest.TEST_OPTION));
     }
 
     /**
@@ -724,25 +878,37 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         File[] oldChildren = oldDir.listFiles();
         for (File oldChild : oldChildren) {
             File newChild = new File(newDir, oldChild.getName());
-            if (!newChild.exists()) {
-                // If this old file or directory doesn't exist in new dir, simply copy it
+            if (oldChild.isDirectory()) {
+                // Make sure the children of the old child directory exist in the new child
+                // directory.
+                if (!newChild.exists() && !newChild.mkdirs()) {
+                    warn("Failed to copy file \"%s\" from previous session", oldChild.getName());
+                } else if (newChild.isDirectory()) {
+                    copyRetryFiles(oldChild, newChild);
+                }
+            } else if (!newChild.exists() && !isSessionResultFile(oldChild)) {
+                // If this old file doesn't exist in new dir, simply copy it
                 try {
-                    if (oldChild.isDirectory()) {
-                        FileUtil.recursiveCopy(oldChild, newChild);
-                    } else {
-                        FileUtil.copyFile(oldChild, newChild);
-                    }
+                    FileUtil.copyFile(oldChild, newChild);
+                    // Keep the modification time, so the checksum of the file can be reused
+                    newChild.setLastModified(oldChild.lastModified());
                 } catch (IOException e) {
                     warn("Failed to copy file \"%s\" from previous session", oldChild.getName());
                 }
-            } else if (oldChild.isDirectory() && newChild.isDirectory()) {
-                // If both children exist as directories, make sure the children of the old child
-                // directory exist in the new child directory.
-                copyRetryFiles(oldChild, newChild);
             }
         }
     }
 
+    /**
+     * @return true if the file is one that the new session writes itself, so it is not worth
+     * copying from the previous session.
+     */
+    private static boolean isSessionResultFile(File file) {
+        String name = file.getName();
+        return name.equals(ResultHandler.TEST_RESULT_FILE_NAME)
+                || name.equals(ChecksumReporter.NAME);
+    }
+
     /**
      * Zip the contents of the given results directory.
      *
@@ -754,7 +920,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // create a file in parent directory, with same name as resultsDir
             zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
                     resultsDir.getName()));
-            ZipUtil.createZip(resultsDir, zipResultFile);
+            ParallelZipUtil.createZip(resultsDir, zipResultFile);
         } catch (IOException e) {
             warn("Failed to create zip for %s", resultsDir.getName());
         }
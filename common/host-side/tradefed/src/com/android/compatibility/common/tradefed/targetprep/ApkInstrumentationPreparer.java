@@ -104,6 +104,13 @@ public class ApkInstrumentationPreparer extends PreconditionPreparer implements
         }
     }
 
+    /**
+     * @return whether no test of the instrumentations run so far failed
+     */
+    protected boolean isInstrumentationSuccessful() {
+        return testFailures.isEmpty();
+    }
+
     private boolean instrument(ITestDevice device, IBuildInfo buildInfo)
             throws DeviceNotAvailableException, FileNotFoundException {
         ITestInvocationListener listener = new TargetPreparerListener();
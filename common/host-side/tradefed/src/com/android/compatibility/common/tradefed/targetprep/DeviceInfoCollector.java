@@ -19,6 +19,7 @@ package com.android.compatibility.common.tradefed.targetprep;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
 import com.android.compatibility.common.tradefed.util.CollectorUtil;
+import com.android.compatibility.common.tradefed.util.DeviceInfoCache;
 import com.android.compatibility.common.util.DevicePropertyInfo;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Option;
@@ -31,9 +32,11 @@ import com.android.tradefed.util.FileUtil;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An {@link ApkInstrumentationPreparer} that collects device info.
@@ -63,6 +66,8 @@ public class DeviceInfoCollector extends ApkInstrumentationPreparer {
     private static final String VERSION_SECURITY_PATCH = "ro.build.version.security_patch";
 
     private static final String PREFIX_TAG = "cts:build_";
+    // Set in the result when the device info files were restored from the cache
+    private static final String DEVICE_INFO_CACHED = PREFIX_TAG + "device_info_cached";
 
     @Option(name = CompatibilityTest.SKIP_DEVICE_INFO_OPTION,
             shortName = 'd',
@@ -78,6 +83,15 @@ public class DeviceInfoCollector extends ApkInstrumentationPreparer {
     @Option(name = "temp-dir", description = "The directory containing host-side device info files")
     private String mTempDir;
 
+    @Option(name = "device-info-cache-dir", description = "The directory caching the device "
+            + "info files across invocations, by device serial, build fingerprint and device "
+            + "info apk. The cache is disabled if not set.")
+    private String mCacheDir;
+
+    @Option(name = "device-info-cache-max-age-hours", description = "The age after which the "
+            + "cached device info files are collected again, 0 to disable the cache.")
+    private long mCacheMaxAgeHours = 24;
+
     // Temp directory for host-side device info files.
     private File mHostDir;
 
@@ -108,8 +122,70 @@ public class DeviceInfoCollector extends ApkInstrumentationPreparer {
 
         createTempHostDir();
         createResultDir(buildInfo);
+        DeviceInfoCache cache = null;
+        String cacheKey = null;
+        if (mCacheDir != null && !mCacheDir.isEmpty() && mCacheMaxAgeHours > 0
+                && mResultDir != null && mResultDir.isDirectory()) {
+            cache = new DeviceInfoCache(new File(mCacheDir),
+                    TimeUnit.HOURS.toMillis(mCacheMaxAgeHours));
+            cacheKey = getCacheKey(device, buildInfo);
+        }
+        if (cacheKey != null && restoreFromCache(cache, cacheKey, device)) {
+            buildInfo.addBuildAttribute(DEVICE_INFO_CACHED, "true");
+            return;
+        }
         run(device, buildInfo);
         getDeviceInfoFiles(device);
+        if (cacheKey != null && isInstrumentationSuccessful()) {
+            String[] collected = mResultDir.list();
+            if (collected == null || collected.length == 0) {
+                return;
+            }
+            try {
+                cache.store(cacheKey, mResultDir);
+            } catch (IOException e) {
+                CLog.w("Failed to cache the device info of %s: %s", device.getSerialNumber(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the key of the device info of the device in the cache, or null if it cannot be
+     * cached
+     */
+    private String getCacheKey(ITestDevice device, IBuildInfo buildInfo)
+            throws DeviceNotAvailableException {
+        String fingerprint = device.getProperty(FINGERPRINT);
+        if (fingerprint == null) {
+            return null;
+        }
+        try {
+            File apk = new File(new CompatibilityBuildHelper(buildInfo).getTestsDir(),
+                    mApkFileName);
+            return DeviceInfoCache.createKey(device.getSerialNumber(), fingerprint, apk);
+        } catch (IOException e) {
+            CLog.w("Not caching the device info of %s: %s", device.getSerialNumber(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Copies the cached device info files of the device into the result directory.
+     *
+     * @return false if they are not cached, in which case they must be collected
+     */
+    private boolean restoreFromCache(DeviceInfoCache cache, String cacheKey,
+            ITestDevice device) {
+        try {
+            if (cache.restore(cacheKey, mResultDir)) {
+                CLog.i("Using the cached device info of %s", device.getSerialNumber());
+                return true;
+            }
+        } catch (IOException e) {
+            CLog.w("Failed to restore the cached device info of %s: %s",
+                    device.getSerialNumber(), e);
+        }
+        return false;
     }
 
     @Override
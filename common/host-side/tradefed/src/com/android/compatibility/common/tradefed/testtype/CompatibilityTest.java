@@ -26,6 +26,7 @@ import com.android.compatibility.common.tradefed.util.OptionHelper;
 import com.android.compatibility.common.tradefed.util.RetryFilterHelper;
 import com.android.compatibility.common.tradefed.util.RetryType;
 import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.DeviceArtifactCache;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
@@ -52,6 +53,7 @@ import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.targetprep.ITargetPreparer;
+import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IBuildReceiver;
 import com.android.tradefed.testtype.IDeviceTest;
@@ -102,6 +104,7 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
     public static final String PRIMARY_ABI_RUN = "primary-abi-only";
     public static final String DEVICE_TOKEN_OPTION = "device-token";
     public static final String LOGCAT_ON_FAILURE_SIZE_OPTION = "logcat-on-failure-size";
+    public static final String DYNAMIC_SHARDING_OPTION = "dynamic-sharding";
     private static final String URL = "dynamic-config-url";
 
     // Constants for checking invocation or preconditions preparation failure
@@ -184,6 +187,11 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             description = "split the modules up to run on multiple devices concurrently.")
     private int mShards = 1;
 
+    @Option(name = DYNAMIC_SHARDING_OPTION,
+            description = "when sharding, have each shard pull its next module from a shared "
+            + "queue as it finishes the previous one, instead of assigning modules up front.")
+    private boolean mDynamicSharding = false;
+
     @Option(name = URL,
             description = "Specify the url for override config")
     private String mURL = "https://androidpartner.googleapis.com/v1/dynamicconfig/"
@@ -355,14 +363,8 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             if (mRetrySessionId != null) {
                 loadRetryCommandLineArgs(mRetrySessionId);
             }
-            // Get the tests to run in this shard
-            List<IModuleDef> modules = mModuleRepo.getModules(getDevice().getSerialNumber());
-
             listener = new FailureListener(listener, getDevice(), mBugReportOnFailure,
                     mLogcatOnFailure, mScreenshotOnFailure, mRebootOnFailure, mMaxLogcatBytes);
-            int moduleCount = modules.size();
-            CLog.logAndDisplay(LogLevel.INFO, "Starting %d module%s on %s", moduleCount,
-                    (moduleCount > 1) ? "s" : "", mDevice.getSerialNumber());
             if (mRebootBeforeTest) {
                 CLog.d("Rebooting device before test starts as requested.");
                 mDevice.reboot();
@@ -385,88 +387,186 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
                 }
             }
 
+            if (mDynamicSharding) {
+                runDynamicModules(listener, checkers);
+                return;
+            }
+
+            // Get the tests to run in this shard
+            List<IModuleDef> modules = mModuleRepo.getModules(getDevice().getSerialNumber());
+            int moduleCount = modules.size();
+            CLog.logAndDisplay(LogLevel.INFO, "Starting %d module%s on %s", moduleCount,
+                    (moduleCount > 1) ? "s" : "", mDevice.getSerialNumber());
+
             // Set values and run preconditions
             boolean isPrepared = true; // whether the device has been successfully prepared
             for (int i = 0; i < moduleCount; i++) {
                 IModuleDef module = modules.get(i);
-                module.setBuild(mBuildHelper.getBuildInfo());
-                module.setDevice(mDevice);
-                module.setPreparerWhitelist(mPreparerWhitelist);
-                isPrepared &= (module.prepare(mSkipPreconditions, mPreconditionArgs));
+                isPrepared &= prepareModule(module);
             }
             mModuleRepo.setPrepared(isPrepared);
 
-            int prepAttempt = 1;
-            while (!mModuleRepo.isPrepared(MINUTES_PER_PREP_ATTEMPT, TimeUnit.MINUTES)) {
-                if (prepAttempt >= NUM_PREP_ATTEMPTS
-                        || InvocationFailureHandler.hasFailed(mBuildHelper)) {
-                    CLog.logAndDisplay(LogLevel.ERROR,
-                            "Incorrect preparation detected, exiting test run from %s",
-                            mDevice.getSerialNumber());
-                    return;
-                } else {
-                    CLog.logAndDisplay(LogLevel.INFO,
-                            "Device %s on standby while all shards complete preparation",
-                            mDevice.getSerialNumber());
-                }
-                prepAttempt++;
+            if (!waitForPreparation()) {
+                return;
             }
 
             // Run the tests
             for (int i = 0; i < moduleCount; i++) {
-                IModuleDef module = modules.get(i);
-                long start = System.currentTimeMillis();
-
-                if (mRebootPerModule) {
-                    if ("user".equals(mDevice.getProperty("ro.build.type"))) {
-                        CLog.e("reboot-per-module should only be used during development, "
-                            + "this is a\" user\" build device");
-                    } else {
-                        CLog.logAndDisplay(LogLevel.INFO, "Rebooting device before starting next "
-                            + "module");
-                        mDevice.reboot();
-                    }
-                }
-
-                // execute pre module execution checker
-                if (checkers != null && !checkers.isEmpty()) {
-                    runPreModuleCheck(module.getName(), checkers, mDevice, listener);
-                }
-                try {
-                    module.run(listener);
-                } catch (DeviceUnresponsiveException due) {
-                    // being able to catch a DeviceUnresponsiveException here implies that recovery
-                    // was successful, and test execution should proceed to next module
-                    ByteArrayOutputStream stack = new ByteArrayOutputStream();
-                    due.printStackTrace(new PrintWriter(stack, true));
-                    try {
-                        stack.close();
-                    } catch (IOException ioe) {
-                        // won't happen on BAOS
-                    }
-                    CLog.w("Ignored DeviceUnresponsiveException because recovery was successful, "
-                            + "proceeding with next module. Stack trace: %s",
-                            stack.toString());
-                    CLog.w("This may be due to incorrect timeout setting on module %s",
-                            module.getName());
-                }
-                long duration = System.currentTimeMillis() - start;
-                long expected = module.getRuntimeHint();
-                long delta = Math.abs(duration - expected);
-                // Show warning if delta is more than 10% of expected
-                if (expected > 0 && ((float)delta / (float)expected) > 0.1f) {
-                    CLog.logAndDisplay(LogLevel.WARN,
-                            "Inaccurate runtime hint for %s, expected %s was %s",
-                            module.getId(),
-                            TimeUtil.formatElapsedTime(expected),
-                            TimeUtil.formatElapsedTime(duration));
-                }
-                if (checkers != null && !checkers.isEmpty()) {
-                    runPostModuleCheck(module.getName(), checkers, mDevice, listener);
-                }
+                runModule(modules.get(i), listener, checkers);
             }
         } catch (FileNotFoundException fnfe) {
             throw new RuntimeException("Failed to initialize modules", fnfe);
+        } finally {
+            // Delete the device state cached by the host-side tests run on this shard
+            DeviceArtifactCache.release(mDevice);
+        }
+    }
+
+    /**
+     * Runs modules pulled one at a time from the shared {@link IModuleRepo}, until there are no
+     * modules left for this device. Each module is prepared just before it runs.
+     * <p/>
+     * As in the static mode, each shard prepares its first module before the preparation
+     * barrier, so a failed preparation on any shard stops all of them before they run tests. A
+     * module which fails to prepare later marks the invocation as failed, which stops the other
+     * shards from pulling more modules. Modules taken but not run are returned to the repo, so
+     * they are reported as not done.
+     */
+    private void runDynamicModules(ITestInvocationListener listener,
+            List<SystemStatusChecker> checkers) throws DeviceNotAvailableException {
+        String serial = mDevice.getSerialNumber();
+        CLog.logAndDisplay(LogLevel.INFO, "Starting dynamically scheduled modules on %s",
+                serial);
+        IModuleDef module = mModuleRepo.getNextModule(serial);
+        boolean isPrepared = (module == null) || prepareModule(module);
+        mModuleRepo.setPrepared(isPrepared);
+        if (!isPrepared) {
+            onPreparationFailed(module);
+            return;
+        }
+        if (!waitForPreparation()) {
+            if (module != null) {
+                mModuleRepo.returnModule(module);
+            }
+            return;
+        }
+        int moduleCount = 0;
+        while (module != null) {
+            runModule(module, listener, checkers);
+            moduleCount++;
+            if (InvocationFailureHandler.hasFailed(mBuildHelper)) {
+                CLog.logAndDisplay(LogLevel.ERROR,
+                        "Invocation failure detected, exiting test run from %s", serial);
+                break;
+            }
+            module = mModuleRepo.getNextModule(serial);
+            if (module != null && !prepareModule(module)) {
+                onPreparationFailed(module);
+                break;
+            }
+        }
+        CLog.logAndDisplay(LogLevel.INFO, "%s ran %d module%s", serial, moduleCount,
+                (moduleCount != 1) ? "s" : "");
+    }
+
+    /**
+     * Returns a module which could not be prepared to the repo, and marks the invocation as
+     * failed so that the other shards stop.
+     */
+    private void onPreparationFailed(IModuleDef module) {
+        String message = String.format("Incorrect preparation detected for %s on %s",
+                module.getId(), mDevice.getSerialNumber());
+        CLog.logAndDisplay(LogLevel.ERROR, "%s, exiting test run", message);
+        mModuleRepo.returnModule(module);
+        InvocationFailureHandler.setFailed(mBuildHelper, new TargetSetupError(message));
+    }
+
+    /**
+     * Sets values on the module and runs its preconditions.
+     *
+     * @return whether the module was prepared successfully
+     */
+    private boolean prepareModule(IModuleDef module) throws DeviceNotAvailableException {
+        module.setBuild(mBuildHelper.getBuildInfo());
+        module.setDevice(mDevice);
+        module.setPreparerWhitelist(mPreparerWhitelist);
+        return module.prepare(mSkipPreconditions, mPreconditionArgs);
+    }
+
+    /**
+     * Waits for all shards to complete preparation.
+     *
+     * @return false if preparation failed on any shard and this shard should exit
+     */
+    private boolean waitForPreparation() {
+        int prepAttempt = 1;
+        while (!mModuleRepo.isPrepared(MINUTES_PER_PREP_ATTEMPT, TimeUnit.MINUTES)) {
+            if (prepAttempt >= NUM_PREP_ATTEMPTS
+                    || InvocationFailureHandler.hasFailed(mBuildHelper)) {
+                CLog.logAndDisplay(LogLevel.ERROR,
+                        "Incorrect preparation detected, exiting test run from %s",
+                        mDevice.getSerialNumber());
+                return false;
+            } else {
+                CLog.logAndDisplay(LogLevel.INFO,
+                        "Device %s on standby while all shards complete preparation",
+                        mDevice.getSerialNumber());
+            }
+            prepAttempt++;
+        }
+        return true;
+    }
+
+    private void runModule(IModuleDef module, ITestInvocationListener listener,
+            List<SystemStatusChecker> checkers) throws DeviceNotAvailableException {
+        long start = System.currentTimeMillis();
+
+        if (mRebootPerModule) {
+            if ("user".equals(mDevice.getProperty("ro.build.type"))) {
+                CLog.e("reboot-per-module should only be used during development, "
+                    + "this is a\" user\" build device");
+            } else {
+                CLog.logAndDisplay(LogLevel.INFO, "Rebooting device before starting next "
+                    + "module");
+                mDevice.reboot();
+            }
+        }
+
+        // execute pre module execution checker
+        if (checkers != null && !checkers.isEmpty()) {
+            runPreModuleCheck(module.getName(), checkers, mDevice, listener);
+        }
+        try {
+            module.run(listener);
+        } catch (DeviceUnresponsiveException due) {
+            // being able to catch a DeviceUnresponsiveException here implies that recovery
+            // was successful, and test execution should proceed to next module
+            ByteArrayOutputStream stack = new ByteArrayOutputStream();
+            due.printStackTrace(new PrintWriter(stack, true));
+            try {
+                stack.close();
+            } catch (IOException ioe) {
+                // won't happen on BAOS
+            }
+            CLog.w("Ignored DeviceUnresponsiveException because recovery was successful, "
+                    + "proceeding with next module. Stack trace: %s",
+                    stack.toString());
+            CLog.w("This may be due to incorrect timeout setting on module %s",
+                    module.getName());
+        }
+        long duration = System.currentTimeMillis() - start;
+        long expected = module.getRuntimeHint();
+        long delta = Math.abs(duration - expected);
+        // Show warning if delta is more than 10% of expected
+        if (expected > 0 && ((float)delta / (float)expected) > 0.1f) {
+            CLog.logAndDisplay(LogLevel.WARN,
+                    "Inaccurate runtime hint for %s, expected %s was %s",
+                    module.getId(),
+                    TimeUtil.formatElapsedTime(expected),
+                    TimeUtil.formatElapsedTime(duration));
+        }
+        if (checkers != null && !checkers.isEmpty()) {
+            runPostModuleCheck(module.getName(), checkers, mDevice, listener);
         }
     }
 
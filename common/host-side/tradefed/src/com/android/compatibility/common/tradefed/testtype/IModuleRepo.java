@@ -56,6 +56,22 @@ public interface IModuleRepo {
      */
     List<IModuleDef> getModules(String serial);
 
+    /**
+     * Takes the next module to run on the device referenced by the given serial from the modules
+     * shared by all shards. Used instead of {@link #getModules(String)} when modules are
+     * scheduled dynamically.
+     *
+     * @return the next {@link IModuleDef} to run, or null if there are no modules left for the
+     * device.
+     */
+    IModuleDef getNextModule(String serial);
+
+    /**
+     * Puts a module taken with {@link #getNextModule(String)} back with the modules shared by all
+     * shards, e.g. because it could not be prepared on the device which took it.
+     */
+    void returnModule(IModuleDef module);
+
     /**
      * @return the number of shards this repo is initialized for.
      */
@@ -67,6 +67,8 @@ public class ModuleDef implements IModuleDef {
     private IBuildInfo mBuild;
     private ITestDevice mDevice;
     private Set<String> mPreparerWhitelist = new HashSet<>();
+    // Runtime to use instead of the test's runtime hint, or -1 if not set.
+    private long mRuntimeHint = -1;
 
     public ModuleDef(String name, IAbi abi, IRemoteTest test,
             List<ITargetPreparer> preparers) {
@@ -161,12 +163,23 @@ public class ModuleDef implements IModuleDef {
      */
     @Override
     public long getRuntimeHint() {
+        if (mRuntimeHint >= 0) {
+            return mRuntimeHint;
+        }
         if (mTest instanceof IRuntimeHintProvider) {
             return ((IRuntimeHintProvider) mTest).getRuntimeHint();
         }
         return TimeUnit.MINUTES.toMillis(1); // Default 1 minute.
     }
 
+    /**
+     * Overrides the runtime hint provided by the test, such as with a runtime measured in
+     * previous sessions.
+     */
+    public void setRuntimeHint(long runtimeHint) {
+        mRuntimeHint = runtimeHint;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -16,6 +16,7 @@
 package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.result.ModuleRuntimeHandler;
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.compatibility.common.util.TestFilter;
@@ -40,16 +41,23 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -58,6 +66,7 @@ import java.util.concurrent.TimeUnit;
 public class ModuleRepo implements IModuleRepo {
 
     private static final String CONFIG_EXT = ".config";
+    private static final String BUILD_FINGERPRINT = "cts:build_fingerprint";
     private static final Map<String, Integer> ENDING_MODULES = new HashMap<>();
     static {
         ENDING_MODULES.put("CtsMonkeyTestCases", 1);
@@ -85,6 +94,8 @@ public class ModuleRepo implements IModuleRepo {
     // True until explicitly set false in setPrepared().
     private volatile boolean mPrepared = true;
     private CountDownLatch mPreparedLatch;
+    // Time at which each shard ran out of modules when scheduling dynamically.
+    private Map<String, Long> mShardFinishTimes = new HashMap<>();
 
     // Holds all the small tests waiting to be run.
     private List<IModuleDef> mSmallModules = new ArrayList<>();
@@ -273,89 +284,81 @@ public class ModuleRepo implements IModuleRepo {
             throw new IllegalArgumentException(
                     String.format("No config files found in %s", testsDir.getAbsolutePath()));
         }
-        Map<String, Integer> shardedTestCounts = new HashMap<>();
+        // Runtimes measured in previous sessions on this build are more accurate than the
+        // runtime hints in the module configs, so use them where available.
+        Map<String, Long> runtimes = ModuleRuntimeHandler.getRuntimes(
+                new CompatibilityBuildHelper(buildInfo),
+                buildInfo.getBuildAttributes().get(BUILD_FINGERPRINT));
+        if (!runtimes.isEmpty()) {
+            CLog.d("Found recorded runtimes for %d modules", runtimes.size());
+        }
+        long startTime = System.currentTimeMillis();
+        // Apply the filters by module ID first, so that configs with no module to run are not
+        // parsed at all.
+        List<File> moduleConfigs = new ArrayList<>();
+        List<List<IAbi>> moduleAbis = new ArrayList<>();
         for (File configFile : configFiles) {
-            final String name = configFile.getName().replace(CONFIG_EXT, "");
-            final String[] pathArg = new String[] { configFile.getAbsolutePath() };
-            try {
-                // Invokes parser to process the test module config file
-                // Need to generate a different config for each ABI as we cannot guarantee the
-                // configs are idempotent. This however means we parse the same file multiple times
-                for (IAbi abi : abis) {
-                    IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
-                    String id = AbiUtils.createId(abi.getName(), name);
-                    if (!shouldRunModule(id)) {
-                        // If the module should not run tests based on the state of filters,
-                        // skip this name/abi combination.
-                        continue;
-                    }
-                    {
-                        Map<String, String> args = new HashMap<>();
-                        if (mModuleArgs.containsKey(name)) {
-                            args.putAll(mModuleArgs.get(name));
-                        }
-                        if (mModuleArgs.containsKey(id)) {
-                            args.putAll(mModuleArgs.get(id));
-                        }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                String entryName = entry.getKey();
-                                String entryValue = entry.getValue();
-                                if (entryValue.contains(":")) {
-                                    // entryValue is key-value pair
-                                    String key = entryValue.split(":")[0];
-                                    String value = entryValue.split(":")[1];
-                                    config.injectOptionValue(entryName, key, value);
-                                } else {
-                                    // entryValue is just the argument value
-                                    config.injectOptionValue(entryName, entryValue);
-                                }
-                            }
-                        }
-                    }
-                    List<IRemoteTest> tests = config.getTests();
-                    for (IRemoteTest test : tests) {
-                        String className = test.getClass().getName();
-                        Map<String, String> args = new HashMap<>();
-                        if (mTestArgs.containsKey(className)) {
-                            args.putAll(mTestArgs.get(className));
-                        }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                String entryName = entry.getKey();
-                                String entryValue = entry.getValue();
-                                if (entryValue.contains(":")) {
-                                    // entryValue is key-value pair
-                                    String key = entryValue.split(":")[0];
-                                    String value = entryValue.split(":")[1];
-                                    config.injectOptionValue(entryName, key, value);
-                                } else {
-                                    // entryValue is just the argument value
-                                    config.injectOptionValue(entryName, entryValue);
-                                }
-                            }
-                        }
-                        addFiltersToTest(test, abi, name);
+            String name = configFile.getName().replace(CONFIG_EXT, "");
+            List<IAbi> configAbis = new ArrayList<>();
+            for (IAbi abi : abis) {
+                if (shouldRunModule(AbiUtils.createId(abi.getName(), name))) {
+                    configAbis.add(abi);
+                }
+            }
+            if (!configAbis.isEmpty()) {
+                moduleConfigs.add(configFile);
+                moduleAbis.add(configAbis);
+            }
+        }
+        // Load the configs across a bounded pool. The modules are added to the repo in the
+        // order of the config files, once loaded, as if they had been loaded one at a time.
+        Map<String, Integer> shardedTestCounts = new HashMap<>();
+        int threadCount = Math.max(1, Math.min(moduleConfigs.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Map<String, List<IModuleDef>>>> loadedModules = new ArrayList<>();
+            for (int i = 0; i < moduleConfigs.size(); i++) {
+                final File configFile = moduleConfigs.get(i);
+                final List<IAbi> configAbis = moduleAbis.get(i);
+                loadedModules.add(executor.submit(new Callable<Map<String, List<IModuleDef>>>() {
+                    @Override
+                    public Map<String, List<IModuleDef>> call() throws ConfigurationException {
+                        return loadModules(configFile, configAbis, runtimes, buildInfo);
                     }
-                    List<IRemoteTest> shardedTests = tests;
-                    if (mShards > 1) {
-                         shardedTests = splitShardableTests(tests, buildInfo);
+                }));
+            }
+            for (int i = 0; i < moduleConfigs.size(); i++) {
+                Map<String, List<IModuleDef>> modules;
+                try {
+                    modules = loadedModules.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ConfigurationException) {
+                        throw new RuntimeException(String.format("error parsing config file: %s",
+                                moduleConfigs.get(i).getName()), e.getCause());
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
                     }
-                    if (shardedTests.size() > 1) {
-                        shardedTestCounts.put(id, shardedTests.size());
+                    throw new RuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while loading the module configs", e);
+                }
+                for (Entry<String, List<IModuleDef>> entry : modules.entrySet()) {
+                    if (entry.getValue().size() > 1) {
+                        shardedTestCounts.put(entry.getKey(), entry.getValue().size());
                     }
-                    for (IRemoteTest test : shardedTests) {
-                        if (test instanceof IBuildReceiver) {
-                            ((IBuildReceiver)test).setBuild(buildInfo);
-                        }
-                        addModuleDef(name, abi, test, pathArg);
+                    for (IModuleDef moduleDef : entry.getValue()) {
+                        addModuleDef(moduleDef);
                     }
                 }
-            } catch (ConfigurationException e) {
-                throw new RuntimeException(String.format("error parsing config file: %s",
-                        configFile.getName()), e);
             }
+        } finally {
+            executor.shutdownNow();
         }
+        CLog.logAndDisplay(LogLevel.INFO, "Loaded %d modules from %d of %d config files in %s "
+                + "using %d threads", mModuleCount, moduleConfigs.size(), configFiles.length,
+                TimeUtil.formatElapsedTime(System.currentTimeMillis() - startTime), threadCount);
         TestRunHandler.setTestRuns(new CompatibilityBuildHelper(buildInfo), shardedTestCounts);
         mModulesPerShard = mModuleCount / shards;
         if (mModuleCount % shards != 0) {
@@ -366,6 +369,94 @@ public class ModuleRepo implements IModuleRepo {
         mLargeModulesPerShard = mLargeModules.size() / shards;
     }
 
+    /**
+     * Creates the module definitions of a config file for each of the given ABIs, which all
+     * pass the module filters. Runs concurrently with the loading of other config files, so it
+     * must only read the repo's state.
+     *
+     * @return the module definitions by module ID, in the order of the ABIs
+     */
+    private Map<String, List<IModuleDef>> loadModules(File configFile, List<IAbi> abis,
+            Map<String, Long> runtimes, IBuildInfo buildInfo) throws ConfigurationException {
+        final String name = configFile.getName().replace(CONFIG_EXT, "");
+        final String[] pathArg = new String[] { configFile.getAbsolutePath() };
+        Map<String, List<IModuleDef>> modules = new LinkedHashMap<>();
+        // Invokes parser to process the test module config file
+        // Need to generate a different config for each ABI as we cannot guarantee the
+        // configs are idempotent. The config factory keeps the parsed definition of the file,
+        // so that only the first ABI parses it and the others create their config from it.
+        for (IAbi abi : abis) {
+            IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
+            String id = AbiUtils.createId(abi.getName(), name);
+            {
+                Map<String, String> args = new HashMap<>();
+                if (mModuleArgs.containsKey(name)) {
+                    args.putAll(mModuleArgs.get(name));
+                }
+                if (mModuleArgs.containsKey(id)) {
+                    args.putAll(mModuleArgs.get(id));
+                }
+                if (args != null && args.size() > 0) {
+                    for (Entry<String, String> entry : args.entrySet()) {
+                        String entryName = entry.getKey();
+                        String entryValue = entry.getValue();
+                        if (entryValue.contains(":")) {
+                            // entryValue is key-value pair
+                            String key = entryValue.split(":")[0];
+                            String value = entryValue.split(":")[1];
+                            config.injectOptionValue(entryName, key, value);
+                        } else {
+                            // entryValue is just the argument value
+                            config.injectOptionValue(entryName, entryValue);
+                        }
+                    }
+                }
+            }
+            List<IRemoteTest> tests = config.getTests();
+            for (IRemoteTest test : tests) {
+                String className = test.getClass().getName();
+                Map<String, String> args = new HashMap<>();
+                if (mTestArgs.containsKey(className)) {
+                    args.putAll(mTestArgs.get(className));
+                }
+                if (args != null && args.size() > 0) {
+                    for (Entry<String, String> entry : args.entrySet()) {
+                        String entryName = entry.getKey();
+                        String entryValue = entry.getValue();
+                        if (entryValue.contains(":")) {
+                            // entryValue is key-value pair
+                            String key = entryValue.split(":")[0];
+                            String value = entryValue.split(":")[1];
+                            config.injectOptionValue(entryName, key, value);
+                        } else {
+                            // entryValue is just the argument value
+                            config.injectOptionValue(entryName, entryValue);
+                        }
+                    }
+                }
+                addFiltersToTest(test, abi, name);
+            }
+            List<IRemoteTest> shardedTests = tests;
+            if (mShards > 1) {
+                 shardedTests = splitShardableTests(tests, buildInfo);
+            }
+            List<IModuleDef> moduleDefs = new ArrayList<>(shardedTests.size());
+            modules.put(id, moduleDefs);
+            Long runtime = runtimes.get(id);
+            if (runtime != null) {
+                // The recorded runtime covers every shard of the module
+                runtime /= shardedTests.size();
+            }
+            for (IRemoteTest test : shardedTests) {
+                if (test instanceof IBuildReceiver) {
+                    ((IBuildReceiver)test).setBuild(buildInfo);
+                }
+                moduleDefs.add(createModuleDef(name, abi, test, pathArg, runtime));
+            }
+        }
+        return modules;
+    }
+
     private static List<IRemoteTest> splitShardableTests(List<IRemoteTest> tests,
             IBuildInfo buildInfo) {
         ArrayList<IRemoteTest> shardedList = new ArrayList<>(tests.size());
@@ -399,26 +490,44 @@ public class ModuleRepo implements IModuleRepo {
 
     private static void addFilter(String abi, TestFilter filter,
             Map<String, List<TestFilter>> filters) {
-        getFilter(filters, AbiUtils.createId(abi, filter.getName())).add(filter);
-    }
-
-    private static List<TestFilter> getFilter(Map<String, List<TestFilter>> filters, String id) {
+        String id = AbiUtils.createId(abi, filter.getName());
         List<TestFilter> fs = filters.get(id);
         if (fs == null) {
             fs = new ArrayList<>();
             filters.put(id, fs);
         }
-        return fs;
+        fs.add(filter);
     }
 
-    private void addModuleDef(String name, IAbi abi, IRemoteTest test,
-            String[] configPaths) throws ConfigurationException {
+    /**
+     * Returns the filters of the given module. Does not modify the filters, as modules are
+     * loaded concurrently.
+     */
+    private static List<TestFilter> getFilter(Map<String, List<TestFilter>> filters, String id) {
+        List<TestFilter> fs = filters.get(id);
+        return (fs == null) ? Collections.<TestFilter>emptyList() : fs;
+    }
+
+    private IModuleDef createModuleDef(String name, IAbi abi, IRemoteTest test,
+            String[] configPaths, Long runtime) throws ConfigurationException {
         // Invokes parser to process the test module config file
         IConfiguration config = mConfigFactory.createConfigurationFromArgs(configPaths);
-        addModuleDef(new ModuleDef(name, abi, test, config.getTargetPreparers()));
+        ModuleDef moduleDef = new ModuleDef(name, abi, test, config.getTargetPreparers());
+        if (runtime != null) {
+            moduleDef.setRuntimeHint(runtime);
+        }
+        return moduleDef;
     }
 
     private void addModuleDef(IModuleDef moduleDef) {
+        addToBucket(moduleDef);
+        mModuleCount++;
+    }
+
+    /**
+     * Adds the module to the list of modules with tokens, or to the bucket of its runtime.
+     */
+    private void addToBucket(IModuleDef moduleDef) {
         Set<String> tokens = moduleDef.getTokens();
         if (tokens != null && !tokens.isEmpty()) {
             mTokenModules.add(moduleDef);
@@ -429,7 +538,6 @@ public class ModuleRepo implements IModuleRepo {
         } else {
             mLargeModules.add(moduleDef);
         }
-        mModuleCount++;
     }
 
     private void addFiltersToTest(IRemoteTest test, IAbi abi, String name) {
@@ -569,6 +677,120 @@ public class ModuleRepo implements IModuleRepo {
         return modules;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized IModuleDef getNextModule(String serial) {
+        mSerials.add(serial);
+        IModuleDef next = takeTokenModule(mDeviceTokens.get(serial), serial);
+        if (next == null) {
+            next = takeNextModule();
+        }
+        if (next == null) {
+            onShardFinished(serial);
+            return null;
+        }
+        CLog.d("%s pulled %s, expected to complete in %s", serial, next.getId(),
+                TimeUtil.formatElapsedTime(next.getRuntimeHint()));
+        return next;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void returnModule(IModuleDef module) {
+        CLog.d("%s was returned to the shared modules", module.getId());
+        addToBucket(module);
+    }
+
+    /**
+     * Takes the first module requiring tokens that the given device can run. Modules whose tokens
+     * are not held by any device that can still pull work are released to any device.
+     */
+    private IModuleDef takeTokenModule(Set<String> tokens, String serial) {
+        for (int i = 0; i < mTokenModules.size(); i++) {
+            IModuleDef module = mTokenModules.get(i);
+            if (tokens != null && tokens.containsAll(module.getTokens())) {
+                return mTokenModules.remove(i);
+            }
+        }
+        for (int i = 0; i < mTokenModules.size(); i++) {
+            IModuleDef module = mTokenModules.get(i);
+            if (!isRunnableElsewhere(module)) {
+                CLog.logAndDisplay(LogLevel.WARN,
+                        String.format("No devices found with %s, running %s on %s",
+                                module.getTokens(), module.getId(), serial));
+                return mTokenModules.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if a device that has not yet run out of work holds all the tokens required by
+     * the given module, or could still join the invocation.
+     */
+    private boolean isRunnableElsewhere(IModuleDef module) {
+        for (Entry<String, Set<String>> entry : mDeviceTokens.entrySet()) {
+            String serial = entry.getKey();
+            if (!entry.getValue().containsAll(module.getTokens())
+                    || mShardFinishTimes.containsKey(serial)) {
+                continue;
+            }
+            if (mSerials.contains(serial) || mSerials.size() < mShards) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the module that should run next out of the small, medium and large buckets, following
+     * the same order as a statically assigned shard would.
+     */
+    private IModuleDef takeNextModule() {
+        Comparator<IModuleDef> comparator = new ExecutionOrderComparator();
+        List<IModuleDef> bestBucket = null;
+        int bestIndex = -1;
+        for (List<IModuleDef> bucket : Arrays.asList(mLargeModules, mMediumModules,
+                mSmallModules)) {
+            for (int i = 0; i < bucket.size(); i++) {
+                if (bestBucket == null
+                        || comparator.compare(bucket.get(i), bestBucket.get(bestIndex)) < 0) {
+                    bestBucket = bucket;
+                    bestIndex = i;
+                }
+            }
+        }
+        return (bestBucket == null) ? null : bestBucket.remove(bestIndex);
+    }
+
+    /**
+     * Records that a shard has no more modules to run. Once every shard has finished, logs how
+     * long each one sat idle waiting for the slowest shard.
+     */
+    private void onShardFinished(String serial) {
+        if (mShardFinishTimes.containsKey(serial)) {
+            return;
+        }
+        mShardFinishTimes.put(serial, System.currentTimeMillis());
+        if (mShardFinishTimes.size() < mShards) {
+            return;
+        }
+        long lastFinish = Collections.max(mShardFinishTimes.values());
+        long totalIdle = 0;
+        for (Entry<String, Long> entry : mShardFinishTimes.entrySet()) {
+            long idle = lastFinish - entry.getValue();
+            totalIdle += idle;
+            CLog.logAndDisplay(LogLevel.INFO, "%s was idle for %s waiting for other shards",
+                    entry.getKey(), TimeUtil.formatElapsedTime(idle));
+        }
+        CLog.logAndDisplay(LogLevel.INFO, "Total shard idle time: %s",
+                TimeUtil.formatElapsedTime(totalIdle));
+    }
+
     /**
      * Iterates through the remaining tests that require tokens and if the device has all the
      * required tokens it will queue that module to run on that device, else the module gets put
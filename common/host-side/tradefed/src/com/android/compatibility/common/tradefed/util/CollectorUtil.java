@@ -20,16 +20,37 @@ import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TimeUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,10 +63,22 @@ public class CollectorUtil {
     }
 
     private static final String ADB_LS_PATTERN = "([^\\s]+)\\s*";
+    // Where the archive of the files to pull is created on the device
+    private static final String DEVICE_TAR_DIR = "/data/local/tmp/";
+    private static final String TAR_SUCCESS = "TAR_OK";
+    // Files pulled at the same time when the files cannot be pulled in a single archive
+    private static final int MAX_CONCURRENT_PULLS = 4;
+    private static final int TAR_BLOCK_SIZE = 512;
+    // Largest GNU long name or pax extended header read into memory
+    private static final int MAX_TAR_EXTENDED_HEADER_SIZE = 64 * 1024;
     private static final String TEST_METRICS_PATTERN = "\\\"([a-z0-9_]*)\\\":(\\{[^{}]*\\})";
 
     /**
      * Copy files from device to host.
+     * <p/>
+     * The files are archived on the device and pulled in a single transfer. If the device cannot
+     * archive them, they are pulled one by one, a few at a time.
+     *
      * @param device The device reference.
      * @param src The source directory on the device.
      * @param dest The destination directory.
@@ -53,16 +86,17 @@ public class CollectorUtil {
     public static void pullFromDevice(ITestDevice device, String src, String dest) {
         try {
             if (device.doesFileExist(src)) {
-                String listCommand = String.format("ls %s", src);
-                String fileList = device.executeShellCommand(listCommand);
-                Pattern p = Pattern.compile(ADB_LS_PATTERN);
-                Matcher m = p.matcher(fileList);
-                while (m.find()) {
-                    String fileName = m.group(1);
-                    String srcPath = String.format("%s%s", src, fileName);
-                    File destFile = new File(String.format("%s/%s", dest, fileName));
-                    device.pullFile(srcPath, destFile);
+                long startTime = System.currentTimeMillis();
+                long[] pulled = pullArchive(device, src, new File(dest));
+                String method = "archive";
+                if (pulled == null) {
+                    pulled = pullFiles(device, src, dest);
+                    method = "separate pulls";
                 }
+                CLog.i("Pulled %d files, %d bytes from %s on %s in %s using %s", pulled[0],
+                        pulled[1], src, device.getSerialNumber(),
+                        TimeUtil.formatElapsedTime(System.currentTimeMillis() - startTime),
+                        method);
             }
         } catch (DeviceNotAvailableException e) {
             CLog.e("Caught exception during pull.");
@@ -70,6 +104,260 @@ public class CollectorUtil {
         }
     }
 
+    /**
+     * Pulls the files of the given directory as a single archive created on the device.
+     *
+     * @return the number of files and bytes pulled, or null if the archive could not be created
+     * or pulled
+     */
+    private static long[] pullArchive(ITestDevice device, String src, File dest)
+            throws DeviceNotAvailableException {
+        String devicePath = String.format("%scollector-%d.tar", DEVICE_TAR_DIR,
+                System.nanoTime());
+        File hostArchive = null;
+        try {
+            String output = device.executeShellCommand(String.format(
+                    "tar -cf %s -C %s . && echo %s", devicePath, src, TAR_SUCCESS));
+            if (output == null || !output.contains(TAR_SUCCESS)) {
+                CLog.d("Could not archive %s on %s: %s", src, device.getSerialNumber(), output);
+                return null;
+            }
+            hostArchive = device.pullFile(devicePath);
+            if (hostArchive == null) {
+                return null;
+            }
+            return extractTar(hostArchive, dest);
+        } catch (IOException e) {
+            CLog.w("Could not extract archive of %s: %s", src, e);
+            return null;
+        } finally {
+            try {
+                device.executeShellCommand(String.format("rm -f %s", devicePath));
+            } catch (DeviceNotAvailableException e) {
+                // Do not hide the outcome of the pull, the device is checked again by the caller
+                CLog.w("Could not remove archive %s from %s: %s", devicePath,
+                        device.getSerialNumber(), e);
+            }
+            FileUtil.deleteFile(hostArchive);
+        }
+    }
+
+    /**
+     * Pulls the files of the given directory one by one, {@link #MAX_CONCURRENT_PULLS} at a time.
+     *
+     * @return the number of files and bytes pulled
+     */
+    private static long[] pullFiles(final ITestDevice device, String src, String dest)
+            throws DeviceNotAvailableException {
+        String listCommand = String.format("ls %s", src);
+        String fileList = device.executeShellCommand(listCommand);
+        Pattern p = Pattern.compile(ADB_LS_PATTERN);
+        Matcher m = p.matcher(fileList);
+        List<String> fileNames = new ArrayList<>();
+        while (m.find()) {
+            fileNames.add(m.group(1));
+        }
+        if (fileNames.isEmpty()) {
+            return new long[] {0, 0};
+        }
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(fileNames.size(), MAX_CONCURRENT_PULLS));
+        try {
+            List<Future<Void>> pulls = new ArrayList<>();
+            for (String fileName : fileNames) {
+                final String srcPath = String.format("%s%s", src, fileName);
+                final File destFile = new File(String.format("%s/%s", dest, fileName));
+                pulls.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws DeviceNotAvailableException {
+                        if (device.pullFile(srcPath, destFile)) {
+                            files.incrementAndGet();
+                            bytes.addAndGet(destFile.length());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> pull : pulls) {
+                pull.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DeviceNotAvailableException) {
+                throw (DeviceNotAvailableException) e.getCause();
+            }
+            CLog.e("Caught exception during pull.");
+            CLog.e(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return new long[] {files.get(), bytes.get()};
+    }
+
+    /**
+     * Extracts the regular files and directories of a tar archive into the given directory.
+     * <p/>
+     * The names of GNU long name ('L') and pax extended header ('x') entries apply to the entry
+     * that follows them. Global pax headers, links and other special entries are skipped.
+     *
+     * @return the number of files and bytes extracted
+     */
+    static long[] extractTar(File archive, File dest) throws IOException {
+        long files = 0;
+        long bytes = 0;
+        String destPath = dest.getCanonicalPath();
+        InputStream input = new BufferedInputStream(new FileInputStream(archive));
+        try {
+            byte[] header = new byte[TAR_BLOCK_SIZE];
+            byte[] buffer = new byte[64 * 1024];
+            // Name and size of the next entry, from the extended headers before it
+            String extendedName = null;
+            String extendedSize = null;
+            while (readFully(input, header) && header[0] != 0) {
+                String name = tarString(header, 0, 100);
+                String prefix = tarString(header, 345, 155);
+                if (!prefix.isEmpty()) {
+                    name = prefix + "/" + name;
+                }
+                String sizeField = tarString(header, 124, 12).trim();
+                long size = sizeField.isEmpty() ? 0 : Long.parseLong(sizeField, 8);
+                char type = (char) header[156];
+                if (type == 'L') {
+                    extendedName = tarString(readTarData(input, size, archive), 0, (int) size);
+                    continue;
+                } else if (type == 'x') {
+                    Map<String, String> records = parsePaxHeader(readTarData(input, size, archive),
+                            archive);
+                    if (records.containsKey("path")) {
+                        extendedName = records.get("path");
+                    }
+                    if (records.containsKey("size")) {
+                        extendedSize = records.get("size");
+                    }
+                    continue;
+                }
+                if (extendedName != null) {
+                    name = extendedName;
+                    extendedName = null;
+                }
+                if (extendedSize != null) {
+                    size = Long.parseLong(extendedSize);
+                    extendedSize = null;
+                }
+                File file = new File(dest, name);
+                String filePath = file.getCanonicalPath();
+                if (!filePath.equals(destPath)
+                        && !filePath.startsWith(destPath + File.separator)) {
+                    throw new IOException("Archive entry outside of destination: " + name);
+                }
+
+                OutputStream output = null;
+                if (type == '0' || type == 0) {
+                    file.getParentFile().mkdirs();
+                    output = new BufferedOutputStream(new FileOutputStream(file));
+                    files++;
+                    bytes += size;
+                } else if (type == '5') {
+                    file.mkdirs();
+                }
+                // Entries are padded to a whole number of blocks
+                long remaining = (size + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+                try {
+                    while (remaining > 0) {
+                        int count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (count < 0) {
+                            throw new IOException("Truncated archive " + archive);
+                        }
+                        if (output != null && size > 0) {
+                            output.write(buffer, 0, (int) Math.min(count, size));
+                            size -= Math.min(count, size);
+                        }
+                        remaining -= count;
+                    }
+                } finally {
+                    StreamUtil.close(output);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid archive " + archive, e);
+        } finally {
+            input.close();
+        }
+        return new long[] {files, bytes};
+    }
+
+    /**
+     * Reads the data of an extended header entry, with the padding following it.
+     */
+    private static byte[] readTarData(InputStream input, long size, File archive)
+            throws IOException {
+        if (size > MAX_TAR_EXTENDED_HEADER_SIZE) {
+            throw new IOException(String.format("Extended header of %d bytes in archive %s",
+                    size, archive));
+        }
+        byte[] data = new byte[(int) (size + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE
+                * TAR_BLOCK_SIZE];
+        if (!readFully(input, data)) {
+            throw new IOException("Truncated archive " + archive);
+        }
+        return data;
+    }
+
+    /**
+     * Parses the {@code "<length> <key>=<value>\n"} records of a pax extended header.
+     */
+    private static Map<String, String> parsePaxHeader(byte[] data, File archive)
+            throws IOException {
+        Map<String, String> records = new HashMap<>();
+        int offset = 0;
+        while (offset < data.length && data[offset] != 0) {
+            int space = offset;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length = Integer.parseInt(
+                    new String(data, offset, space - offset, StandardCharsets.US_ASCII));
+            int end = offset + length - 1;
+            if (length <= 0 || end >= data.length || data[end] != '\n') {
+                throw new IOException("Invalid pax header in archive " + archive);
+            }
+            String record = new String(data, space + 1, end - space - 1, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals < 0) {
+                throw new IOException("Invalid pax header in archive " + archive);
+            }
+            records.put(record.substring(0, equals), record.substring(equals + 1));
+            offset += length;
+        }
+        return records;
+    }
+
+    private static boolean readFully(InputStream input, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int count = input.read(block, read, block.length - read);
+            if (count < 0) {
+                return false;
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    /**
+     * @return the NUL terminated string of the given field of a tar header
+     */
+    private static String tarString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
     /**
      * Copy files from host and delete from source.
      * @param src The source directory.
@@ -92,14 +380,266 @@ public class CollectorUtil {
      * @param resultDir The directory containing test metrics.
      */
     public static void reformatRepeatedStreams(File resultDir) {
+        File[] reportLogs = resultDir.listFiles();
+        if (reportLogs == null) {
+            return;
+        }
+        for (File reportLog : reportLogs) {
+            try {
+                try {
+                    reformatReportLog(reportLog);
+                } catch (IOException | IllegalArgumentException e) {
+                    // Not valid JSON, fall back to matching the streams in the text
+                    CLog.d("Could not parse %s: %s", reportLog.getName(), e);
+                    writeFile(reportLog, reformatJsonString(readFile(reportLog)));
+                }
+            } catch (IOException e) {
+                CLog.e("Caught exception during reformatting.");
+                CLog.e(e);
+            }
+        }
+    }
+
+    /**
+     * Converts the streams with identical names of a test metrics json into arrays of streams,
+     * keeping the streams in the order they first appear.
+     * <p/>
+     * Only the names and positions of the streams are kept in memory: the report log is scanned
+     * once, then the streams are copied from it byte for byte into the reformatted file, grouped
+     * by name.
+     *
+     * @throws IOException if the report log cannot be read or is not a JSON object
+     */
+    static void reformatReportLog(File reportLog) throws IOException {
+        // Offsets in the report log of each stream, by stream name as written in the file
+        Map<String, List<long[]>> streamOffsets = new LinkedHashMap<>();
+        try (JsonScanner scanner = new JsonScanner(new FileInputStream(reportLog))) {
+            scanner.expect('{');
+            if (scanner.peekToken() == '}') {
+                scanner.read();
+            } else {
+                int next;
+                do {
+                    String name = scanner.readString();
+                    scanner.expect(':');
+                    scanner.peekToken();
+                    long start = scanner.getPosition();
+                    scanner.skipValue();
+                    List<long[]> offsets = streamOffsets.get(name);
+                    if (offsets == null) {
+                        offsets = new ArrayList<>();
+                        streamOffsets.put(name, offsets);
+                    }
+                    offsets.add(new long[] {start, scanner.getPosition()});
+                    scanner.peekToken();
+                    next = scanner.read();
+                } while (next == ',');
+                if (next != '}') {
+                    throw scanner.syntaxError();
+                }
+            }
+            if (scanner.peekToken() != -1) {
+                throw scanner.syntaxError();
+            }
+        }
+
+        File reformatted = File.createTempFile(reportLog.getName(), ".tmp",
+                reportLog.getParentFile());
         try {
-            File[] reportLogs = resultDir.listFiles();
-            for (File reportLog : reportLogs) {
-                writeFile(reportLog, reformatJsonString(readFile(reportLog)));
+            try (RandomAccessFile input = new RandomAccessFile(reportLog, "r");
+                    OutputStream output = new BufferedOutputStream(
+                            new FileOutputStream(reformatted))) {
+                byte[] buffer = new byte[8192];
+                output.write('{');
+                boolean firstName = true;
+                for (Map.Entry<String, List<long[]>> stream : streamOffsets.entrySet()) {
+                    if (!firstName) {
+                        output.write(',');
+                    }
+                    firstName = false;
+                    output.write('"');
+                    output.write(stream.getKey().getBytes(StandardCharsets.UTF_8));
+                    output.write('"');
+                    output.write(':');
+                    output.write('[');
+                    boolean firstStream = true;
+                    for (long[] offsets : stream.getValue()) {
+                        if (!firstStream) {
+                            output.write(',');
+                        }
+                        firstStream = false;
+                        input.seek(offsets[0]);
+                        long remaining = offsets[1] - offsets[0];
+                        while (remaining > 0) {
+                            int count = (int) Math.min(buffer.length, remaining);
+                            input.readFully(buffer, 0, count);
+                            output.write(buffer, 0, count);
+                            remaining -= count;
+                        }
+                    }
+                    output.write(']');
+                }
+                output.write('}');
             }
-        } catch (IOException e) {
-            CLog.e("Caught exception during reformatting.");
-            CLog.e(e);
+            if (!reformatted.renameTo(reportLog)) {
+                FileUtil.copyFile(reformatted, reportLog);
+            }
+        } finally {
+            reformatted.delete();
+        }
+    }
+
+    /**
+     * Reads the structure of a JSON document, keeping track of the position in the file, without
+     * decoding the values.
+     */
+    private static class JsonScanner implements Closeable {
+        private final InputStream mInput;
+        private final byte[] mBuffer = new byte[64 * 1024];
+        // Position in the file of the start of the buffer
+        private long mBufferPosition = 0;
+        private int mCount = 0;
+        private int mOffset = 0;
+
+        JsonScanner(InputStream input) {
+            mInput = input;
+        }
+
+        /**
+         * @return the position in the file of the next byte
+         */
+        long getPosition() {
+            return mBufferPosition + mOffset;
+        }
+
+        /**
+         * @return the next byte, or -1 at the end of the file
+         */
+        int read() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                mOffset++;
+            }
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (mOffset == mCount) {
+                int count = mInput.read(mBuffer);
+                if (count <= 0) {
+                    return -1;
+                }
+                mBufferPosition += mCount;
+                mCount = count;
+                mOffset = 0;
+            }
+            return mBuffer[mOffset] & 0xff;
+        }
+
+        /**
+         * Skips whitespace.
+         *
+         * @return the next byte, or -1 at the end of the file
+         */
+        int peekToken() throws IOException {
+            int c = peek();
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                read();
+                c = peek();
+            }
+            return c;
+        }
+
+        void expect(char token) throws IOException {
+            peekToken();
+            if (read() != token) {
+                throw syntaxError();
+            }
+        }
+
+        /**
+         * @return the content of the next string, still escaped
+         */
+        String readString() throws IOException {
+            expect('"');
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int c;
+            while ((c = read()) != '"') {
+                if (c < 0) {
+                    throw syntaxError();
+                }
+                content.write(c);
+                if (c == '\\') {
+                    c = read();
+                    if (c < 0) {
+                        throw syntaxError();
+                    }
+                    content.write(c);
+                }
+            }
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        private void skipString() throws IOException {
+            expect('"');
+            int c;
+            while ((c = read()) != '"') {
+                if (c < 0 || (c == '\\' && read() < 0)) {
+                    throw syntaxError();
+                }
+            }
+        }
+
+        /**
+         * Skips the next value, with all the values it contains.
+         */
+        void skipValue() throws IOException {
+            int c = peekToken();
+            if (c == '{' || c == '[') {
+                read();
+                boolean object = (c == '{');
+                char end = object ? '}' : ']';
+                if (peekToken() == end) {
+                    read();
+                    return;
+                }
+                while (true) {
+                    if (object) {
+                        skipString();
+                        expect(':');
+                    }
+                    skipValue();
+                    peekToken();
+                    int next = read();
+                    if (next == end) {
+                        return;
+                    } else if (next != ',') {
+                        throw syntaxError();
+                    }
+                }
+            } else if (c == '"') {
+                skipString();
+            } else {
+                // A number, true, false or null, checked loosely
+                int length = 0;
+                while ((c = peek()) == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9')
+                        || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                    read();
+                    length++;
+                }
+                if (length == 0) {
+                    throw syntaxError();
+                }
+            }
+        }
+
+        IOException syntaxError() {
+            return new IOException("Invalid JSON at offset " + getPosition());
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInput.close();
         }
     }
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Host-side cache of the device info files collected by
+ * {@link com.android.compatibility.common.tradefed.targetprep.DeviceInfoCollector}, kept across
+ * invocations so that a retry on the same device and build does not collect them again.
+ * <p/>
+ * Each entry is a directory named after its key, see {@link #createKey}. Entries are written to
+ * a temporary directory which is then renamed, so an entry is either complete or absent.
+ */
+public class DeviceInfoCache {
+
+    private static final String TEMP_PREFIX = "tmp-";
+
+    private final File mRoot;
+    private final long mMaxAgeMs;
+
+    /**
+     * @param root the directory holding the entries, created if needed.
+     * @param maxAgeMs the age after which an entry is no longer used.
+     */
+    public DeviceInfoCache(File root, long maxAgeMs) {
+        mRoot = root;
+        mMaxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Creates the key of the device info of a device.
+     *
+     * @param serial the serial of the device.
+     * @param fingerprint the build fingerprint of the device.
+     * @param apk the device info apk, whose content is part of the key so that an entry is not
+     * used by another version of the collectors.
+     */
+    public static String createKey(String serial, String fingerprint, File apk)
+            throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update(serial.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(apk))) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM implements SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copies the files of the entry with the given key into the destination directory.
+     *
+     * @return false if there is no entry for the key, or it is too old.
+     */
+    public boolean restore(String key, File dest) throws IOException {
+        File entry = new File(mRoot, key);
+        if (!entry.isDirectory()) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - entry.lastModified();
+        if (age < 0 || age > mMaxAgeMs) {
+            CLog.d("Ignoring device info cached %d ms ago in %s", age, entry);
+            FileUtil.recursiveDelete(entry);
+            return false;
+        }
+        FileUtil.recursiveCopy(entry, dest);
+        return true;
+    }
+
+    /**
+     * Stores a copy of the files of the given directory as the entry with the given key,
+     * replacing any previous entry.
+     */
+    public void store(String key, File src) throws IOException {
+        mRoot.mkdirs();
+        File temp = FileUtil.createTempDir(TEMP_PREFIX + key, mRoot);
+        try {
+            FileUtil.recursiveCopy(src, temp);
+            File entry = new File(mRoot, key);
+            FileUtil.recursiveDelete(entry);
+            if (!temp.renameTo(entry)) {
+                throw new IOException(String.format("Failed to rename %s to %s", temp, entry));
+            }
+            entry.setLastModified(System.currentTimeMillis());
+        } finally {
+            FileUtil.recursiveDelete(temp);
+        }
+    }
+}
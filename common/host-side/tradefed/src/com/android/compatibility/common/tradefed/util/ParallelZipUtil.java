@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.ZipUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Utility for zipping a directory using several threads.
+ * <p/>
+ * Files are compressed in parallel, and written to the archive in the same order and with the
+ * same entry names as {@link ZipUtil#createZip(File, File)}. Files that are already compressed,
+ * such as zipped logs and screenshots, are stored as they are rather than compressed again, as
+ * are files whose first block does not compress well.
+ * <p/>
+ * Compressed entries waiting to be written are held in memory up to a size, beyond which they
+ * are spilled to a temporary file, so large files do not exhaust the heap.
+ */
+public class ParallelZipUtil {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+    // Archives that would need ZIP64 extensions are left to ZipUtil.
+    private static final long MAX_SIZE = 0xffffffffL;
+    private static final int MAX_ENTRIES = 0xffff;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Compressed size above which an entry waiting to be written is spilled to disk.
+    private static final int MAX_BUFFERED_SIZE = 1024 * 1024;
+    // Files whose first block does not deflate below this ratio are stored.
+    private static final double MAX_DEFLATE_RATIO = 0.9;
+
+    private static final String[] COMPRESSED_EXTENSIONS = {
+        ".7z", ".apk", ".bz2", ".gz", ".jar", ".jpeg", ".jpg", ".mp4", ".png", ".tgz", ".webm",
+        ".webp", ".xz", ".zip"
+    };
+
+    /**
+     * An entry of the archive, prepared for writing.
+     */
+    private static class Entry {
+        File mFile;
+        String mName;
+        int mMethod = METHOD_STORED;
+        long mCrc = 0;
+        long mCompressedSize = 0;
+        long mSize = 0;
+        int mDosTime;
+        // The compressed data of deflated entries. Stored entries are copied from the file.
+        CompressedData mData;
+        long mOffset;
+
+        void discardData() {
+            if (mData != null) {
+                mData.delete();
+                mData = null;
+            }
+        }
+    }
+
+    /**
+     * Creates a zip file of the given directory, using one thread per available processor.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create
+     * @throws IOException if the zip file could not be created
+     */
+    public static void createZip(File dir, File zipFile) throws IOException {
+        createZip(dir, zipFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a zip file of the given directory, compressing files on the given number of
+     * threads.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create
+     * @param threads the number of threads used to compress files
+     * @throws IOException if the zip file could not be created
+     */
+    public static void createZip(File dir, File zipFile, int threads) throws IOException {
+        createZip(dir, zipFile, threads, MAX_BUFFERED_SIZE);
+    }
+
+    /**
+     * Creates a zip file of the given directory, spilling compressed entries larger than the
+     * given size to disk. Exposed for unit testing.
+     */
+    static void createZip(File dir, File zipFile, int threads, int maxBufferedSize)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        collectEntries(dir, "", entries);
+        long totalSize = 0;
+        for (Entry entry : entries) {
+            totalSize += entry.mFile.length();
+        }
+        if (entries.size() > MAX_ENTRIES || totalSize > MAX_SIZE) {
+            ZipUtil.createZip(dir, zipFile);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        Deque<Future<Entry>> pending = new ArrayDeque<>();
+        try (CountingOutputStream out = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(zipFile), BUFFER_SIZE))) {
+            // Keep a bounded number of entries in flight, so that only a few compressed entries
+            // are held at once, and write them in order as they complete.
+            int next = 0;
+            while (next < entries.size() || !pending.isEmpty()) {
+                while (next < entries.size() && pending.size() < threads * 2) {
+                    pending.add(executor.submit(
+                            new PrepareTask(entries.get(next++), maxBufferedSize)));
+                }
+                Entry entry = getEntry(pending.remove());
+                try {
+                    writeEntry(out, entry);
+                } finally {
+                    entry.discardData();
+                }
+            }
+            long centralDirOffset = out.getCount();
+            for (Entry entry : entries) {
+                writeCentralHeader(out, entry);
+            }
+            long centralDirSize = out.getCount() - centralDirOffset;
+            if (out.getCount() > MAX_SIZE) {
+                throw new IOException("Archive requires ZIP64 extensions");
+            }
+            writeInt(out, END_OF_CENTRAL_DIR_SIGNATURE);
+            writeShort(out, 0); // number of this disk
+            writeShort(out, 0); // disk with the central directory
+            writeShort(out, entries.size());
+            writeShort(out, entries.size());
+            writeInt(out, centralDirSize);
+            writeInt(out, centralDirOffset);
+            writeShort(out, 0); // comment length
+        } finally {
+            executor.shutdownNow();
+            if (!pending.isEmpty()) {
+                discardPending(executor, pending);
+            }
+        }
+    }
+
+    /**
+     * Deletes the data of the entries prepared but not written, once the tasks still running
+     * complete. Tasks which never started hold no data.
+     */
+    private static void discardPending(ExecutorService executor, Deque<Future<Entry>> pending) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Future<Entry> future : pending) {
+            if (future.isDone()) {
+                try {
+                    getEntry(future).discardData();
+                } catch (IOException e) {
+                    // The entry failed to be prepared, so it holds no data.
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the file's contents are already compressed, based on its name.
+     */
+    static boolean isCompressed(String name) {
+        String lowerName = name.toLowerCase(Locale.US);
+        for (String extension : COMPRESSED_EXTENSIONS) {
+            if (lowerName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds entries for the file, and the contents of directories, in the same order as
+     * {@link ZipUtil}.
+     */
+    private static void collectEntries(File file, String parentPath, List<Entry> entries) {
+        Entry entry = new Entry();
+        entry.mFile = file;
+        entry.mName = parentPath + file.getName() + (file.isDirectory() ? "/" : "");
+        entry.mDosTime = toDosTime(file.lastModified());
+        entries.add(entry);
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectEntries(child, entry.mName, entries);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the checksum of an entry, and compresses it if worthwhile.
+     */
+    private static class PrepareTask implements Callable<Entry> {
+        private final Entry mEntry;
+        private final int mMaxBufferedSize;
+
+        PrepareTask(Entry entry, int maxBufferedSize) {
+            mEntry = entry;
+            mMaxBufferedSize = maxBufferedSize;
+        }
+
+        @Override
+        public Entry call() throws IOException {
+            if (mEntry.mFile.isDirectory()) {
+                return mEntry;
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            CompressedData compressed = null;
+            Deflater deflater = null;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(mEntry.mFile))) {
+                int len = readFully(in, buffer);
+                boolean deflate = !isCompressed(mEntry.mName) && isWorthDeflating(buffer, len);
+                OutputStream deflaterStream = null;
+                if (deflate) {
+                    compressed = new CompressedData(mMaxBufferedSize);
+                    deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                    deflaterStream = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE);
+                }
+                while (len > 0) {
+                    crc.update(buffer, 0, len);
+                    mEntry.mSize += len;
+                    if (deflate) {
+                        deflaterStream.write(buffer, 0, len);
+                    }
+                    len = in.read(buffer);
+                }
+                if (deflate) {
+                    deflaterStream.close();
+                }
+                mEntry.mCrc = crc.getValue();
+                if (deflate && compressed.size() < mEntry.mSize) {
+                    mEntry.mMethod = METHOD_DEFLATED;
+                    mEntry.mData = compressed;
+                    mEntry.mCompressedSize = compressed.size();
+                    compressed = null;
+                } else {
+                    mEntry.mCompressedSize = mEntry.mSize;
+                }
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+                if (compressed != null) {
+                    compressed.delete();
+                }
+            }
+            return mEntry;
+        }
+    }
+
+    /**
+     * Reads from the stream until the buffer is full or the stream ends.
+     *
+     * @return the number of bytes read.
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int len;
+        while (total < buffer.length
+                && (len = in.read(buffer, total, buffer.length - total)) != -1) {
+            total += len;
+        }
+        return total;
+    }
+
+    /**
+     * @return whether the given block deflates below {@link #MAX_DEFLATE_RATIO} of its size, so
+     * that files which would not shrink are stored without deflating them all.
+     */
+    static boolean isWorthDeflating(byte[] block, int len) {
+        int maxCompressedSize = (int) (len * MAX_DEFLATE_RATIO);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(block, 0, len);
+            deflater.finish();
+            byte[] compressed = new byte[maxCompressedSize + 1];
+            int compressedSize = 0;
+            while (!deflater.finished() && compressedSize < compressed.length) {
+                compressedSize += deflater.deflate(compressed, compressedSize,
+                        compressed.length - compressedSize);
+            }
+            return deflater.finished() && compressedSize <= maxCompressedSize;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static Entry getEntry(Future<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void writeEntry(CountingOutputStream out, Entry entry) throws IOException {
+        entry.mOffset = out.getCount();
+        byte[] name = entry.mName.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, LOCAL_HEADER_SIGNATURE);
+        writeShort(out, VERSION);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.mMethod);
+        writeInt(out, entry.mDosTime);
+        writeInt(out, entry.mCrc);
+        writeInt(out, entry.mCompressedSize);
+        writeInt(out, entry.mSize);
+        writeShort(out, name.length);
+        writeShort(out, 0); // extra field length
+        out.write(name);
+        if (entry.mData != null) {
+            entry.mData.writeTo(out);
+        } else if (!entry.mFile.isDirectory()) {
+            long copied = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = new FileInputStream(entry.mFile)) {
+                int len;
+                while (copied < entry.mSize && (len = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, entry.mSize - copied))) != -1) {
+                    out.write(buffer, 0, len);
+                    copied += len;
+                }
+            }
+            if (copied != entry.mSize) {
+                throw new IOException(String.format("%s changed while being zipped",
+                        entry.mFile.getAbsolutePath()));
+            }
+        }
+    }
+
+    private static void writeCentralHeader(OutputStream out, Entry entry) throws IOException {
+        byte[] name = entry.mName.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, CENTRAL_HEADER_SIGNATURE);
+        writeShort(out, VERSION); // version made by
+        writeShort(out, VERSION); // version needed to extract
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.mMethod);
+        writeInt(out, entry.mDosTime);
+        writeInt(out, entry.mCrc);
+        writeInt(out, entry.mCompressedSize);
+        writeInt(out, entry.mSize);
+        writeShort(out, name.length);
+        writeShort(out, 0); // extra field length
+        writeShort(out, 0); // comment length
+        writeShort(out, 0); // disk number
+        writeShort(out, 0); // internal attributes
+        writeInt(out, entry.mFile.isDirectory() ? DIRECTORY_ATTRIBUTE : 0);
+        writeInt(out, entry.mOffset);
+        out.write(name);
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01
+        }
+        return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) (value & 0xffff));
+        writeShort(out, (int) ((value >>> 16) & 0xffff));
+    }
+
+    /**
+     * The compressed data of an entry, held in memory up to a size and then spilled to a
+     * temporary file.
+     */
+    private static class CompressedData extends OutputStream {
+        private final int mMaxBufferedSize;
+        private ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+        private File mFile;
+        private OutputStream mFileStream;
+        private long mSize = 0;
+
+        CompressedData(int maxBufferedSize) {
+            mMaxBufferedSize = maxBufferedSize;
+        }
+
+        long size() {
+            return mSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mFileStream == null && mSize + len > mMaxBufferedSize) {
+                mFile = FileUtil.createTempFile("zip-entry", ".tmp");
+                mFileStream = new BufferedOutputStream(new FileOutputStream(mFile), BUFFER_SIZE);
+                mBuffer.writeTo(mFileStream);
+                mBuffer = null;
+            }
+            if (mFileStream != null) {
+                mFileStream.write(b, off, len);
+            } else {
+                mBuffer.write(b, off, len);
+            }
+            mSize += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mFileStream != null) {
+                mFileStream.close();
+            }
+        }
+
+        /**
+         * Writes the data to the given stream. Must be called after {@link #close()}.
+         */
+        void writeTo(OutputStream out) throws IOException {
+            if (mFile == null) {
+                mBuffer.writeTo(out);
+                return;
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = new FileInputStream(mFile)) {
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+            }
+        }
+
+        /**
+         * Releases the data, deleting the temporary file if any.
+         */
+        void delete() {
+            mBuffer = null;
+            if (mFileStream != null) {
+                try {
+                    mFileStream.close();
+                } catch (IOException e) {
+                    // Ignore, the file is deleted anyway.
+                }
+            }
+            if (mFile != null) {
+                FileUtil.deleteFile(mFile);
+                mFile = null;
+            }
+        }
+    }
+
+    /**
+     * An {@link OutputStream} that counts the bytes written through it, to track entry offsets.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+}
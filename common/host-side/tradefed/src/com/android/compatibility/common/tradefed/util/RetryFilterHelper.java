@@ -22,7 +22,6 @@ import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
 import com.android.compatibility.common.tradefed.testtype.ISubPlan;
 import com.android.compatibility.common.util.IInvocationResult;
-import com.android.compatibility.common.util.LightInvocationResult;
 import com.android.compatibility.common.util.ResultHandler;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.tradefed.config.ArgsOptionParser;
@@ -108,7 +107,7 @@ public class RetryFilterHelper {
      * the fingerprint recorded in the previous session's result.
      */
     public void validateBuildFingerprint(ITestDevice device) throws DeviceNotAvailableException {
-        String oldBuildFingerprint = new LightInvocationResult(getResult()).getBuildFingerprint();
+        String oldBuildFingerprint = getIndexedResult().getBuildFingerprint();
         String currentBuildFingerprint = device.getProperty("ro.build.fingerprint");
         if (!oldBuildFingerprint.equals(currentBuildFingerprint)) {
             throw new IllegalArgumentException(String.format(
@@ -152,8 +151,8 @@ public class RetryFilterHelper {
      * option values to the values applied in the previous session.
      */
     public void setCommandLineOptionsFor(Object obj) {
-        // only need light version to retrieve command-line args
-        IInvocationResult result = new LightInvocationResult(getResult());
+        // only need indexed version to retrieve command-line args
+        IInvocationResult result = getIndexedResult();
         String retryCommandLineArgs = result.getCommandLineArgs();
         if (retryCommandLineArgs != null) {
             try {
@@ -186,6 +185,24 @@ public class RetryFilterHelper {
         return result;
     }
 
+    /**
+     * Retrieve the result to retry, holding only the tests needed to compute the retry filters.
+     * This avoids parsing the full result file when the session has a valid summary.
+     */
+    private IInvocationResult getIndexedResult() {
+        IInvocationResult result = null;
+        try {
+            result = ResultHandler.findIndexedResult(mBuild.getResultsDir(), mSessionId);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        if (result == null) {
+            throw new IllegalArgumentException(String.format(
+                    "Could not find session with id %d", mSessionId));
+        }
+        return result;
+    }
+
     /**
      * Populate mRetryIncludes and mRetryExcludes based on the options and the result set for
      * this instance of RetryFilterHelper.
@@ -225,7 +242,7 @@ public class RetryFilterHelper {
      * Use retry type to determine which result types SubPlanHelper targets. */
     private void populateFiltersBySubPlan() {
         SubPlanHelper retryPlanCreator = new SubPlanHelper();
-        retryPlanCreator.setResult(getResult());
+        retryPlanCreator.setResult(getIndexedResult());
         if (RetryType.FAILED.equals(mRetryType)) {
             // retry only failed tests
             retryPlanCreator.addResultType(SubPlanHelper.FAILED);
@@ -29,7 +29,9 @@ import com.android.compatibility.common.tradefed.testtype.ModuleDefTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepoTest;
 import com.android.compatibility.common.tradefed.testtype.SubPlanTest;
 import com.android.compatibility.common.tradefed.util.CollectorUtilTest;
+import com.android.compatibility.common.tradefed.util.DeviceInfoCacheTest;
 import com.android.compatibility.common.tradefed.util.OptionHelperTest;
+import com.android.compatibility.common.tradefed.util.ParallelZipUtilTest;
 import com.android.compatibility.common.tradefed.util.RetryFilterHelperTest;
 
 import junit.framework.Test;
@@ -52,7 +54,9 @@ public class UnitTests extends TestSuite {
         addTestSuite(ResultReporterTest.class);
         addTestSuite(CompatibilityTestTest.class);
         addTestSuite(OptionHelperTest.class);
+        addTestSuite(ParallelZipUtilTest.class);
         addTestSuite(CollectorUtilTest.class);
+        addTestSuite(DeviceInfoCacheTest.class);
         addTestSuite(MetadataReporterTest.class);
         addTestSuite(ModuleDefTest.class);
         addTestSuite(ModuleRepoTest.class);
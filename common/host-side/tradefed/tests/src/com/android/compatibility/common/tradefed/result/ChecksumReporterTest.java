@@ -166,6 +166,40 @@ public class ChecksumReporterTest extends TestCase {
 
     }
 
+    public void testResultsBeyondTestCount() throws Exception {
+        ChecksumReporter reporter = new ChecksumReporter(2, .001, (short)1);
+        for (int i = 0; i < 100; i++) {
+            mFailedTest.failed("stack-trace - error " + i);
+            reporter.addInvocation(mInvocationResult);
+        }
+        reporter.saveToFile(mRoot);
+
+        // Loading fails if the false positive probability is over the one requested
+        ChecksumReporter storedChecksum = ChecksumReporter.load(mRoot);
+        VerifyInvocationResults(mInvocationResult, storedChecksum);
+    }
+
+    public void testReusePreviousFileChecksum() throws Exception {
+        File previousDir = new File(mRoot, "previous");
+        File currentDir = new File(mRoot, "current");
+        previousDir.mkdir();
+        currentDir.mkdir();
+        File previousFile = new File(previousDir, "file1.txt");
+        FileUtil.writeToFile("This is a test file", previousFile);
+        ChecksumReporter previousChecksum = new ChecksumReporter(100, .001, (short)1);
+        previousChecksum.addDirectory(previousDir);
+        previousChecksum.saveToFile(previousDir);
+
+        // Same size and modification time, so the checksum of the previous file is reused
+        File copiedFile = new File(currentDir, "file1.txt");
+        FileUtil.writeToFile("This is a new file!", copiedFile);
+        copiedFile.setLastModified(previousFile.lastModified());
+        mReporter.setPreviousChecksum(ChecksumReporter.load(previousDir));
+        mReporter.addDirectory(currentDir);
+        assertTrue(mReporter.containsFile(previousFile, currentDir.getName()));
+        assertFalse(mReporter.containsFile(copiedFile, currentDir.getName()));
+    }
+
     private void VerifyInvocationResults(IInvocationResult invocation, ChecksumReporter reporter) {
         for (IModuleResult module : invocation.getModules()) {
             String buildFingerprint = invocation.getBuildFingerprint();
@@ -18,6 +18,7 @@ package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
+import com.android.compatibility.common.tradefed.result.ModuleRuntimeHandler;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo.ConfigFilter;
 import com.android.compatibility.common.tradefed.testtype.IModuleDef;
 import com.android.compatibility.common.util.AbiUtils;
@@ -33,6 +34,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -68,6 +70,8 @@ public class ModuleRepoTest extends TestCase {
     private static final String ROOT_DIR_ATTR = "ROOT_DIR";
     private static final String SUITE_NAME_ATTR = "SUITE_NAME";
     private static final String START_TIME_MS_ATTR = "START_TIME_MS";
+    private static final String FINGERPRINT_ATTR = "cts:build_fingerprint";
+    private static final String FINGERPRINT = "foo/bar/baz:7.1/ABC/123:userdebug/dev-keys";
     private static final String ABI_32 = "armeabi-v7a";
     private static final String ABI_64 = "arm64-v8a";
     private static final String MODULE_NAME_A = "FooModuleA";
@@ -190,6 +194,70 @@ public class ModuleRepoTest extends TestCase {
         assertTrue("Unexpected device serial", serials.containsAll(SERIALS));
     }
 
+    public void testGetNextModule() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        // Serial 3 has the token, so it should be handed the modules requiring it first
+        IModuleDef module = mRepo.getNextModule(SERIAL3);
+        assertEquals("Wrong module", MODULE_NAME_C, module.getName());
+        module = mRepo.getNextModule(SERIAL3);
+        assertEquals("Wrong module", MODULE_NAME_C, module.getName());
+        // Devices without the token never receive token modules while serial 3 can run them
+        Set<String> idSet = new HashSet<>();
+        while ((module = mRepo.getNextModule(SERIAL1)) != null) {
+            assertTrue("Duplicate module", idSet.add(module.getId()));
+            assertFalse("Unexpected token module", MODULE_NAME_C.equals(module.getName()));
+        }
+        assertEquals("Wrong number of modules", 4, idSet.size());
+        assertNull("Expected no more modules", mRepo.getNextModule(SERIAL2));
+        assertNull("Expected no more modules", mRepo.getNextModule(SERIAL3));
+        assertEquals("Wrong number of serials", 3, mRepo.getSerials().size());
+    }
+
+    public void testGetNextModule_tokenNotAvailable() throws Exception {
+        mRepo.initialize(2, mTestsDir, ABIS, new ArrayList<String>(), TEST_ARGS, MODULE_ARGS,
+                INCLUDES, EXCLUDES, mBuild);
+        // No device has the token, so token modules are released to any device
+        Set<String> idSet = new HashSet<>();
+        IModuleDef module;
+        while ((module = mRepo.getNextModule(SERIAL1)) != null) {
+            idSet.add(module.getId());
+        }
+        assertEquals("Wrong number of modules", 6, idSet.size());
+        assertNull("Expected no more modules", mRepo.getNextModule(SERIAL2));
+    }
+
+    public void testReturnModule() throws Exception {
+        mRepo.initialize(2, mTestsDir, ABIS, new ArrayList<String>(), TEST_ARGS, MODULE_ARGS,
+                INCLUDES, EXCLUDES, mBuild);
+        IModuleDef returned = mRepo.getNextModule(SERIAL1);
+        mRepo.returnModule(returned);
+        // The returned module is handed out again, to any device
+        Set<String> idSet = new HashSet<>();
+        IModuleDef module;
+        while ((module = mRepo.getNextModule(SERIAL2)) != null) {
+            assertTrue("Duplicate module", idSet.add(module.getId()));
+        }
+        assertTrue("Returned module not handed out", idSet.contains(returned.getId()));
+        assertEquals("Wrong number of modules", 6, idSet.size());
+    }
+
+    public void testRecordedRuntimes() throws Exception {
+        mBuild.addBuildAttribute(FINGERPRINT_ATTR, FINGERPRINT);
+        Map<String, Long> runtimes = new HashMap<>();
+        runtimes.put(ID_A_32, TimeUnit.MINUTES.toMillis(30));
+        runtimes.put(ID_B_32, TimeUnit.MINUTES.toMillis(5));
+        ModuleRuntimeHandler.addRuntimes(new CompatibilityBuildHelper(mBuild), FINGERPRINT,
+                runtimes);
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        assertEquals("Wrong number of modules", 1, mRepo.getLargeModules().size());
+        assertEquals("Wrong module", ID_A_32, mRepo.getLargeModules().get(0).getId());
+        assertEquals("Wrong number of modules", 1, mRepo.getMediumModules().size());
+        assertEquals("Wrong module", ID_B_32, mRepo.getMediumModules().get(0).getId());
+        assertEquals("Wrong number of modules", 2, mRepo.getSmallModules().size());
+    }
+
     public void testConfigFilter() throws Exception {
         File[] configFiles = mTestsDir.listFiles(new ConfigFilter());
         assertEquals("Wrong number of config files found.", 3, configFiles.length);
@@ -214,6 +282,17 @@ public class ModuleRepoTest extends TestCase {
         checkArgs(module);
     }
 
+    public void testFiltering_excludedConfigNotParsed() throws Exception {
+        String brokenModule = "FooModuleBroken";
+        FileUtil.writeToFile("<configuration>not a config",
+                new File(mTestsDir, String.format(FILENAME, brokenModule)));
+        Set<String> excludeFilters = new HashSet<>();
+        excludeFilters.add(brokenModule);
+        mRepo.initialize(1, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                excludeFilters, mBuild);
+        assertEquals("Incorrect number of modules", 6, mRepo.getModuleIds().length);
+    }
+
     public void testParsing() throws Exception {
         mRepo.initialize(1, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
                 EXCLUDES, mBuild);
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Compares the time and peak heap used to reformat a generated report log by
+ * {@link CollectorUtil#reformatReportLog} and by matching the streams in the text of the file
+ * with {@link CollectorUtil#reformatJsonString}. Not part of the unit tests, run it with:
+ * <pre>
+ * java -cp &lt;tradefed and test classes&gt; \
+ *     com.android.compatibility.common.tradefed.util.CollectorUtilBenchmark [streams]
+ * </pre>
+ * Each stream takes about 225 bytes, and streams are spread over 50 names.
+ */
+public class CollectorUtilBenchmark {
+
+    private static final int STREAM_NAMES = 50;
+    private static final int ITERATIONS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int streams = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        File dir = FileUtil.createTempDir("collector-benchmark");
+        try {
+            File reportLog = new File(dir, "CtsFooTestCases.reportlog.json");
+            for (int i = 0; i < ITERATIONS; i++) {
+                writeReportLog(reportLog, streams);
+                resetPeakHeap();
+                long start = System.nanoTime();
+                FileUtil.writeToFile(CollectorUtil.reformatJsonString(
+                        FileUtil.readStringFromFile(reportLog)), reportLog);
+                report("Text matching", start, reportLog);
+
+                writeReportLog(reportLog, streams);
+                resetPeakHeap();
+                start = System.nanoTime();
+                CollectorUtil.reformatReportLog(reportLog);
+                report("Scanning", start, reportLog);
+            }
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    private static void writeReportLog(File reportLog, int streams) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(reportLog))) {
+            writer.write("{");
+            for (int i = 0; i < streams; i++) {
+                if (i > 0) {
+                    writer.write(",");
+                }
+                writer.write(String.format("\"stream_%d\":{\"id\":%d,\"source\":{"
+                        + "\"class\":\"android.foo.cts.FooTest\",\"method\":\"testFoo\"},"
+                        + "\"frame_times\":[%d.5,%d.25,%d.125],\"summary\":{"
+                        + "\"message\":\"frame time\",\"score_type\":\"lower_better\","
+                        + "\"score_unit\":\"ms\",\"score\":%d.5}}",
+                        i % STREAM_NAMES, i, i, i, i, i));
+            }
+            writer.write("}");
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static void report(String name, long start, File reportLog) {
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%-14s %6d ms, peak heap %4d MB, %d bytes%n", name, elapsedMs,
+                peakHeap >> 20, reportLog.length());
+    }
+}
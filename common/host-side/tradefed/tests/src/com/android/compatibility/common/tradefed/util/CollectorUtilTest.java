@@ -15,8 +15,16 @@
  */
 package com.android.compatibility.common.tradefed.util;
 
+import com.android.tradefed.util.FileUtil;
+
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Unit tests for {@link CollectorUtil}
  */
@@ -47,4 +55,162 @@ public class CollectorUtilTest extends TestCase {
         String reformattedJson = CollectorUtil.reformatJsonString(UNFORMATTED_JSON);
         assertEquals(reformattedJson, REFORMATTED_JSON);
     }
+
+    public void testReformatRepeatedStreams_nested() throws Exception {
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            File reportLog = new File(dir, "CtsFooTestCases.reportlog.json");
+            FileUtil.writeToFile("{"
+                    + "\"stream_name_1\":{\"id\":1,\"values\":{\"min\":1.5,\"max\":3}},"
+                    + "\"stream_name_2\":{\"id\":1,\"list\":[1,\"{}\",true,null]},"
+                    + "\"stream_name_1\" : {\"id\":2,\"values\":{\"min\":-2,\"max\":1e3,"
+                    + "\"total\":123456789012345678901234567890}}\n"
+                    + "}", reportLog);
+            CollectorUtil.reformatRepeatedStreams(dir);
+            assertEquals("{"
+                    + "\"stream_name_1\":["
+                    + "{\"id\":1,\"values\":{\"min\":1.5,\"max\":3}},"
+                    + "{\"id\":2,\"values\":{\"min\":-2,\"max\":1e3,"
+                    + "\"total\":123456789012345678901234567890}}"
+                    + "],"
+                    + "\"stream_name_2\":["
+                    + "{\"id\":1,\"list\":[1,\"{}\",true,null]}"
+                    + "]"
+                    + "}", FileUtil.readStringFromFile(reportLog));
+            assertEquals("Temporary files left", 1, dir.listFiles().length);
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    public void testReformatRepeatedStreams_invalidJson() throws Exception {
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            File reportLog = new File(dir, "CtsFooTestCases.reportlog.json");
+            FileUtil.writeToFile(UNFORMATTED_JSON, reportLog);
+            CollectorUtil.reformatRepeatedStreams(dir);
+            assertEquals(REFORMATTED_JSON, FileUtil.readStringFromFile(reportLog));
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    public void testExtractTar() throws Exception {
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+            addTarEntry(tar, "./", '5', "");
+            addTarEntry(tar, "./a.reportlog.json", '0', "{\"stream\":{}}");
+            addTarEntry(tar, "./sub/", '5', "");
+            addTarEntry(tar, "./sub/b.deviceinfo.json", '0', "");
+            tar.write(new byte[1024]);
+            File archive = new File(dir, "files.tar");
+            writeBytes(archive, tar.toByteArray());
+            File dest = new File(dir, "dest");
+            dest.mkdirs();
+
+            long[] extracted = CollectorUtil.extractTar(archive, dest);
+            assertEquals("Wrong number of files", 2, extracted[0]);
+            assertEquals("Wrong number of bytes", 13, extracted[1]);
+            assertEquals("{\"stream\":{}}",
+                    FileUtil.readStringFromFile(new File(dest, "a.reportlog.json")));
+            assertTrue(new File(dest, "sub/b.deviceinfo.json").isFile());
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    public void testExtractTar_outsideDestination() throws Exception {
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+            addTarEntry(tar, "../evil", '0', "x");
+            File archive = new File(dir, "files.tar");
+            writeBytes(archive, tar.toByteArray());
+            File dest = new File(dir, "dest");
+            dest.mkdirs();
+            try {
+                CollectorUtil.extractTar(archive, dest);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+            assertFalse(new File(dir, "evil").exists());
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    public void testExtractTar_siblingOfDestination() throws Exception {
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+            addTarEntry(tar, "../dest-evil/file", '0', "x");
+            File archive = new File(dir, "files.tar");
+            writeBytes(archive, tar.toByteArray());
+            File dest = new File(dir, "dest");
+            dest.mkdirs();
+            try {
+                CollectorUtil.extractTar(archive, dest);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+            assertFalse(new File(dir, "dest-evil").exists());
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    public void testExtractTar_longNames() throws Exception {
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            StringBuilder longName = new StringBuilder("./");
+            for (int i = 0; i < 12; i++) {
+                longName.append("0123456789");
+            }
+            String gnuName = longName + ".reportlog.json";
+            String paxName = longName + ".deviceinfo.json";
+            String paxRecord = " path=" + paxName + "\n";
+            // The length of a record includes the digits of the length itself
+            int recordLength = paxRecord.length() + 3;
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+            addTarEntry(tar, "././@LongLink", 'L', gnuName);
+            addTarEntry(tar, gnuName.substring(0, 100), '0', "gnu");
+            addTarEntry(tar, "./PaxHeaders/file", 'x', recordLength + paxRecord);
+            addTarEntry(tar, paxName.substring(0, 100), '0', "pax");
+            tar.write(new byte[1024]);
+            File archive = new File(dir, "files.tar");
+            writeBytes(archive, tar.toByteArray());
+            File dest = new File(dir, "dest");
+            dest.mkdirs();
+
+            long[] extracted = CollectorUtil.extractTar(archive, dest);
+            assertEquals("Wrong number of files", 2, extracted[0]);
+            assertEquals("gnu", FileUtil.readStringFromFile(new File(dest, gnuName)));
+            assertEquals("pax", FileUtil.readStringFromFile(new File(dest, paxName)));
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    private static void addTarEntry(ByteArrayOutputStream tar, String name, char type,
+            String content) throws IOException {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        byte[] size = String.format("%011o", content.length()).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        tar.write(header);
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        tar.write(data);
+        tar.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes);
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link DeviceInfoCache}
+ */
+public class DeviceInfoCacheTest extends TestCase {
+
+    private static final long MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    private File mDir;
+    private File mApk;
+
+    @Override
+    public void setUp() throws Exception {
+        mDir = FileUtil.createTempDir("device-info-cache");
+        mApk = new File(mDir, "CtsDeviceInfo.apk");
+        FileUtil.writeToFile("apk", mApk);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    public void testCreateKey() throws Exception {
+        String key = DeviceInfoCache.createKey("serial", "fingerprint", mApk);
+        assertEquals(key, DeviceInfoCache.createKey("serial", "fingerprint", mApk));
+        assertFalse(key.equals(DeviceInfoCache.createKey("serial2", "fingerprint", mApk)));
+        assertFalse(key.equals(DeviceInfoCache.createKey("serial", "fingerprint2", mApk)));
+        // the fields are not simply concatenated
+        assertFalse(key.equals(DeviceInfoCache.createKey("serialf", "ingerprint", mApk)));
+
+        FileUtil.writeToFile("apk2", mApk);
+        assertFalse(key.equals(DeviceInfoCache.createKey("serial", "fingerprint", mApk)));
+    }
+
+    public void testStoreAndRestore() throws Exception {
+        DeviceInfoCache cache = new DeviceInfoCache(new File(mDir, "cache"), MAX_AGE_MS);
+        File collected = new File(mDir, "collected");
+        collected.mkdirs();
+        FileUtil.writeToFile("{\"build\":1}",
+                new File(collected, "GenericDeviceInfo.deviceinfo.json"));
+
+        File restored = new File(mDir, "restored");
+        restored.mkdirs();
+        assertFalse(cache.restore("key", restored));
+
+        cache.store("key", collected);
+        assertTrue(cache.restore("key", restored));
+        assertEquals("{\"build\":1}", FileUtil.readStringFromFile(
+                new File(restored, "GenericDeviceInfo.deviceinfo.json")));
+        assertFalse(cache.restore("other", restored));
+
+        // a new store replaces the entry
+        FileUtil.deleteFile(new File(collected, "GenericDeviceInfo.deviceinfo.json"));
+        FileUtil.writeToFile("{}", new File(collected, "PackageDeviceInfo.deviceinfo.json"));
+        cache.store("key", collected);
+        File restored2 = new File(mDir, "restored2");
+        restored2.mkdirs();
+        assertTrue(cache.restore("key", restored2));
+        assertEquals(1, restored2.list().length);
+        assertTrue(new File(restored2, "PackageDeviceInfo.deviceinfo.json").exists());
+    }
+
+    public void testExpiredEntryIsNotRestored() throws Exception {
+        File root = new File(mDir, "cache");
+        File collected = new File(mDir, "collected");
+        collected.mkdirs();
+        FileUtil.writeToFile("{}", new File(collected, "GenericDeviceInfo.deviceinfo.json"));
+        new DeviceInfoCache(root, MAX_AGE_MS).store("key", collected);
+
+        File entry = new File(root, "key");
+        assertTrue(entry.setLastModified(System.currentTimeMillis() - 2 * MAX_AGE_MS));
+        File restored = new File(mDir, "restored");
+        restored.mkdirs();
+        assertFalse(new DeviceInfoCache(root, MAX_AGE_MS).restore("key", restored));
+        assertEquals(0, restored.list().length);
+        assertFalse(entry.exists());
+    }
+}
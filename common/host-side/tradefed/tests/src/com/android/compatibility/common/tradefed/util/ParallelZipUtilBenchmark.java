@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.ZipUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Random;
+
+/**
+ * Compares the time and peak heap used by {@link ZipUtil} and {@link ParallelZipUtil} to zip
+ * synthetic result directories. Not part of the unit tests, run it with:
+ * <pre>
+ * java -cp &lt;tradefed and test classes&gt; \
+ *     com.android.compatibility.common.tradefed.util.ParallelZipUtilBenchmark [iterations]
+ * </pre>
+ * The first directory holds a large test_result.xml, and for each of 60 modules a host log, a
+ * zipped logcat, a screenshot and an incompressible dump, about 400MB in all. The second holds
+ * four 80MB result files, which are compressed at the same time.
+ */
+public class ParallelZipUtilBenchmark {
+
+    private static final int MODULES = 60;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        File tmpDir = FileUtil.createTempDir("zip-benchmark");
+        try {
+            File resultDir = new File(tmpDir, "2017.05.10_12.00.00");
+            createResultDir(resultDir);
+            System.out.println("Result directory with logs:");
+            run(resultDir, new File(tmpDir, "result.zip"), iterations);
+            FileUtil.recursiveDelete(resultDir);
+
+            File largeResultDir = new File(tmpDir, "2017.05.10_13.00.00");
+            createLargeResultDir(largeResultDir);
+            System.out.println("Result directory with large result files:");
+            run(largeResultDir, new File(tmpDir, "result.zip"), iterations);
+        } finally {
+            FileUtil.recursiveDelete(tmpDir);
+        }
+    }
+
+    private static void run(File resultDir, File zip, int iterations) throws IOException {
+        for (int i = 0; i < iterations; i++) {
+            resetPeakHeap();
+            long start = System.nanoTime();
+            ZipUtil.createZip(resultDir, zip);
+            report("ZipUtil", start, zip);
+            zip.delete();
+
+            resetPeakHeap();
+            start = System.nanoTime();
+            ParallelZipUtil.createZip(resultDir, zip, 2);
+            report("ParallelZipUtil", start, zip);
+            zip.delete();
+        }
+    }
+
+    private static void createLargeResultDir(File resultDir) throws IOException {
+        Random random = new Random(0);
+        resultDir.mkdirs();
+        for (int f = 0; f < 4; f++) {
+            try (Writer writer = new BufferedWriter(
+                    new FileWriter(new File(resultDir, "test_result" + f + ".xml")))) {
+                for (int i = 0; i < 2500000; i++) {
+                    writer.write("<Test name=\"t" + Long.toHexString(random.nextLong())
+                            + "\"/>\n");
+                }
+            }
+        }
+    }
+
+    private static void createResultDir(File resultDir) throws IOException {
+        Random random = new Random(0);
+        File logDir = new File(resultDir, "logs");
+        logDir.mkdirs();
+        try (Writer writer = new FileWriter(new File(resultDir, "test_result.xml"))) {
+            for (int i = 0; i < 600000; i++) {
+                writer.write("<Test result=\"pass\" name=\"testMethod" + i + "\"/>\n");
+            }
+        }
+        for (int m = 0; m < MODULES; m++) {
+            File moduleDir = new File(logDir, "module" + m);
+            moduleDir.mkdirs();
+            try (Writer writer = new FileWriter(new File(moduleDir, "host_log.txt"))) {
+                for (int i = 0; i < 40000; i++) {
+                    writer.write(String.format("05-10 12:00:0%d I/ActivityManager(%5d): "
+                            + "Start proc %d\n", i % 10, random.nextInt(9999), i));
+                }
+            }
+            writeRandom(new File(moduleDir, "logcat.zip"), 3 << 20, random);
+            writeRandom(new File(moduleDir, "screenshot.png"), 300 << 10, random);
+            writeRandom(new File(moduleDir, "dump.bin"), 2 << 20, random);
+        }
+    }
+
+    private static void writeRandom(File file, int size, Random random) throws IOException {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static void report(String name, long start, File zip) {
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%-16s %6d ms, peak heap %4d MB, archive %d bytes%n", name, elapsedMs,
+                peakHeap >> 20, zip.length());
+    }
+}
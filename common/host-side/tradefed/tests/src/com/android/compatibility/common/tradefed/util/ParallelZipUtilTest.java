@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.ZipUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit tests for {@link ParallelZipUtil}
+ */
+public class ParallelZipUtilTest extends TestCase {
+
+    private static final String RESULT_XML = "<Result>\n  <Test result=\"pass\"/>\n</Result>\n";
+
+    private File mTmpDir;
+    private File mResultDir;
+
+    @Override
+    public void setUp() throws Exception {
+        mTmpDir = FileUtil.createTempDir("zip-test");
+        mResultDir = new File(mTmpDir, "2017.05.10_12.00.00");
+        File logDir = new File(mResultDir, "logs");
+        logDir.mkdirs();
+        new File(mResultDir, "empty").mkdirs();
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            xml.append(RESULT_XML);
+        }
+        FileUtil.writeToFile(xml.toString(), new File(mResultDir, "test_result.xml"));
+        byte[] data = new byte[64 * 1024];
+        new Random(0).nextBytes(data);
+        try (OutputStream out = new FileOutputStream(new File(logDir, "logcat.zip"))) {
+            out.write(data);
+        }
+        FileUtil.writeToFile("", new File(logDir, "empty.txt"));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTmpDir);
+    }
+
+    public void testCreateZip() throws Exception {
+        File zip = new File(mTmpDir, "result.zip");
+        ParallelZipUtil.createZip(mResultDir, zip, 4);
+        checkSameEntries(zip);
+    }
+
+    public void testCreateZip_spillsLargeEntries() throws Exception {
+        File zip = new File(mTmpDir, "result.zip");
+        // Spill any entry larger than a few bytes to disk
+        ParallelZipUtil.createZip(mResultDir, zip, 2, 16);
+        checkSameEntries(zip);
+    }
+
+    public void testCreateZip_storesIncompressibleFiles() throws Exception {
+        byte[] data = new byte[128 * 1024];
+        new Random(1).nextBytes(data);
+        try (OutputStream out = new FileOutputStream(new File(mResultDir, "random.bin"))) {
+            out.write(data);
+        }
+        File zip = new File(mTmpDir, "result.zip");
+        ParallelZipUtil.createZip(mResultDir, zip, 2);
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            ZipEntry entry = zipFile.getEntry(mResultDir.getName() + "/random.bin");
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals(data.length, entry.getSize());
+        }
+        checkSameEntries(zip);
+    }
+
+    public void testIsWorthDeflating() throws Exception {
+        byte[] random = new byte[64 * 1024];
+        new Random(2).nextBytes(random);
+        assertFalse(ParallelZipUtil.isWorthDeflating(random, random.length));
+        byte[] text = RESULT_XML.getBytes("UTF-8");
+        byte[] repeated = new byte[text.length * 100];
+        for (int i = 0; i < repeated.length; i++) {
+            repeated[i] = text[i % text.length];
+        }
+        assertTrue(ParallelZipUtil.isWorthDeflating(repeated, repeated.length));
+        assertFalse(ParallelZipUtil.isWorthDeflating(repeated, 0));
+    }
+
+    /**
+     * Checks that the archive holds the same entries as one created by {@link ZipUtil}.
+     */
+    private void checkSameEntries(File zip) throws Exception {
+        File expectedZip = new File(mTmpDir, "expected.zip");
+        ZipUtil.createZip(mResultDir, expectedZip);
+        try (ZipFile expectedZipFile = new ZipFile(expectedZip);
+             ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(expectedZipFile.size(), zipFile.size());
+            Enumeration<? extends ZipEntry> expectedEntries = expectedZipFile.entries();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (expectedEntries.hasMoreElements()) {
+                ZipEntry expectedEntry = expectedEntries.nextElement();
+                ZipEntry entry = entries.nextElement();
+                assertEquals(expectedEntry.getName(), entry.getName());
+                assertEquals(expectedEntry.isDirectory(), entry.isDirectory());
+                if (!entry.isDirectory()) {
+                    assertEquals(read(expectedZipFile, expectedEntry), read(zipFile, entry));
+                }
+            }
+        }
+    }
+
+    public void testCreateZip_storesCompressedFiles() throws Exception {
+        File zip = new File(mTmpDir, "result.zip");
+        ParallelZipUtil.createZip(mResultDir, zip, 2);
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            String prefix = mResultDir.getName() + "/";
+            assertEquals(ZipEntry.STORED,
+                    zipFile.getEntry(prefix + "logs/logcat.zip").getMethod());
+            assertEquals(ZipEntry.DEFLATED,
+                    zipFile.getEntry(prefix + "test_result.xml").getMethod());
+        }
+    }
+
+    public void testIsCompressed() throws Exception {
+        assertTrue(ParallelZipUtil.isCompressed("logs/logcat.zip"));
+        assertTrue(ParallelZipUtil.isCompressed("screenshot.PNG"));
+        assertFalse(ParallelZipUtil.isCompressed("test_result.xml"));
+        assertFalse(ParallelZipUtil.isCompressed("host_log.txt"));
+    }
+
+    private static String read(ZipFile zipFile, ZipEntry entry) throws Exception {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return StreamUtil.getStringFromStream(in);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Host-side cache of files pulled from a device and of the output of shell commands run on it,
+ * so that tests reading the same device state do not fetch it again for every test method.
+ * <p/>
+ * There is one cache per device serial and build fingerprint, shared by all the tests run on
+ * the device, see {@link #getInstance}. A device flashed with another build, or rebooted, gets a
+ * new cache. Otherwise entries are kept until they are invalidated or the cache is released, so
+ * tests which change the state they read, e.g. by remounting or writing files, must call
+ * {@link #invalidateFile}, {@link #invalidateCommand} or {@link #invalidateAll}.
+ * <p/>
+ * Pulled files are owned by the cache and must not be modified or deleted by the callers.
+ * They are deleted when the cache is {@link #release released}, or else when the JVM exits.
+ */
+public class DeviceArtifactCache {
+
+    private static final String FINGERPRINT_PROPERTY = "ro.build.fingerprint";
+    // Set by the system server on each boot
+    private static final String BOOT_TIME_PROPERTY = "ro.runtime.firstboot";
+
+    /** The caches by device serial. */
+    private static final Map<String, DeviceArtifactCache> sCaches = new HashMap<>();
+
+    private final ITestDevice mDevice;
+    private final String mFingerprint;
+    private final String mBootTime;
+    private File mDir;
+    // The pulled files by remote path, null for the files which could not be pulled
+    private final Map<String, File> mFiles = new HashMap<>();
+    private final Map<String, String> mCommandOutputs = new HashMap<>();
+
+    private DeviceArtifactCache(ITestDevice device, String fingerprint, String bootTime) {
+        mDevice = device;
+        mFingerprint = fingerprint;
+        mBootTime = bootTime;
+    }
+
+    /**
+     * Returns the cache of the given device for the build it runs since it booted, creating it if
+     * needed. The cache of a previous build or boot of the device is released.
+     */
+    public static DeviceArtifactCache getInstance(ITestDevice device)
+            throws DeviceNotAvailableException {
+        final String serial = device.getSerialNumber();
+        final String fingerprint = device.getProperty(FINGERPRINT_PROPERTY);
+        final String bootTime = device.getProperty(BOOT_TIME_PROPERTY);
+        synchronized (sCaches) {
+            DeviceArtifactCache cache = sCaches.get(serial);
+            if (cache != null && cache.mDevice == device
+                    && Objects.equals(cache.mFingerprint, fingerprint)
+                    && Objects.equals(cache.mBootTime, bootTime)) {
+                return cache;
+            }
+            if (cache != null) {
+                cache.invalidateAll();
+            }
+            cache = new DeviceArtifactCache(device, fingerprint, bootTime);
+            sCaches.put(serial, cache);
+            return cache;
+        }
+    }
+
+    /**
+     * Releases the cache of the given device, if any, deleting its files. Meant to be called
+     * once the tests reading the cache are done, e.g. when the run on the device ends.
+     */
+    public static void release(ITestDevice device) {
+        final DeviceArtifactCache cache;
+        synchronized (sCaches) {
+            cache = sCaches.remove(device.getSerialNumber());
+        }
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Releases the caches of all devices, deleting their files.
+     */
+    public static void releaseAll() {
+        synchronized (sCaches) {
+            for (Iterator<DeviceArtifactCache> it = sCaches.values().iterator(); it.hasNext();) {
+                it.next().invalidateAll();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns a local copy of the given file of the device, pulling it on the first call.
+     *
+     * @param remotePath the absolute path of the file on the device.
+     * @return the local copy, or null if the file could not be pulled, as
+     * {@link ITestDevice#pullFile(String)} does. A failed pull is cached too.
+     */
+    public synchronized File pullFile(String remotePath)
+            throws DeviceNotAvailableException, IOException {
+        if (mFiles.containsKey(remotePath)) {
+            return mFiles.get(remotePath);
+        }
+        if (mDir == null) {
+            mDir = FileUtil.createTempDir("device-artifacts");
+            mDir.deleteOnExit();
+        }
+        File file = FileUtil.createTempFile("pulled_" + new File(remotePath).getName(), ".tmp",
+                mDir);
+        // Registered after the directory, so deleted before it
+        file.deleteOnExit();
+        if (!mDevice.pullFile(remotePath, file)) {
+            FileUtil.deleteFile(file);
+            file = null;
+        }
+        mFiles.put(remotePath, file);
+        return file;
+    }
+
+    /**
+     * Returns the output of the given shell command, running it on the first call.
+     */
+    public synchronized String executeShellCommand(String command)
+            throws DeviceNotAvailableException {
+        String output = mCommandOutputs.get(command);
+        if (output == null) {
+            output = mDevice.executeShellCommand(command);
+            mCommandOutputs.put(command, output);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the value of the given system property, or null if it is not set, reading it with
+     * getprop on the first call. Unlike {@link ITestDevice#getProperty}, this caches properties
+     * which are not read-only too, so they must be invalidated when changed.
+     */
+    public String getProperty(String name) throws DeviceNotAvailableException {
+        String value = executeShellCommand("getprop " + name).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Drops the cached copy of the given file, which is pulled again on the next call to
+     * {@link #pullFile}.
+     */
+    public synchronized void invalidateFile(String remotePath) {
+        File file = mFiles.remove(remotePath);
+        if (file != null) {
+            FileUtil.deleteFile(file);
+        }
+    }
+
+    /**
+     * Drops the cached output of the given command, which is run again on the next call to
+     * {@link #executeShellCommand}.
+     */
+    public synchronized void invalidateCommand(String command) {
+        mCommandOutputs.remove(command);
+    }
+
+    /**
+     * Drops the cached output of the getprop command of the given property.
+     */
+    public void invalidateProperty(String name) {
+        invalidateCommand("getprop " + name);
+    }
+
+    /**
+     * Drops all the entries of the cache, e.g. after changing the state of the device.
+     */
+    public synchronized void invalidateAll() {
+        mFiles.clear();
+        mCommandOutputs.clear();
+        if (mDir != null) {
+            FileUtil.recursiveDelete(mDir);
+            mDir = null;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.log.LogUtil.CLog;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A journal of module results, appended to as each module completes so that results do not have
+ * to be held in memory for the whole invocation, and are not lost if the host goes down.
+ * <p/>
+ * The journal holds a sequence of module entries. A module may have more than one entry, for
+ * example when it is split across shards, and its entries are merged when the final result file
+ * is assembled from the journal.
+ */
+public class ResultJournal {
+
+    public static final String NAME = "test_result.journal";
+
+    private static final String ENCODING = "UTF-8";
+    private static final String TYPE = "org.kxml2.io.KXmlParser,org.kxml2.io.KXmlSerializer";
+    private static final String NS = null;
+    private static final String BODY_SUFFIX = ".body";
+
+    // XML constants
+    private static final String DONE_ATTR = "done";
+    private static final String EXPECTED_TEST_RUNS_ATTR = "expected_test_runs";
+    private static final String ID_ATTR = "id";
+    private static final String MODULE_TAG = "Module";
+    private static final String NOT_EXECUTED_ATTR = "not_executed";
+    private static final String RUNTIME_ATTR = "runtime";
+    private static final String TEST_RUNS_ATTR = "test_runs";
+
+    private final File mResultDir;
+    private final File mFile;
+
+    private int mPassed = 0;
+    private int mFailed = 0;
+    private int mModulesDone = 0;
+    private int mModulesTotal = 0;
+
+    /**
+     * Creates a {@link ResultJournal} stored in the given result directory.
+     */
+    public ResultJournal(File resultDir) {
+        mResultDir = resultDir;
+        mFile = new File(resultDir, NAME);
+    }
+
+    /**
+     * @return the journal {@link File}.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Appends the given module result to the journal. The module's state is written as it is, so
+     * the caller may drop the module once it has been appended.
+     */
+    public synchronized void append(IModuleResult module) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(mFile, true))) {
+            XmlSerializer serializer =
+                    XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
+            serializer.setOutput(stream, ENCODING);
+            serializer.startTag(NS, MODULE_TAG);
+            serializer.attribute(NS, ID_ATTR, module.getId());
+            serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDoneSoFar()));
+            serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
+            serializer.attribute(NS, TEST_RUNS_ATTR, Integer.toString(module.getTestRuns()));
+            serializer.attribute(NS, EXPECTED_TEST_RUNS_ATTR,
+                    Integer.toString(module.getExpectedTestRuns()));
+            serializer.attribute(NS, NOT_EXECUTED_ATTR,
+                    Integer.toString(module.getNotExecuted()));
+            ResultHandler.serializeCases(serializer, module);
+            serializer.endTag(NS, MODULE_TAG);
+            serializer.flush();
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Assembles the result file from the journal, holding only one module in memory at a time,
+     * then deletes the journal. Any modules still held by the given result, such as modules that
+     * were expected but never run, are appended to the journal first.
+     *
+     * @param result the {@link IInvocationResult} holding the invocation info
+     * @return The result file created.
+     */
+    public synchronized File writeResults(String suiteName, String suiteVersion,
+            String suitePlan, String suiteBuild, IInvocationResult result, long startTime,
+            long endTime, String referenceUrl, String logUrl, String commandLineArgs)
+            throws IOException, XmlPullParserException {
+        for (IModuleResult module : result.getModules()) {
+            append(module);
+        }
+        ResultHandler.resolveBuildFingerprint(result);
+        final String buildFingerprint = result.getBuildFingerprint();
+
+        // First pass: count the entries of each module, so it is known when a module is complete.
+        final Map<String, Integer> entryCounts = new HashMap<>();
+        final int[] resultCount = {0};
+        readModules(new ModuleReceiver() {
+            @Override
+            public void receive(IModuleResult module) {
+                Integer count = entryCounts.get(module.getId());
+                entryCounts.put(module.getId(), (count == null) ? 1 : count + 1);
+                // Two entries per module (result & summary)
+                resultCount[0] += 2;
+                for (ICaseResult caseResult : module.getResults()) {
+                    resultCount[0] += caseResult.getResults().size();
+                }
+            }
+        });
+
+        // Second pass: merge the entries of each module and write the complete modules, which
+        // must come after the summary in the result file, to a temporary body file.
+        mPassed = 0;
+        mFailed = 0;
+        mModulesDone = 0;
+        mModulesTotal = 0;
+        final ChecksumReporter checksumReporter = new ChecksumReporter(resultCount[0]);
+        final Map<String, IModuleResult> pending = new HashMap<>();
+        final ResultSummary summary =
+                new ResultSummary(suitePlan, result, startTime, commandLineArgs);
+        File body = new File(mResultDir, NAME + BODY_SUFFIX);
+        try (OutputStream bodyStream = new BufferedOutputStream(new FileOutputStream(body))) {
+            final XmlSerializer serializer =
+                    XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
+            serializer.setOutput(bodyStream, ENCODING);
+            serializer.setFeature(
+                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+            readModules(new ModuleReceiver() {
+                @Override
+                public void receive(IModuleResult entry) throws IOException {
+                    String id = entry.getId();
+                    int remaining = entryCounts.get(id) - 1;
+                    entryCounts.put(id, remaining);
+                    IModuleResult module = pending.remove(id);
+                    if (module == null) {
+                        module = entry;
+                    } else {
+                        module.mergeFrom(entry);
+                    }
+                    if (remaining > 0) {
+                        pending.put(id, module);
+                        return;
+                    }
+                    ResultHandler.serializeModule(serializer, module);
+                    addChecksum(checksumReporter, module, buildFingerprint);
+                    summary.addModule(module);
+                    mPassed += module.countResults(TestStatus.PASS);
+                    mFailed += module.countResults(TestStatus.FAIL);
+                    if (module.isDone()) {
+                        mModulesDone++;
+                    }
+                    mModulesTotal++;
+                }
+            });
+            serializer.flush();
+        }
+
+        File resultFile = new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(resultFile));
+             InputStream bodyStream = new BufferedInputStream(new FileInputStream(body))) {
+            XmlSerializer serializer = ResultHandler.startResultDocument(stream);
+            ResultHandler.serializeResultHeader(serializer, suiteName, suiteVersion, suitePlan,
+                    suiteBuild, result, startTime, endTime, referenceUrl, logUrl,
+                    commandLineArgs, mPassed, mFailed, mModulesDone, mModulesTotal);
+            // Copy the modules straight into the stream, then close the result element.
+            serializer.flush();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = bodyStream.read(buffer)) != -1) {
+                stream.write(buffer, 0, len);
+            }
+            serializer.endDocument();
+        } finally {
+            body.delete();
+        }
+        mFile.delete();
+        ResultHandler.writeSummary(summary, resultFile);
+        ResultHandler.createChecksum(mResultDir, result, checksumReporter);
+        return resultFile;
+    }
+
+    /**
+     * @return the number of passed tests in the last assembled result file.
+     */
+    public int getPassedCount() {
+        return mPassed;
+    }
+
+    /**
+     * @return the number of failed tests in the last assembled result file.
+     */
+    public int getFailedCount() {
+        return mFailed;
+    }
+
+    /**
+     * @return the number of complete modules in the last assembled result file.
+     */
+    public int getModuleCompleteCount() {
+        return mModulesDone;
+    }
+
+    /**
+     * @return the number of modules in the last assembled result file.
+     */
+    public int getModuleCount() {
+        return mModulesTotal;
+    }
+
+    private static void addChecksum(ChecksumReporter checksumReporter, IModuleResult module,
+            String buildFingerprint) {
+        checksumReporter.addModuleResult(module, buildFingerprint);
+        for (ICaseResult caseResult : module.getResults()) {
+            for (ITestResult testResult : caseResult.getResults()) {
+                if (testResult.getResultStatus() != null) {
+                    checksumReporter.addTestResult(testResult, module, buildFingerprint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the module entries read from the journal.
+     */
+    private interface ModuleReceiver {
+        void receive(IModuleResult module) throws IOException;
+    }
+
+    /**
+     * Reads each module entry in the journal, in the order they were appended. An entry which
+     * cannot be parsed, such as the last entry if the host went down while it was being written,
+     * is skipped, and the entries after it are still read.
+     */
+    private void readModules(ModuleReceiver receiver) throws IOException {
+        if (!mFile.exists()) {
+            return;
+        }
+        try (EntryReader reader = new EntryReader(mFile)) {
+            byte[] entry;
+            int index = 0;
+            while ((entry = reader.nextEntry()) != null) {
+                IModuleResult module;
+                try {
+                    module = parseModule(entry);
+                } catch (XmlPullParserException | IllegalArgumentException e) {
+                    CLog.w("Skipping unreadable entry %d of result journal %s: %s", index, mFile,
+                            e.getMessage());
+                    continue;
+                } finally {
+                    index++;
+                }
+                receiver.receive(module);
+            }
+        }
+    }
+
+    /**
+     * Parses a single module entry of the journal.
+     *
+     * @throws XmlPullParserException if the entry is malformed or misses an attribute, as it does
+     * when it was truncated.
+     */
+    private static IModuleResult parseModule(byte[] entry)
+            throws XmlPullParserException, IOException {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new ByteArrayInputStream(entry), ENCODING);
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
+        IModuleResult module = new ModuleResult(getRequiredAttribute(parser, ID_ATTR));
+        module.setDone(Boolean.parseBoolean(getRequiredAttribute(parser, DONE_ATTR)));
+        module.addRuntime(Long.parseLong(getRequiredAttribute(parser, RUNTIME_ATTR)));
+        module.setExpectedTestRuns(Integer.parseInt(
+                getRequiredAttribute(parser, EXPECTED_TEST_RUNS_ATTR)));
+        int testRuns = Integer.parseInt(getRequiredAttribute(parser, TEST_RUNS_ATTR));
+        for (int i = 0; i < testRuns; i++) {
+            module.addTestRun();
+        }
+        module.setNotExecuted(Integer.parseInt(getRequiredAttribute(parser, NOT_EXECUTED_ATTR)));
+        ResultHandler.parseCases(parser, module, null, null);
+        parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+        return module;
+    }
+
+    private static String getRequiredAttribute(XmlPullParser parser, String name)
+            throws XmlPullParserException {
+        String value = parser.getAttributeValue(NS, name);
+        if (value == null) {
+            throw new XmlPullParserException(String.format(
+                    "Missing attribute %s, the entry is truncated", name), parser, null);
+        }
+        return value;
+    }
+
+    /**
+     * Splits the journal into its module entries. Text and attribute values are escaped in the
+     * journal, so a module start tag can only appear at the start of an entry.
+     */
+    private static class EntryReader implements Closeable {
+
+        private static final byte[] ENTRY_START = ("<" + MODULE_TAG + " ").getBytes(
+                StandardCharsets.UTF_8);
+
+        private final InputStream mStream;
+        private byte[] mBuffer = new byte[8192];
+        private int mLength = 0;
+        // Whether the start of the next entry has already been read.
+        private boolean mEntryStarted = false;
+        private boolean mEnded = false;
+
+        EntryReader(File file) throws IOException {
+            mStream = new BufferedInputStream(new FileInputStream(file));
+        }
+
+        /**
+         * @return the bytes of the next entry, or null if there are no more entries.
+         */
+        byte[] nextEntry() throws IOException {
+            while (!mEnded) {
+                mLength = 0;
+                if (mEntryStarted) {
+                    for (byte b : ENTRY_START) {
+                        append(b);
+                    }
+                }
+                int matched = 0;
+                int b;
+                while (true) {
+                    b = mStream.read();
+                    if (b == -1) {
+                        mEnded = true;
+                        break;
+                    }
+                    append((byte) b);
+                    if (b == ENTRY_START[matched]) {
+                        matched++;
+                    } else {
+                        matched = (b == ENTRY_START[0]) ? 1 : 0;
+                    }
+                    if (matched == ENTRY_START.length) {
+                        // Keep the start of the next entry out of this one.
+                        mLength -= matched;
+                        mEntryStarted = true;
+                        break;
+                    }
+                }
+                if (mLength > 0) {
+                    return Arrays.copyOf(mBuffer, mLength);
+                }
+            }
+            return null;
+        }
+
+        private void append(byte b) {
+            if (mLength == mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+            }
+            mBuffer[mLength++] = b;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mStream.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link DeviceArtifactCache}
+ */
+public class DeviceArtifactCacheTest extends TestCase {
+
+    private static final String SERIAL = "mock-serial";
+    private static final String POLICY_PATH = "/sys/fs/selinux/policy";
+    private static final String POLICY = "mock policy";
+    private static final String COMMAND = "ps -A";
+    private static final String COMMAND_OUTPUT = "USER PID PPID NAME\n";
+
+    private ITestDevice mMockDevice;
+    private String mFingerprint = "mock/fingerprint:1";
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        EasyMock.expect(mMockDevice.getSerialNumber()).andReturn(SERIAL).anyTimes();
+        EasyMock.expect(mMockDevice.getProperty("ro.build.fingerprint")).andAnswer(
+                new IAnswer<String>() {
+                    @Override
+                    public String answer() {
+                        return mFingerprint;
+                    }
+                }).anyTimes();
+        EasyMock.expect(mMockDevice.getProperty("ro.runtime.firstboot"))
+                .andReturn("1500000000000").anyTimes();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        DeviceArtifactCache.releaseAll();
+        super.tearDown();
+    }
+
+    public void testExecuteShellCommand_cached() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand(COMMAND)).andReturn(COMMAND_OUTPUT);
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        assertEquals(COMMAND_OUTPUT, cache.executeShellCommand(COMMAND));
+        assertEquals(COMMAND_OUTPUT, cache.executeShellCommand(COMMAND));
+        assertSame(cache, DeviceArtifactCache.getInstance(mMockDevice));
+        assertEquals(COMMAND_OUTPUT,
+                DeviceArtifactCache.getInstance(mMockDevice).executeShellCommand(COMMAND));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInvalidateCommand() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand(COMMAND)).andReturn(COMMAND_OUTPUT);
+        EasyMock.expect(mMockDevice.executeShellCommand(COMMAND)).andReturn("changed");
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        assertEquals(COMMAND_OUTPUT, cache.executeShellCommand(COMMAND));
+        cache.invalidateCommand(COMMAND);
+        assertEquals("changed", cache.executeShellCommand(COMMAND));
+        assertEquals("changed", cache.executeShellCommand(COMMAND));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testGetProperty() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("getprop ro.mock.property"))
+                .andReturn("mock_value\n");
+        EasyMock.expect(mMockDevice.executeShellCommand("getprop ro.mock.unset"))
+                .andReturn("\n");
+        EasyMock.expect(mMockDevice.executeShellCommand("getprop ro.mock.property"))
+                .andReturn("changed_value\n");
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        assertEquals("mock_value", cache.getProperty("ro.mock.property"));
+        assertEquals("mock_value", cache.getProperty("ro.mock.property"));
+        assertNull(cache.getProperty("ro.mock.unset"));
+        assertNull(cache.getProperty("ro.mock.unset"));
+        cache.invalidateProperty("ro.mock.property");
+        assertEquals("changed_value", cache.getProperty("ro.mock.property"));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testPullFile_cached() throws Exception {
+        expectPullFile(true);
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        File policy = cache.pullFile(POLICY_PATH);
+        assertEquals(POLICY, FileUtil.readStringFromFile(policy));
+        assertSame(policy, cache.pullFile(POLICY_PATH));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testPullFile_failed() throws Exception {
+        expectPullFile(false);
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        assertNull(cache.pullFile(POLICY_PATH));
+        assertNull(cache.pullFile(POLICY_PATH));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInvalidateFile() throws Exception {
+        expectPullFile(true);
+        expectPullFile(true);
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        File policy = cache.pullFile(POLICY_PATH);
+        cache.invalidateFile(POLICY_PATH);
+        assertFalse(policy.exists());
+        File pulledAgain = cache.pullFile(POLICY_PATH);
+        assertEquals(POLICY, FileUtil.readStringFromFile(pulledAgain));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testRelease() throws Exception {
+        expectPullFile(true);
+        EasyMock.expect(mMockDevice.executeShellCommand(COMMAND)).andReturn(COMMAND_OUTPUT)
+                .times(2);
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        File policy = cache.pullFile(POLICY_PATH);
+        cache.executeShellCommand(COMMAND);
+        DeviceArtifactCache.release(mMockDevice);
+        assertFalse(policy.exists());
+        DeviceArtifactCache newCache = DeviceArtifactCache.getInstance(mMockDevice);
+        assertNotSame(cache, newCache);
+        assertEquals(COMMAND_OUTPUT, newCache.executeShellCommand(COMMAND));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testGetInstance_newBuild() throws Exception {
+        expectPullFile(true);
+        EasyMock.expect(mMockDevice.executeShellCommand(COMMAND)).andReturn(COMMAND_OUTPUT);
+        EasyMock.expect(mMockDevice.executeShellCommand(COMMAND)).andReturn("changed");
+        EasyMock.replay(mMockDevice);
+        DeviceArtifactCache cache = DeviceArtifactCache.getInstance(mMockDevice);
+        File policy = cache.pullFile(POLICY_PATH);
+        assertEquals(COMMAND_OUTPUT, cache.executeShellCommand(COMMAND));
+        mFingerprint = "mock/fingerprint:2";
+        DeviceArtifactCache newCache = DeviceArtifactCache.getInstance(mMockDevice);
+        assertNotSame(cache, newCache);
+        // the files of the previous build are deleted
+        assertFalse(policy.exists());
+        assertEquals("changed", newCache.executeShellCommand(COMMAND));
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Expects one pull of the policy file, writing it to the destination if it succeeds.
+     */
+    private void expectPullFile(final boolean success) throws Exception {
+        EasyMock.expect(mMockDevice.pullFile(EasyMock.eq(POLICY_PATH),
+                EasyMock.<File>anyObject())).andAnswer(new IAnswer<Boolean>() {
+                    @Override
+                    public Boolean answer() throws Exception {
+                        if (success) {
+                            File destination = (File) EasyMock.getCurrentArguments()[1];
+                            FileUtil.writeToFile(POLICY, destination);
+                        }
+                        return success;
+                    }
+                });
+    }
+}
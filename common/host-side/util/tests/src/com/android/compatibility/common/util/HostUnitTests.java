@@ -27,7 +27,9 @@ public class HostUnitTests extends TestSuite {
 
     public HostUnitTests() {
         super();
+        addTestSuite(DeviceArtifactCacheTest.class);
         addTestSuite(DynamicConfigHandlerTest.class);
+        addTestSuite(ResultJournalTest.class);
     }
 
     public static Test suite() {
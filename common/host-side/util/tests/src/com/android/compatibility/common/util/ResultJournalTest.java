@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+
+/**
+ * Unit tests for {@link ResultJournal}
+ */
+public class ResultJournalTest extends TestCase {
+
+    private static final String SUITE_NAME = "CTS";
+    private static final String SUITE_VERSION = "5.0";
+    private static final String SUITE_PLAN = "cts";
+    private static final String SUITE_BUILD = "12345";
+    private static final String ABI = "mips64";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS = "android.test.Foor";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String MESSAGE = "Something small is not alright";
+    private static final long START_MS = 1431586801000L;
+    private static final long END_MS = 1431673199000L;
+
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultDir = FileUtil.createTempDir("12345");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultDir);
+    }
+
+    public void testWriteResults() throws Exception {
+        ResultJournal journal = new ResultJournal(mResultDir);
+        // Module A is split across two shards
+        journal.append(createModule(ID_A, METHOD_1, TestStatus.PASS, 100));
+        journal.append(createModule(ID_B, METHOD_1, TestStatus.FAIL, 300));
+        journal.append(createModule(ID_A, METHOD_2, TestStatus.PASS, 200));
+        assertTrue(journal.getFile().exists());
+
+        IInvocationResult result = new InvocationResult();
+        File resultFile = journal.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN,
+                SUITE_BUILD, result, START_MS, END_MS, null, null, null);
+        assertTrue(resultFile.exists());
+        assertFalse(journal.getFile().exists());
+        assertEquals(2, journal.getPassedCount());
+        assertEquals(1, journal.getFailedCount());
+        assertEquals(2, journal.getModuleCount());
+        assertEquals(2, journal.getModuleCompleteCount());
+
+        IInvocationResult parsed = ResultHandler.getResultFromDir(mResultDir);
+        assertEquals(2, parsed.getModules().size());
+        assertEquals(2, parsed.countResults(TestStatus.PASS));
+        assertEquals(1, parsed.countResults(TestStatus.FAIL));
+        IModuleResult moduleA = parsed.getModules().get(0);
+        assertEquals(ID_A, moduleA.getId());
+        assertEquals(300, moduleA.getRuntime());
+        assertEquals(2, moduleA.getResult(CLASS).getResults().size());
+        IModuleResult moduleB = parsed.getModules().get(1);
+        assertEquals(MESSAGE,
+                moduleB.getResult(CLASS).getResult(METHOD_1).getMessage());
+    }
+
+    public void testWriteResults_truncatedJournal() throws Exception {
+        ResultJournal journal = new ResultJournal(mResultDir);
+        journal.append(createModule(ID_A, METHOD_1, TestStatus.PASS, 100));
+        // Simulate the host going down while the second entry was being written
+        FileWriter writer = new FileWriter(journal.getFile(), true);
+        writer.write("<Module id=\"" + ID_B + "\" done=\"true\" runtime=\"100\" "
+                + "test_runs=\"1\" expected_test_runs=\"1\" not_executed=\"0\">"
+                + "<TestCase name=");
+        writer.close();
+
+        journal.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                new InvocationResult(), START_MS, END_MS, null, null, null);
+        assertEquals(1, journal.getModuleCount());
+        IInvocationResult parsed = ResultHandler.getResultFromDir(mResultDir);
+        assertEquals(1, parsed.getModules().size());
+        assertEquals(ID_A, parsed.getModules().get(0).getId());
+    }
+
+    public void testWriteResults_truncatedStartTag() throws Exception {
+        ResultJournal journal = new ResultJournal(mResultDir);
+        journal.append(createModule(ID_A, METHOD_1, TestStatus.PASS, 100));
+        // Simulate the host going down while the start tag of the second entry was being written
+        FileWriter writer = new FileWriter(journal.getFile(), true);
+        writer.write("<Module id=\"" + ID_B + "\" done=\"true\" runtime=\"1");
+        writer.close();
+
+        journal.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                new InvocationResult(), START_MS, END_MS, null, null, null);
+        assertEquals(1, journal.getModuleCount());
+        IInvocationResult parsed = ResultHandler.getResultFromDir(mResultDir);
+        assertEquals(1, parsed.getModules().size());
+        assertEquals(ID_A, parsed.getModules().get(0).getId());
+    }
+
+    public void testWriteResults_missingAttributes() throws Exception {
+        ResultJournal journal = new ResultJournal(mResultDir);
+        journal.append(createModule(ID_A, METHOD_1, TestStatus.PASS, 100));
+        // A start tag cut before its runtime and test runs
+        FileWriter writer = new FileWriter(journal.getFile(), true);
+        writer.write("<Module id=\"" + ID_B + "\" done=\"true\">");
+        writer.close();
+
+        journal.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                new InvocationResult(), START_MS, END_MS, null, null, null);
+        assertEquals(1, journal.getModuleCount());
+    }
+
+    public void testWriteResults_entriesAfterBadEntry() throws Exception {
+        ResultJournal journal = new ResultJournal(mResultDir);
+        journal.append(createModule(ID_A, METHOD_1, TestStatus.PASS, 100));
+        FileWriter writer = new FileWriter(journal.getFile(), true);
+        writer.write("<Module id=\"" + ID_B + "\" done=\"true\" runtime=\"10");
+        writer.close();
+        journal.append(createModule(ID_B, METHOD_2, TestStatus.FAIL, 200));
+
+        journal.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                new InvocationResult(), START_MS, END_MS, null, null, null);
+        assertEquals(2, journal.getModuleCount());
+        assertEquals(1, journal.getPassedCount());
+        assertEquals(1, journal.getFailedCount());
+        IInvocationResult parsed = ResultHandler.getResultFromDir(mResultDir);
+        assertEquals(2, parsed.getModules().size());
+        IModuleResult moduleB = parsed.getModules().get(1);
+        assertEquals(ID_B, moduleB.getId());
+        assertEquals(200, moduleB.getRuntime());
+    }
+
+    private static IModuleResult createModule(String id, String method, TestStatus status,
+            long runtime) {
+        IModuleResult module = new ModuleResult(id);
+        module.setDone(true);
+        module.addRuntime(runtime);
+        ITestResult test = module.getOrCreateResult(CLASS).getOrCreateResult(method);
+        test.setResultStatus(status);
+        if (status == TestStatus.FAIL) {
+            test.setMessage(MESSAGE);
+        }
+        return module;
+    }
+}
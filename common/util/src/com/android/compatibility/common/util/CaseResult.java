@@ -30,11 +30,25 @@ public class CaseResult implements ICaseResult {
 
     private Map<String, ITestResult> mResults = new HashMap<>();
 
+    // The module result holding this case, or null
+    private final ModuleResult mModule;
+    private final StatusCounts mCounts = new StatusCounts();
+    // The results sorted by name, or null if results were added since it was last sorted
+    private List<ITestResult> mSortedResults;
+
     /**
      * Creates a {@link CaseResult} for the given name, eg &lt;package-name&gt;.&lt;class-name&gt;
      */
     public CaseResult(String name) {
+        this(name, null);
+    }
+
+    /**
+     * Creates a {@link CaseResult} held by the given module result, which counts its results.
+     */
+    CaseResult(String name, ModuleResult module) {
         mName = name;
+        mModule = module;
     }
 
     /**
@@ -53,7 +67,7 @@ public class CaseResult implements ICaseResult {
         ITestResult result = mResults.get(testName);
         if (result == null) {
             result = new TestResult(this, testName);
-            mResults.put(testName, result);
+            putResult(result);
         }
         return result;
     }
@@ -85,9 +99,12 @@ public class CaseResult implements ICaseResult {
      */
     @Override
     public List<ITestResult> getResults() {
-        ArrayList<ITestResult> results = new ArrayList<>(mResults.values());
-        Collections.sort(results);
-        return results;
+        if (mSortedResults == null) {
+            ArrayList<ITestResult> results = new ArrayList<>(mResults.values());
+            Collections.sort(results);
+            mSortedResults = Collections.unmodifiableList(results);
+        }
+        return mSortedResults;
     }
 
     /**
@@ -95,13 +112,7 @@ public class CaseResult implements ICaseResult {
      */
     @Override
     public int countResults(TestStatus status) {
-        int total = 0;
-        for (ITestResult result : mResults.values()) {
-            if (result.getResultStatus() == status) {
-                total++;
-            }
-        }
-        return total;
+        return mCounts.get(status);
     }
 
     /**
@@ -124,7 +135,57 @@ public class CaseResult implements ICaseResult {
         }
 
         for (ITestResult otherTestResult : otherCaseResult.getResults()) {
-            mResults.put(otherTestResult.getName(), otherTestResult);
+            putResult(otherTestResult);
+            if (otherTestResult instanceof TestResult && otherCaseResult instanceof CaseResult) {
+                // This case owns the result from now on, e.g. the master result merging a shard.
+                // The counts of the other case no longer follow it.
+                ((TestResult) otherTestResult).removeHolder((CaseResult) otherCaseResult);
+            }
+        }
+    }
+
+    /**
+     * Adds the given result, replacing any result with the same name, and updates the counts.
+     * Only the status changes of {@link TestResult}s are followed, other results are counted with
+     * the status they have when added.
+     */
+    private void putResult(ITestResult result) {
+        ITestResult previous = mResults.put(result.getName(), result);
+        if (previous == result) {
+            return;
+        }
+        if (previous != null) {
+            if (previous instanceof TestResult) {
+                ((TestResult) previous).removeHolder(this);
+            }
+            onCountChanged(previous.getResultStatus(), -1);
+        }
+        if (result instanceof TestResult) {
+            ((TestResult) result).addHolder(this);
+        }
+        onCountChanged(result.getResultStatus(), 1);
+        mSortedResults = null;
+    }
+
+    /**
+     * @return the store for the strings of the results of this case, or null
+     */
+    ResultStringStore getStringStore() {
+        return (mModule == null) ? null : mModule.getStringStore();
+    }
+
+    /**
+     * Called by a result of this case when its status changes.
+     */
+    void onStatusChanged(TestStatus previous, TestStatus status) {
+        onCountChanged(previous, -1);
+        onCountChanged(status, 1);
+    }
+
+    private void onCountChanged(TestStatus status, int delta) {
+        mCounts.add(status, delta);
+        if (mModule != null) {
+            mModule.onCountChanged(status, delta);
         }
     }
 
@@ -20,10 +20,11 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,20 +32,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.io.Serializable;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
 /***
  * Calculate and store checksum values for files and test results
+ * <p/>
+ * Test results are stored in a {@link ScalableBloomFilter}, so results can be added
+ * incrementally beyond the count the reporter was created with. The checksum is saved in a
+ * versioned binary format. Checksums saved by previous versions using Java serialization can
+ * still be loaded.
  */
-public final class ChecksumReporter implements Serializable {
+public final class ChecksumReporter {
 
     public static final String NAME = "checksum.data";
     public static final String PREV_NAME = "checksum.previous.data";
@@ -54,13 +57,26 @@ public final class ChecksumReporter implements Serializable {
     private static final String ID_SEPARATOR = "@";
     private static final String NAME_SEPARATOR = ".";
 
-    private static final short CURRENT_VERSION = 1;
+    private static final short CURRENT_VERSION = 2;
     // Serialized format Id (ie magic number) used to identify serialized data.
     static final short SERIALIZED_FORMAT_CODE = 650;
-
-    private final BloomFilter<CharSequence> mResultChecksum;
+    // Format Id used to identify data saved in the binary format, from version 2.
+    static final short BINARY_FORMAT_CODE = 652;
+    // The first bytes of data written by an ObjectOutputStream.
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xaced;
+
+    // Null if loaded from a checksum saved using Java serialization.
+    private final ScalableBloomFilter mResultChecksum;
+    // Only set if loaded from a checksum saved using Java serialization.
+    private BloomFilter<CharSequence> mLegacyResultChecksum;
     private final HashMap<String, byte[]> mFileChecksum;
+    // The size and modification time of each file when its checksum was calculated.
+    private final HashMap<String, long[]> mFileStats = new HashMap<>();
+    // Lazily built mapping of file paths relative to the base directory to file checksum keys.
+    private HashMap<String, String> mRelativeKeys;
     private final short mVersion;
+    // Nullable. Checksum of the session being retried, whose file checksums can be reused.
+    private ChecksumReporter mPreviousChecksum;
 
     /***
      * Calculate checksum of test results and files in result directory and write to disk
@@ -69,10 +85,24 @@ public final class ChecksumReporter implements Serializable {
      * @return true if successful, false if unable to calculate or store the checksum
      */
     public static boolean tryCreateChecksum(File dir, IInvocationResult result) {
+        return tryCreateChecksum(dir, result, null);
+    }
+
+    /***
+     * Calculate checksum of test results and files in result directory and write to disk
+     * @param dir test results directory
+     * @param result test results
+     * @param previousChecksum nullable checksum of the session being retried, whose file
+     * checksums are reused for files copied unchanged from it
+     * @return true if successful, false if unable to calculate or store the checksum
+     */
+    static boolean tryCreateChecksum(File dir, IInvocationResult result,
+            ChecksumReporter previousChecksum) {
         try {
             int totalCount = countTestResults(result);
             ChecksumReporter checksumReporter =
                     new ChecksumReporter(totalCount, DEFAULT_FPP, CURRENT_VERSION);
+            checksumReporter.setPreviousChecksum(previousChecksum);
             checksumReporter.addInvocation(result);
             checksumReporter.addDirectory(dir);
             checksumReporter.saveToFile(dir);
@@ -82,6 +112,23 @@ public final class ChecksumReporter implements Serializable {
         return true;
     }
 
+    /***
+     * Calculate checksum of files in result directory and write to disk, along with the test
+     * results already added to the given reporter
+     * @param dir test results directory
+     * @param checksumReporter reporter holding the checksum of the test results
+     * @return true if successful, false if unable to calculate or store the checksum
+     */
+    static boolean tryCreateChecksum(File dir, ChecksumReporter checksumReporter) {
+        try {
+            checksumReporter.addDirectory(dir);
+            checksumReporter.saveToFile(dir);
+        } catch (Exception e) {
+            return false;
+        }
+        return true;
+    }
+
     /***
      * Create Checksum Reporter from data saved on disk
      * @param directory
@@ -104,18 +151,43 @@ public final class ChecksumReporter implements Serializable {
     public ChecksumReporter(File directory) throws ChecksumValidationException {
         File file = new File(directory, ChecksumReporter.NAME);
         try (FileInputStream fileStream = new FileInputStream(file);
-            InputStream outputStream = new BufferedInputStream(fileStream);
-            ObjectInput objectInput = new ObjectInputStream(outputStream)) {
-            short magicNumber = objectInput.readShort();
-            switch (magicNumber) {
-                case SERIALIZED_FORMAT_CODE:
-                   mVersion = objectInput.readShort();
-                    mResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
-                    mFileChecksum = (HashMap<String, byte[]>) objectInput.readObject();
-                    break;
-                default:
+            InputStream inputStream = new BufferedInputStream(fileStream)) {
+            inputStream.mark(2);
+            int header = new DataInputStream(inputStream).readUnsignedShort();
+            inputStream.reset();
+            if (header == JAVA_SERIALIZATION_MAGIC) {
+                mResultChecksum = null;
+                ObjectInput objectInput = new ObjectInputStream(inputStream);
+                short magicNumber = objectInput.readShort();
+                if (magicNumber != SERIALIZED_FORMAT_CODE) {
                     throw new ChecksumValidationException("Unknown format of serialized data.");
+                }
+                mVersion = objectInput.readShort();
+                mLegacyResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
+                mFileChecksum = (HashMap<String, byte[]>) objectInput.readObject();
+            } else {
+                DataInputStream dataInput = new DataInputStream(inputStream);
+                if (dataInput.readShort() != BINARY_FORMAT_CODE) {
+                    throw new ChecksumValidationException("Unknown format of serialized data.");
+                }
+                mVersion = dataInput.readShort();
+                if (mVersion > CURRENT_VERSION) {
+                    throw new ChecksumValidationException(
+                            "File contains a newer version of ChecksumReporter");
+                }
+                mResultChecksum = ScalableBloomFilter.readFrom(dataInput);
+                mFileChecksum = new HashMap<>();
+                int fileCount = dataInput.readInt();
+                for (int i = 0; i < fileCount; i++) {
+                    String key = dataInput.readUTF();
+                    byte[] checksum = new byte[dataInput.readInt()];
+                    dataInput.readFully(checksum);
+                    mFileChecksum.put(key, checksum);
+                    mFileStats.put(key, new long[] {dataInput.readLong(), dataInput.readLong()});
+                }
             }
+        } catch (ChecksumValidationException e) {
+            throw e;
         } catch (Exception e) {
             throw new ChecksumValidationException("Unable to load checksum from file", e);
         }
@@ -125,18 +197,34 @@ public final class ChecksumReporter implements Serializable {
         }
     }
 
+    /***
+     * Create new instance of ChecksumReporter with the default false positive percentage
+     * @param testCount the number of test results that will be stored
+     */
+    ChecksumReporter(int testCount) {
+        this(testCount, DEFAULT_FPP, CURRENT_VERSION);
+    }
+
     /***
      * Create new instance of ChecksumReporter
      * @param testCount the number of test results that will be stored
      * @param fpp the false positive percentage for result lookup misses
      */
     public ChecksumReporter(int testCount, double fpp, short version) {
-        mResultChecksum = BloomFilter.create(Funnels.unencodedCharsFunnel(),
-                testCount, fpp);
+        mResultChecksum = new ScalableBloomFilter(testCount, fpp);
         mFileChecksum = new HashMap<>();
         mVersion = version;
     }
 
+    /***
+     * Reuse the file checksums of the given checksum, for files that were copied unchanged from
+     * the directory it was calculated on, as files are by a retry.
+     * @param previousChecksum the checksum of the session being retried
+     */
+    public void setPreviousChecksum(ChecksumReporter previousChecksum) {
+        mPreviousChecksum = previousChecksum;
+    }
+
     /***
      * Add each test result from each module and test case
      */
@@ -158,14 +246,44 @@ public final class ChecksumReporter implements Serializable {
      * @param path part of the key to identify the files crc
      */
     public void addFile(File file, String path) {
-        byte[] crc;
-        try {
-            crc = calculateFileChecksum(file);
-        } catch (ChecksumValidationException e) {
-            crc = new byte[0];
-        }
         String key = path + SEPARATOR + file.getName();
+        long[] stats = new long[] {file.length(), file.lastModified()};
+        byte[] crc = (mPreviousChecksum == null) ? null
+                : mPreviousChecksum.getFileChecksum(trimBaseDirectory(key), stats);
+        if (crc == null) {
+            try {
+                crc = calculateFileChecksum(file);
+            } catch (ChecksumValidationException e) {
+                crc = new byte[0];
+            }
+        }
         mFileChecksum.put(key, crc);
+        mFileStats.put(key, stats);
+    }
+
+    /***
+     * @param relativePath the path of a file, relative to the base directory
+     * @param stats the current size and modification time of the file
+     * @return the stored checksum of the file if it has the same size and modification time as
+     * when the checksum was calculated, or null
+     */
+    private byte[] getFileChecksum(String relativePath, long[] stats) {
+        if (mRelativeKeys == null) {
+            mRelativeKeys = new HashMap<>();
+            for (String key : mFileStats.keySet()) {
+                mRelativeKeys.put(trimBaseDirectory(key), key);
+            }
+        }
+        String key = mRelativeKeys.get(relativePath);
+        if (key == null || !Arrays.equals(mFileStats.get(key), stats)) {
+            return null;
+        }
+        return mFileChecksum.get(key);
+    }
+
+    private static String trimBaseDirectory(String key) {
+        int index = key.indexOf(SEPARATOR);
+        return (index < 0) ? key : key.substring(index + 1);
     }
 
     @VisibleForTesting
@@ -215,7 +333,7 @@ public final class ChecksumReporter implements Serializable {
         ITestResult testResult, IModuleResult moduleResult, String buildFingerprint) {
 
         String signature = generateTestResultSignature(testResult, moduleResult, buildFingerprint);
-        mResultChecksum.put(signature);
+        putResult(signature);
     }
 
     @VisibleForTesting
@@ -223,7 +341,7 @@ public final class ChecksumReporter implements Serializable {
             ITestResult testResult, IModuleResult moduleResult, String buildFingerprint) {
 
         String signature = generateTestResultSignature(testResult, moduleResult, buildFingerprint);
-        return mResultChecksum.mightContain(signature);
+        return mightContainResult(signature);
     }
 
     /***
@@ -232,16 +350,28 @@ public final class ChecksumReporter implements Serializable {
      * @param buildFingerprint the fingerprint the test execution is running against
      */
     public void addModuleResult(IModuleResult moduleResult, String buildFingerprint) {
-        mResultChecksum.put(
-                generateModuleResultSignature(moduleResult, buildFingerprint));
-        mResultChecksum.put(
-                generateModuleSummarySignature(moduleResult, buildFingerprint));
+        putResult(generateModuleResultSignature(moduleResult, buildFingerprint));
+        putResult(generateModuleSummarySignature(moduleResult, buildFingerprint));
     }
 
     @VisibleForTesting
     public Boolean containsModuleResult(IModuleResult moduleResult, String buildFingerprint) {
-        return mResultChecksum.mightContain(
-                generateModuleResultSignature(moduleResult, buildFingerprint));
+        return mightContainResult(generateModuleResultSignature(moduleResult, buildFingerprint));
+    }
+
+    private void putResult(String signature) {
+        if (mResultChecksum == null) {
+            throw new IllegalStateException(
+                    "Cannot add results to a checksum loaded from a previous version");
+        }
+        mResultChecksum.put(signature);
+    }
+
+    private boolean mightContainResult(String signature) {
+        if (mResultChecksum == null) {
+            return mLegacyResultChecksum.mightContain(signature);
+        }
+        return mResultChecksum.mightContain(signature);
     }
 
     /***
@@ -253,13 +383,24 @@ public final class ChecksumReporter implements Serializable {
     public void saveToFile(File directory) throws IOException {
         File file = new File(directory, NAME);
 
+        if (mResultChecksum == null) {
+            throw new IOException("Cannot save a checksum loaded from a previous version");
+        }
         try (FileOutputStream fileStream = new FileOutputStream(file, false);
-             OutputStream outputStream = new BufferedOutputStream(fileStream);
-             ObjectOutput objectOutput = new ObjectOutputStream(outputStream)) {
-            objectOutput.writeShort(SERIALIZED_FORMAT_CODE);
-            objectOutput.writeShort(mVersion);
-            objectOutput.writeObject(mResultChecksum);
-            objectOutput.writeObject(mFileChecksum);
+             DataOutputStream dataOutput =
+                     new DataOutputStream(new BufferedOutputStream(fileStream))) {
+            dataOutput.writeShort(BINARY_FORMAT_CODE);
+            dataOutput.writeShort(CURRENT_VERSION);
+            mResultChecksum.writeTo(dataOutput);
+            dataOutput.writeInt(mFileChecksum.size());
+            for (Map.Entry<String, byte[]> entry : mFileChecksum.entrySet()) {
+                dataOutput.writeUTF(entry.getKey());
+                dataOutput.writeInt(entry.getValue().length);
+                dataOutput.write(entry.getValue());
+                long[] stats = mFileStats.get(entry.getKey());
+                dataOutput.writeLong((stats == null) ? -1 : stats[0]);
+                dataOutput.writeLong((stats == null) ? -1 : stats[1]);
+            }
         }
     }
 
@@ -267,6 +408,9 @@ public final class ChecksumReporter implements Serializable {
     double getCapacity() {
         // If default FPP changes:
         // increment the CURRENT_VERSION and set the denominator based on this.mVersion
+        if (mResultChecksum == null) {
+            return mLegacyResultChecksum.expectedFpp() / DEFAULT_FPP;
+        }
         return mResultChecksum.expectedFpp() / DEFAULT_FPP;
     }
 
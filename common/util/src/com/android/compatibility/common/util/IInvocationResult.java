@@ -80,6 +80,13 @@ public interface IInvocationResult {
      */
     void mergeModuleResult(IModuleResult moduleResult);
 
+    /**
+     * Removes the module result for the given id from the invocation result.
+     *
+     * @return the removed {@link IModuleResult}, or null if there was none
+     */
+    IModuleResult removeModule(String id);
+
     /**
      * Adds the given invocation info to the result.
      */
@@ -40,14 +40,22 @@ public class InvocationResult implements IInvocationResult {
     private int mNotExecuted = 0;
     private RetryChecksumStatus mRetryChecksumStatus = RetryChecksumStatus.NotRetry;
     private File mRetryDirectory = null;
+    private final StatusCounts mCounts = new StatusCounts();
+    private ResultStringStore mStringStore = null;
+    // The modules sorted by id, or null if modules were added or removed since it was last sorted
+    private List<IModuleResult> mSortedModules;
+
     /**
      * {@inheritDoc}
      */
     @Override
     public List<IModuleResult> getModules() {
-        ArrayList<IModuleResult> modules = new ArrayList<>(mModuleResults.values());
-        Collections.sort(modules);
-        return modules;
+        if (mSortedModules == null) {
+            ArrayList<IModuleResult> modules = new ArrayList<>(mModuleResults.values());
+            Collections.sort(modules);
+            mSortedModules = Collections.unmodifiableList(modules);
+        }
+        return mSortedModules;
     }
 
     /**
@@ -55,11 +63,7 @@ public class InvocationResult implements IInvocationResult {
      */
     @Override
     public int countResults(TestStatus result) {
-        int total = 0;
-        for (IModuleResult m : mModuleResults.values()) {
-            total += m.countResults(result);
-        }
-        return total;
+        return mCounts.get(result);
     }
 
     /**
@@ -81,8 +85,9 @@ public class InvocationResult implements IInvocationResult {
     public IModuleResult getOrCreateModule(String id) {
         IModuleResult moduleResult = mModuleResults.get(id);
         if (moduleResult == null) {
-            moduleResult = new ModuleResult(id);
+            moduleResult = new ModuleResult(id, this);
             mModuleResults.put(id, moduleResult);
+            mSortedModules = null;
         }
         return moduleResult;
     }
@@ -97,6 +102,21 @@ public class InvocationResult implements IInvocationResult {
         existingModuleResult.mergeFrom(moduleResult);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IModuleResult removeModule(String id) {
+        IModuleResult moduleResult = mModuleResults.remove(id);
+        if (moduleResult != null) {
+            if (moduleResult instanceof ModuleResult) {
+                ((ModuleResult) moduleResult).removeFrom(this);
+            }
+            mSortedModules = null;
+        }
+        return moduleResult;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -235,4 +255,35 @@ public class InvocationResult implements IInvocationResult {
     public void setRetryDirectory(File resultDir) {
         mRetryDirectory = resultDir;
     }
+
+    /**
+     * Sets the store keeping the strings of the test results created from now on, to reduce the
+     * memory held by the results of large invocations. The store must not be closed until the
+     * results have been written.
+     */
+    public void setStringStore(ResultStringStore store) {
+        mStringStore = store;
+    }
+
+    /**
+     * @return the store set by {@link #setStringStore}, or null
+     */
+    ResultStringStore getStringStore() {
+        return mStringStore;
+    }
+
+    /**
+     * Called by a module of this invocation when the number of results with the given status
+     * changes.
+     */
+    void onCountChanged(TestStatus status, int delta) {
+        mCounts.add(status, delta);
+    }
+
+    /**
+     * Called when a module is removed, to remove its results from the counts.
+     */
+    void removeCounts(StatusCounts moduleCounts) {
+        mCounts.subtract(moduleCounts);
+    }
 }
@@ -49,6 +49,17 @@ public class LightInvocationResult implements IInvocationResult {
      * result param to remain lightweight.
      */
     public LightInvocationResult(IInvocationResult result) {
+        this(result, null);
+    }
+
+    /**
+     * Constructor that takes the counts of each {@link TestStatus} separately, for results whose
+     * own counts are incomplete.
+     *
+     * @param resultCounts a nullable {@link Map} of counts. If null, the counts are taken from
+     * the result.
+     */
+    LightInvocationResult(IInvocationResult result, Map<TestStatus, Integer> resultCounts) {
         mTimestamp = result.getStartTime();
         mInvocationInfo = new HashMap<String, String>(result.getInvocationInfo());
         mSerials = new HashSet<String>(result.getDeviceSerials());
@@ -65,7 +76,8 @@ public class LightInvocationResult implements IInvocationResult {
         }
         mResultCounts = new HashMap<TestStatus, Integer>();
         for (TestStatus status : TestStatus.values()) {
-            mResultCounts.put(status, result.countResults(status));
+            mResultCounts.put(status, (resultCounts == null)
+                    ? result.countResults(status) : resultCounts.get(status));
         }
     }
 
@@ -114,6 +126,14 @@ public class LightInvocationResult implements IInvocationResult {
         mModuleIds.add(moduleResult.getId());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IModuleResult removeModule(String id) {
+        return mModuleIds.remove(id) ? new ModuleResult(id) : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * A histogram of samples in logarithmic buckets, for recording e.g. frame times or latencies
+ * without keeping every sample.
+ * <p/>
+ * Each power of two is split into 2^precisionBits buckets of equal width, so percentiles are
+ * known within a relative error of 2^-(precisionBits + 1). The count, average, standard
+ * deviation, minimum and maximum are exact. The buckets of a power of two are allocated when
+ * its first sample is recorded, after which recording does not allocate, so samples can be
+ * recorded from within a measured loop.
+ * <p/>
+ * Histograms with the same precision can be merged, e.g. to combine the samples of several
+ * threads or runs, see {@link #merge} and {@link #snapshot}.
+ * <p/>
+ * Not thread safe.
+ */
+public class LogHistogram {
+
+    /** The default precision, percentiles are within 0.05% of the sampled values. */
+    public static final int DEFAULT_PRECISION_BITS = 10;
+
+    private static final int MANTISSA_BITS = 52;
+    // The biased exponents of finite doubles
+    private static final int EXPONENT_COUNT = 2047;
+
+    private final int mPrecisionBits;
+    private final int mBucketsPerExponent;
+
+    // Indexed by the biased exponent of the magnitude of the samples, then by the top
+    // precisionBits bits of their mantissa.
+    private final long[][] mPositiveCounts = new long[EXPONENT_COUNT][];
+    private final long[][] mNegativeCounts = new long[EXPONENT_COUNT][];
+    private long mZeroCount;
+
+    private long mCount;
+    // Running average and sum of squared differences from it, see Welford's algorithm
+    private double mMean;
+    private double mSquaredDiffs;
+    private double mMin = Double.NaN;
+    private double mMax = Double.NaN;
+
+    /**
+     * Creates a histogram with the {@link #DEFAULT_PRECISION_BITS default precision}.
+     */
+    public LogHistogram() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * @param precisionBits the log2 of the number of buckets in each power of two, from 0 to 20.
+     */
+    public LogHistogram(int precisionBits) {
+        if (precisionBits < 0 || precisionBits > 20) {
+            throw new IllegalArgumentException("precisionBits must be between 0 and 20, got "
+                    + precisionBits);
+        }
+        mPrecisionBits = precisionBits;
+        mBucketsPerExponent = 1 << precisionBits;
+    }
+
+    /**
+     * Records a sample.
+     *
+     * @throws IllegalArgumentException if the value is NaN or infinite.
+     */
+    public void record(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Cannot record " + value);
+        }
+        addSamples(value, 1);
+    }
+
+    /** Records count samples of the given finite value. */
+    private void addSamples(double value, long count) {
+        if (value == 0) {
+            mZeroCount += count;
+        } else {
+            long bits = Double.doubleToRawLongBits(Math.abs(value));
+            int exponent = (int) (bits >>> MANTISSA_BITS);
+            long[][] counts = (value > 0) ? mPositiveCounts : mNegativeCounts;
+            if (counts[exponent] == null) {
+                counts[exponent] = new long[mBucketsPerExponent];
+            }
+            counts[exponent][subBucket(bits)] += count;
+        }
+
+        mCount += count;
+        double diff = value - mMean;
+        mMean += diff * count / mCount;
+        mSquaredDiffs += diff * (value - mMean) * count;
+        if (!(value >= mMin)) { // mMin may be NaN
+            mMin = value;
+        }
+        if (!(value <= mMax)) { // mMax may be NaN
+            mMax = value;
+        }
+    }
+
+    /**
+     * Records every value of the given array.
+     */
+    public void recordAll(double[] values) {
+        for (double value : values) {
+            record(value);
+        }
+    }
+
+    /**
+     * Adds the samples of the given histogram to this one.
+     *
+     * @throws IllegalArgumentException if the histograms have a different precision.
+     */
+    public void merge(LogHistogram other) {
+        if (other.mPrecisionBits != mPrecisionBits) {
+            throw new IllegalArgumentException("Cannot merge histograms of precision "
+                    + other.mPrecisionBits + " into one of precision " + mPrecisionBits);
+        }
+        if (other.mCount == 0) {
+            return;
+        }
+        mergeCounts(mPositiveCounts, other.mPositiveCounts);
+        mergeCounts(mNegativeCounts, other.mNegativeCounts);
+        mZeroCount += other.mZeroCount;
+
+        long count = mCount + other.mCount;
+        double diff = other.mMean - mMean;
+        mSquaredDiffs += other.mSquaredDiffs
+                + diff * diff * ((double) mCount * other.mCount / count);
+        mMean += diff * other.mCount / count;
+        mCount = count;
+        if (!(other.mMin >= mMin)) {
+            mMin = other.mMin;
+        }
+        if (!(other.mMax <= mMax)) {
+            mMax = other.mMax;
+        }
+    }
+
+    private void mergeCounts(long[][] counts, long[][] otherCounts) {
+        for (int exponent = 0; exponent < EXPONENT_COUNT; exponent++) {
+            long[] other = otherCounts[exponent];
+            if (other == null) {
+                continue;
+            }
+            if (counts[exponent] == null) {
+                counts[exponent] = new long[mBucketsPerExponent];
+            }
+            long[] buckets = counts[exponent];
+            for (int i = 0; i < mBucketsPerExponent; i++) {
+                buckets[i] += other[i];
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this histogram, which is not affected by later samples.
+     */
+    public LogHistogram snapshot() {
+        LogHistogram copy = new LogHistogram(mPrecisionBits);
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Removes all samples, keeping the buckets allocated so far.
+     */
+    public void reset() {
+        for (int exponent = 0; exponent < EXPONENT_COUNT; exponent++) {
+            clear(mPositiveCounts[exponent]);
+            clear(mNegativeCounts[exponent]);
+        }
+        mZeroCount = 0;
+        mCount = 0;
+        mMean = 0;
+        mSquaredDiffs = 0;
+        mMin = Double.NaN;
+        mMax = Double.NaN;
+    }
+
+    private static void clear(long[] buckets) {
+        if (buckets != null) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = 0;
+            }
+        }
+    }
+
+    /** Returns the number of samples. */
+    public long getCount() {
+        return mCount;
+    }
+
+    /** Returns the minimum or NaN if there are no samples. */
+    public double getMin() {
+        return mMin;
+    }
+
+    /** Returns the maximum or NaN if there are no samples. */
+    public double getMax() {
+        return mMax;
+    }
+
+    /** Returns the average or NaN if there are no samples. */
+    public double getAverage() {
+        return (mCount == 0) ? Double.NaN : mMean;
+    }
+
+    /**
+     * Returns the population standard deviation or NaN if there are no samples, as
+     * {@code MediaUtils.Stats} computes it.
+     */
+    public double getStdev() {
+        return (mCount == 0) ? Double.NaN : Math.sqrt(mSquaredDiffs / mCount);
+    }
+
+    /**
+     * Returns the sample standard deviation, or NaN if there are less than two samples, as
+     * {@link Stat#getStat} computes it.
+     */
+    public double getSampleStdev() {
+        return (mCount < 2) ? Double.NaN : Math.sqrt(mSquaredDiffs / (mCount - 1));
+    }
+
+    /**
+     * Returns the approximate value of the sample at the given index in the sorted samples,
+     * or NaN if the index is out of bounds. The first and last samples are exact.
+     */
+    public double getValueAtIndex(long index) {
+        if (index < 0 || index >= mCount) {
+            return Double.NaN;
+        }
+        if (index == 0) {
+            return mMin;
+        }
+        if (index == mCount - 1) {
+            return mMax;
+        }
+
+        // the value of a bucket may be beyond the samples in it
+        return Math.max(mMin, Math.min(mMax, getBucketValueAtIndex(index)));
+    }
+
+    private double getBucketValueAtIndex(long index) {
+        // from the most negative samples up
+        long remaining = index;
+        for (int exponent = EXPONENT_COUNT - 1; exponent >= 0; exponent--) {
+            long[] buckets = mNegativeCounts[exponent];
+            if (buckets == null) {
+                continue;
+            }
+            for (int i = mBucketsPerExponent - 1; i >= 0; i--) {
+                if (remaining < buckets[i]) {
+                    return -bucketValue(exponent, i);
+                }
+                remaining -= buckets[i];
+            }
+        }
+        if (remaining < mZeroCount) {
+            return 0;
+        }
+        remaining -= mZeroCount;
+        for (int exponent = 0; exponent < EXPONENT_COUNT; exponent++) {
+            long[] buckets = mPositiveCounts[exponent];
+            if (buckets == null) {
+                continue;
+            }
+            for (int i = 0; i < mBucketsPerExponent; i++) {
+                if (remaining < buckets[i]) {
+                    return bucketValue(exponent, i);
+                }
+                remaining -= buckets[i];
+            }
+        }
+        // not reached, the buckets hold mCount samples
+        return mMax;
+    }
+
+    /**
+     * Returns an array of percentiles for the points using nearest rank, as
+     * {@code MediaUtils.Stats#getPercentiles} does. Points must be between 0 and 100, the
+     * percentile of other points is NaN.
+     */
+    public double[] getPercentiles(double... points) {
+        double[] res = new double[points.length];
+        for (int i = 0; i < points.length; ++i) {
+            if (mCount < 1 || points[i] < 0 || points[i] > 100) {
+                res[i] = Double.NaN;
+            } else {
+                res[i] = getValueAtIndex(Math.round(points[i] / 100 * (mCount - 1)));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns a histogram of the samples strictly between the given bounds. As the samples are
+     * not kept, they are approximated by the middle of their bucket, and buckets are kept or
+     * dropped as a whole depending on whether their middle is within the bounds.
+     */
+    public LogHistogram subset(double min, double max) {
+        LogHistogram subset = new LogHistogram(mPrecisionBits);
+        for (int exponent = 0; exponent < EXPONENT_COUNT; exponent++) {
+            subset.addBuckets(mPositiveCounts[exponent], exponent, 1, min, max);
+            subset.addBuckets(mNegativeCounts[exponent], exponent, -1, min, max);
+        }
+        if (mZeroCount > 0 && 0 > min && 0 < max) {
+            subset.addSamples(0, mZeroCount);
+        }
+        return subset;
+    }
+
+    private void addBuckets(long[] buckets, int exponent, int sign, double min, double max) {
+        if (buckets == null) {
+            return;
+        }
+        for (int i = 0; i < mBucketsPerExponent; i++) {
+            if (buckets[i] > 0) {
+                double value = sign * bucketValue(exponent, i);
+                if (value > min && value < max) {
+                    addSamples(value, buckets[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the count, average, standard deviation and the given percentiles of the samples to
+     * the report log, with the names {@code <prefix>_num}, {@code <prefix>_avg},
+     * {@code <prefix>_stdev} and {@code <prefix>_<label>} where the label of point 0 is min,
+     * that of point 100 is max, and that of other points pN, e.g. p95.
+     */
+    public void addToReportLog(ReportLog log, String prefix, ResultType type, ResultUnit unit,
+            double... points) {
+        log.addValue(prefix + "_num", mCount, ResultType.NEUTRAL, ResultUnit.COUNT);
+        log.addValue(prefix + "_avg", getAverage(), type, unit);
+        log.addValue(prefix + "_stdev", getStdev(), type, unit);
+        double[] percentiles = getPercentiles(points);
+        for (int i = 0; i < points.length; i++) {
+            String label;
+            if (points[i] == 0) {
+                label = "min";
+            } else if (points[i] == 100) {
+                label = "max";
+            } else if (points[i] == Math.rint(points[i])) {
+                label = "p" + (long) points[i];
+            } else {
+                label = "p" + Double.toString(points[i]).replace('.', '_');
+            }
+            log.addValue(prefix + "_" + label, percentiles[i], ResultType.NEUTRAL, unit);
+        }
+    }
+
+    private int subBucket(long magnitudeBits) {
+        return (int) ((magnitudeBits >>> (MANTISSA_BITS - mPrecisionBits))
+                & (mBucketsPerExponent - 1));
+    }
+
+    /** Returns the middle of the given bucket of positive values. */
+    private double bucketValue(int exponent, int subBucket) {
+        long lowerBits = ((long) exponent << MANTISSA_BITS)
+                | ((long) subBucket << (MANTISSA_BITS - mPrecisionBits));
+        double lower = Double.longBitsToDouble(lowerBits);
+        double upper = Double.longBitsToDouble(
+                lowerBits + (1L << (MANTISSA_BITS - mPrecisionBits)));
+        if (Double.isInfinite(upper)) {
+            return lower;
+        }
+        return lower + (upper - lower) / 2;
+    }
+}
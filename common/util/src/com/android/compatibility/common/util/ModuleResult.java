@@ -39,12 +39,27 @@ public class ModuleResult implements IModuleResult {
 
     private Map<String, ICaseResult> mResults = new HashMap<>();
 
+    // The invocation result holding this module, or null
+    private InvocationResult mInvocation;
+    private final StatusCounts mCounts = new StatusCounts();
+    // The case results sorted by name, or null if cases were added since it was last sorted
+    private List<ICaseResult> mSortedResults;
+
     /**
      * Creates a {@link ModuleResult} for the given id, created with
      * {@link AbiUtils#createId(String, String)}
      */
     public ModuleResult(String id) {
+        this(id, null);
+    }
+
+    /**
+     * Creates a {@link ModuleResult} held by the given invocation result, which counts its
+     * results.
+     */
+    ModuleResult(String id, InvocationResult invocation) {
         mId = id;
+        mInvocation = invocation;
     }
 
     /**
@@ -210,8 +225,9 @@ public class ModuleResult implements IModuleResult {
     public ICaseResult getOrCreateResult(String caseName) {
         ICaseResult result = mResults.get(caseName);
         if (result == null) {
-            result = new CaseResult(caseName);
+            result = new CaseResult(caseName, this);
             mResults.put(caseName, result);
+            mSortedResults = null;
         }
         return result;
     }
@@ -229,9 +245,12 @@ public class ModuleResult implements IModuleResult {
      */
     @Override
     public List<ICaseResult> getResults() {
-        ArrayList<ICaseResult> results = new ArrayList<>(mResults.values());
-        Collections.sort(results);
-        return results;
+        if (mSortedResults == null) {
+            ArrayList<ICaseResult> results = new ArrayList<>(mResults.values());
+            Collections.sort(results);
+            mSortedResults = Collections.unmodifiableList(results);
+        }
+        return mSortedResults;
     }
 
     /**
@@ -239,11 +258,7 @@ public class ModuleResult implements IModuleResult {
      */
     @Override
     public int countResults(TestStatus status) {
-        int total = 0;
-        for (ICaseResult result : mResults.values()) {
-            total += result.countResults(status);
-        }
-        return total;
+        return mCounts.get(status);
     }
 
     /**
@@ -277,4 +292,32 @@ public class ModuleResult implements IModuleResult {
             caseResult.mergeFrom(otherCaseResult);
         }
     }
+
+    /**
+     * Called by a case result of this module when the number of results with the given status
+     * changes.
+     */
+    void onCountChanged(TestStatus status, int delta) {
+        mCounts.add(status, delta);
+        if (mInvocation != null) {
+            mInvocation.onCountChanged(status, delta);
+        }
+    }
+
+    /**
+     * @return the store for the strings of the results of this module, or null
+     */
+    ResultStringStore getStringStore() {
+        return (mInvocation == null) ? null : mInvocation.getStringStore();
+    }
+
+    /**
+     * Called when this module is removed from its invocation result.
+     */
+    void removeFrom(InvocationResult invocation) {
+        if (mInvocation == invocation) {
+            invocation.removeCounts(mCounts);
+            mInvocation = null;
+        }
+    }
 }
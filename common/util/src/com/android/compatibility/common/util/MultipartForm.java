@@ -17,6 +17,9 @@
 package com.android.compatibility.common.util;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,17 +29,29 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
-/** Builds a multipart form and submits it. */
+/**
+ * Builds a multipart form and submits it.
+ * <p/>
+ * A file payload is gzipped as it is sent, in a chunked request body, so that it is never held in
+ * memory. The form is submitted once, unless the caller allows retries with {@link #setRetries}.
+ */
 class MultipartForm {
 
     private static final String FORM_DATA_BOUNDARY = "C75I55u3R3p0r73r";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_ATTEMPTS = 1;
+    private static final long DEFAULT_BACKOFF_MS = 1000;
 
     /* package */ final String mServerUrl;
     /* package */ final Map<String, String> mFormValues = new HashMap<String, String>();
     /* package */ String mName;
     /* package */ String mFileName;
     /* package */ byte[] mData;
+    /* package */ File mFile;
+    /* package */ int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    /* package */ long mBackoffMs = DEFAULT_BACKOFF_MS;
 
     /**
      * Creates a new multi-part form with the given serverUrl.
@@ -69,6 +84,37 @@ class MultipartForm {
         mName = name;
         mFileName = fileName;
         mData = data;
+        mFile = null;
+        return this;
+    }
+
+    /**
+     * Adds the file as the payload of the form. The file is gzipped as it is sent.
+     *
+     * @param name The name of attribute
+     * @param fileName The name of the gzipped file in the form
+     * @param file The file to send
+     * @return the {@link MultipartForm} for easy chaining.
+     */
+    public MultipartForm addFormFile(String name, String fileName, File file) {
+        mName = name;
+        mFileName = fileName;
+        mData = null;
+        mFile = file;
+        return this;
+    }
+
+    /**
+     * Sets how many times the form is submitted at most, and how long to wait before the first
+     * retry. The wait doubles with each retry. Submissions failing with an I/O error or a server
+     * error are retried from the beginning of the body. A retry posts the whole form again, so
+     * only allow retries if the server ignores duplicate submissions.
+     *
+     * @return the {@link MultipartForm} for easy chaining.
+     */
+    public MultipartForm setRetries(int maxAttempts, long initialBackoffMs) {
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mBackoffMs = initialBackoffMs;
         return this;
     }
 
@@ -81,7 +127,38 @@ class MultipartForm {
      * @throws IOException
      */
     public int submit() throws IOException {
-        return submitForm(mServerUrl);
+        long backoffMs = mBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            IOException failure = null;
+            int response = 0;
+            try {
+                response = submitForm(mServerUrl);
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (failure == null) {
+                if (response < 400) {
+                    return response;
+                }
+                failure = new IOException(String.format(
+                        "Server returned HTTP response code: %d for URL: %s", response,
+                        mServerUrl));
+                if (response < 500) {
+                    // The request itself is wrong, sending it again will not help
+                    throw failure;
+                }
+            }
+            if (attempt >= mMaxAttempts) {
+                throw failure;
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+            backoffMs *= 2;
+        }
     }
 
     /**
@@ -100,21 +177,32 @@ class MultipartForm {
             connection.setRequestProperty("Content-Type",
                     "multipart/form-data; boundary=" + FORM_DATA_BOUNDARY);
 
-            byte[] body = getContentBody();
-            connection.setRequestProperty("Content-Length", Integer.toString(body.length));
-
-            OutputStream output = connection.getOutputStream();
-            try {
-                output.write(body);
-            } finally {
-                output.close();
+            if (mFile != null) {
+                // The size of the gzipped file is only known once it is sent
+                connection.setChunkedStreamingMode(CHUNK_SIZE);
+                OutputStream output = connection.getOutputStream();
+                try {
+                    writeContentBody(output);
+                } finally {
+                    output.close();
+                }
+            } else {
+                byte[] body = getContentBody();
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream output = connection.getOutputStream();
+                try {
+                    output.write(body);
+                } finally {
+                    output.close();
+                }
             }
 
-            // Open the stream to get a response. Otherwise request will be cancelled.
-            InputStream input = connection.getInputStream();
-            input.close();
-
+            // Get the response code. Otherwise request will be cancelled.
             int response = connection.getResponseCode();
+            if (response < 400) {
+                InputStream input = connection.getInputStream();
+                input.close();
+            }
             if (response == 302) {
                 return submitForm(connection.getHeaderField("Location"));
             }
@@ -128,23 +216,59 @@ class MultipartForm {
 
     /* package */ byte[] getContentBody() throws IOException {
         ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(new OutputStreamWriter(byteOutput));
+        writeContentBody(byteOutput);
+        return byteOutput.toByteArray();
+    }
+
+    /**
+     * Writes the body of the form to the given stream.
+     */
+    /* package */ void writeContentBody(OutputStream output) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(output));
         writer.println();
 
         for (Map.Entry<String, String> formValue : mFormValues.entrySet()) {
             writeFormField(writer, formValue.getKey(), formValue.getValue());
         }
 
-        if (mData != null) {
+        if (mData != null || mFile != null) {
             writeFormFileHeader(writer, mName, mFileName);
             writer.flush(); // Must flush here before writing to the byte stream!
-            byteOutput.write(mData);
+            if (mData != null) {
+                output.write(mData);
+            } else {
+                writeGzippedFile(output, mFile);
+            }
             writer.println();
         }
         writer.append("--").append(FORM_DATA_BOUNDARY).println("--");
         writer.flush();
-        writer.close();
-        return byteOutput.toByteArray();
+    }
+
+    private static void writeGzippedFile(OutputStream output, File file) throws IOException {
+        GZIPOutputStream gzipOutput = new GZIPOutputStream(new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // Leave the rest of the form to be written
+                flush();
+            }
+        }, CHUNK_SIZE);
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                gzipOutput.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        gzipOutput.close();
     }
 
     private void writeFormField(PrintWriter writer, String name, String value) {
@@ -42,6 +42,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -54,6 +56,8 @@ import javax.xml.transform.stream.StreamSource;
  */
 public class ResultHandler {
 
+    private static final Logger LOG = Logger.getLogger(ResultHandler.class.getName());
+
     private static final String ENCODING = "UTF-8";
     private static final String TYPE = "org.kxml2.io.KXmlParser,org.kxml2.io.KXmlSerializer";
     private static final String NS = null;
@@ -124,6 +128,12 @@ public class ResultHandler {
         List<IInvocationResult> results = new ArrayList<>();
         List<File> files = getResultDirectories(resultsDir);
         for (File resultDir : files) {
+            ResultSummary summary = ResultSummary.load(resultDir);
+            if (summary != null) {
+                results.add(summary.getLightResult(resultDir));
+                continue;
+            }
+            // Fall back to parsing the result file, for results written without a summary.
             IInvocationResult result = getResultFromDir(resultDir, false);
             if (result != null) {
                 results.add(new LightInvocationResult(result));
@@ -212,50 +222,8 @@ public class ResultHandler {
                 module.initializeDone(done);
                 long runtime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
                 module.addRuntime(runtime);
-                while (parser.nextTag() == XmlPullParser.START_TAG) {
-                    parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
-                    String caseName = parser.getAttributeValue(NS, NAME_ATTR);
-                    ICaseResult testCase = module.getOrCreateResult(caseName);
-                    while (parser.nextTag() == XmlPullParser.START_TAG) {
-                        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
-                        String testName = parser.getAttributeValue(NS, NAME_ATTR);
-                        ITestResult test = testCase.getOrCreateResult(testName);
-                        String resultStatus = parser.getAttributeValue(NS, RESULT_ATTR);
-                        test.setResultStatus(TestStatus.getStatus(resultStatus));
-                        test.setRetry(true);
-                        while (parser.nextTag() == XmlPullParser.START_TAG) {
-                            if (parser.getName().equals(FAILURE_TAG)) {
-                                test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
-                                if (parser.nextTag() == XmlPullParser.START_TAG) {
-                                    parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
-                                    test.setStackTrace(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
-                                    parser.nextTag();
-                                }
-                                parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
-                            } else if (parser.getName().equals(BUGREPORT_TAG)) {
-                                test.setBugReport(parser.nextText());
-                                parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
-                            } else if (parser.getName().equals(LOGCAT_TAG)) {
-                                test.setLog(parser.nextText());
-                                parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
-                            } else if (parser.getName().equals(SCREENSHOT_TAG)) {
-                                test.setScreenshot(parser.nextText());
-                                parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
-                            } else {
-                                test.setReportLog(ReportLog.parse(parser));
-                            }
-                        }
-                        parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
-                        Boolean checksumMismatch = invocationUseChecksum
-                                && !checksumReporter.containsTestResult(
-                                test, module, result.getBuildFingerprint());
-                        if (checksumMismatch) {
-                            test.removeResult();
-                        }
-                    }
-                    parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
-                }
+                parseCases(parser, module, invocationUseChecksum ? checksumReporter : null,
+                        result.getBuildFingerprint());
                 parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
                 Boolean checksumMismatch = invocationUseChecksum
                         && !checksumReporter.containsModuleResult(
@@ -272,6 +240,62 @@ public class ResultHandler {
         }
     }
 
+    /**
+     * Parses the test cases of a module into the given module result. The parser must be
+     * positioned on the module's start tag, and is left on the module's end tag.
+     *
+     * @param checksumReporter a nullable {@link ChecksumReporter}. When given, test results that
+     * do not match the checksum are removed.
+     */
+    static void parseCases(XmlPullParser parser, IModuleResult module,
+            ChecksumReporter checksumReporter, String buildFingerprint)
+            throws XmlPullParserException, IOException {
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
+            String caseName = parser.getAttributeValue(NS, NAME_ATTR);
+            ICaseResult testCase = module.getOrCreateResult(caseName);
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+                String testName = parser.getAttributeValue(NS, NAME_ATTR);
+                ITestResult test = testCase.getOrCreateResult(testName);
+                String resultStatus = parser.getAttributeValue(NS, RESULT_ATTR);
+                test.setResultStatus(TestStatus.getStatus(resultStatus));
+                test.setRetry(true);
+                while (parser.nextTag() == XmlPullParser.START_TAG) {
+                    if (parser.getName().equals(FAILURE_TAG)) {
+                        test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
+                        if (parser.nextTag() == XmlPullParser.START_TAG) {
+                            parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
+                            test.setStackTrace(parser.nextText());
+                            parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
+                            parser.nextTag();
+                        }
+                        parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
+                    } else if (parser.getName().equals(BUGREPORT_TAG)) {
+                        test.setBugReport(parser.nextText());
+                        parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
+                    } else if (parser.getName().equals(LOGCAT_TAG)) {
+                        test.setLog(parser.nextText());
+                        parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
+                    } else if (parser.getName().equals(SCREENSHOT_TAG)) {
+                        test.setScreenshot(parser.nextText());
+                        parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
+                    } else {
+                        test.setReportLog(ReportLog.parse(parser));
+                    }
+                }
+                parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
+                Boolean checksumMismatch = checksumReporter != null
+                        && !checksumReporter.containsTestResult(
+                        test, module, buildFingerprint);
+                if (checksumMismatch) {
+                    test.removeResult();
+                }
+            }
+            parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+        }
+    }
+
     /**
      * @param result
      * @param resultDir
@@ -288,16 +312,72 @@ public class ResultHandler {
             long startTime, long endTime, String referenceUrl, String logUrl,
             String commandLineArgs)
             throws IOException, XmlPullParserException {
-        int passed = result.countResults(TestStatus.PASS);
-        int failed = result.countResults(TestStatus.FAIL);
         File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
         OutputStream stream = new FileOutputStream(resultFile);
+        XmlSerializer serializer = startResultDocument(stream);
+        serializeResultHeader(serializer, suiteName, suiteVersion, suitePlan, suiteBuild, result,
+                startTime, endTime, referenceUrl, logUrl, commandLineArgs,
+                result.countResults(TestStatus.PASS), result.countResults(TestStatus.FAIL),
+                result.getModuleCompleteCount(), result.getModules().size());
+
+        // Results
+        ResultSummary summary = new ResultSummary(suitePlan, result, startTime, commandLineArgs);
+        for (IModuleResult module : result.getModules()) {
+            serializeModule(serializer, module);
+            summary.addModule(module);
+        }
+        serializer.endDocument();
+        writeSummary(summary, resultFile);
+        createChecksum(resultDir, result, null);
+        return resultFile;
+    }
+
+    /**
+     * Writes the summary of the result file. The summary is only an optimization, so failing to
+     * write it does not fail the result.
+     */
+    static void writeSummary(ResultSummary summary, File resultFile) {
+        try {
+            summary.write(resultFile);
+        } catch (IOException e) {
+            // Without a summary, readers parse the result file instead
+            LOG.log(Level.WARNING, String.format(
+                    "Failed to write the summary of %s", resultFile), e);
+            new File(resultFile.getParentFile(), ResultSummary.NAME).delete();
+        }
+    }
+
+    /**
+     * Creates a serializer writing to the given stream, and starts the result document.
+     */
+    static XmlSerializer startResultDocument(OutputStream stream)
+            throws IOException, XmlPullParserException {
         XmlSerializer serializer = XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
         serializer.setOutput(stream, ENCODING);
         serializer.startDocument(ENCODING, false);
         serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
         serializer.processingInstruction(
                 "xml-stylesheet type=\"text/xsl\" href=\"compatibility_result.xsl\"");
+        return serializer;
+    }
+
+    /**
+     * Sets the build fingerprint of the result from its invocation info, if not already set.
+     */
+    static void resolveBuildFingerprint(IInvocationResult result) {
+        if (Strings.isNullOrEmpty(result.getBuildFingerprint())) {
+            result.setBuildFingerprint(result.getInvocationInfo().get(BUILD_FINGERPRINT));
+        }
+    }
+
+    /**
+     * Serializes the start of the result element, along with the build info and summary.
+     */
+    static void serializeResultHeader(XmlSerializer serializer, String suiteName,
+            String suiteVersion, String suitePlan, String suiteBuild, IInvocationResult result,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs, int passed, int failed, int modulesDone, int modulesTotal)
+            throws IOException {
         serializer.startTag(NS, RESULT_TAG);
         serializer.attribute(NS, START_TIME_ATTR, String.valueOf(startTime));
         serializer.attribute(NS, END_TIME_ATTR, String.valueOf(endTime));
@@ -361,75 +441,81 @@ public class ResultHandler {
         serializer.startTag(NS, SUMMARY_TAG);
         serializer.attribute(NS, PASS_ATTR, Integer.toString(passed));
         serializer.attribute(NS, FAILED_ATTR, Integer.toString(failed));
-        serializer.attribute(NS, MODULES_DONE_ATTR,
-                Integer.toString(result.getModuleCompleteCount()));
-        serializer.attribute(NS, MODULES_TOTAL_ATTR,
-                Integer.toString(result.getModules().size()));
+        serializer.attribute(NS, MODULES_DONE_ATTR, Integer.toString(modulesDone));
+        serializer.attribute(NS, MODULES_TOTAL_ATTR, Integer.toString(modulesTotal));
         serializer.endTag(NS, SUMMARY_TAG);
+    }
 
-        // Results
-        for (IModuleResult module : result.getModules()) {
-            serializer.startTag(NS, MODULE_TAG);
-            serializer.attribute(NS, NAME_ATTR, module.getName());
-            serializer.attribute(NS, ABI_ATTR, module.getAbi());
-            serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
-            serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDone()));
-            serializer.attribute(NS, PASS_ATTR,
-                    Integer.toString(module.countResults(TestStatus.PASS)));
-            for (ICaseResult cr : module.getResults()) {
-                serializer.startTag(NS, CASE_TAG);
-                serializer.attribute(NS, NAME_ATTR, cr.getName());
-                for (ITestResult r : cr.getResults()) {
-                    TestStatus status = r.getResultStatus();
-                    if (status == null) {
-                        continue; // test was not executed, don't report
-                    }
-                    serializer.startTag(NS, TEST_TAG);
-                    serializer.attribute(NS, RESULT_ATTR, status.getValue());
-                    serializer.attribute(NS, NAME_ATTR, r.getName());
-                    String message = r.getMessage();
-                    if (message != null) {
-                        serializer.startTag(NS, FAILURE_TAG);
-                        serializer.attribute(NS, MESSAGE_ATTR, message);
-                        String stackTrace = r.getStackTrace();
-                        if (stackTrace != null) {
-                            serializer.startTag(NS, STACK_TAG);
-                            serializer.text(stackTrace);
-                            serializer.endTag(NS, STACK_TAG);
-                        }
-                        serializer.endTag(NS, FAILURE_TAG);
-                    }
-                    String bugreport = r.getBugReport();
-                    if (bugreport != null) {
-                        serializer.startTag(NS, BUGREPORT_TAG);
-                        serializer.text(bugreport);
-                        serializer.endTag(NS, BUGREPORT_TAG);
-                    }
-                    String logcat = r.getLog();
-                    if (logcat != null) {
-                        serializer.startTag(NS, LOGCAT_TAG);
-                        serializer.text(logcat);
-                        serializer.endTag(NS, LOGCAT_TAG);
-                    }
-                    String screenshot = r.getScreenshot();
-                    if (screenshot != null) {
-                        serializer.startTag(NS, SCREENSHOT_TAG);
-                        serializer.text(screenshot);
-                        serializer.endTag(NS, SCREENSHOT_TAG);
-                    }
-                    ReportLog report = r.getReportLog();
-                    if (report != null) {
-                        ReportLog.serialize(serializer, report);
+    /**
+     * Serializes a module element, along with its test cases.
+     */
+    static void serializeModule(XmlSerializer serializer, IModuleResult module)
+            throws IOException {
+        serializer.startTag(NS, MODULE_TAG);
+        serializer.attribute(NS, NAME_ATTR, module.getName());
+        serializer.attribute(NS, ABI_ATTR, module.getAbi());
+        serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
+        serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDone()));
+        serializer.attribute(NS, PASS_ATTR,
+                Integer.toString(module.countResults(TestStatus.PASS)));
+        serializeCases(serializer, module);
+        serializer.endTag(NS, MODULE_TAG);
+    }
+
+    /**
+     * Serializes the test cases of a module, excluding tests that were not executed.
+     */
+    static void serializeCases(XmlSerializer serializer, IModuleResult module)
+            throws IOException {
+        for (ICaseResult cr : module.getResults()) {
+            serializer.startTag(NS, CASE_TAG);
+            serializer.attribute(NS, NAME_ATTR, cr.getName());
+            for (ITestResult r : cr.getResults()) {
+                TestStatus status = r.getResultStatus();
+                if (status == null) {
+                    continue; // test was not executed, don't report
+                }
+                serializer.startTag(NS, TEST_TAG);
+                serializer.attribute(NS, RESULT_ATTR, status.getValue());
+                serializer.attribute(NS, NAME_ATTR, r.getName());
+                String message = r.getMessage();
+                if (message != null) {
+                    serializer.startTag(NS, FAILURE_TAG);
+                    serializer.attribute(NS, MESSAGE_ATTR, message);
+                    String stackTrace = r.getStackTrace();
+                    if (stackTrace != null) {
+                        serializer.startTag(NS, STACK_TAG);
+                        serializer.text(stackTrace);
+                        serializer.endTag(NS, STACK_TAG);
                     }
-                    serializer.endTag(NS, TEST_TAG);
+                    serializer.endTag(NS, FAILURE_TAG);
                 }
-                serializer.endTag(NS, CASE_TAG);
+                String bugreport = r.getBugReport();
+                if (bugreport != null) {
+                    serializer.startTag(NS, BUGREPORT_TAG);
+                    serializer.text(bugreport);
+                    serializer.endTag(NS, BUGREPORT_TAG);
+                }
+                String logcat = r.getLog();
+                if (logcat != null) {
+                    serializer.startTag(NS, LOGCAT_TAG);
+                    serializer.text(logcat);
+                    serializer.endTag(NS, LOGCAT_TAG);
+                }
+                String screenshot = r.getScreenshot();
+                if (screenshot != null) {
+                    serializer.startTag(NS, SCREENSHOT_TAG);
+                    serializer.text(screenshot);
+                    serializer.endTag(NS, SCREENSHOT_TAG);
+                }
+                ReportLog report = r.getReportLog();
+                if (report != null) {
+                    ReportLog.serialize(serializer, report);
+                }
+                serializer.endTag(NS, TEST_TAG);
             }
-            serializer.endTag(NS, MODULE_TAG);
+            serializer.endTag(NS, CASE_TAG);
         }
-        serializer.endDocument();
-        createChecksum(resultDir, result);
-        return resultFile;
     }
 
     public static File createFailureReport(File inputXml) {
@@ -445,12 +531,33 @@ public class ResultHandler {
         return failureReport;
     }
 
-    private static void createChecksum(File resultDir, IInvocationResult invocationResult) {
+    /**
+     * @param checksumReporter a nullable {@link ChecksumReporter} already holding the test
+     * results. If null, the checksum of the test results is calculated from invocationResult.
+     */
+    static void createChecksum(File resultDir, IInvocationResult invocationResult,
+            ChecksumReporter checksumReporter) {
         RetryChecksumStatus retryStatus = invocationResult.getRetryChecksumStatus();
         switch (retryStatus) {
             case NotRetry: case RetryWithChecksum:
+                ChecksumReporter previousChecksum = null;
+                if (retryStatus == RetryChecksumStatus.RetryWithChecksum) {
+                    try {
+                        // Files copied unchanged from the retried session need not be hashed
+                        previousChecksum =
+                                ChecksumReporter.load(invocationResult.getRetryDirectory());
+                    } catch (ChecksumValidationException e) {
+                        // Hash every file
+                    }
+                }
                 // Do not disrupt the process if there is a problem generating checksum.
-                ChecksumReporter.tryCreateChecksum(resultDir, invocationResult);
+                if (checksumReporter == null) {
+                    ChecksumReporter.tryCreateChecksum(
+                            resultDir, invocationResult, previousChecksum);
+                } else {
+                    checksumReporter.setPreviousChecksum(previousChecksum);
+                    ChecksumReporter.tryCreateChecksum(resultDir, checksumReporter);
+                }
                 break;
             case RetryWithoutChecksum:
                 // If the previous run has an invalid checksum file,
@@ -504,6 +611,31 @@ public class ResultHandler {
         return result;
     }
 
+    /**
+     * Find an IInvocationResult for the given sessionId holding only the tests needed to compute
+     * the filters for a retry of failed or not executed tests, see {@link ResultSummary}.
+     * <p/>
+     * The result is loaded from the session's summary if it is covered by the session's checksum,
+     * otherwise from the full result file.
+     */
+    public static IInvocationResult findIndexedResult(File resultsDir, Integer sessionId)
+            throws FileNotFoundException {
+        File resultDir = getResultDirectory(resultsDir, sessionId);
+        ResultSummary summary = ResultSummary.load(resultDir);
+        if (summary != null) {
+            try {
+                ChecksumReporter checksumReporter = ChecksumReporter.load(resultDir);
+                if (checksumReporter.containsFile(
+                        new File(resultDir, ResultSummary.NAME), resultDir.getName())) {
+                    return summary.getIndexedResult(resultDir);
+                }
+            } catch (ChecksumValidationException e) {
+                // Unable to verify the summary, use the result file instead
+            }
+        }
+        return findResult(resultsDir, sessionId);
+    }
+
     /**
      * Get the result directory for the given sessionId.
      */
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact storage for the strings held by the test results of an invocation, see
+ * {@link InvocationResult#setStringStore}.
+ * <p/>
+ * Equal test names and messages are shared by all results holding them. Stack traces, which are
+ * long, repeat across parameterized tests and ABIs, and are only read when the results are
+ * written, are stored once in a file on disk if one is given, and read back when needed.
+ * <p/>
+ * Safe to use from several threads, e.g. by the shards of an invocation.
+ */
+public class ResultStringStore implements Closeable {
+
+    // Shorter stack traces are kept in memory, as an entry in the file would not save much
+    private static final int MIN_SPILLED_LENGTH = 256;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Interner<String> mInterner = Interners.newWeakInterner();
+    private final File mFile;
+    private RandomAccessFile mSpillFile;
+    // The stack traces written to the file, by content hash
+    private final Map<HashCode, Entry> mEntries = new HashMap<>();
+
+    /**
+     * A string written to the file of a {@link ResultStringStore}.
+     */
+    static final class Entry {
+        private final ResultStringStore mStore;
+        private final long mOffset;
+        private final int mLength;
+
+        private Entry(ResultStringStore store, long offset, int length) {
+            mStore = store;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        /**
+         * @return the string, read back from the file
+         */
+        String get() {
+            return mStore.read(this);
+        }
+    }
+
+    /**
+     * Creates a store keeping all strings in memory, sharing equal strings.
+     */
+    public ResultStringStore() {
+        mFile = null;
+    }
+
+    /**
+     * Creates a store writing the stack traces to the given file, which is deleted on
+     * {@link #close()}.
+     */
+    public ResultStringStore(File file) throws IOException {
+        mFile = file;
+        mSpillFile = new RandomAccessFile(file, "rw");
+        mSpillFile.setLength(0);
+    }
+
+    /**
+     * @return the instance of the given string shared by the results of this store
+     */
+    String intern(String value) {
+        return (value == null) ? null : mInterner.intern(value);
+    }
+
+    /**
+     * @return the given stack trace, or an {@link Entry} to read it back from if it was written
+     * to the file
+     */
+    Object storeStackTrace(String trace) {
+        if (trace == null || trace.length() < MIN_SPILLED_LENGTH) {
+            return intern(trace);
+        }
+        synchronized (this) {
+            if (mSpillFile == null) {
+                return intern(trace);
+            }
+            HashCode hash = HASH_FUNCTION.hashUnencodedChars(trace);
+            Entry entry = mEntries.get(hash);
+            if (entry == null) {
+                byte[] bytes = trace.getBytes(StandardCharsets.UTF_8);
+                try {
+                    long offset = mSpillFile.length();
+                    mSpillFile.seek(offset);
+                    mSpillFile.write(bytes);
+                    entry = new Entry(this, offset, bytes.length);
+                    mEntries.put(hash, entry);
+                } catch (IOException e) {
+                    // Keep it in memory
+                    return intern(trace);
+                }
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * @return the stack trace stored by {@link #storeStackTrace}
+     */
+    static String loadStackTrace(Object storedTrace) {
+        if (storedTrace instanceof Entry) {
+            return ((Entry) storedTrace).get();
+        }
+        return (String) storedTrace;
+    }
+
+    private synchronized String read(Entry entry) {
+        if (mSpillFile == null) {
+            throw new IllegalStateException("Stack trace read after the store was closed");
+        }
+        byte[] bytes = new byte[entry.mLength];
+        try {
+            mSpillFile.seek(entry.mOffset);
+            mSpillFile.readFully(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to read stack trace from %s",
+                    mFile.getAbsolutePath()), e);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the file holding the stack traces. Stack traces stored in it can no longer be read,
+     * so this must only be called once the results have been written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mSpillFile != null) {
+            try {
+                mSpillFile.close();
+            } finally {
+                mSpillFile = null;
+                mEntries.clear();
+                mFile.delete();
+            }
+        }
+    }
+}
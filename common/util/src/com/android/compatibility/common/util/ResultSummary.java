@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A compact binary summary of a result, written next to the result file so that sessions can be
+ * listed and retried without parsing the full result file.
+ * <p/>
+ * The summary holds the information the result file's header is parsed into, the counts of each
+ * {@link TestStatus}, and an index of each module's tests. To keep the index small, only the
+ * first passed test of a done module is indexed. This keeps the module's pass count non-zero,
+ * which is all that is needed to compute the filters for a retry of failed or not executed tests.
+ */
+public class ResultSummary {
+
+    public static final String NAME = "test_result.summary";
+
+    private static final Logger LOG = Logger.getLogger(ResultSummary.class.getName());
+
+    private static final short FORMAT_CODE = 651;
+    private static final short CURRENT_VERSION = 1;
+
+    // Invocation info read from the result file, see ResultHandler.getResultFromDir()
+    private static final String BUILD_ID = "build_id";
+    private static final String BUILD_PRODUCT = "build_product";
+
+    private long mResultLength;
+    private long mResultModified;
+    private long mStartTime;
+    private String mTestPlan;
+    private String mCommandLineArgs;
+    private String mBuildFingerprint;
+    private Map<String, String> mInvocationInfo = new HashMap<>();
+    private List<String> mSerials = new ArrayList<>();
+    private Map<TestStatus, Integer> mResultCounts = new HashMap<>();
+    private List<ModuleEntry> mModules = new ArrayList<>();
+
+    /**
+     * A module in the summary, along with its indexed tests.
+     */
+    private static class ModuleEntry {
+        String mId;
+        boolean mDone;
+        long mRuntime;
+        List<String> mCaseNames = new ArrayList<>();
+        List<String> mTestNames = new ArrayList<>();
+        List<TestStatus> mStatuses = new ArrayList<>();
+    }
+
+    private ResultSummary() {}
+
+    /**
+     * Creates a summary for the given result, to which the modules are then added as they are
+     * written to the result file.
+     */
+    ResultSummary(String suitePlan, IInvocationResult result, long startTime,
+            String commandLineArgs) {
+        mStartTime = startTime;
+        mTestPlan = suitePlan;
+        mCommandLineArgs = (commandLineArgs == null) ? "" : commandLineArgs;
+        mBuildFingerprint = result.getBuildFingerprint();
+        mInvocationInfo.put(BUILD_ID, result.getInvocationInfo().get(BUILD_ID));
+        mInvocationInfo.put(BUILD_PRODUCT, result.getInvocationInfo().get(BUILD_PRODUCT));
+        mSerials.addAll(result.getDeviceSerials());
+        for (TestStatus status : TestStatus.values()) {
+            mResultCounts.put(status, 0);
+        }
+    }
+
+    /**
+     * Adds a module, as written to the result file, to the summary.
+     */
+    void addModule(IModuleResult module) {
+        ModuleEntry entry = new ModuleEntry();
+        entry.mId = module.getId();
+        entry.mDone = module.isDone();
+        entry.mRuntime = module.getRuntime();
+        boolean indexedPass = false;
+        for (ICaseResult caseResult : module.getResults()) {
+            for (ITestResult testResult : caseResult.getResults()) {
+                TestStatus status = testResult.getResultStatus();
+                if (status == null) {
+                    continue; // test was not executed, not in the result file either
+                }
+                mResultCounts.put(status, mResultCounts.get(status) + 1);
+                if (status == TestStatus.PASS && entry.mDone) {
+                    if (indexedPass) {
+                        continue;
+                    }
+                    indexedPass = true;
+                }
+                entry.mCaseNames.add(caseResult.getName());
+                entry.mTestNames.add(testResult.getName());
+                entry.mStatuses.add(status);
+            }
+        }
+        mModules.add(entry);
+    }
+
+    /**
+     * Writes the summary of the given result file to the same directory.
+     */
+    void write(File resultFile) throws IOException {
+        mResultLength = resultFile.length();
+        mResultModified = resultFile.lastModified();
+        File file = new File(resultFile.getParentFile(), NAME);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeShort(FORMAT_CODE);
+            out.writeShort(CURRENT_VERSION);
+            out.writeLong(mResultLength);
+            out.writeLong(mResultModified);
+            out.writeLong(mStartTime);
+            writeString(out, mTestPlan);
+            writeString(out, mCommandLineArgs);
+            writeString(out, mBuildFingerprint);
+            out.writeInt(mInvocationInfo.size());
+            for (Map.Entry<String, String> info : mInvocationInfo.entrySet()) {
+                writeString(out, info.getKey());
+                writeString(out, info.getValue());
+            }
+            out.writeInt(mSerials.size());
+            for (String serial : mSerials) {
+                writeString(out, serial);
+            }
+            out.writeInt(mResultCounts.size());
+            for (Map.Entry<TestStatus, Integer> count : mResultCounts.entrySet()) {
+                writeString(out, count.getKey().getValue());
+                out.writeInt(count.getValue());
+            }
+            out.writeInt(mModules.size());
+            for (ModuleEntry module : mModules) {
+                writeString(out, module.mId);
+                out.writeBoolean(module.mDone);
+                out.writeLong(module.mRuntime);
+                out.writeInt(module.mTestNames.size());
+                for (int i = 0; i < module.mTestNames.size(); i++) {
+                    writeString(out, module.mCaseNames.get(i));
+                    writeString(out, module.mTestNames.get(i));
+                    writeString(out, module.mStatuses.get(i).getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the summary of the result in the given directory.
+     *
+     * @return the {@link ResultSummary}, or null if it is missing, unreadable, or does not match
+     * the result file
+     */
+    static ResultSummary load(File resultDir) {
+        File file = new File(resultDir, NAME);
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        if (!file.exists() || !resultFile.exists()) {
+            return null;
+        }
+        ResultSummary summary = new ResultSummary();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readShort() != FORMAT_CODE || in.readShort() > CURRENT_VERSION) {
+                return null;
+            }
+            summary.mResultLength = in.readLong();
+            summary.mResultModified = in.readLong();
+            if (summary.mResultLength != resultFile.length()
+                    || summary.mResultModified != resultFile.lastModified()) {
+                // The result file was changed after the summary was written.
+                return null;
+            }
+            summary.mStartTime = in.readLong();
+            summary.mTestPlan = readString(in);
+            summary.mCommandLineArgs = readString(in);
+            summary.mBuildFingerprint = readString(in);
+            int infoCount = in.readInt();
+            for (int i = 0; i < infoCount; i++) {
+                summary.mInvocationInfo.put(readString(in), readString(in));
+            }
+            int serialCount = in.readInt();
+            for (int i = 0; i < serialCount; i++) {
+                summary.mSerials.add(readString(in));
+            }
+            int statusCount = in.readInt();
+            for (int i = 0; i < statusCount; i++) {
+                TestStatus status = TestStatus.getStatus(readString(in));
+                int count = in.readInt();
+                if (status != null) {
+                    summary.mResultCounts.put(status, count);
+                }
+            }
+            int moduleCount = in.readInt();
+            for (int i = 0; i < moduleCount; i++) {
+                ModuleEntry module = new ModuleEntry();
+                module.mId = readString(in);
+                module.mDone = in.readBoolean();
+                module.mRuntime = in.readLong();
+                int testCount = in.readInt();
+                for (int j = 0; j < testCount; j++) {
+                    module.mCaseNames.add(readString(in));
+                    module.mTestNames.add(readString(in));
+                    module.mStatuses.add(TestStatus.getStatus(readString(in)));
+                }
+                summary.mModules.add(module);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, String.format(
+                    "Failed to read result summary %s, using the result file instead", file), e);
+            return null;
+        }
+        for (TestStatus status : TestStatus.values()) {
+            if (!summary.mResultCounts.containsKey(status)) {
+                summary.mResultCounts.put(status, 0);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * @return a {@link LightInvocationResult} of the summarized result.
+     */
+    IInvocationResult getLightResult(File resultDir) {
+        return new LightInvocationResult(getIndexedResult(resultDir), mResultCounts);
+    }
+
+    /**
+     * @return an {@link IInvocationResult} holding only the indexed tests of the summarized
+     * result. Its pass counts are not accurate, see {@link ResultSummary}.
+     */
+    IInvocationResult getIndexedResult(File resultDir) {
+        IInvocationResult result = new InvocationResult();
+        result.setRetryDirectory(resultDir);
+        result.setStartTime(mStartTime);
+        result.setTestPlan(mTestPlan);
+        result.setCommandLineArgs(mCommandLineArgs);
+        result.setBuildFingerprint(mBuildFingerprint);
+        for (Map.Entry<String, String> info : mInvocationInfo.entrySet()) {
+            result.addInvocationInfo(info.getKey(), info.getValue());
+        }
+        for (String serial : mSerials) {
+            result.addDeviceSerial(serial);
+        }
+        for (ModuleEntry entry : mModules) {
+            IModuleResult module = result.getOrCreateModule(entry.mId);
+            module.initializeDone(entry.mDone);
+            module.addRuntime(entry.mRuntime);
+            for (int i = 0; i < entry.mTestNames.size(); i++) {
+                ITestResult test = module.getOrCreateResult(entry.mCaseNames.get(i))
+                        .getOrCreateResult(entry.mTestNames.get(i));
+                test.setResultStatus(entry.mStatuses.get(i));
+                test.setRetry(true);
+            }
+        }
+        return result;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
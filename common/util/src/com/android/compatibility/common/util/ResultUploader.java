@@ -16,27 +16,29 @@
 
 package com.android.compatibility.common.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Uploads a result through a HTTP POST multipart/form-data request containing
- * the test result XML.
+ * the test result XML. The XML is gzipped as it is sent.
  */
 public class ResultUploader {
 
-    private static final int RESULT_XML_BYTES = 500 * 1024;
-
     /* package */ MultipartForm mMultipartForm;
 
     public ResultUploader(String serverUrl, String suiteName) {
         mMultipartForm = new MultipartForm(serverUrl).addFormValue("suite", suiteName);
     }
 
+    /**
+     * Sets how many times the upload is attempted at most. The result is only uploaded once by
+     * default. See {@link MultipartForm#setRetries}.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        mMultipartForm.setRetries(maxAttempts, mMultipartForm.mBackoffMs);
+    }
+
     /**
      * Uploads the given file to the server.
      *
@@ -45,29 +47,11 @@ public class ResultUploader {
      * @throws IOException
      */
     public int uploadResult(File reportFile, String referenceUrl) throws IOException {
-        InputStream input = new FileInputStream(reportFile);
-        try {
-            byte[] data = getBytes(input);
-            mMultipartForm.addFormFile("resultXml", "test-result.xml.gz", data);
-            if (referenceUrl != null && !referenceUrl.trim().isEmpty()) {
-                mMultipartForm.addFormValue("referenceUrl", referenceUrl);
-            }
-            return mMultipartForm.submit();
-        } finally {
-            input.close();
-        }
-    }
-
-    private static byte[] getBytes(InputStream input) throws IOException {
-        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream(RESULT_XML_BYTES);
-        GZIPOutputStream gzipOutput = new GZIPOutputStream(byteOutput);
-        byte[] buffer = new byte[1024];
-        int count;
-        while ((count = input.read(buffer)) > 0) {
-            gzipOutput.write(buffer, 0, count);
+        mMultipartForm.addFormFile("resultXml", "test-result.xml.gz", reportFile);
+        if (referenceUrl != null && !referenceUrl.trim().isEmpty()) {
+            mMultipartForm.addFormValue("referenceUrl", referenceUrl);
         }
-        gzipOutput.close();
-        return byteOutput.toByteArray();
+        return mMultipartForm.submit();
     }
 
 }
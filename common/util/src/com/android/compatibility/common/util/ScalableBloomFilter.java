@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * A bloom filter that grows as elements are added, while keeping its false positive probability
+ * below the one it was created with.
+ * <p/>
+ * Elements are added to the newest of a series of fixed size filters. Once it reaches its
+ * capacity, a filter of twice the capacity and half the false positive probability is added, so
+ * the false positive probability of the whole series stays below the requested one.
+ */
+final class ScalableBloomFilter {
+
+    private static final int GROWTH_FACTOR = 2;
+    private static final double TIGHTENING_RATIO = 0.5;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final List<Layer> mLayers = new ArrayList<>();
+
+    /***
+     * A fixed size bloom filter.
+     */
+    private static final class Layer {
+        final int mCapacity;
+        final double mFpp;
+        final int mNumHashes;
+        final long[] mBits;
+        int mCount;
+
+        Layer(int capacity, double fpp) {
+            mCapacity = Math.max(1, capacity);
+            mFpp = fpp;
+            long numBits = (long) (-mCapacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            numBits = Math.max(Long.SIZE, numBits);
+            mNumHashes = Math.max(1, (int) Math.round((double) numBits / mCapacity * Math.log(2)));
+            mBits = new long[(int) ((numBits + Long.SIZE - 1) / Long.SIZE)];
+        }
+
+        Layer(int capacity, double fpp, int numHashes, long[] bits, int count) {
+            mCapacity = capacity;
+            mFpp = fpp;
+            mNumHashes = numHashes;
+            mBits = bits;
+            mCount = count;
+        }
+
+        long bitSize() {
+            return (long) mBits.length * Long.SIZE;
+        }
+
+        void put(long hash1, long hash2) {
+            long combinedHash = hash1;
+            for (int i = 0; i < mNumHashes; i++) {
+                long index = (combinedHash & Long.MAX_VALUE) % bitSize();
+                mBits[(int) (index >>> 6)] |= 1L << index;
+                combinedHash += hash2;
+            }
+            mCount++;
+        }
+
+        boolean mightContain(long hash1, long hash2) {
+            long combinedHash = hash1;
+            for (int i = 0; i < mNumHashes; i++) {
+                long index = (combinedHash & Long.MAX_VALUE) % bitSize();
+                if ((mBits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+                combinedHash += hash2;
+            }
+            return true;
+        }
+
+        double expectedFpp() {
+            long bitCount = 0;
+            for (long word : mBits) {
+                bitCount += Long.bitCount(word);
+            }
+            return Math.pow((double) bitCount / bitSize(), mNumHashes);
+        }
+    }
+
+    private ScalableBloomFilter() {}
+
+    /***
+     * @param expectedInsertions the number of elements expected to be added
+     * @param fpp the false positive probability to stay below
+     */
+    ScalableBloomFilter(int expectedInsertions, double fpp) {
+        mLayers.add(new Layer(expectedInsertions, fpp * (1 - TIGHTENING_RATIO)));
+    }
+
+    void put(CharSequence element) {
+        Layer layer = mLayers.get(mLayers.size() - 1);
+        if (layer.mCount >= layer.mCapacity) {
+            layer = new Layer(layer.mCapacity * GROWTH_FACTOR, layer.mFpp * TIGHTENING_RATIO);
+            mLayers.add(layer);
+        }
+        byte[] hash = HASH_FUNCTION.hashUnencodedChars(element).asBytes();
+        layer.put(lowerEight(hash), upperEight(hash));
+    }
+
+    boolean mightContain(CharSequence element) {
+        byte[] hash = HASH_FUNCTION.hashUnencodedChars(element).asBytes();
+        long hash1 = lowerEight(hash);
+        long hash2 = upperEight(hash);
+        for (Layer layer : mLayers) {
+            if (layer.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /***
+     * @return the probability that mightContain returns true for an element never added,
+     * given the elements added so far.
+     */
+    double expectedFpp() {
+        double trueNegative = 1;
+        for (Layer layer : mLayers) {
+            trueNegative *= 1 - layer.expectedFpp();
+        }
+        return 1 - trueNegative;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(mLayers.size());
+        for (Layer layer : mLayers) {
+            out.writeInt(layer.mCapacity);
+            out.writeDouble(layer.mFpp);
+            out.writeInt(layer.mNumHashes);
+            out.writeInt(layer.mCount);
+            out.writeInt(layer.mBits.length);
+            for (long word : layer.mBits) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    static ScalableBloomFilter readFrom(DataInput in) throws IOException {
+        ScalableBloomFilter filter = new ScalableBloomFilter();
+        int layerCount = in.readInt();
+        if (layerCount <= 0) {
+            throw new IOException("Invalid number of filters: " + layerCount);
+        }
+        for (int i = 0; i < layerCount; i++) {
+            int capacity = in.readInt();
+            double fpp = in.readDouble();
+            int numHashes = in.readInt();
+            int count = in.readInt();
+            int numWords = in.readInt();
+            if (capacity <= 0 || numHashes <= 0 || numWords <= 0) {
+                throw new IOException("Invalid filter parameters");
+            }
+            long[] bits = new long[numWords];
+            for (int j = 0; j < numWords; j++) {
+                bits[j] = in.readLong();
+            }
+            filter.mLayers.add(new Layer(capacity, fpp, numHashes, bits, count));
+        }
+        return filter;
+    }
+
+    private static long lowerEight(byte[] bytes) {
+        return Longs.fromBytes(
+                bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2], bytes[1], bytes[0]);
+    }
+
+    private static long upperEight(byte[] bytes) {
+        return Longs.fromBytes(
+                bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9],
+                bytes[8]);
+    }
+}
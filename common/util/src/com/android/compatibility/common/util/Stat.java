@@ -102,6 +102,34 @@ public class Stat {
         return getStat(Arrays.copyOf(validData, index));
     }
 
+    /**
+     * Calculate statistics properties likes average, min, max, and stddev for the samples of the
+     * given histogram, as {@link #getStat(double[])} does for an array of the samples.
+     */
+    public static StatResult getStat(LogHistogram histogram) {
+        return new StatResult(histogram.getAverage(), histogram.getMin(), histogram.getMax(),
+                histogram.getSampleStdev(), (int) histogram.getCount());
+    }
+
+    /**
+     * Histogram version of {@link #getStatWithOutlierRejection(double[], double)}. The median
+     * and the samples kept are approximated, see {@link LogHistogram#subset}.
+     */
+    public static StatResult getStatWithOutlierRejection(LogHistogram histogram,
+            double rejectionThreshold) {
+        long count = histogram.getCount();
+        double median;
+        if (count % 2 == 1) {
+            median = histogram.getValueAtIndex(count / 2);
+        } else {
+            median = (histogram.getValueAtIndex(count / 2 - 1)
+                    + histogram.getValueAtIndex(count / 2)) / 2.0;
+        }
+        double thresholdMin = median * (1.0 - rejectionThreshold);
+        double thresholdMax = median * (1.0 + rejectionThreshold);
+        return getStat(histogram.subset(thresholdMin, thresholdMax));
+    }
+
     /**
      * return the average value of the passed array
      */
@@ -179,4 +207,14 @@ public class Stat {
         return values[index];
     }
 
+    /**
+     * Histogram version of {@link #get95PercentileValue(double[])}, which does not sort the
+     * samples. The value is approximated, see {@link LogHistogram}.
+     */
+    public static double get95PercentileValue(LogHistogram histogram) {
+        // zero-based sample index
+        long index = Math.round(histogram.getCount() * 0.95 + .5) - 1;
+        return histogram.getValueAtIndex(index);
+    }
+
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The number of test results with each {@link TestStatus}, including results without a status
+ * yet. Kept up to date by the result tree as results are added and change status, so that
+ * counting results does not walk the tree. The counts are updated atomically, since the results
+ * merged from a shard into the master result keep changing status on the shard thread.
+ */
+final class StatusCounts {
+
+    private static final TestStatus[] STATUSES = TestStatus.values();
+
+    // Indexed by status ordinal, the last entry counts the results without a status.
+    private final AtomicIntegerArray mCounts = new AtomicIntegerArray(STATUSES.length + 1);
+
+    private static int index(TestStatus status) {
+        return (status == null) ? STATUSES.length : status.ordinal();
+    }
+
+    /**
+     * Adds delta to the number of results with the given status, which may be null.
+     */
+    void add(TestStatus status, int delta) {
+        mCounts.addAndGet(index(status), delta);
+    }
+
+    /**
+     * @return the number of results with the given status, which may be null.
+     */
+    int get(TestStatus status) {
+        return mCounts.get(index(status));
+    }
+
+    /**
+     * Removes the results counted by the given counts, e.g. those of a removed subtree.
+     */
+    void subtract(StatusCounts other) {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.addAndGet(i, -other.mCounts.get(i));
+        }
+    }
+}
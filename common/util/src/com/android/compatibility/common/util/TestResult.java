@@ -15,6 +15,9 @@
  */
 package com.android.compatibility.common.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Represents a single test result.
  */
@@ -24,19 +27,25 @@ public class TestResult implements ITestResult {
     private final String mTestName;
     private TestStatus mResult;
     private String mMessage;
-    private String mStackTrace;
+    // A String, or a ResultStringStore.Entry if the stack trace is kept on disk
+    private Object mStackTrace;
     private ReportLog mReport;
     private String mBugReport;
     private String mLog;
     private String mScreenshot;
     private boolean mIsRetry;
+    // The case results holding this result, whose counts follow its status. A result is held by
+    // more than one case once merged into another one, e.g. from a shard into the master result.
+    private CaseResult mHolder;
+    private List<CaseResult> mOtherHolders;
 
     /**
      * Create a {@link TestResult} for the given test name.
      */
     public TestResult(ICaseResult parent, String name) {
         mParent = parent;
-        mTestName = name;
+        ResultStringStore store = getStringStore();
+        mTestName = (store == null) ? name : store.intern(name);
         reset();
     }
 
@@ -69,7 +78,18 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setResultStatus(TestStatus status) {
+        TestStatus previous = mResult;
         mResult = status;
+        if (previous != status) {
+            if (mHolder != null) {
+                mHolder.onStatusChanged(previous, status);
+            }
+            if (mOtherHolders != null) {
+                for (CaseResult holder : mOtherHolders) {
+                    holder.onStatusChanged(previous, status);
+                }
+            }
+        }
     }
 
     /**
@@ -85,7 +105,8 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setMessage(String message) {
-        mMessage = message;
+        ResultStringStore store = getStringStore();
+        mMessage = (store == null) ? message : store.intern(message);
     }
 
     /**
@@ -93,7 +114,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public String getStackTrace() {
-        return mStackTrace;
+        return ResultStringStore.loadStackTrace(mStackTrace);
     }
 
     /**
@@ -101,7 +122,9 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setStackTrace(String stackTrace) {
-        mStackTrace = sanitizeStackTrace(stackTrace);
+        String trace = sanitizeStackTrace(stackTrace);
+        ResultStringStore store = getStringStore();
+        mStackTrace = (store == null) ? trace : store.storeStackTrace(trace);
     }
 
     /**
@@ -212,7 +235,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void reset() {
-        mResult = null;
+        setResultStatus(null);
         mMessage = null;
         mStackTrace = null;
         mReport = null;
@@ -255,6 +278,41 @@ public class TestResult implements ITestResult {
         return getName().compareTo(another.getName());
     }
 
+    /**
+     * @return the store keeping the strings of the invocation this result was created in, or
+     * null if the strings are held by the result itself
+     */
+    private ResultStringStore getStringStore() {
+        return (mParent instanceof CaseResult) ? ((CaseResult) mParent).getStringStore() : null;
+    }
+
+    /**
+     * Called when this result is added to the given case result.
+     */
+    void addHolder(CaseResult holder) {
+        if (mHolder == null) {
+            mHolder = holder;
+        } else {
+            if (mOtherHolders == null) {
+                mOtherHolders = new ArrayList<>(1);
+            }
+            mOtherHolders.add(holder);
+        }
+    }
+
+    /**
+     * Called when this result is replaced in the given case result, or merged from it into
+     * another one.
+     */
+    void removeHolder(CaseResult holder) {
+        if (mHolder == holder) {
+            mHolder = (mOtherHolders == null || mOtherHolders.isEmpty())
+                    ? null : mOtherHolders.remove(mOtherHolders.size() - 1);
+        } else if (mOtherHolders != null) {
+            mOtherHolders.remove(holder);
+        }
+    }
+
     /**
      * Strip out any invalid XML characters that might cause the report to be unviewable.
      * http://www.w3.org/TR/REC-xml/#dt-character
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link LogHistogram}
+ */
+public class LogHistogramTest extends TestCase {
+
+    // The relative error of the default precision
+    private static final double TOLERANCE = 1.0 / (1 << (LogHistogram.DEFAULT_PRECISION_BITS + 1));
+
+    public void testEmpty() throws Exception {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.getCount());
+        assertTrue(Double.isNaN(histogram.getMin()));
+        assertTrue(Double.isNaN(histogram.getMax()));
+        assertTrue(Double.isNaN(histogram.getAverage()));
+        assertTrue(Double.isNaN(histogram.getStdev()));
+        assertTrue(Double.isNaN(histogram.getValueAtIndex(0)));
+        assertTrue(Double.isNaN(histogram.getPercentiles(50)[0]));
+    }
+
+    public void testInvalidSamples() throws Exception {
+        LogHistogram histogram = new LogHistogram();
+        try {
+            histogram.record(Double.NaN);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            histogram.record(Double.POSITIVE_INFINITY);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, histogram.getCount());
+    }
+
+    public void testExactStatistics() throws Exception {
+        double[] values = {3.5, -1, 0, 12.25, 7, 7, 0.001};
+        LogHistogram histogram = new LogHistogram();
+        histogram.recordAll(values);
+
+        Stat.StatResult expected = Stat.getStat(values);
+        Stat.StatResult actual = Stat.getStat(histogram);
+        assertEquals(expected.mDataCount, actual.mDataCount);
+        assertEquals(expected.mMin, actual.mMin);
+        assertEquals(expected.mMax, actual.mMax);
+        assertEquals(expected.mAverage, actual.mAverage, 1e-12);
+        assertEquals(expected.mStddev, actual.mStddev, 1e-12);
+    }
+
+    public void testPercentilesMatchSortedSamples() throws Exception {
+        Random random = new Random(42);
+        double[] values = new double[10000];
+        LogHistogram histogram = new LogHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Frame times in ms, with a long tail
+            values[i] = 16 + Math.abs(random.nextGaussian()) * 4 + (i % 100 == 0 ? 100 : 0);
+            histogram.record(values[i]);
+        }
+        double[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+
+        double[] points = {0, 1, 10, 50, 90, 95, 99, 99.9, 100};
+        double[] percentiles = histogram.getPercentiles(points);
+        for (int i = 0; i < points.length; i++) {
+            double expected = sorted[(int) Math.round(points[i] / 100 * (values.length - 1))];
+            assertEquals("p" + points[i], expected, percentiles[i], expected * TOLERANCE);
+        }
+        assertEquals(sorted[0], percentiles[0]);
+        assertEquals(sorted[values.length - 1], percentiles[points.length - 1]);
+
+        double expected95 = Stat.get95PercentileValue(Arrays.copyOf(values, values.length));
+        assertEquals(expected95, Stat.get95PercentileValue(histogram), expected95 * TOLERANCE);
+    }
+
+    public void testNegativeAndZeroSamplesAreOrdered() throws Exception {
+        LogHistogram histogram = new LogHistogram();
+        histogram.recordAll(new double[] {4, -2, 0, -8, 1});
+        assertEquals(-8.0, histogram.getValueAtIndex(0));
+        assertEquals(-2.0, histogram.getValueAtIndex(1), 2 * TOLERANCE);
+        assertEquals(0.0, histogram.getValueAtIndex(2));
+        assertEquals(1.0, histogram.getValueAtIndex(3), TOLERANCE);
+        assertEquals(4.0, histogram.getValueAtIndex(4));
+    }
+
+    public void testMerge() throws Exception {
+        LogHistogram first = new LogHistogram();
+        LogHistogram second = new LogHistogram();
+        LogHistogram all = new LogHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            (i % 3 == 0 ? first : second).record(i);
+            all.record(i);
+        }
+        LogHistogram merged = first.snapshot();
+        merged.merge(second);
+
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMin(), merged.getMin());
+        assertEquals(all.getMax(), merged.getMax());
+        assertEquals(all.getAverage(), merged.getAverage(), 1e-9);
+        assertEquals(all.getStdev(), merged.getStdev(), 1e-9);
+        assertTrue(Arrays.equals(all.getPercentiles(10, 50, 90),
+                merged.getPercentiles(10, 50, 90)));
+        // the snapshot is not affected by the merge
+        assertEquals(333, first.getCount());
+
+        try {
+            merged.merge(new LogHistogram(4));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testReset() throws Exception {
+        LogHistogram histogram = new LogHistogram();
+        histogram.recordAll(new double[] {1, 2, 3});
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertTrue(Double.isNaN(histogram.getMin()));
+        histogram.record(5);
+        assertEquals(5.0, histogram.getAverage());
+        assertEquals(5.0, histogram.getValueAtIndex(0));
+    }
+
+    public void testOutlierRejection() throws Exception {
+        double[] values = {10, 10.5, 9.5, 10.2, 9.8, 30, 1};
+        LogHistogram histogram = new LogHistogram();
+        histogram.recordAll(values);
+
+        Stat.StatResult expected = Stat.getStatWithOutlierRejection(values, 0.5);
+        Stat.StatResult actual = Stat.getStatWithOutlierRejection(histogram, 0.5);
+        assertEquals(expected.mDataCount, actual.mDataCount);
+        assertEquals(expected.mAverage, actual.mAverage, expected.mAverage * TOLERANCE);
+        assertEquals(expected.mMin, actual.mMin, expected.mMin * TOLERANCE);
+        assertEquals(expected.mMax, actual.mMax, expected.mMax * TOLERANCE);
+    }
+
+    public void testAddToReportLog() throws Exception {
+        LogHistogram histogram = new LogHistogram();
+        histogram.recordAll(new double[] {1, 2, 3, 4});
+        final List<String> names = new ArrayList<>();
+        ReportLog log = new ReportLog() {
+            @Override
+            public void addValue(String message, double value, ResultType type,
+                    ResultUnit unit) {
+                names.add(message);
+            }
+
+            @Override
+            public void addValue(String message, long value, ResultType type, ResultUnit unit) {
+                names.add(message);
+            }
+        };
+        histogram.addToReportLog(log, "frame_time", ResultType.LOWER_BETTER, ResultUnit.MS,
+                0, 50, 99.9, 100);
+        assertEquals(Arrays.asList("frame_time_num", "frame_time_avg", "frame_time_stdev",
+                "frame_time_min", "frame_time_p50", "frame_time_p99_9", "frame_time_max"), names);
+    }
+}
@@ -73,6 +73,33 @@ public class ModuleResultTest extends TestCase {
         assertEquals("Expected one pass", 1, mResult.countResults(TestStatus.PASS));
     }
 
+    public void testCountResults_afterMerge() throws Exception {
+        IInvocationResult invocation = new InvocationResult();
+        IModuleResult module = invocation.getOrCreateModule(ID);
+        module.getOrCreateResult(CLASS).getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+
+        ICaseResult otherCase = mResult.getOrCreateResult(CLASS);
+        otherCase.getOrCreateResult(METHOD_1).passed(null);
+        ITestResult otherTest = otherCase.getOrCreateResult(METHOD_2);
+        otherTest.failed(STACK_TRACE);
+        invocation.mergeModuleResult(mResult);
+        assertEquals("Expected one failure", 1, invocation.countResults(TestStatus.FAIL));
+        assertEquals("Expected one pass", 1, invocation.countResults(TestStatus.PASS));
+
+        // A merged result belongs to the module it was merged into, only that one follows it
+        otherTest.setResultStatus(TestStatus.PASS);
+        assertEquals("Expected two passes", 2, module.countResults(TestStatus.PASS));
+        assertEquals("Expected one pass", 1, mResult.countResults(TestStatus.PASS));
+        assertEquals("Expected two passes", 2, invocation.countResults(TestStatus.PASS));
+        assertEquals("Expected no failure", 0, invocation.countResults(TestStatus.FAIL));
+        otherTest.reset();
+        assertEquals("Expected one pass", 1, invocation.countResults(TestStatus.PASS));
+
+        invocation.removeModule(ID);
+        assertEquals("Expected no pass", 0, invocation.countResults(TestStatus.PASS));
+        assertEquals("Expected one pass", 1, module.countResults(TestStatus.PASS));
+    }
+
     public void testMergeModule() throws Exception {
         ICaseResult caseResult = mResult.getOrCreateResult(CLASS);
         caseResult.getOrCreateResult(METHOD_1).failed(STACK_TRACE);
@@ -16,9 +16,23 @@
 
 package com.android.compatibility.common.util;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Unit tests for {@link MultipartForm}
@@ -47,6 +61,57 @@ public class MultipartFormTest extends TestCase {
             0x72, 0x2d, 0x2d, 0xa,
     };
 
+    private static final String FILE_HEADER_END = "Content-Transfer-Encoding: binary\n\n";
+    private static final String BODY_END = "\n--C75I55u3R3p0r73r--\n";
+
+    private HttpServer mServer;
+    private String mServerUrl;
+    private File mFile;
+    private byte[] mFileContent;
+    // The body of each request received, and the status to answer each request with
+    private final List<byte[]> mRequests = new ArrayList<>();
+    private final List<Integer> mResponses = new ArrayList<>();
+
+    @Override
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = readAll(exchange.getRequestBody());
+                int response;
+                synchronized (mRequests) {
+                    mRequests.add(body);
+                    response = mResponses.isEmpty() ? 200 : mResponses.remove(0);
+                }
+                exchange.sendResponseHeaders(response, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mServerUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+
+        mFile = File.createTempFile("result", ".xml");
+        StringBuilder content = new StringBuilder("<Result>\n");
+        for (int i = 0; i < 1000; i++) {
+            content.append("  <Test result=\"pass\" name=\"test").append(i).append("\" />\n");
+        }
+        content.append("</Result>\n");
+        mFileContent = content.toString().getBytes("UTF-8");
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(mFileContent);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        mFile.delete();
+    }
+
     public void testContentBody() throws Exception {
         MultipartForm form = new MultipartForm(SERVER_URL);
         form.addFormValue("foo", "bar");
@@ -55,4 +120,85 @@ public class MultipartFormTest extends TestCase {
         assertTrue("No data", data.length > 0);
         assertTrue("Wrong data", Arrays.equals(ZIP_ARRAY, data));
     }
+
+    public void testContentBody_file() throws Exception {
+        MultipartForm form = new MultipartForm(SERVER_URL);
+        form.addFormFile("blah", "blah.xml.gz", mFile);
+        assertTrue("Wrong file content", Arrays.equals(mFileContent,
+                getFileContent(form.getContentBody())));
+        assertTrue("Body not repeatable",
+                Arrays.equals(form.getContentBody(), form.getContentBody()));
+    }
+
+    public void testSubmit_retry() throws Exception {
+        mResponses.add(503);
+        MultipartForm form = new MultipartForm(mServerUrl).setRetries(3, 1);
+        form.addFormValue("foo", "bar").addFormFile("blah", "blah.xml.gz", mFile);
+        assertEquals("Wrong response", 200, form.submit());
+        assertEquals("Wrong number of requests", 2, mRequests.size());
+        assertTrue("Wrong body", Arrays.equals(form.getContentBody(), mRequests.get(1)));
+        assertTrue("Wrong file content", Arrays.equals(mFileContent,
+                getFileContent(mRequests.get(1))));
+    }
+
+    public void testSubmit_retryLimit() throws Exception {
+        mResponses.addAll(Arrays.asList(503, 503, 503));
+        MultipartForm form = new MultipartForm(mServerUrl).setRetries(2, 1);
+        form.addFormFile("blah", "blah.xml.gz", mFile);
+        try {
+            form.submit();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("Wrong number of requests", 2, mRequests.size());
+    }
+
+    public void testSubmit_clientErrorNotRetried() throws Exception {
+        mResponses.add(404);
+        MultipartForm form = new MultipartForm(mServerUrl).setRetries(3, 1);
+        form.addFormFile("blah", "blah.xml.gz", "blah".getBytes());
+        try {
+            form.submit();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("Wrong number of requests", 1, mRequests.size());
+    }
+
+    public void testSubmit_noRetryByDefault() throws Exception {
+        mResponses.add(503);
+        MultipartForm form = new MultipartForm(mServerUrl);
+        form.addFormFile("blah", "blah.xml.gz", mFile);
+        try {
+            form.submit();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("Wrong number of requests", 1, mRequests.size());
+    }
+
+    /**
+     * @return the gunzipped file payload of the given form body
+     */
+    private static byte[] getFileContent(byte[] body) throws IOException {
+        String text = new String(body, "ISO-8859-1");
+        int start = text.indexOf(FILE_HEADER_END) + FILE_HEADER_END.length();
+        int end = text.lastIndexOf(BODY_END);
+        return readAll(new GZIPInputStream(
+                new ByteArrayInputStream(body, start, end - start)));
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+            output.write(buffer, 0, count);
+        }
+        input.close();
+        return output.toByteArray();
+    }
 }
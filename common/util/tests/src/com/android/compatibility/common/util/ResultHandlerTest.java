@@ -22,6 +22,7 @@ import junit.framework.TestCase;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
@@ -85,6 +86,7 @@ public class ResultHandlerTest extends TestCase {
     private static final String REFERENCE_URL="http://android.com";
     private static final String LOG_URL ="file:///path/to/logs";
     private static final String COMMAND_LINE_ARGS = "cts -m CtsMyModuleTestCases";
+    private static final String EDITED_COMMAND_LINE_ARGS = "cts -m CtsMyOtherModuleTestCases";
     private static final String JOIN = "%s%s";
     private static final String XML_BASE =
             "<?xml version='1.0' encoding='UTF-8' standalone='no' ?>" +
@@ -150,6 +152,75 @@ public class ResultHandlerTest extends TestCase {
     }
 
     public void testSerialization() throws Exception {
+        IInvocationResult result = createInvocationResult();
+
+        // Serialize to file
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+
+        // Parse the results and assert correctness
+        checkResult(ResultHandler.getResultFromDir(resultDir));
+    }
+
+    public void testSummary() throws Exception {
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                createInvocationResult(), resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+        assertTrue("Missing summary", new File(resultDir, ResultSummary.NAME).exists());
+
+        List<IInvocationResult> lightResults = ResultHandler.getLightResults(resultsDir);
+        assertEquals("Expected one result", 1, lightResults.size());
+        checkLightResult(lightResults.get(0));
+        assertEquals("Incorrect command line args", COMMAND_LINE_ARGS,
+                lightResults.get(0).getCommandLineArgs());
+
+        IInvocationResult indexedResult = ResultHandler.findIndexedResult(resultsDir, 0);
+        List<IModuleResult> modules = indexedResult.getModules();
+        assertEquals("Expected 2 modules", 2, modules.size());
+        assertFalse("Module A should not be done", modules.get(0).isDone());
+        assertEquals("Expected 1 pass", 1, modules.get(0).countResults(TestStatus.PASS));
+        assertTrue("Module B should be done", modules.get(1).isDone());
+        assertEquals("Expected 1 failure", 1, modules.get(1).countResults(TestStatus.FAIL));
+        assertEquals("Incorrect failure", METHOD_3, modules.get(1).getResult(CLASS_B)
+                .getResult(METHOD_3).getName());
+    }
+
+    public void testSummary_staleResultFile() throws Exception {
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                createInvocationResult(), resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+        // Edit the result file, the summary should no longer be used
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        String content = FileUtil.readStringFromFile(resultFile);
+        FileUtil.writeToFile(content.replace(COMMAND_LINE_ARGS, EDITED_COMMAND_LINE_ARGS),
+                resultFile);
+
+        List<IInvocationResult> lightResults = ResultHandler.getLightResults(resultsDir);
+        assertEquals("Expected one result", 1, lightResults.size());
+        checkLightResult(lightResults.get(0));
+        assertEquals("Incorrect command line args", EDITED_COMMAND_LINE_ARGS,
+                lightResults.get(0).getCommandLineArgs());
+    }
+
+    public void testSummary_truncatedSummary() throws Exception {
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                createInvocationResult(), resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+        // Cut the summary short, the result file should be used instead
+        File summaryFile = new File(resultDir, ResultSummary.NAME);
+        RandomAccessFile summary = new RandomAccessFile(summaryFile, "rw");
+        summary.setLength(summaryFile.length() / 2);
+        summary.close();
+
+        List<IInvocationResult> lightResults = ResultHandler.getLightResults(resultsDir);
+        assertEquals("Expected one result", 1, lightResults.size());
+        checkLightResult(lightResults.get(0));
+        IInvocationResult indexedResult = ResultHandler.findIndexedResult(resultsDir, 0);
+        assertEquals("Expected 2 modules", 2, indexedResult.getModules().size());
+    }
+
+    private static IInvocationResult createInvocationResult() {
         IInvocationResult result = new InvocationResult();
         result.setStartTime(START_MS);
         result.setTestPlan(SUITE_PLAN);
@@ -184,14 +255,7 @@ public class ResultHandlerTest extends TestCase {
                 SUMMARY_VALUE, ResultType.HIGHER_BETTER, ResultUnit.SCORE);
         report.setSummary(summary);
         moduleBTest4.setReportLog(report);
-
-        // Serialize to file
-        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
-                result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
-                COMMAND_LINE_ARGS);
-
-        // Parse the results and assert correctness
-        checkResult(ResultHandler.getResultFromDir(resultDir));
+        return result;
     }
 
     public void testParsing() throws Exception {
@@ -18,6 +18,8 @@ package com.android.compatibility.common.util;
 
 import junit.framework.TestCase;
 
+import java.io.File;
+
 /**
  * Unit tests for {@link TestResult}
  */
@@ -25,7 +27,9 @@ public class TestResultTest extends TestCase {
 
     private static final String CLASS = "android.test.FoorBar";
     private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
     private static final String TEST_1 = String.format("%s#%s", CLASS, METHOD_1);
+    private static final String MESSAGE = "java.lang.AssertionError: expected:<1> but was:<2>";
     private CaseResult mCase;
     private TestResult mResult;
 
@@ -45,4 +49,33 @@ public class TestResultTest extends TestCase {
         assertEquals("Incorrect full name", TEST_1, mResult.getFullName());
     }
 
+    public void testStringStore() throws Exception {
+        File file = File.createTempFile("results", ".traces");
+        ResultStringStore store = new ResultStringStore(file);
+        try {
+            InvocationResult invocation = new InvocationResult();
+            invocation.setStringStore(store);
+            ICaseResult caseResult = invocation.getOrCreateModule("x86 module")
+                    .getOrCreateResult(CLASS);
+            StringBuilder trace = new StringBuilder(MESSAGE);
+            for (int i = 0; i < 20; i++) {
+                trace.append("\n\tat android.test.FoorBar.testBlah(FoorBar.java:").append(i)
+                        .append(")");
+            }
+            ITestResult result1 = caseResult.getOrCreateResult(METHOD_1);
+            ITestResult result2 = caseResult.getOrCreateResult(METHOD_2);
+            result1.failed(trace.toString());
+            result2.failed(trace.toString());
+            assertSame("Message not shared", result1.getMessage(), result2.getMessage());
+            assertEquals("Incorrect message", MESSAGE, result1.getMessage());
+            assertEquals("Incorrect stack trace", trace.toString(), result1.getStackTrace());
+            assertEquals("Incorrect stack trace", trace.toString(), result2.getStackTrace());
+            assertEquals("Stack trace not written once", trace.toString().getBytes("UTF-8").length,
+                    file.length());
+        } finally {
+            store.close();
+        }
+        assertFalse("Stack trace file not deleted", file.exists());
+    }
+
 }
\ No newline at end of file
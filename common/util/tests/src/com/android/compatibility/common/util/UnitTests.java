@@ -31,6 +31,7 @@ public class UnitTests extends TestSuite {
         addTestSuite(CaseResultTest.class);
         addTestSuite(DynamicConfigTest.class);
         addTestSuite(LightInvocationResultTest.class);
+        addTestSuite(LogHistogramTest.class);
         addTestSuite(MetricsXmlSerializerTest.class);
         addTestSuite(ModuleResultTest.class);
         addTestSuite(MultipartFormTest.class);
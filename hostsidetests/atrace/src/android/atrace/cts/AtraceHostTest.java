@@ -16,23 +16,22 @@
 
 package android.atrace.cts;
 
+import android.atrace.cts.FtraceParser.FtraceEntryCallback;
+
 import com.android.cts.migration.MigrationHelper;
+import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.testtype.DeviceTestCase;
 import com.android.tradefed.testtype.IBuildReceiver;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.Reader;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Test to check that atrace is usable, to enable usage of systrace.
@@ -41,81 +40,102 @@ public class AtraceHostTest extends DeviceTestCase implements IBuildReceiver {
     private static final String TEST_APK = "CtsAtraceTestApp.apk";
     private static final String TEST_PKG = "com.android.cts.atracetestapp";
 
-    private interface FtraceEntryCallback {
-        void onTraceEntry(String threadName, int pid, int tid, String eventType, String args);
-        void onFinished();
-    }
-
     /**
-     * Helper for parsing ftrace data.
-     * Regexs copied from (and should be kept in sync with) ftrace importer in catapult.
+     * Streams the trace data of the atrace output to a {@link FtraceParser} line by line, as
+     * the output is received from the device. The data starts after the "TRACE:" marker.
      */
-    private static class FtraceParser {
-        // Matches the trace record in 3.2 and later with the print-tgid option:
-        //          <idle>-0    0 [001] d...  1.23: sched_switch
-        private static final Pattern sLineWithTgid = Pattern.compile(
-                "^\\s*(.+)-(\\d+)\\s+\\(\\s*(\\d+|-+)\\)\\s\\[(\\d+)\\]"
-                + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
-                + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
-
-        // Matches the default trace record in 3.2 and later (includes irq-info):
-        //          <idle>-0     [001] d...  1.23: sched_switch
-        private static final Pattern sLineWithIrqInfo = Pattern.compile(
-                "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]"
-                + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
-                + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)$");
-
-        // Matches the default trace record pre-3.2:
-        //          <idle>-0     [001]  1.23: sched_switch
-        private static final Pattern sLineLegacy = Pattern.compile(
-                "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]\\s*(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
-        private static void parseLine(String line, FtraceEntryCallback callback) {
-            Matcher m = sLineWithTgid.matcher(line);
-            if (m.matches()) {
-                callback.onTraceEntry(
-                        /*threadname*/ m.group(1),
-                        /*pid*/ m.group(3).startsWith("-") ? -1 : Integer.parseInt(m.group(3)),
-                        /*tid*/ Integer.parseInt(m.group(2)),
-                        /*eventName*/ m.group(6),
-                        /*details*/ m.group(7));
+    private static class FtraceReceiver implements IShellOutputReceiver {
+        private static final String MARKER = "TRACE:";
+
+        private final FtraceParser mParser;
+        // The bytes of the line being received
+        private byte[] mLine = new byte[1024];
+        private int mLineLength = 0;
+        private boolean mFoundMarker = false;
+        private Throwable mFailure;
+
+        FtraceReceiver(FtraceParser parser) {
+            mParser = parser;
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            if (mFailure != null) {
                 return;
             }
+            try {
+                int lineStart = offset;
+                for (int i = offset; i < offset + length; i++) {
+                    if (data[i] == '\n') {
+                        appendToLine(data, lineStart, i - lineStart);
+                        onLine();
+                        lineStart = i + 1;
+                    }
+                }
+                appendToLine(data, lineStart, offset + length - lineStart);
+            } catch (RuntimeException | Error e) {
+                // e.g. an assertion of the callback, rethrown by finish()
+                mFailure = e;
+            }
+        }
 
-            m = sLineWithIrqInfo.matcher(line);
-            if (m.matches()) {
-                callback.onTraceEntry(
-                        /*threadname*/ m.group(1),
-                        /*pid*/ -1,
-                        /*tid*/ Integer.parseInt(m.group(2)),
-                        /*eventName*/ m.group(5),
-                        /*details*/ m.group(6));
-                return;
+        private void appendToLine(byte[] data, int offset, int length) {
+            if (mLineLength + length > mLine.length) {
+                mLine = Arrays.copyOf(mLine, Math.max(mLine.length * 2, mLineLength + length));
             }
+            System.arraycopy(data, offset, mLine, mLineLength, length);
+            mLineLength += length;
+        }
 
-            m = sLineLegacy.matcher(line);
-            if (m.matches()) {
-                callback.onTraceEntry(
-                        /*threadname*/ m.group(1),
-                        /*pid*/ -1,
-                        /*tid*/ Integer.parseInt(m.group(2)),
-                        /*eventName*/ m.group(5),
-                        /*details*/ m.group(6));
+        private void onLine() {
+            int length = mLineLength;
+            if (length > 0 && mLine[length - 1] == '\r') {
+                length--;
+            }
+            String line = new String(mLine, 0, length, StandardCharsets.UTF_8);
+            mLineLength = 0;
+            if (mFoundMarker) {
+                mParser.parseLine(line);
                 return;
             }
-            System.err.println("line doesn't match: " + line);
+            int markerIndex = line.indexOf(MARKER);
+            if (markerIndex >= 0) {
+                mFoundMarker = true;
+                String rest = line.substring(markerIndex + MARKER.length());
+                if (!rest.isEmpty()) {
+                    mParser.parseLine(rest);
+                }
+            }
         }
 
-        private static void parse(Reader reader, FtraceEntryCallback callback) throws Exception {
-            try {
-                BufferedReader bufferedReader = new BufferedReader(reader);
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    FtraceParser.parseLine(line, callback);
+        @Override
+        public void flush() {
+            if (mFailure == null && mLineLength > 0) {
+                try {
+                    onLine();
+                } catch (RuntimeException | Error e) {
+                    mFailure = e;
                 }
-            } finally {
-                callback.onFinished();
             }
         }
+
+        @Override
+        public boolean isCancelled() {
+            return mFailure != null;
+        }
+
+        /**
+         * Rethrows the failure of the parser, if any, then finishes parsing.
+         */
+        void finish() {
+            if (mFailure instanceof Error) {
+                throw (Error) mFailure;
+            } else if (mFailure != null) {
+                throw (RuntimeException) mFailure;
+            }
+            assertTrue("unable to find atrace output", mFoundMarker);
+            mParser.finish();
+        }
     }
 
     private IBuildInfo mCtsBuild;
@@ -195,38 +215,6 @@ public class AtraceHostTest extends DeviceTestCase implements IBuildReceiver {
      * Tests that atrace captures app launch, including app level tracing
      */
     public void testTracingContent() throws Exception {
-        String atraceOutput = null;
-        try {
-            // cleanup test apps that might be installed from previous partial test run
-            getDevice().uninstallPackage(TEST_PKG);
-
-            // install the test app
-            File testAppFile = MigrationHelper.getTestFile(mCtsBuild, TEST_APK);
-            String installResult = getDevice().installPackage(testAppFile, false);
-            assertNull(
-                    String.format("failed to install atrace test app. Reason: %s", installResult),
-                    installResult);
-
-            // capture a launch of the app with async tracing
-            // content traced by 'view' tag tested below, 'sched' used to ensure tgid printed
-            String atraceArgs = "-a " + TEST_PKG + " -c -b 16000 view"; // TODO: zipping
-            getDevice().executeShellCommand("atrace --async_stop " + atraceArgs);
-            getDevice().executeShellCommand("atrace --async_start " + atraceArgs);
-            getDevice().executeShellCommand("am start " + TEST_PKG);
-            getDevice().executeShellCommand("sleep 5");
-            atraceOutput = getDevice().executeShellCommand("atrace --async_stop " + atraceArgs);
-        } finally {
-            assertNotNull("unable to capture atrace output", atraceOutput);
-            getDevice().uninstallPackage(TEST_PKG);
-        }
-
-
-        // now parse the trace data (see external/chromium-trace/systrace.py)
-        final String MARKER = "TRACE:";
-        int dataStart = atraceOutput.indexOf(MARKER);
-        assertTrue(dataStart >= 0);
-        String traceData = atraceOutput.substring(dataStart + MARKER.length());
-
         FtraceEntryCallback callback = new FtraceEntryCallback() {
             private int userSpaceMatches = 0;
             private int beginMatches = 0;
@@ -294,6 +282,31 @@ public class AtraceHostTest extends DeviceTestCase implements IBuildReceiver {
             }
         };
 
-        FtraceParser.parse(new StringReader(traceData), callback);
+        // the trace data (see external/chromium-trace/systrace.py) is parsed as it is received
+        FtraceReceiver receiver = new FtraceReceiver(new FtraceParser(callback));
+        try {
+            // cleanup test apps that might be installed from previous partial test run
+            getDevice().uninstallPackage(TEST_PKG);
+
+            // install the test app
+            File testAppFile = MigrationHelper.getTestFile(mCtsBuild, TEST_APK);
+            String installResult = getDevice().installPackage(testAppFile, false);
+            assertNull(
+                    String.format("failed to install atrace test app. Reason: %s", installResult),
+                    installResult);
+
+            // capture a launch of the app with async tracing
+            // content traced by 'view' tag tested below, 'sched' used to ensure tgid printed
+            String atraceArgs = "-a " + TEST_PKG + " -c -b 16000 view"; // TODO: zipping
+            getDevice().executeShellCommand("atrace --async_stop " + atraceArgs);
+            getDevice().executeShellCommand("atrace --async_start " + atraceArgs);
+            getDevice().executeShellCommand("am start " + TEST_PKG);
+            getDevice().executeShellCommand("sleep 5");
+            getDevice().executeShellCommand("atrace --async_stop " + atraceArgs, receiver);
+        } finally {
+            getDevice().uninstallPackage(TEST_PKG);
+        }
+
+        receiver.finish();
     }
 }
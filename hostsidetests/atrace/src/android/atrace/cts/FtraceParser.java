@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+/**
+ * Helper for parsing ftrace data.
+ * Formats copied from (and should be kept in sync with) ftrace importer in catapult, where
+ * they are regexs. The lines are parsed by hand, as a trace has many of them: the format of
+ * the first record is used for the rest of the trace, falling back to the other formats for
+ * lines which do not match it.
+ */
+class FtraceParser {
+    interface FtraceEntryCallback {
+        void onTraceEntry(String threadName, int pid, int tid, String eventType, String args);
+        void onFinished();
+    }
+
+    // The trace record in 3.2 and later with the print-tgid option:
+    //          <idle>-0    0 [001] d...  1.23: sched_switch
+    // ^\s*(.+)-(\d+)\s+\(\s*(\d+|-+)\)\s\[(\d+)\]\s+[dX.][N.][Hhs.][0-9a-f.]
+    //     \s+(\d+\.\d+):\s+(\S+):\s(.*)
+    private static final int FORMAT_WITH_TGID = 0;
+
+    // The default trace record in 3.2 and later (includes irq-info):
+    //          <idle>-0     [001] d...  1.23: sched_switch
+    // ^\s*(.+)-(\d+)\s+\[(\d+)\]\s+[dX.][N.][Hhs.][0-9a-f.]\s+(\d+\.\d+):\s+(\S+):\s(.*)$
+    private static final int FORMAT_WITH_IRQ_INFO = 1;
+
+    // The default trace record pre-3.2:
+    //          <idle>-0     [001]  1.23: sched_switch
+    // ^\s*(.+)-(\d+)\s+\[(\d+)\]\s*(\d+\.\d+):\s+(\S+):\s(.*)
+    private static final int FORMAT_LEGACY = 2;
+
+    private static final int FORMAT_COUNT = 3;
+
+    private final FtraceEntryCallback mCallback;
+
+    /** The format of the records of this trace, or -1 until a record is parsed. */
+    private int mFormat = -1;
+
+    // The fields of the line being parsed, set by parseRecord
+    private int mTid;
+    private int mPid;
+    private int mEventStart;
+    private int mEventEnd;
+
+    FtraceParser(FtraceEntryCallback callback) {
+        mCallback = callback;
+    }
+
+    void parseLine(String line) {
+        if (mFormat >= 0 && parseLine(line, mFormat)) {
+            return;
+        }
+        for (int format = 0; format < FORMAT_COUNT; format++) {
+            if (format != mFormat && parseLine(line, format)) {
+                if (mFormat < 0) {
+                    mFormat = format;
+                }
+                return;
+            }
+        }
+        System.err.println("line doesn't match: " + line);
+    }
+
+    void finish() {
+        mCallback.onFinished();
+    }
+
+    /**
+     * Parses the line as a record of the given format, and reports it to the callback.
+     *
+     * @return false if the line does not match the format.
+     */
+    private boolean parseLine(String line, int format) {
+        final int nameStart = skipSpaces(line, 0);
+        // The thread name may contain dashes, the tid is after the last dash the rest of the
+        // record can be parsed after, as with the greedy (.+) of the regex.
+        for (int dash = line.lastIndexOf('-'); dash > nameStart;
+                dash = line.lastIndexOf('-', dash - 1)) {
+            int detailsStart = parseRecord(line, dash + 1, format);
+            if (detailsStart >= 0) {
+                mCallback.onTraceEntry(
+                        /*threadname*/ line.substring(nameStart, dash),
+                        /*pid*/ mPid,
+                        /*tid*/ mTid,
+                        /*eventName*/ line.substring(mEventStart, mEventEnd),
+                        /*details*/ line.substring(detailsStart));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the record from the tid on, setting the fields of this parser.
+     *
+     * @return the index of the details, or -1 if the record does not match the format.
+     */
+    private int parseRecord(String line, int i, int format) {
+        final int length = line.length();
+
+        // tid
+        int end = skipDigits(line, i);
+        if (end == i || end - i > 9) {
+            return -1;
+        }
+        mTid = parseInt(line, i, end);
+        i = end;
+
+        end = skipSpaces(line, i);
+        if (end == i) {
+            return -1;
+        }
+        i = end;
+
+        // tgid
+        mPid = -1;
+        if (format == FORMAT_WITH_TGID) {
+            if (i >= length || line.charAt(i) != '(') {
+                return -1;
+            }
+            i = skipSpaces(line, i + 1);
+            end = skipDigits(line, i);
+            if (end > i) {
+                if (end - i > 9) {
+                    return -1;
+                }
+                mPid = parseInt(line, i, end);
+            } else {
+                while (end < length && line.charAt(end) == '-') {
+                    end++;
+                }
+                if (end == i) {
+                    return -1;
+                }
+            }
+            i = end;
+            if (i + 1 >= length || line.charAt(i) != ')' || !isSpace(line.charAt(i + 1))) {
+                return -1;
+            }
+            i += 2;
+        }
+
+        // cpu
+        if (i >= length || line.charAt(i) != '[') {
+            return -1;
+        }
+        end = skipDigits(line, i + 1);
+        if (end == i + 1 || end >= length || line.charAt(end) != ']') {
+            return -1;
+        }
+        i = end + 1;
+
+        // irq info
+        end = skipSpaces(line, i);
+        if (format != FORMAT_LEGACY) {
+            if (end == i || end + 4 > length
+                    || "dX.".indexOf(line.charAt(end)) < 0
+                    || "N.".indexOf(line.charAt(end + 1)) < 0
+                    || "Hhs.".indexOf(line.charAt(end + 2)) < 0
+                    || "0123456789abcdef.".indexOf(line.charAt(end + 3)) < 0) {
+                return -1;
+            }
+            i = end + 4;
+            end = skipSpaces(line, i);
+            if (end == i) {
+                return -1;
+            }
+        }
+        i = end;
+
+        // timestamp
+        end = skipDigits(line, i);
+        if (end == i || end >= length || line.charAt(end) != '.') {
+            return -1;
+        }
+        i = end + 1;
+        end = skipDigits(line, i);
+        if (end == i || end >= length || line.charAt(end) != ':') {
+            return -1;
+        }
+        i = end + 1;
+        end = skipSpaces(line, i);
+        if (end == i) {
+            return -1;
+        }
+        i = end;
+
+        // event name, up to the last colon before a space
+        end = i;
+        while (end < length && !isSpace(line.charAt(end))) {
+            end++;
+        }
+        if (end == length || end - i < 2 || line.charAt(end - 1) != ':') {
+            return -1;
+        }
+        mEventStart = i;
+        mEventEnd = end - 1;
+
+        // details, after a single space
+        return end + 1;
+    }
+
+    private static boolean isSpace(char c) {
+        // as \s
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && isSpace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipDigits(String line, int i) {
+        while (i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int parseInt(String line, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (line.charAt(i) - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import android.atrace.cts.FtraceParser.FtraceEntryCallback;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the parsing of trace lines by {@link FtraceParser}, without a device.
+ */
+public class FtraceParserTest extends TestCase {
+
+    private static final String TGID_LINE =
+            "  atracetestapp-1234  ( 1234) [001] d..1  123.456789: tracing_mark_write: B|1234|draw";
+    private static final String TGID_UNKNOWN_LINE =
+            "    <idle>-0     (-----) [000] d..2  123.456800: sched_switch: prev_comm=swapper";
+    private static final String IRQ_INFO_LINE =
+            "  surfaceflinger-502   [002] dNh3  123.456900: sched_wakeup: comm=RenderThread";
+    private static final String LEGACY_LINE =
+            "          <idle>-0     [001]  123.457000: cpu_idle: state=1 cpu_id=1";
+
+    private final List<String> mEntries = new ArrayList<>();
+    private boolean mFinished = false;
+
+    private final FtraceParser mParser = new FtraceParser(new FtraceEntryCallback() {
+        @Override
+        public void onTraceEntry(String threadName, int pid, int tid, String eventType,
+                String args) {
+            mEntries.add(String.format("%s|%d|%d|%s|%s", threadName, pid, tid, eventType, args));
+        }
+
+        @Override
+        public void onFinished() {
+            mFinished = true;
+        }
+    });
+
+    public void testParseLine_tgid() {
+        mParser.parseLine(TGID_LINE);
+        mParser.parseLine(TGID_UNKNOWN_LINE);
+        assertEntries(
+                "atracetestapp|1234|1234|tracing_mark_write|B|1234|draw",
+                "<idle>|-1|0|sched_switch|prev_comm=swapper");
+    }
+
+    public void testParseLine_irqInfo() {
+        mParser.parseLine(IRQ_INFO_LINE);
+        assertEntries("surfaceflinger|-1|502|sched_wakeup|comm=RenderThread");
+    }
+
+    public void testParseLine_legacy() {
+        mParser.parseLine(LEGACY_LINE);
+        assertEntries("<idle>|-1|0|cpu_idle|state=1 cpu_id=1");
+    }
+
+    /**
+     * The first record sets the format of the trace, the other formats are still tried for
+     * lines which do not match it.
+     */
+    public void testParseLine_mixedFormats() {
+        mParser.parseLine(IRQ_INFO_LINE);
+        mParser.parseLine(LEGACY_LINE);
+        mParser.parseLine(TGID_LINE);
+        mParser.parseLine(IRQ_INFO_LINE);
+        assertEntries(
+                "surfaceflinger|-1|502|sched_wakeup|comm=RenderThread",
+                "<idle>|-1|0|cpu_idle|state=1 cpu_id=1",
+                "atracetestapp|1234|1234|tracing_mark_write|B|1234|draw",
+                "surfaceflinger|-1|502|sched_wakeup|comm=RenderThread");
+    }
+
+    /**
+     * The thread name ends at the last dash the rest of the record can be parsed after.
+     */
+    public void testParseLine_dashesInThreadName() {
+        mParser.parseLine("  Binder:502_1-2-503   [003] ...1  123.5: binder_transaction: "
+                + "transaction=1-2");
+        mParser.parseLine("  -1-7  ( 7) [000] ...1  1.0: tracing_mark_write: E");
+        assertEntries(
+                "Binder:502_1-2|-1|503|binder_transaction|transaction=1-2",
+                "-1|7|7|tracing_mark_write|E");
+    }
+
+    public void testParseLine_emptyDetails() {
+        mParser.parseLine("  app-10  [000] d..1  1.000001: tracing_mark_write: ");
+        assertEntries("app|-1|10|tracing_mark_write|");
+    }
+
+    public void testParseLine_notRecords() {
+        mParser.parseLine("# tracer: nop");
+        mParser.parseLine("#           TASK-PID    CPU#  ||||    TIMESTAMP  FUNCTION");
+        mParser.parseLine("");
+        // no space after the event name
+        mParser.parseLine("  app-10  [000] d..1  1.000001: tracing_mark_write:");
+        // no fraction in the timestamp
+        mParser.parseLine("  app-10  [000] d..1  1: tracing_mark_write: B|10|a");
+        // an irq-info field of the wrong form
+        mParser.parseLine("  app-10  [000] x..1  1.5: tracing_mark_write: B|10|a");
+        // no cpu
+        mParser.parseLine("  app-10  1.5: tracing_mark_write: B|10|a");
+        assertEntries();
+    }
+
+    public void testFinish() {
+        mParser.parseLine(LEGACY_LINE);
+        assertFalse(mFinished);
+        mParser.finish();
+        assertTrue(mFinished);
+    }
+
+    private void assertEntries(String... expected) {
+        assertEquals(Arrays.asList(expected), mEntries);
+    }
+}
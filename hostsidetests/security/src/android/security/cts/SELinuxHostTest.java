@@ -18,6 +18,7 @@ package android.security.cts;
 
 import android.platform.test.annotations.RestrictedBuildTest;
 
+import com.android.compatibility.common.util.DeviceArtifactCache;
 import com.android.compatibility.common.util.PropertyUtil;
 import com.android.cts.migration.MigrationHelper;
 import com.android.tradefed.build.IBuildInfo;
@@ -132,10 +133,14 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
         sepolicyAnalyze = MigrationHelper.getTestFile(mBuild, "sepolicy-analyze");
         sepolicyAnalyze.setExecutable(true);
 
-        /* obtain sepolicy file from running device */
-        devicePolicyFile = File.createTempFile("sepolicy", ".tmp");
-        devicePolicyFile.deleteOnExit();
-        mDevice.pullFile("/sys/fs/selinux/policy", devicePolicyFile);
+        /* obtain sepolicy file from running device, once for all the tests */
+        devicePolicyFile = DeviceArtifactCache.getInstance(mDevice)
+                .pullFile("/sys/fs/selinux/policy");
+        if (devicePolicyFile == null) {
+            /* the tests analyzing the policy fail on an empty policy */
+            devicePolicyFile = File.createTempFile("sepolicy", ".tmp");
+            devicePolicyFile.deleteOnExit();
+        }
     }
 
     /**
@@ -923,6 +928,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
 
         private static HashMap<String, ArrayList<ProcessDetails>> procMap;
         private static HashMap<String, ArrayList<ProcessDetails>> exeMap;
+        /* the ps output the maps were created from */
+        private static String psOutString;
         private static int kernelParentThreadpid = -1;
 
         ProcessDetails(String label, String user, int pid, int ppid, String procTitle) {
@@ -945,11 +952,15 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
 
         private static void createProcMap(ITestDevice tDevice) throws DeviceNotAvailableException {
 
-            /* take the output of a ps -Z to do our analysis */
-            CollectingOutputReceiver psOut = new CollectingOutputReceiver();
+            /* take the output of a ps -Z to do our analysis, cached for the device */
             // TODO: remove "toybox" below and just run "ps"
-            tDevice.executeShellCommand("toybox ps -A -o label,user,pid,ppid,cmdline", psOut);
-            String psOutString = psOut.getOutput();
+            String output = DeviceArtifactCache.getInstance(tDevice).executeShellCommand(
+                    "toybox ps -A -o label,user,pid,ppid,cmdline");
+            if (output.equals(psOutString)) {
+                /* same ps output, the maps are up to date */
+                return;
+            }
+            psOutString = output;
             Pattern p = Pattern.compile(
                     "^([\\w_:]+)\\s+([\\w_]+)\\s+(\\d+)\\s+(\\d+)\\s+(\\p{Graph}+)(\\s\\p{Graph}+)*\\s*$",
                     Pattern.MULTILINE);
@@ -979,17 +990,13 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
 
         public static HashMap<String, ArrayList<ProcessDetails>> getProcMap(ITestDevice tDevice)
                 throws DeviceNotAvailableException{
-            if (procMap == null) {
-                createProcMap(tDevice);
-            }
+            createProcMap(tDevice);
             return procMap;
         }
 
         public static HashMap<String, ArrayList<ProcessDetails>> getExeMap(ITestDevice tDevice)
                 throws DeviceNotAvailableException{
-            if (exeMap == null) {
-                createProcMap(tDevice);
-            }
+            createProcMap(tDevice);
             return exeMap;
         }
 
@@ -21,15 +21,20 @@ import com.android.ddmlib.Log.LogLevel;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.String;
 import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 /**
  * Compares the images generated by the device with the reference images.
+ * <p>
+ * The images are decoded from the PNG bytes held in memory into packed ARGB rasters, which are
+ * compared row by row. A diff image is only written when the images differ.
  */
 public class ComparisonTask implements Callable<File> {
     private static final String TAG = "ComparisonTask";
@@ -39,20 +44,27 @@ public class ComparisonTask implements Callable<File> {
     /** Maximum allowable number of consecutive failed pixels. */
     private static final int MAX_CONSECUTIVE_FAILURES = 1;
 
-    private final File mExpected;
-    private final File mActual;
+    private final String mName;
+    private final byte[] mExpected;
+    private final byte[] mActual;
 
-    public ComparisonTask(File expected, File actual) {
+    /**
+     * @param name the name of the image, used to name the diff
+     * @param expected the PNG bytes of the reference image
+     * @param actual the PNG bytes of the generated image
+     */
+    public ComparisonTask(String name, byte[] expected, byte[] actual) {
+        mName = name;
         mExpected = expected;
         mActual = actual;
     }
 
     public File call() {
         try {
-            final BufferedImage expected = ImageIO.read(mExpected);
-            final BufferedImage actual = ImageIO.read(mActual);
+            final Raster expected = Raster.decode(mExpected, mName);
+            final Raster actual = Raster.decode(mActual, mName);
             if (!compare(expected, actual, IMAGE_THRESHOLD)) {
-                final File diff = File.createTempFile("diff_" + mExpected.getName(), ".png");
+                final File diff = File.createTempFile("diff_" + mName, ".png");
                 createDiff(expected, actual, diff);
                 return diff;
             }
@@ -64,110 +76,135 @@ public class ComparisonTask implements Callable<File> {
         return null;
     }
 
+    /**
+     * The pixels of an image, packed in row-major order as ARGB ints.
+     */
+    private static class Raster {
+        final int width;
+        final int height;
+        final int[] pixels;
+
+        private Raster(int width, int height, int[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+
+        static Raster decode(byte[] png, String name) throws IOException {
+            // Buffered in memory, ImageIO.read(InputStream) would go through a cache file
+            // unless caching is turned off for the whole JVM.
+            final BufferedImage image = ImageIO.read(
+                    new MemoryCacheImageInputStream(new ByteArrayInputStream(png)));
+            if (image == null) {
+                throw new IOException("Failed to decode image " + name);
+            }
+            final int w = image.getWidth();
+            final int h = image.getHeight();
+            // A single bulk conversion, rather than a call per pixel
+            return new Raster(w, h, image.getRGB(0, 0, w, h, null, 0, w));
+        }
+    }
+
     /**
      * Verifies that the pixels of reference and generated images are similar
      * within a specified threshold.
+     * <p>
+     * Failed pixels are counted in vertical runs, as the images used to be walked column by
+     * column; the rows are walked in order with a run length per column instead, which keeps
+     * the accesses sequential.
      *
-     * @param expected expected image
-     * @param actual actual image
+     * @param reference expected image
+     * @param generated actual image
      * @param threshold maximum difference per channel
      * @return {@code true} if the images are similar, false otherwise
      */
-    private static int getAlphaScaledBlue(final int color) {
-        return (color & 0x000000FF) * getAlpha(color) / 255;
-    }
-
-    private static int getAlphaScaledGreen(final int color) {
-        return ((color & 0x0000FF00) >> 8) * getAlpha(color) / 255;
-    }
-
-    private static int getAlphaScaledRed(final int color) {
-        return ((color & 0x00FF0000) >> 16) * getAlpha(color) / 255;
-    }
-
-    private static int getAlpha(final int color) {
-        // use logical shift for keeping an unsigned value
-        return (color & 0xFF000000) >>> 24;
-    }
-
-    private static boolean compare(BufferedImage reference, BufferedImage generated, int threshold) {
-        final int w = generated.getWidth();
-        final int h = generated.getHeight();
-        if (w != reference.getWidth() || h != reference.getHeight()) {
+    private static boolean compare(Raster reference, Raster generated, int threshold) {
+        final int w = generated.width;
+        final int h = generated.height;
+        if (w != reference.width || h != reference.height) {
             return false;
         }
 
-        for (int i = 0; i < w; i++) {
-            int consecutive = 0;
-
-            for (int j = 0; j < h; j++) {
-                final int p1 = reference.getRGB(i, j);
-                final int p2 = generated.getRGB(i, j);
+        final int[] p1s = reference.pixels;
+        final int[] p2s = generated.pixels;
+        final int[] consecutive = new int[w];
+        for (int j = 0, row = 0; j < h; j++, row += w) {
+            for (int i = 0; i < w; i++) {
+                final int p1 = p1s[row + i];
+                final int p2 = p2s[row + i];
+                if (p1 == p2) {
+                    consecutive[i] = 0;
+                    continue;
+                }
 
-                final int dr = getAlphaScaledRed(p1) - getAlphaScaledRed(p2);
-                final int dg = getAlphaScaledGreen(p1) - getAlphaScaledGreen(p2);
-                final int db = getAlphaScaledBlue(p1) - getAlphaScaledBlue(p2);
+                // use logical shift for keeping an unsigned value
+                final int a1 = p1 >>> 24;
+                final int a2 = p2 >>> 24;
+                final int dr = ((p1 >> 16) & 0xFF) * a1 / 255 - ((p2 >> 16) & 0xFF) * a2 / 255;
+                final int dg = ((p1 >> 8) & 0xFF) * a1 / 255 - ((p2 >> 8) & 0xFF) * a2 / 255;
+                final int db = (p1 & 0xFF) * a1 / 255 - (p2 & 0xFF) * a2 / 255;
 
                 if (Math.abs(db) > threshold ||
                         Math.abs(dg) > threshold ||
                         Math.abs(dr) > threshold) {
-                    consecutive++;
-
-                    if (consecutive > MAX_CONSECUTIVE_FAILURES) {
+                    if (++consecutive[i] > MAX_CONSECUTIVE_FAILURES) {
                         return false;
                     }
                 } else {
-                    consecutive = 0;
+                    consecutive[i] = 0;
                 }
             }
         }
         return true;
     }
 
-    private static void createDiff(BufferedImage expected, BufferedImage actual, File out)
+    private static void createDiff(Raster expected, Raster actual, File out)
             throws IOException {
-        final int w1 = expected.getWidth();
-        final int h1 = expected.getHeight();
-        final int w2 = actual.getWidth();
-        final int h2 = actual.getHeight();
+        final int w1 = expected.width;
+        final int h1 = expected.height;
+        final int w2 = actual.width;
+        final int h2 = actual.height;
         final int width = Math.max(w1, w2);
         final int height = Math.max(h1, h2);
 
         // The diff will contain image1, image2 and the difference between the two.
-        final BufferedImage diff = new BufferedImage(
-                width * 3, height, BufferedImage.TYPE_INT_ARGB);
-
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
+        final int diffWidth = width * 3;
+        final int[] diff = new int[diffWidth * height];
+        final int white = Color.WHITE.getRGB();
+        final int red = Color.RED.getRGB();
+
+        for (int j = 0; j < height; j++) {
+            final int row = j * diffWidth;
+            for (int i = 0; i < width; i++) {
                 final boolean inBounds1 = i < w1 && j < h1;
                 final boolean inBounds2 = i < w2 && j < h2;
-                int colorExpected = Color.WHITE.getRGB();
-                int colorActual = Color.WHITE.getRGB();
+                int colorExpected = white;
+                int colorActual = white;
                 int colorDiff;
                 if (inBounds1 && inBounds2) {
-                    colorExpected = expected.getRGB(i, j);
-                    colorActual = actual.getRGB(i, j);
-                    colorDiff = colorExpected == colorActual ? colorExpected : Color.RED.getRGB();
+                    colorExpected = expected.pixels[j * w1 + i];
+                    colorActual = actual.pixels[j * w2 + i];
+                    colorDiff = colorExpected == colorActual ? colorExpected : red;
                 } else if (inBounds1 && !inBounds2) {
-                    colorExpected = expected.getRGB(i, j);
+                    colorExpected = expected.pixels[j * w1 + i];
                     colorDiff = Color.BLUE.getRGB();
                 } else if (!inBounds1 && inBounds2) {
-                    colorActual = actual.getRGB(i, j);
+                    colorActual = actual.pixels[j * w2 + i];
                     colorDiff = Color.GREEN.getRGB();
                 } else {
                     colorDiff = Color.MAGENTA.getRGB();
                 }
 
-                int x = i;
-                diff.setRGB(x, j, colorExpected);
-                x += width;
-                diff.setRGB(x, j, colorActual);
-                x += width;
-                diff.setRGB(x, j, colorDiff);
+                diff[row + i] = colorExpected;
+                diff[row + width + i] = colorActual;
+                diff[row + 2 * width + i] = colorDiff;
             }
         }
 
-        ImageIO.write(diff, "png", out);
+        final BufferedImage image = new BufferedImage(diffWidth, height,
+                BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, diffWidth, height, diff, 0, diffWidth);
+        ImageIO.write(image, "png", out);
     }
 
 }
@@ -29,6 +29,7 @@ import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IAbiReceiver;
 import com.android.tradefed.testtype.IBuildReceiver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -78,8 +79,8 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
     /** Overall test timeout is 30 minutes. Should only take about 5. */
     private static final int TEST_RESULT_TIMEOUT = 30 * 60 * 1000;
 
-    /** Map of reference image names and files. */
-    private Map<String, File> mReferences;
+    /** Map of reference image names and PNG bytes. */
+    private Map<String, byte[]> mReferences;
 
     /** The ABI to use. */
     private IAbi mAbi;
@@ -125,26 +126,15 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
         mCompletionService = new ExecutorCompletionService<>(mExecutionService);
     }
 
-    private Map<String, File> extractReferenceImages(String zipFile) throws Exception {
-        final Map<String, File> references = new HashMap<>();
+    private Map<String, byte[]> extractReferenceImages(String zipFile) throws Exception {
+        final Map<String, byte[]> references = new HashMap<>();
         final InputStream zipStream = ThemeHostTest.class.getResourceAsStream(zipFile);
         if (zipStream != null) {
             try (ZipInputStream in = new ZipInputStream(zipStream)) {
                 ZipEntry ze;
-                final byte[] buffer = new byte[1024];
+                final byte[] buffer = new byte[8192];
                 while ((ze = in.getNextEntry()) != null) {
-                    final String name = ze.getName();
-                    final File tmp = File.createTempFile("ref_" + name, ".png");
-                    final FileOutputStream out = new FileOutputStream(tmp);
-
-                    int count;
-                    while ((count = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, count);
-                    }
-
-                    out.flush();
-                    out.close();
-                    references.put(name, tmp);
+                    references.put(ze.getName(), readEntry(in, ze, buffer));
                 }
             } catch (IOException e) {
                 fail("Failed to unzip assets: " + zipFile);
@@ -163,9 +153,6 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
 
     @Override
     protected void tearDown() throws Exception {
-        // Delete the temp files
-        mReferences.values().forEach(File::delete);
-
         mExecutionService.shutdown();
 
         // Remove the APK.
@@ -197,6 +184,7 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
                 mDevice.pullFile(GENERATED_ASSETS_ZIP, localZip));
 
         final int numTasks = extractGeneratedImages(localZip, mReferences);
+        localZip.delete();
 
         final List<File> failures = new ArrayList<>();
         for (int i = numTasks; i > 0; i--) {
@@ -218,30 +206,20 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
         assertTrue(failureCount + " failures in theme test", failureCount == 0);
     }
 
-    private int extractGeneratedImages(File localZip, Map<String, File> references)
+    private int extractGeneratedImages(File localZip, Map<String, byte[]> references)
             throws IOException {
         int numTasks = 0;
 
-        // Extract generated images to temporary files.
+        // Read the generated images into memory, the tasks decode them in parallel.
         final byte[] data = new byte[8192];
         try (ZipInputStream zipInput = new ZipInputStream(new FileInputStream(localZip))) {
             ZipEntry entry;
             while ((entry = zipInput.getNextEntry()) != null) {
                 final String name = entry.getName();
-                final File expected = references.get(name);
-                if (expected != null && expected.exists()) {
-                    final File actual = File.createTempFile("actual_" + name, ".png");
-                    final FileOutputStream pngOutput = new FileOutputStream(actual);
-
-                    int count;
-                    while ((count = zipInput.read(data, 0, data.length)) != -1) {
-                        pngOutput.write(data, 0, count);
-                    }
-
-                    pngOutput.flush();
-                    pngOutput.close();
-
-                    mCompletionService.submit(new ComparisonTask(expected, actual));
+                final byte[] expected = references.get(name);
+                if (expected != null) {
+                    final byte[] actual = readEntry(zipInput, entry, data);
+                    mCompletionService.submit(new ComparisonTask(name, expected, actual));
                     numTasks++;
                 } else {
                     Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
@@ -255,6 +233,21 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
         return numTasks;
     }
 
+    /**
+     * Reads the content of the current entry of the ZIP stream.
+     */
+    private static byte[] readEntry(ZipInputStream in, ZipEntry entry, byte[] buffer)
+            throws IOException {
+        final long size = entry.getSize();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                size > 0 && size < Integer.MAX_VALUE ? (int) size : buffer.length);
+        int count;
+        while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * Compresses a list of files to a ZIP file.
      *
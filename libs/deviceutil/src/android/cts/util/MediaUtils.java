@@ -29,6 +29,7 @@ import android.util.Log;
 import android.util.Range;
 
 import com.android.compatibility.common.util.DeviceReportLog;
+import com.android.compatibility.common.util.LogHistogram;
 import com.android.compatibility.common.util.ResultType;
 import com.android.compatibility.common.util.ResultUnit;
 
@@ -748,6 +749,33 @@ public class MediaUtils {
             return new Stats(avgs);
         }
 
+        /** records the values into |histogram|, e.g. to combine the values of several runs */
+        public void recordTo(LogHistogram histogram) {
+            if (mData != null) {
+                histogram.recordAll(mData);
+            }
+        }
+
+        /** records the moving average over n values into |histogram|, without keeping the
+         *  averages as {@link #movingAverage} does */
+        public void recordMovingAverage(int n, LogHistogram histogram) {
+            if (n < 1 || mNum < n) {
+                return;
+            } else if (n == 1) {
+                recordTo(histogram);
+                return;
+            }
+
+            double sum = 0;
+            for (int i = 0; i < mNum; ++i) {
+                sum += mData[i];
+                if (i >= n - 1) {
+                    histogram.record(sum / n);
+                    sum -= mData[i - n + 1];
+                }
+            }
+        }
+
         /** returns the statistics for the moving average over a window over the
          *  cumulative sum. Basically, moves a window from: [0, window] to
          *  [sum - window, sum] over the cumulative sum, over ((sum - window) / average)
@@ -36,6 +36,8 @@ import java.util.regex.Pattern;
  */
 public final class Expectation {
 
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
     /** Justification for this expectation */
     private final String description;
 
@@ -45,6 +47,12 @@ public final class Expectation {
     /** The pattern the expected output will match. */
     private final Pattern pattern;
 
+    /**
+     * A string the output matches the pattern if and only if it contains, or
+     * null if the pattern is not of the form {@code .*literal.*}.
+     */
+    private final String requiredSubstring;
+
     /** Attributes of this test. */
     private final Set<String> tags;
 
@@ -63,6 +71,7 @@ public final class Expectation {
         this.description = description;
         this.result = result;
         this.pattern = pattern;
+        this.requiredSubstring = requiredSubstring(pattern);
         this.tags = new LinkedHashSet<String>(tags);
         this.bug = bug;
     }
@@ -95,13 +104,48 @@ public final class Expectation {
      * Returns true if {@code outcome} matches this expectation.
      */
     public boolean matches(Outcome outcome) {
-        return patternMatches(outcome) && (bugIsOpen || result == outcome.getResult());
+        // the result is checked first as it is much cheaper than matching the output
+        return (bugIsOpen || result == outcome.getResult()) && patternMatches(outcome);
     }
 
     private boolean patternMatches(Outcome outcome) {
+        if (requiredSubstring != null) {
+            return outcome.getOutput().contains(requiredSubstring);
+        }
         return pattern.matcher(outcome.getOutput()).matches();
     }
 
+    /**
+     * Returns the string that output must contain to match {@code pattern},
+     * if that is all the pattern requires, as for the patterns of "substring"
+     * expectations. Returns null otherwise.
+     */
+    private static String requiredSubstring(Pattern pattern) {
+        // without DOTALL, .* does not match line terminators, other flags change
+        // how the literal matches
+        if ((pattern.flags() & ~Pattern.MULTILINE) != Pattern.DOTALL) {
+            return null;
+        }
+        String regex = pattern.pattern();
+        if (regex.equals(".*")) {
+            return "";
+        }
+        if (regex.length() < 4 || !regex.startsWith(".*") || !regex.endsWith(".*")) {
+            return null;
+        }
+        String literal = regex.substring(2, regex.length() - 2);
+        // a literal quoted with Pattern.quote()
+        if (literal.startsWith("\\Q") && literal.indexOf("\\E") == literal.length() - 2) {
+            return literal.substring(2, literal.length() - 2);
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (REGEX_METACHARACTERS.indexOf(literal.charAt(i)) != -1) {
+                return null;
+            }
+        }
+        return literal;
+    }
+
     @Override public String toString() {
         return "Expectation[description=" + description + " pattern=" + pattern.pattern() + "]";
     }
@@ -49,6 +49,52 @@ LOCAL_JAVA_LIBRARIES := android.test.runner
 
 include $(BUILD_STATIC_JAVA_LIBRARY)
 
+#==========================================================
+# Build the host tool precomputing the expectation cache
+#==========================================================
+
+# Writes the expectations, and the classes of the test APK, to a resource
+# read by the runner with the core-expectations-cache argument, e.g.
+#   java -cp cts-core-expectation-cache.jar \
+#       com.android.cts.core.runner.ExpectationCache \
+#       -o expectations.cache -e knownfailures.txt -j classes.jar
+# The libcore test packages build it with $(BUILD_CTS_CORE_EXPECTATION_CACHE).
+include $(CLEAR_VARS)
+
+LOCAL_MODULE_TAGS := optional
+LOCAL_SRC_FILES := src/com/android/cts/core/runner/ExpectationCache.java
+LOCAL_MODULE := cts-core-expectation-cache
+LOCAL_STATIC_JAVA_LIBRARIES := vogarexpectlib
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+#==========================================================
+# Build the host tests of the expectation cache
+#==========================================================
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE_TAGS := optional
+LOCAL_SRC_FILES := $(call all-java-files-under,tests/src)
+LOCAL_MODULE := cts-core-expectation-cache-tests
+LOCAL_JAVA_LIBRARIES := cts-core-expectation-cache junit-host
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+#==========================================================
+# Build the host benchmark of the expectation lookups
+#==========================================================
+
+# Not run as part of the build, see ExpectationBenchmark for how to run it
+include $(CLEAR_VARS)
+
+LOCAL_MODULE_TAGS := optional
+LOCAL_SRC_FILES := $(call all-java-files-under,benchmark/src)
+LOCAL_MODULE := cts-core-expectation-benchmark
+LOCAL_STATIC_JAVA_LIBRARIES := vogarexpectlib
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
 #==========================================================
 # Build the run listener
 #==========================================================
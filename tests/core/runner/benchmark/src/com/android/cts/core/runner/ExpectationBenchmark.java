@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.core.runner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import vogar.Expectation;
+import vogar.ExpectationStore;
+import vogar.ModeId;
+import vogar.Outcome;
+import vogar.Result;
+
+/**
+ * Measures the time the runner spends looking up the expectations of outcomes, over real
+ * expectation files, e.g.
+ * <pre>
+ *   java -cp cts-core-expectation-benchmark.jar \
+ *       com.android.cts.core.runner.ExpectationBenchmark \
+ *       cts/tests/expectations/knownfailures.txt \
+ *       cts/tests/tests/icu/resources/android/icu/cts/expectations/icu-known-failures.txt
+ * </pre>
+ *
+ * <p>The expectation files of the tree have no failure expectations, so failure expectations
+ * like those of libcore are added: each is written once as a "substring", which
+ * {@link Expectation#matches} checks with {@link String#contains}, and once as the equivalent
+ * "pattern", which it matches with the regular expression. Every name of the files, and a test
+ * of each, is looked up as the outcome of a passing and a failing test, with an output that
+ * matches no failure expectation and one that matches the last one. Both stores must give the
+ * same expectation for every outcome.
+ */
+public class ExpectationBenchmark {
+
+    private static final int FAILURES = 40;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ExpectationBenchmark <expectation file>...");
+            System.exit(1);
+        }
+        Set<File> files = new LinkedHashSet<>();
+        for (String arg : args) {
+            files.add(new File(arg));
+        }
+        File substrings = File.createTempFile("substring-failures", ".txt");
+        File patterns = File.createTempFile("pattern-failures", ".txt");
+        try {
+            writeFailures(substrings, false);
+            writeFailures(patterns, true);
+            Set<File> substringFiles = new LinkedHashSet<>(files);
+            substringFiles.add(substrings);
+            Set<File> patternFiles = new LinkedHashSet<>(files);
+            patternFiles.add(patterns);
+            ExpectationStore substringStore =
+                    ExpectationStore.parse(substringFiles, ModeId.DEVICE);
+            ExpectationStore patternStore = ExpectationStore.parse(patternFiles, ModeId.DEVICE);
+
+            List<Outcome> outcomes = createOutcomes(substringStore);
+            for (Outcome outcome : outcomes) {
+                Expectation expected = patternStore.get(outcome);
+                Expectation actual = substringStore.get(outcome);
+                // the failure expectations of the two stores are different objects
+                if (expected.getResult() != actual.getResult()
+                        || !expected.getDescription().equals(actual.getDescription())) {
+                    throw new AssertionError("Different expectations for " + outcome.getName()
+                            + ": " + expected + ", " + actual);
+                }
+            }
+            System.out.printf("%d outcomes, %d failure expectations, %d rounds%n",
+                    outcomes.size(), FAILURES, ROUNDS);
+            for (int i = 0; i < 3; i++) {
+                report("pattern", patternStore, outcomes);
+                report("substring", substringStore, outcomes);
+            }
+        } finally {
+            substrings.delete();
+            patterns.delete();
+        }
+    }
+
+    private static void writeFailures(File file, boolean asPattern) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("[\n");
+            for (int i = 0; i < FAILURES; i++) {
+                String substring = failureMessage(i);
+                if (i > 0) {
+                    writer.write(",\n");
+                }
+                writer.write(String.format("{\n  description: \"failure %d\",\n", i));
+                writer.write(String.format("  result: %s,\n",
+                        (i % 2 == 0) ? Result.EXEC_FAILED : Result.ERROR));
+                writer.write(String.format("  failure: \"synthetic.Failure%d\",\n", i));
+                if (asPattern) {
+                    writer.write(String.format("  pattern: \".*(?:%s).*\"\n}",
+                            Pattern.quote(substring).replace("\\", "\\\\")));
+                } else {
+                    writer.write(String.format("  substring: \"%s\"\n}", substring));
+                }
+            }
+            writer.write("\n]\n");
+        }
+    }
+
+    private static String failureMessage(int i) {
+        return "java.lang.IllegalStateException: synthetic failure " + i + " (expected)";
+    }
+
+    private static List<Outcome> createOutcomes(ExpectationStore store) {
+        StringBuilder trace = new StringBuilder("junit.framework.AssertionFailedError: expected");
+        for (int i = 0; i < 40; i++) {
+            trace.append("\n\tat android.foo.cts.FooTest.method").append(i)
+                    .append("(FooTest.java:").append(100 + i).append(')');
+        }
+        List<String> outputs = Arrays.asList(trace.toString(),
+                trace + "\nCaused by: " + failureMessage(FAILURES - 1));
+
+        List<Outcome> outcomes = new ArrayList<>();
+        for (String name : store.getAllOutComes().keySet()) {
+            for (String outcomeName : Arrays.asList(name, name + "#testBenchmark")) {
+                for (String output : outputs) {
+                    outcomes.add(new Outcome(outcomeName, Result.SUCCESS, output));
+                    outcomes.add(new Outcome(outcomeName, Result.EXEC_FAILED, output));
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    private static void report(String name, ExpectationStore store, List<Outcome> outcomes) {
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Outcome outcome : outcomes) {
+                store.get(outcome);
+            }
+        }
+        System.out.printf("%-10s %6d ms%n", name, (System.nanoTime() - start) / 1000000);
+    }
+}
@@ -121,7 +121,9 @@ public class CoreTestRunner extends Instrumentation {
         this.logOnly = "true".equalsIgnoreCase(args.getString(ARGUMENT_LOG_ONLY)) || testCountOnly;
         this.testTimeout = parseUnsignedLong(args.getString(ARGUMENT_TIMEOUT), ARGUMENT_TIMEOUT);
 
-        expectationFilter = new ExpectationBasedFilter(args);
+        // The expectations and class names precomputed at build time, if the APK bundles them.
+        ExpectationCache expectationCache = ExpectationBasedFilter.readExpectationCache(args);
+        expectationFilter = new ExpectationBasedFilter(args, expectationCache);
 
         // The test can be run specifying a list of tests to run, or as cts-tradefed does it,
         // by passing a fileName with a test to run on each line.
@@ -175,9 +177,15 @@ public class CoreTestRunner extends Instrumentation {
         List<String> roots = getRootClassNames(args);
         if (roots == null) {
             // Find all test classes
-            Collection<Class<?>> classes = TestClassFinder.getClasses(
-                Collections.singletonList(getContext().getPackageCodePath()),
-                getClass().getClassLoader());
+            Collection<Class<?>> classes;
+            if (expectationCache != null && expectationCache.getClassNames() != null) {
+                classes = TestClassFinder.getClassesByName(expectationCache.getClassNames(),
+                    getClass().getClassLoader());
+            } else {
+                classes = TestClassFinder.getClasses(
+                    Collections.singletonList(getContext().getPackageCodePath()),
+                    getClass().getClassLoader());
+            }
             testList = new TestList(classes);
         } else {
             testList = TestList.rootList(roots);
@@ -67,15 +67,58 @@ class ExpectationBasedFilter extends Filter {
 
     private static final String ARGUMENT_EXPECTATIONS = "core-expectations";
 
+    static final String ARGUMENT_EXPECTATIONS_CACHE = "core-expectations-cache";
+
     private static final Splitter CLASS_LIST_SPLITTER = Splitter.on(',').trimResults();
 
     private final ExpectationStore expectationStore;
 
+    /** The expectations precomputed at build time, used instead of the store if set. */
+    private final ExpectationCache expectationCache;
+
     private static List<String> getExpectationResourcePaths(Bundle args) {
         return CLASS_LIST_SPLITTER.splitToList(args.getString(ARGUMENT_EXPECTATIONS));
     }
 
+    /**
+     * Reads the expectation cache resource given in the arguments, if any.
+     *
+     * @return the cache, or null if none was given or it could not be read.
+     */
+    static ExpectationCache readExpectationCache(Bundle args) {
+        String resourcePath = args.getString(ARGUMENT_EXPECTATIONS_CACHE);
+        if (resourcePath == null) {
+            return null;
+        }
+        try {
+            ExpectationCache cache =
+                    ExpectationCache.readResource(ExpectationBasedFilter.class, resourcePath);
+            if (cache == null) {
+                Log.w(TAG, "Could not find expectation cache " + resourcePath);
+            }
+            return cache;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read expectation cache " + resourcePath, e);
+            return null;
+        }
+    }
+
     public ExpectationBasedFilter(Bundle args) {
+        this(args, readExpectationCache(args));
+    }
+
+    /**
+     * @param expectationCache the expectation cache read from the arguments, or null to parse
+     * the expectation resources.
+     */
+    ExpectationBasedFilter(Bundle args, @Nullable ExpectationCache expectationCache) {
+        this.expectationCache = expectationCache;
+        if (expectationCache != null) {
+            Log.i(TAG, "Using expectation cache: " + args.getString(ARGUMENT_EXPECTATIONS_CACHE));
+            this.expectationStore = null;
+            return;
+        }
+
         ExpectationStore expectationStore = null;
         try {
             // Get the set of resource names containing the expectations.
@@ -102,7 +145,14 @@ class ExpectationBasedFilter extends Filter {
             String methodName = testDescription.getMethodName();
             String testName = className + "#" + methodName;
 
-            if (expectationStore != null) {
+            if (expectationCache != null) {
+                Result result = expectationCache.getResult(testName);
+                if (result != Result.SUCCESS) {
+                    Log.d(CoreTestRunner.TAG, "Excluding test " + testDescription
+                            + " as it is expected to result in " + result);
+                    return false;
+                }
+            } else if (expectationStore != null) {
                 Expectation expectation = expectationStore.get(testName);
                 if (expectation.getResult() != Result.SUCCESS) {
                     Log.d(CoreTestRunner.TAG, "Excluding test " + testDescription
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.core.runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import vogar.Expectation;
+import vogar.ExpectationStore;
+import vogar.ModeId;
+import vogar.Result;
+
+/**
+ * The expected results of tests by name, and optionally the names of the classes of a test APK,
+ * precomputed at build time so that the runner loads them in a single read instead of parsing
+ * the expectation files and scanning the dex files of the APK on every run.
+ *
+ * <p>Only the outcome expectations are kept, as the runner looks tests up by name before running
+ * them; the failure expectations match the output of tests which have run.
+ *
+ * <p>The cache is built by running this class on the host, see {@link #main}.
+ */
+public class ExpectationCache {
+
+    private static final int MAGIC = 0x43545345; // "CTSE"
+    private static final int VERSION = 1;
+
+    private static final Result[] RESULTS = Result.values();
+
+    /** The results of the names with an outcome expectation. */
+    private final Map<String, Result> results;
+
+    /** The names of the classes of the test APK, or null if not known. */
+    private final List<String> classNames;
+
+    private ExpectationCache(Map<String, Result> results, List<String> classNames) {
+        this.results = results;
+        this.classNames = classNames;
+    }
+
+    /**
+     * Creates a cache of the outcome expectations of the given store.
+     *
+     * @param classNames the names of the classes of the test APK, or null if not known.
+     */
+    public static ExpectationCache create(ExpectationStore store, Collection<String> classNames) {
+        Map<String, Result> results = new HashMap<>();
+        for (Map.Entry<String, Expectation> entry : store.getAllOutComes().entrySet()) {
+            results.put(entry.getKey(), entry.getValue().getResult());
+        }
+        return new ExpectationCache(results,
+                classNames == null ? null : new ArrayList<>(classNames));
+    }
+
+    /**
+     * Returns the expected result of the test with the specified name, the result of its
+     * closest enclosing class or package if it has none, or {@link Result#SUCCESS}. This is the
+     * result {@link ExpectationStore#get(String)} returns.
+     */
+    public Result getResult(String name) {
+        while (true) {
+            Result result = results.get(name);
+            if (result != null) {
+                return result;
+            }
+
+            int dotOrHash = Math.max(name.lastIndexOf('.'), name.lastIndexOf('#'));
+            if (dotOrHash == -1) {
+                return Result.SUCCESS;
+            }
+
+            name = name.substring(0, dotOrHash);
+        }
+    }
+
+    /**
+     * Returns the names of the top level classes of the test APK, or null if the cache was
+     * created without them.
+     */
+    public List<String> getClassNames() {
+        return classNames == null ? null : Collections.unmodifiableList(classNames);
+    }
+
+    public void write(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(results.size());
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeByte(entry.getValue().ordinal());
+        }
+        if (classNames == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(classNames.size());
+            for (String className : classNames) {
+                out.writeUTF(className);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a cache written by {@link #write}.
+     *
+     * @throws IOException if the stream could not be read or does not hold a cache written by
+     * this version.
+     */
+    public static ExpectationCache read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an expectation cache");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported expectation cache version " + version);
+        }
+        int resultCount = in.readInt();
+        Map<String, Result> results = new HashMap<>(resultCount * 4 / 3 + 1);
+        for (int i = 0; i < resultCount; i++) {
+            String name = in.readUTF();
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= RESULTS.length) {
+                throw new IOException("Unknown result " + ordinal + " for " + name);
+            }
+            results.put(name, RESULTS[ordinal]);
+        }
+        List<String> classNames = null;
+        int classCount = in.readInt();
+        if (classCount >= 0) {
+            classNames = new ArrayList<>(classCount);
+            for (int i = 0; i < classCount; i++) {
+                classNames.add(in.readUTF());
+            }
+        }
+        return new ExpectationCache(results, classNames);
+    }
+
+    /**
+     * Reads the cache from the given resource.
+     *
+     * @param owningClass the class from which the resource is loaded.
+     * @param resourcePath the path of the resource, relative to the owning class or absolute.
+     * @return the cache, or null if there is no such resource.
+     */
+    public static ExpectationCache readResource(Class<?> owningClass, String resourcePath)
+            throws IOException {
+        try (InputStream in = owningClass.getResourceAsStream(resourcePath)) {
+            return in == null ? null : read(in);
+        }
+    }
+
+    /**
+     * Returns the names of the top level classes in the given jars, the classes the runner
+     * would find in an APK built from them.
+     */
+    private static Set<String> readClassNames(List<File> jars) throws IOException {
+        Set<String> classNames = new LinkedHashSet<>();
+        for (File jar : jars) {
+            try (ZipFile zipFile = new ZipFile(jar)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if (name.endsWith(".class") && name.indexOf('$') == -1) {
+                        classNames.add(name.substring(0, name.length() - ".class".length())
+                                .replace('/', '.'));
+                    }
+                }
+            }
+        }
+        return classNames;
+    }
+
+    private static void printUsage() {
+        System.err.println("usage: ExpectationCache -o <output file>"
+                + " [-e <expectation file>]... [-j <classes jar>]...");
+        System.err.println("  -e: an expectation file, repeated for each file");
+        System.err.println("  -j: a jar of the classes of the test APK, repeated for each jar;"
+                + " the class names are only cached if at least one jar is given");
+    }
+
+    /**
+     * Builds a cache of the given expectation files for device runs, and of the classes in the
+     * given jars, and writes it to the output file. The cache is meant to be bundled as a java
+     * resource of the test APK, and its path passed to the runner with the
+     * {@code core-expectations-cache} instrumentation argument.
+     */
+    public static void main(String[] args) throws IOException {
+        File output = null;
+        Set<File> expectationFiles = new LinkedHashSet<>();
+        List<File> jars = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                printUsage();
+                System.exit(1);
+            }
+            if (args[i].equals("-o")) {
+                output = new File(args[++i]);
+            } else if (args[i].equals("-e")) {
+                expectationFiles.add(new File(args[++i]));
+            } else if (args[i].equals("-j")) {
+                jars.add(new File(args[++i]));
+            } else {
+                printUsage();
+                System.exit(1);
+            }
+        }
+        if (output == null) {
+            printUsage();
+            System.exit(1);
+        }
+        for (File file : expectationFiles) {
+            if (!file.isFile()) {
+                throw new IOException("Expectation file not found: " + file);
+            }
+        }
+
+        ExpectationStore store = ExpectationStore.parse(expectationFiles, ModeId.DEVICE);
+        Set<String> classNames = jars.isEmpty() ? null : readClassNames(jars);
+        ExpectationCache cache = create(store, classNames);
+        try (OutputStream out = new FileOutputStream(output)) {
+            cache.write(out);
+        }
+    }
+}
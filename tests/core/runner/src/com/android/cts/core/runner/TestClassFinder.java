@@ -79,40 +79,15 @@ public class TestClassFinder {
           }
         }  // if DEBUG
 
-        List<Class<?>> classes = new ArrayList<>();
         ClassPathScanner scanner = new ClassPathScanner(apks);
 
-        ClassPathScanner.ChainedClassNameFilter filter =
-                new ClassPathScanner.ChainedClassNameFilter();
-        // exclude inner classes
-        filter.add(new ClassPathScanner.ExternalClassNameFilter());
-
-        // exclude default classes
-        for (String defaultExcludedPackage : DEFAULT_EXCLUDED_PACKAGES) {
-            filter.add(new ExcludePackageNameFilter(defaultExcludedPackage));
-        }
-
         // exclude any classes that aren't a "test class" (see #loadIfTest)
         TestLoader testLoader = new TestLoader();
         testLoader.setClassLoader(loader);
 
         try {
-            Set<String> classNames = scanner.getClassPathEntries(filter);
-            for (String className : classNames) {
-                // Important: This further acts as an additional filter;
-                // classes that aren't a "test class" are never loaded.
-                Class<?> cls = testLoader.loadIfTest(className);
-                if (cls != null) {
-                    classes.add(cls);
-
-                    if (DEBUG) {
-                      Log.d(TAG, "getClasses: Loaded " + className);
-                    }
-                } else if (DEBUG) {
-                  Log.d(TAG, "getClasses: Failed to load class " + className);
-                }
-            }
-            return classes;
+            Set<String> classNames = scanner.getClassPathEntries(createFilter());
+            return loadTestClasses(classNames, testLoader);
         } catch (IOException e) {
             Log.e(CoreTestRunner.TAG, "Failed to scan classes", e);
         }
@@ -125,6 +100,59 @@ public class TestClassFinder {
         return testLoader.getLoadedClasses();
     }
 
+    /**
+     * Returns the test classes among the given class names, e.g. the names of the classes of the
+     * APK recorded at build time, see {@link ExpectationCache#getClassNames()}. The same classes
+     * as by {@link #getClasses(List, ClassLoader)} are excluded.
+     */
+    static Collection<Class<?>> getClassesByName(Collection<String> classNames,
+            ClassLoader loader) {
+        ClassNameFilter filter = createFilter();
+        List<String> acceptedNames = new ArrayList<>();
+        for (String className : classNames) {
+            if (filter.accept(className)) {
+                acceptedNames.add(className);
+            }
+        }
+
+        TestLoader testLoader = new TestLoader();
+        testLoader.setClassLoader(loader);
+        return loadTestClasses(acceptedNames, testLoader);
+    }
+
+    private static ClassPathScanner.ChainedClassNameFilter createFilter() {
+        ClassPathScanner.ChainedClassNameFilter filter =
+                new ClassPathScanner.ChainedClassNameFilter();
+        // exclude inner classes
+        filter.add(new ClassPathScanner.ExternalClassNameFilter());
+
+        // exclude default classes
+        for (String defaultExcludedPackage : DEFAULT_EXCLUDED_PACKAGES) {
+            filter.add(new ExcludePackageNameFilter(defaultExcludedPackage));
+        }
+        return filter;
+    }
+
+    private static List<Class<?>> loadTestClasses(Collection<String> classNames,
+            TestLoader testLoader) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (String className : classNames) {
+            // Important: This further acts as an additional filter;
+            // classes that aren't a "test class" are never loaded.
+            Class<?> cls = testLoader.loadIfTest(className);
+            if (cls != null) {
+                classes.add(cls);
+
+                if (DEBUG) {
+                  Log.d(TAG, "getClasses: Loaded " + className);
+                }
+            } else if (DEBUG) {
+              Log.d(TAG, "getClasses: Failed to load class " + className);
+            }
+        }
+        return classes;
+    }
+
     /**
      * A {@link ClassNameFilter} that only rejects a given package names within the given namespace.
      */
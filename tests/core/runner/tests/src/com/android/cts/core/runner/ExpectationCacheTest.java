@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.core.runner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import junit.framework.TestCase;
+import vogar.ExpectationStore;
+import vogar.ModeId;
+import vogar.Result;
+
+/**
+ * Unit tests for {@link ExpectationCache}.
+ */
+public class ExpectationCacheTest extends TestCase {
+
+    private static final String EXPECTATIONS = "[\n"
+            + "{\n"
+            + "  description: \"A failing package\",\n"
+            + "  result: EXEC_FAILED,\n"
+            + "  name: \"libcore.java.broken\"\n"
+            + "},\n"
+            + "{\n"
+            + "  description: \"A failing class and test\",\n"
+            + "  result: EXEC_FAILED,\n"
+            + "  names: [\n"
+            + "    \"libcore.java.util.FooTest\",\n"
+            + "    \"libcore.java.util.BarTest#testBar\"\n"
+            + "  ]\n"
+            + "},\n"
+            + "{\n"
+            + "  description: \"A test which only fails on the host\",\n"
+            + "  result: EXEC_FAILED,\n"
+            + "  modes: [\"jvm\"],\n"
+            + "  name: \"libcore.java.util.BarTest#testHost\"\n"
+            + "},\n"
+            + "{\n"
+            + "  description: \"A test which only fails on devices\",\n"
+            + "  result: EXEC_TIMEOUT,\n"
+            + "  modes: [\"device\"],\n"
+            + "  name: \"libcore.java.util.BarTest#testDevice\"\n"
+            + "},\n"
+            + "{\n"
+            + "  description: \"A failure matched on the output\",\n"
+            + "  result: EXEC_FAILED,\n"
+            + "  failure: \"libcore.java.util.BazTest#testBaz\",\n"
+            + "  substring: \"OutOfMemoryError\"\n"
+            + "}\n"
+            + "]\n";
+
+    private static final List<String> NAMES = Arrays.asList(
+            "libcore.java.broken",
+            "libcore.java.broken.FooTest",
+            "libcore.java.broken.FooTest#testFoo",
+            "libcore.java.brokenness.FooTest#testFoo",
+            "libcore.java.util.FooTest",
+            "libcore.java.util.FooTest#testFoo",
+            "libcore.java.util.FooTest$Inner#testFoo",
+            "libcore.java.util.BarTest",
+            "libcore.java.util.BarTest#testBar",
+            "libcore.java.util.BarTest#testBarToo",
+            "libcore.java.util.BarTest#testHost",
+            "libcore.java.util.BarTest#testDevice",
+            "libcore.java.util.BazTest#testBaz",
+            "libcore.java.util",
+            "libcore",
+            "");
+
+    private File mExpectationFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mExpectationFile = File.createTempFile("expectations", ".txt");
+        try (Writer writer = new FileWriter(mExpectationFile)) {
+            writer.write(EXPECTATIONS);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExpectationFile.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        ExpectationStore store = parseExpectations();
+        List<String> classNames = Arrays.asList(
+                "libcore.java.util.FooTest", "libcore.java.util.BarTest");
+        ExpectationCache cache = roundTrip(ExpectationCache.create(store, classNames));
+
+        assertSameResults(store, cache);
+        assertEquals(classNames, cache.getClassNames());
+    }
+
+    public void testRoundTrip_noClassNames() throws Exception {
+        ExpectationStore store = parseExpectations();
+        ExpectationCache cache = roundTrip(ExpectationCache.create(store, null));
+
+        assertSameResults(store, cache);
+        assertNull(cache.getClassNames());
+    }
+
+    public void testRoundTrip_noExpectations() throws Exception {
+        ExpectationStore store = ExpectationStore.parse(
+                Collections.<File>emptySet(), ModeId.DEVICE);
+        ExpectationCache cache = roundTrip(ExpectationCache.create(store,
+                Collections.<String>emptyList()));
+
+        assertSameResults(store, cache);
+        assertEquals(Collections.<String>emptyList(), cache.getClassNames());
+    }
+
+    /**
+     * Builds the cache the way the build does, with {@link ExpectationCache#main}.
+     */
+    public void testMain() throws Exception {
+        File output = File.createTempFile("expectations", ".cache");
+        try {
+            ExpectationCache.main(new String[] {
+                    "-e", mExpectationFile.getPath(), "-o", output.getPath()});
+            ExpectationCache cache;
+            try (InputStream in = new FileInputStream(output)) {
+                cache = ExpectationCache.read(in);
+            }
+
+            assertSameResults(parseExpectations(), cache);
+            assertNull(cache.getClassNames());
+        } finally {
+            output.delete();
+        }
+    }
+
+    public void testRead_notACache() throws Exception {
+        try {
+            ExpectationCache.read(new ByteArrayInputStream(EXPECTATIONS.getBytes("UTF-8")));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private ExpectationStore parseExpectations() throws IOException {
+        return ExpectationStore.parse(
+                new LinkedHashSet<>(Arrays.asList(mExpectationFile)), ModeId.DEVICE);
+    }
+
+    private static ExpectationCache roundTrip(ExpectationCache cache) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write(out);
+        return ExpectationCache.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertSameResults(ExpectationStore store, ExpectationCache cache) {
+        for (String name : NAMES) {
+            Result expected = store.get(name).getResult();
+            assertEquals("Wrong result for " + name, expected, cache.getResult(name));
+        }
+        for (String name : store.getAllOutComes().keySet()) {
+            Result expected = store.get(name).getResult();
+            assertEquals("Wrong result for " + name, expected, cache.getResult(name));
+        }
+    }
+}
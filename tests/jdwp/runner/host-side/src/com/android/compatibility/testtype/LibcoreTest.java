@@ -33,6 +33,7 @@ import java.util.List;
 public class LibcoreTest extends AndroidJUnitTest {
 
     private static final String INSTRUMENTATION_ARG_NAME = "core-expectations";
+    private static final String CACHE_INSTRUMENTATION_ARG_NAME = "core-expectations-cache";
 
     @Option(name = "core-expectation", description = "Provides failure expectations for libcore "
             + "tests via the specified file; the path must be absolute and will be resolved to "
@@ -40,6 +41,12 @@ public class LibcoreTest extends AndroidJUnitTest {
             + "expectation file")
     private List<String> mCoreExpectations = new ArrayList<>();
 
+    @Option(name = "core-expectations-cache", description = "Provides the expectations for "
+            + "libcore tests, and optionally the test classes, precomputed at build time; the "
+            + "path must be absolute and will be resolved to a bundled resource file; the "
+            + "core-expectation files are only parsed if the resource cannot be read")
+    private String mCoreExpectationsCache = null;
+
     /**
      * {@inheritDoc}
      */
@@ -48,6 +55,9 @@ public class LibcoreTest extends AndroidJUnitTest {
         if (!mCoreExpectations.isEmpty()) {
             addInstrumentationArg(INSTRUMENTATION_ARG_NAME, ArrayUtil.join(",", mCoreExpectations));
         }
+        if (mCoreExpectationsCache != null) {
+            addInstrumentationArg(CACHE_INSTRUMENTATION_ARG_NAME, mCoreExpectationsCache);
+        }
         super.run(listener);
     }
 }
@@ -55,4 +55,9 @@ LOCAL_JAVA_RESOURCE_FILES := \
     libcore/expectations/taggedtests.txt \
     libcore/expectations/virtualdeviceknownfailures.txt
 
+# The expectation files passed to the runner by AndroidTest.xml
+LOCAL_CTS_CORE_EXPECTATIONS := \
+    $(filter-out %/virtualdeviceknownfailures.txt,$(LOCAL_JAVA_RESOURCE_FILES))
+include $(BUILD_CTS_CORE_EXPECTATION_CACHE)
+
 include $(BUILD_CTS_SUPPORT_PACKAGE)
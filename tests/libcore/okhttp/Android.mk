@@ -48,4 +48,7 @@ LOCAL_JAVA_RESOURCE_FILES := \
     libcore/expectations/knownfailures.txt \
     libcore/expectations/taggedtests.txt
 
+LOCAL_CTS_CORE_EXPECTATIONS := $(LOCAL_JAVA_RESOURCE_FILES)
+include $(BUILD_CTS_CORE_EXPECTATION_CACHE)
+
 include $(BUILD_CTS_SUPPORT_PACKAGE)
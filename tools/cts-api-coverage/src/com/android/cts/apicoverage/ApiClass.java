@@ -19,7 +19,9 @@ package com.android.cts.apicoverage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Representation of a class in the API with constructors and methods. */
 class ApiClass implements Comparable<ApiClass>, HasCoverage {
@@ -36,6 +38,14 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     private final List<ApiMethod> mApiMethods = new ArrayList<ApiMethod>();
 
+    // Index of the constructors by number of parameters, in the order they were added.
+    private final Map<Integer, List<ApiConstructor>> mConstructorsBySize =
+            new HashMap<Integer, List<ApiConstructor>>();
+
+    // Index of the methods by name, in the order they were added.
+    private final Map<String, List<ApiMethod>> mMethodsByName =
+            new HashMap<String, List<ApiMethod>>();
+
     private final String mSuperClassName;
 
     private ApiClass mSuperClass;
@@ -83,6 +93,13 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addConstructor(ApiConstructor constructor) {
         mApiConstructors.add(constructor);
+        Integer size = constructor.getParameterTypes().size();
+        List<ApiConstructor> constructors = mConstructorsBySize.get(size);
+        if (constructors == null) {
+            constructors = new ArrayList<ApiConstructor>();
+            mConstructorsBySize.put(size, constructors);
+        }
+        constructors.add(constructor);
     }
 
 
@@ -92,6 +109,12 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addMethod(ApiMethod method) {
         mApiMethods.add(method);
+        List<ApiMethod> methods = mMethodsByName.get(method.getName());
+        if (methods == null) {
+            methods = new ArrayList<ApiMethod>();
+            mMethodsByName.put(method.getName(), methods);
+        }
+        methods.add(method);
     }
 
     /** Look for a matching constructor and mark it as covered */
@@ -158,12 +181,16 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
     }
 
     private ApiMethod getMethod(String name, List<String> parameterTypes, String returnType) {
-        for (ApiMethod method : mApiMethods) {
-            boolean methodNameMatch = name.equals(method.getName());
+        List<ApiMethod> methods = mMethodsByName.get(name);
+        if (methods == null) {
+            return null;
+        }
+        // Only the overloads of the method are compared, generic types prevent a hash lookup.
+        for (ApiMethod method : methods) {
             boolean parameterTypeMatch =
                     compareParameterTypes(method.getParameterTypes(), parameterTypes);
             boolean returnTypeMatch = compareType(method.getReturnType(), returnType);
-            if (methodNameMatch && parameterTypeMatch && returnTypeMatch) {
+            if (parameterTypeMatch && returnTypeMatch) {
                 return method;
             }
         }
@@ -243,7 +270,11 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
     }
 
     private ApiConstructor getConstructor(List<String> parameterTypes) {
-        for (ApiConstructor constructor : mApiConstructors) {
+        List<ApiConstructor> constructors = mConstructorsBySize.get(parameterTypes.size());
+        if (constructors == null) {
+            return null;
+        }
+        for (ApiConstructor constructor : constructors) {
             if (compareParameterTypes(constructor.getParameterTypes(), parameterTypes)) {
                 return constructor;
             }
@@ -31,7 +31,7 @@ class ApiConstructor implements Comparable<ApiConstructor> {
 
     private final boolean mDeprecated;
 
-    // A list of test APKs (aka CTS modules) that use this method.
+    // A list of test APKs (aka CTS modules) that use this method, guarded by this.
     private final Set<String> mCoveredWith = new HashSet<>();
 
     ApiConstructor(String name, List<String> parameterTypes, boolean deprecated) {
@@ -57,11 +57,11 @@ class ApiConstructor implements Comparable<ApiConstructor> {
         return mDeprecated;
     }
 
-    public boolean isCovered() {
+    public synchronized boolean isCovered() {
         return !mCoveredWith.isEmpty();
     }
 
-    public void setCovered(String coveredWithModule) {
+    public synchronized void setCovered(String coveredWithModule) {
         if (coveredWithModule.endsWith(".apk")) {
             coveredWithModule = coveredWithModule.substring(0, coveredWithModule.length() - 4);
         }
@@ -42,7 +42,7 @@ class ApiMethod implements Comparable<ApiMethod> {
 
     private final boolean mAbstractMethod;
 
-    // A list of test APKs (aka CTS modules) that use this method.
+    // A list of test APKs (aka CTS modules) that use this method, guarded by this.
     private final Set<String> mCoveredWith = new HashSet<>();
 
     ApiMethod(
@@ -85,7 +85,7 @@ class ApiMethod implements Comparable<ApiMethod> {
         return mDeprecated;
     }
 
-    public boolean isCovered() {
+    public synchronized boolean isCovered() {
         return !mCoveredWith.isEmpty();
     }
 
@@ -99,7 +99,7 @@ class ApiMethod implements Comparable<ApiMethod> {
 
     public Set<String> getCoveredWith() { return mCoveredWith; }
 
-    public void setCovered(String coveredWithModule) {
+    public synchronized void setCovered(String coveredWithModule) {
         if (coveredWithModule.endsWith(".apk")) {
             coveredWithModule = coveredWithModule.substring(0, coveredWithModule.length() - 4);
         }
@@ -46,6 +46,15 @@ class CddCoverage {
         requirements.get(cddRequirementId).addTestMethod(testMethod);
     }
 
+    /** Adds the coverage of the given {@link CddCoverage}, after the coverage already added. */
+    public void addCoverage(CddCoverage other) {
+        for (CddRequirement requirement : other.getCddRequirements()) {
+            for (TestMethod testMethod : requirement.getTestMethods()) {
+                addCoverage(requirement.getRequirementId(), testMethod);
+            }
+        }
+    }
+
     static class CddRequirement {
         private final String mRequirementId;
         private final List<TestMethod> mtestMethods;
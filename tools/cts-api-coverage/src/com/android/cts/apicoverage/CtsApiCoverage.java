@@ -21,11 +21,14 @@ import com.android.compatibility.common.util.CddTest;
 import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.DexFileFactory.DexFileNotFoundException;
 import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.reference.DexBackedMethodReference;
 import org.jf.dexlib2.iface.Annotation;
 import org.jf.dexlib2.iface.AnnotationElement;
 import org.jf.dexlib2.iface.ClassDef;
 import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.reference.MethodReference;
 import org.jf.dexlib2.iface.value.StringEncodedValue;
 
 import org.xml.sax.InputSource;
@@ -42,8 +45,13 @@ import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.transform.TransformerException;
 
@@ -85,6 +93,9 @@ public class CtsApiCoverage {
         System.out.println("  -o FILE                output file or standard out if not given");
         System.out.println("  -f [txt|xml|html]      format of output");
         System.out.println("  -d PATH                path to dexdeps or expected to be in $PATH");
+        System.out.println("  -i                     read the dex files in-process rather than with dexdeps");
+        System.out.println("  -j THREADS             number of APKs scanned at a time, defaults to the");
+        System.out.println("                         number of processors");
         System.out.println("  -a PATH                path to the API XML file");
         System.out.println("  -p PACKAGENAMEPREFIX   report coverage only for package that start with");
         System.out.println("  -t TITLE               report title");
@@ -102,6 +113,8 @@ public class CtsApiCoverage {
         PackageFilter packageFilter = new PackageFilter();
         String reportTitle = "CTS API Coverage";
         int apiLevel = Integer.MAX_VALUE;
+        boolean readDex = false;
+        int threadCount = Runtime.getRuntime().availableProcessors();
 
         for (int i = 0; i < args.length; i++) {
             if (args[i].startsWith("-")) {
@@ -120,6 +133,13 @@ public class CtsApiCoverage {
                     }
                 } else if ("-d".equals(args[i])) {
                     dexDeps = getExpectedArg(args, ++i);
+                } else if ("-i".equals(args[i])) {
+                    readDex = true;
+                } else if ("-j".equals(args[i])) {
+                    threadCount = Integer.parseInt(getExpectedArg(args, ++i));
+                    if (threadCount < 1) {
+                        printUsage();
+                    }
                 } else if ("-a".equals(args[i])) {
                     apiXmlPath = getExpectedArg(args, ++i);
                 } else if ("-p".equals(args[i])) {
@@ -147,7 +167,9 @@ public class CtsApiCoverage {
          *    constructor or method yet.
          *
          * 2. For each provided APK, scan it using dexdeps, parse the output of dexdeps, and
-         *    call methods on the ApiCoverage object to cumulatively add coverage stats.
+         *    call methods on the ApiCoverage object to cumulatively add coverage stats. The
+         *    APKs are scanned concurrently, or read in-process rather than with dexdeps if -i
+         *    is given.
          *
          * 3. Output a report based on the coverage stats in the ApiCoverage object.
          */
@@ -156,10 +178,7 @@ public class CtsApiCoverage {
         CddCoverage cddCoverage = getEmptyCddCoverage();
         // Add superclass information into api coverage.
         apiCoverage.resolveSuperClasses();
-        for (File testApk : testApks) {
-            addApiCoverage(apiCoverage, testApk, dexDeps);
-            addCddCoverage(cddCoverage, testApk, apiLevel);
-        }
+        addCoverage(apiCoverage, cddCoverage, testApks, dexDeps, readDex, apiLevel, threadCount);
 
         outputCoverageReport(apiCoverage, cddCoverage, testApks, outputFile,
             format, packageFilter, reportTitle);
@@ -203,6 +222,48 @@ public class CtsApiCoverage {
         return currentXmlHandler.getApi();
     }
 
+    /**
+     * Adds the API and CDD coverage of the test APKs, scanning up to {@code threadCount} of them
+     * at a time. The {@link ApiCoverage} object is safe to update concurrently once built, the
+     * CDD coverage of each APK is collected separately and added in the order of the APKs.
+     */
+    private static void addCoverage(ApiCoverage apiCoverage, CddCoverage cddCoverage,
+            List<File> testApks, String dexDeps, boolean readDex, int apiLevel, int threadCount)
+                throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<CddCoverage>> results = new ArrayList<>();
+            for (File testApk : testApks) {
+                results.add(executor.submit(() -> {
+                    DexBackedDexFile dexFile = null;
+                    if (readDex || testApk.getName().endsWith(".apk")) {
+                        dexFile = loadDexFile(testApk, apiLevel);
+                    }
+                    if (!readDex) {
+                        addApiCoverage(apiCoverage, testApk, dexDeps);
+                    } else if (dexFile != null) {
+                        addApiCoverage(apiCoverage, testApk, dexFile);
+                    }
+                    CddCoverage apkCddCoverage = new CddCoverage();
+                    addCddCoverage(apkCddCoverage, testApk, dexFile);
+                    return apkCddCoverage;
+                }));
+            }
+            for (Future<CddCoverage> result : results) {
+                try {
+                    cddCoverage.addCoverage(result.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (Exception) e.getCause();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Adds coverage information gleamed from running dexdeps on the APK to the
      * {@link ApiCoverage} object.
@@ -228,11 +289,84 @@ public class CtsApiCoverage {
         }
     }
 
-    private static void addCddCoverage(CddCoverage cddCoverage, File testSource, int api)
+    /**
+     * Adds coverage information gleamed from the method ids of the dex file of the APK to the
+     * {@link ApiCoverage} object. Like dexdeps, every method of the method id table whose class
+     * is not defined in the APK is looked up, whether it is referenced by code, annotations or
+     * not at all.
+     *
+     * @param apiCoverage object to which the coverage statistics will be added to
+     * @param testApk containing the tests
+     * @param dexFile the dex file of the APK
+     */
+    private static void addApiCoverage(ApiCoverage apiCoverage, File testApk,
+            DexBackedDexFile dexFile) {
+        Set<String> definedClasses = new HashSet<>();
+        for (ClassDef classDef : dexFile.getClasses()) {
+            definedClasses.add(classDef.getType());
+        }
+        List<MethodReference> methodReferences = new ArrayList<>();
+        for (int i = 0; i < dexFile.getMethodCount(); i++) {
+            MethodReference reference = new DexBackedMethodReference(dexFile, i);
+            if (!definedClasses.contains(reference.getDefiningClass())) {
+                methodReferences.add(reference);
+            }
+        }
+
+        String testApkName = testApk.getName();
+        for (MethodReference methodReference : methodReferences) {
+            String className = methodReference.getDefiningClass();
+            if (!className.startsWith("L")) {
+                // e.g. clone() called on an array
+                continue;
+            }
+            // Split Landroid/app/Notification$Builder; into android.app and Notification.Builder
+            int packageEnd = className.lastIndexOf('/');
+            String packageName = packageEnd < 0
+                    ? "" : className.substring(1, packageEnd).replace('/', '.');
+            ApiPackage apiPackage = apiCoverage.getPackage(packageName);
+            if (apiPackage == null) {
+                continue;
+            }
+            ApiClass apiClass = apiPackage.getClass(
+                    className.substring(packageEnd + 1, className.length() - 1).replace('$', '.'));
+            if (apiClass == null) {
+                continue;
+            }
+
+            List<String> parameterTypes = new ArrayList<>();
+            for (CharSequence parameterType : methodReference.getParameterTypes()) {
+                parameterTypes.add(dexToJavaType(parameterType.toString()));
+            }
+            String methodName = methodReference.getName();
+            if ("<init>".equals(methodName)) {
+                apiClass.markConstructorCovered(parameterTypes, testApkName);
+            } else if (!"<clinit>".equals(methodName)) {
+                apiClass.markMethodCovered(methodName, parameterTypes,
+                        dexToJavaType(methodReference.getReturnType()), testApkName);
+            }
+        }
+    }
+
+    /**
+     * @return the dex file of the given APK, or null if it cannot be loaded
+     */
+    private static DexBackedDexFile loadDexFile(File testSource, int api) {
+        try {
+            return DexFileFactory.loadDexFile(testSource, Opcodes.forApi(api));
+        } catch (IOException | DexFileFactory.DexFileNotFoundException e) {
+            System.err.println("Unable to load dex file: " + testSource.getPath());
+            return null;
+        }
+    }
+
+    private static void addCddCoverage(CddCoverage cddCoverage, File testSource, DexFile dexFile)
             throws IOException {
 
         if (testSource.getName().endsWith(".apk")) {
-            addCddApkCoverage(cddCoverage, testSource, api);
+            if (dexFile != null) {
+                addCddApkCoverage(cddCoverage, testSource, dexFile);
+            }
         } else if (testSource.getName().endsWith(".jar")) {
             addCddJarCoverage(cddCoverage, testSource);
         } else {
@@ -258,16 +392,7 @@ public class CtsApiCoverage {
     }
 
     private static void addCddApkCoverage(
-        CddCoverage cddCoverage, File testSource, int api)
-            throws IOException {
-
-        DexFile dexFile = null;
-        try {
-            dexFile = DexFileFactory.loadDexFile(testSource, Opcodes.forApi(api));
-        } catch (IOException | DexFileFactory.DexFileNotFoundException e) {
-            System.err.println("Unable to load dex file: " + testSource.getPath());
-            return;
-        }
+        CddCoverage cddCoverage, File testSource, DexFile dexFile) {
 
         String moduleName = testSource.getName();
         for (ClassDef classDef : dexFile.getClasses()) {
@@ -318,6 +443,36 @@ public class CtsApiCoverage {
         return dexName;
     }
 
+    /**
+     * Given a type like [Landroid/app/Notification$Builder; or I,
+     * return android.app.Notification.Builder[] or int, as dexdeps does.
+     */
+    private static String dexToJavaType(String dexType) {
+        int dimensions = 0;
+        while (dexType.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        StringBuilder javaType = new StringBuilder();
+        switch (dexType.charAt(dimensions)) {
+            case 'V': javaType.append("void"); break;
+            case 'Z': javaType.append("boolean"); break;
+            case 'B': javaType.append("byte"); break;
+            case 'S': javaType.append("short"); break;
+            case 'C': javaType.append("char"); break;
+            case 'I': javaType.append("int"); break;
+            case 'J': javaType.append("long"); break;
+            case 'F': javaType.append("float"); break;
+            case 'D': javaType.append("double"); break;
+            default:
+                javaType.append(dexToJavaName(dexType.substring(dimensions)).replace('$', '.'));
+                break;
+        }
+        for (int i = 0; i < dimensions; i++) {
+            javaType.append("[]");
+        }
+        return javaType.toString();
+    }
+
     private static CddCoverage getEmptyCddCoverage() {
         CddCoverage cddCoverage = new CddCoverage();
         // TODO(nicksauer): Read in the valid list of requirements
@@ -61,6 +61,7 @@ import com.android.dx.util.IntList;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -74,7 +75,8 @@ import java.util.Vector;
  * and write) and few utility methods. To compile .d file: -create DAsm instance
  * -call readD() to read and parse content of .d file -call write() to write out
  * binary representation of .d file. .d file can contain several classes and/or
- * intefaces declarations.
+ * intefaces declarations. An instance parses one file at a time, but
+ * separate instances can be used concurrently.
  */
 
 public class DAsm {
@@ -82,6 +84,8 @@ public class DAsm {
 
     // number of errors reported in a file.
     int errors;
+    // where errors are reported
+    PrintStream errorStream = System.out;
 
     // options for dex output
     DexOptions dexOptions = new DexOptions();
@@ -175,9 +179,18 @@ public class DAsm {
         return errors;
     }
 
+    /**
+     * Sets the stream the warnings/errors encountered while parsing are
+     * printed to, System.out by default. Instances assembling files
+     * concurrently should each be given their own stream.
+     */
+    public void setErrorStream(PrintStream errorStream) {
+        this.errorStream = errorStream;
+    }
+
     void report_error(String msg) {
         errors++;
-        System.out.println("Line " + line_num + ": " + msg);
+        errorStream.println("Line " + line_num + ": " + msg);
     }
 
     void throwDasmError(String msg) throws DasmError {
@@ -1591,8 +1604,7 @@ public class DAsm {
      *            is the stream containing the Dalvik assembly code for the
      *            class.
      * @param name
-     *            is the name of the stream. This name will be concatenated to
-     *            error messages printed to System.err.
+     *            is the name of the stream.
      * @param numberLines
      *            true if you want DAsm to generate line numbers automatically,
      *            based on the assembly source, or false if you are using the
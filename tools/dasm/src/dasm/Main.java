@@ -17,6 +17,7 @@
 package dasm;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -24,7 +25,15 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * DAsm entry point
@@ -40,22 +49,27 @@ public class Main {
     /**
      * destination path to place .dex file(s)
      */
-    private static String destPath = null;
+    private String destPath = null;
 
     /**
      * generate human-readable files
      */
-    private static boolean humanHeadable = false;
+    private boolean humanHeadable = false;
 
     /**
      * input files codepage
      */
-    private static String encoding = null;
+    private String encoding = null;
 
     /**
      * automatically generate line numbers
      */
-    private static boolean generateLineNumbers = false;
+    private boolean generateLineNumbers = false;
+
+    /**
+     * number of files assembled concurrently
+     */
+    private int threadCount = 1;
 
     private static void incompleteOption(String opt) {
         System.err.println("Command line option " + opt
@@ -63,7 +77,7 @@ public class Main {
         System.exit(-1);
     }
 
-    private static Reader createReader(String fname) throws IOException {
+    private Reader createReader(String fname) throws IOException {
         FileInputStream fs = new FileInputStream(fname);
         InputStreamReader ir;
         if (encoding == null)
@@ -78,9 +92,16 @@ public class Main {
      * 
      * @param fname
      *            is the name of the file containing the DAsm source code.
+     * @param out
+     *            is the stream the generated files and the parsing errors
+     *            are reported to.
+     * @param err
+     *            is the stream other errors are reported to.
+     * @return true if the file was assembled.
      */
-    public static void assemble(String fname) {
+    boolean assemble(String fname, PrintStream out, PrintStream err) {
         DAsm dAsm = new DAsm();
+        dAsm.setErrorStream(out);
 
         // read and parse .d file
         Reader inp = null;
@@ -89,22 +110,22 @@ public class Main {
             dAsm.readD(inp, new File(fname).getName(), generateLineNumbers);
             close(inp);
         } catch (DasmError e) {
-            if (DEBUG) e.printStackTrace();
-            System.err.println("DASM Error: " + e.getMessage());
+            if (DEBUG) e.printStackTrace(err);
+            err.println("DASM Error: " + e.getMessage());
         } catch (Exception e) {
-            if (DEBUG) e.printStackTrace();
-            System.err.println("Exception <" + e.getClass().getName() + ">"
+            if (DEBUG) e.printStackTrace(err);
+            err.println("Exception <" + e.getClass().getName() + ">"
                     + e.getMessage() + " while reading and parsing " + fname);
-            return;
+            return false;
 
         } finally {
             close(inp);
         }
 
         if (dAsm.errorCount() > 0) {
-            System.err.println("Found " + dAsm.errorCount() + " errors "
+            err.println("Found " + dAsm.errorCount() + " errors "
                     + " while reading and parsing " + fname);
-            return;
+            return false;
         }
 
         String class_path[] = Utils
@@ -140,8 +161,8 @@ public class Main {
             }
 
             if (!dest.isDirectory()) {
-                System.err.println("Cannot create directory " + dest_dir);
-                return;
+                err.println("Cannot create directory " + dest_dir);
+                return false;
             }
         }
 
@@ -154,8 +175,8 @@ public class Main {
             if (humanHeadable) hr_outp = new FileWriter(hr_file);
             dAsm.write(outp, hr_outp);
         } catch (Exception e) {
-            if (DEBUG) e.printStackTrace();
-            System.err.println("Exception <" + e.getClass().getName() + ">"
+            if (DEBUG) e.printStackTrace(err);
+            err.println("Exception <" + e.getClass().getName() + ">"
                     + e.getMessage() + " while writing " + out_file.getPath());
 
             close(hr_outp);
@@ -164,13 +185,82 @@ public class Main {
             hr_file.delete();
             out_file.delete();
 
-            return;
+            return false;
         } finally {
             close(hr_outp);
             close(outp);
         }
 
-        System.out.println("Generated: " + out_file.getPath());
+        out.println("Generated: " + out_file.getPath());
+        return true;
+    }
+
+    /**
+     * Assembles the given files, threadCount of them at a time. When several
+     * files are assembled concurrently, the messages of each file are
+     * buffered and printed together once the file is done.
+     *
+     * @return the files that could not be assembled, in the given order.
+     */
+    List<String> assembleAll(List<String> files) {
+        List<String> failed = new ArrayList<String>();
+        if (threadCount <= 1 || files.size() <= 1) {
+            for (String file : files) {
+                if (!assemble(file, System.out, System.err)) {
+                    failed.add(file);
+                }
+            }
+            return failed;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threadCount, files.size()));
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (final String file : files) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+                        ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+                        PrintStream out = new PrintStream(outBuffer, true);
+                        PrintStream err = new PrintStream(errBuffer, true);
+                        boolean success;
+                        try {
+                            success = assemble(file, out, err);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace(err);
+                            success = false;
+                        }
+                        synchronized (Main.class) {
+                            System.out.print(outBuffer.toString());
+                            System.out.flush();
+                            System.err.print(errBuffer.toString());
+                            System.err.flush();
+                        }
+                        return success;
+                    }
+                }));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                boolean success;
+                try {
+                    success = results.get(i).get();
+                } catch (ExecutionException e) {
+                    // an Error thrown while assembling the file
+                    e.getCause().printStackTrace();
+                    success = false;
+                }
+                if (!success) {
+                    failed.add(files.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while assembling", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
     }
 
     private static void close(Closeable c) {
@@ -185,8 +275,8 @@ public class Main {
     public static void main(String args[]) {
         int i;
 
-        String files[] = new String[args.length];
-        int num_files = 0;
+        Main dasm = new Main();
+        List<String> files = new ArrayList<String>();
 
         if (args.length == 0) {
             printUsage();
@@ -204,37 +294,64 @@ public class Main {
                 System.exit(0);
             }
             if (args[i].equals("-g")) {
-                generateLineNumbers = true;
+                dasm.generateLineNumbers = true;
             } else if (args[i].equals("-d")) {
                 if (++i >= args.length)
                     incompleteOption("-d");
                 else
-                    destPath = args[i];
+                    dasm.destPath = args[i];
             } else if (args[i].equals("-h")) {
-                humanHeadable = true;
+                dasm.humanHeadable = true;
             } else if (args[i].equals("-e")) {
                 if (++i >= args.length)
                     incompleteOption("-e");
                 else
-                    encoding = args[i];
+                    dasm.encoding = args[i];
+            } else if (args[i].equals("-j")) {
+                if (++i >= args.length)
+                    incompleteOption("-j");
+                else
+                    dasm.threadCount = parseThreadCount(args[i]);
             } else {
-                files[num_files++] = args[i];
+                files.add(args[i]);
+            }
+        }
+
+        List<String> failed = dasm.assembleAll(files);
+        if (!failed.isEmpty()) {
+            System.err.println("Failed to assemble " + failed.size() + " of "
+                    + files.size() + " files:");
+            for (String file : failed) {
+                System.err.println("  " + file);
             }
+            System.exit(-1);
         }
+    }
 
-        for (i = 0; i < num_files; i++) {
-            assemble(files[i]);
+    private static int parseThreadCount(String value) {
+        if (value.equals("auto")) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            System.err.println("Command line option -j requires a number or"
+                    + " auto, got " + value);
+            System.exit(-1);
+            return 1;
         }
     }
 
     static void printUsage() {
         System.err
-                .println("dasm [-d <outpath>] [-g] [-h] [-e <encoding>] <file>"
-                        + "[<file> ...]\n\n"
+                .println("dasm [-d <outpath>] [-g] [-h] [-e <encoding>]"
+                        + " [-j <threads>] <file> [<file> ...]\n\n"
                         + "  -g - autogenerate linenumbers\n"
                         + "  -e - codepage for inputfile encoding\n"
                         + "  -d - path for generated classfiles\n"
                         + "  -h - generate human-readable output\n"
+                        + "  -j - number of files assembled concurrently,"
+                        + " or auto for one per processor\n"
                         + "  file  - sourcefile\n"
                         + "or: dasm -version\n"
                         + "or: dasm -help");
@@ -24,7 +24,9 @@ class ReservedWords {
     static Hashtable<String, token> reserved_words;
 
     public static token get(String name) {
-        return (token) reserved_words.get(name);
+        token word = reserved_words.get(name);
+        // the parser keeps its state in the tokens it shifts, so they cannot be shared
+        return (word == null) ? null : new token(word.sym);
     }
 
     public static boolean contains(String name) {
@@ -17,6 +17,7 @@
 package dex.reader;
 
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.structure.DexAnnotation;
 import dex.structure.DexAnnotationAttribute;
 import dex.structure.DexEncodedValue;
@@ -25,15 +26,15 @@ import dex.structure.DexEncodedValue;
         DexAnnotationAttribute {
     int nameIdx; // uleb128
     DexEncodedValue value;// encoded_value
-    private String[] stringPool;
+    private IdTable<String> stringPool;
     private DexBuffer buffer;
     private final int[] typeIds;
-    private final FieldIdItem[] fieldIdItems;
+    private final IdTable<FieldIdItem> fieldIdItems;
     private final DexAnnotation annotation;
 
     public DexAnnotationAttributeImpl(DexBuffer buffer,
-            DexAnnotation annotation, int[] typeIds, String[] stringPool,
-            FieldIdItem[] fieldIdItems) {
+            DexAnnotation annotation, int[] typeIds, IdTable<String> stringPool,
+            IdTable<FieldIdItem> fieldIdItems) {
         this.buffer = buffer;
         this.annotation = annotation;
         this.typeIds = typeIds;
@@ -49,7 +50,7 @@ import dex.structure.DexEncodedValue;
     }
 
     public String getName() {
-        return stringPool[nameIdx];
+        return stringPool.get(nameIdx);
     }
 
     public DexEncodedValue getEncodedValue() {
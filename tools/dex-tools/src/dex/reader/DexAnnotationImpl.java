@@ -17,6 +17,7 @@
 package dex.reader;
 
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.structure.DexAnnotation;
 import dex.structure.DexAnnotationAttribute;
 
@@ -28,15 +29,15 @@ import java.util.List;
     private int offset;
     private DexBuffer buffer;
     private int[] typeIds;
-    private String[] stringPool;
+    private IdTable<String> stringPool;
     private Visibility visibility;
     private DexEncodedAnnotationImpl encodedAnnotation;
 
     private TypeFormatter formatter = new TypeFormatter();
-    private final FieldIdItem[] fieldIdItems;
+    private final IdTable<FieldIdItem> fieldIdItems;
 
     public DexAnnotationImpl(DexBuffer buffer, int offset, int[] typeIds,
-            String[] stringPool, FieldIdItem[] fieldIdItems) {
+            IdTable<String> stringPool, IdTable<FieldIdItem> fieldIdItems) {
         this.buffer = buffer;
         this.offset = offset;
         this.typeIds = typeIds;
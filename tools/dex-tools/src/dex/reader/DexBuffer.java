@@ -16,37 +16,28 @@
 
 package dex.reader;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public final class DexBuffer {
 
     private ByteBuffer b;
 
+    /**
+     * Maps the given dex file into memory. Only the parts of the file that are read are loaded,
+     * and the file content is not copied onto the heap.
+     */
     public DexBuffer(String fileName) throws IOException {
-
-        // FIXME channel? allocate fix size?
-        FileInputStream fis = null;
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
         try {
-            fis = new FileInputStream(fileName);
-
-            BufferedInputStream bis = new BufferedInputStream(fis);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] buf = new byte[1024];
-            int len;
-            while ((len = bis.read(buf)) > 0) {
-                bos.write(buf, 0, len);
-            }
-            byte[] bytes = bos.toByteArray();
-            initialize(ByteBuffer.wrap(bytes));
+            FileChannel channel = file.getChannel();
+            // The mapping stays valid once the channel is closed
+            initialize(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         } finally {
-            if (fis != null) {
-                fis.close();
-            }
+            file.close();
         }
     }
 
@@ -179,4 +170,30 @@ public final class DexBuffer {
     public void skip(int nBytes) {
         b.position(b.position() + nBytes);
     }
+
+    /**
+     * Reads a string_data_item from the current position: the uleb128 length of the string in
+     * UTF-16 code units, followed by the MUTF-8 encoded string.
+     */
+    public String readMutf8String() {
+        char[] chars = new char[readUleb128()];
+        for (int i = 0; i < chars.length; i++) {
+            int a = b.get() & 0xFF;
+            if (a < 0x80) {
+                chars[i] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                int c = b.get() & 0xFF;
+                chars[i] = (char) (((a & 0x1F) << 6) | (c & 0x3F));
+            } else if ((a & 0xF0) == 0xE0) {
+                int c = b.get() & 0xFF;
+                int d = b.get() & 0xFF;
+                chars[i] = (char) (((a & 0x0F) << 12) | ((c & 0x3F) << 6) | (d & 0x3F));
+            } else {
+                throw new IllegalStateException(
+                        "Invalid MUTF-8 byte 0x" + Integer.toHexString(a) + " at "
+                        + (b.position() - 1));
+            }
+        }
+        return new String(chars);
+    }
 }
@@ -27,6 +27,7 @@ import java.util.Set;
 
 import dex.reader.DexFileReader.ClassDefItem;
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.reader.DexFileReader.MethodsIdItem;
 import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexAnnotation;
@@ -42,15 +43,15 @@ import dex.structure.DexMethod;
     // allready parsed
     private final ClassDefItem classDefItem;
     private final int[] typeIds;
-    private final String[] stringPool;
-    private ProtIdItem[] protoIdItems;
-    private FieldIdItem[] fieldIdItems;
-    private MethodsIdItem[] methodIdItems;
-
-    //
-    private List<DexField> fields;
-    private List<DexMethod> methods;
-    private List<String> interfaces;
+    private final IdTable<String> stringPool;
+    private IdTable<ProtIdItem> protoIdItems;
+    private IdTable<FieldIdItem> fieldIdItems;
+    private IdTable<MethodsIdItem> methodIdItems;
+
+    // built on first access; concurrent first accesses may each build them, which is harmless
+    private volatile List<DexField> fields;
+    private volatile List<DexMethod> methods;
+    private volatile List<String> interfaces;
     private ClassDataItem classDataItem;
     private AnnotationsDirectoryItem annotationDir;
     private Map<Integer, FieldAnnotation> idToFieldAnnotation =
@@ -67,8 +68,8 @@ import dex.structure.DexMethod;
 
 
     public DexClassImpl(DexBuffer buffer, ClassDefItem classDefItem,
-            String[] stringPool, int[] typeIds, ProtIdItem[] protoIdItems,
-            FieldIdItem[] fieldIdItems, MethodsIdItem[] methodIdItems) {
+            IdTable<String> stringPool, int[] typeIds, IdTable<ProtIdItem> protoIdItems,
+            IdTable<FieldIdItem> fieldIdItems, IdTable<MethodsIdItem> methodIdItems) {
         this.buffer = buffer;
         this.classDefItem = classDefItem;
         this.stringPool = stringPool;
@@ -245,15 +246,17 @@ import dex.structure.DexMethod;
         }
     }
 
-    public synchronized List<DexField> getFields() {
-        if (fields == null) {
-            fields = new ArrayList<DexField>();
+    public List<DexField> getFields() {
+        List<DexField> result = fields;
+        if (result == null) {
+            result = new ArrayList<DexField>();
             if (hasClassData) {
-                fields.addAll(getDexFields(classDataItem.staticFields));
-                fields.addAll(getDexFields(classDataItem.instanceFields));
+                result.addAll(getDexFields(classDataItem.staticFields));
+                result.addAll(getDexFields(classDataItem.instanceFields));
             }
+            fields = result;
         }
-        return fields;
+        return result;
     }
 
     private List<DexField> getDexFields(EncodedField[] fields) {
@@ -265,7 +268,7 @@ import dex.structure.DexMethod;
                 fieldIdIdx = (i == 0) ? fields[i].field_idx_diff : fieldIdIdx
                         + fields[i].field_idx_diff;
                 dexFields.add(new DexFieldImpl(buffer.createCopy(), this,
-                        fieldIdItems[fieldIdIdx], accessFlags,
+                        fieldIdItems.get(fieldIdIdx), accessFlags,
                         idToFieldAnnotation.get(fieldIdIdx), stringPool,
                         typeIds, fieldIdItems));
             }
@@ -273,15 +276,17 @@ import dex.structure.DexMethod;
         return dexFields;
     }
 
-    public synchronized List<DexMethod> getMethods() {
-        if (methods == null) {
-            methods = new ArrayList<DexMethod>();
+    public List<DexMethod> getMethods() {
+        List<DexMethod> result = methods;
+        if (result == null) {
+            result = new ArrayList<DexMethod>();
             if (hasClassData) {
-                methods.addAll(getDexMethods(classDataItem.directMethods));
-                methods.addAll(getDexMethods(classDataItem.virtualMethods));
+                result.addAll(getDexMethods(classDataItem.directMethods));
+                result.addAll(getDexMethods(classDataItem.virtualMethods));
             }
+            methods = result;
         }
-        return methods;
+        return result;
     }
 
     private List<DexMethod> getDexMethods(EncodedMethod[] methods) {
@@ -293,9 +298,9 @@ import dex.structure.DexMethod;
                 method = methods[i];
                 methodIdIdx = (i == 0) ? method.method_idx_diff : methodIdIdx
                         + method.method_idx_diff;
-                dexMethods.add(new DexMethodImpl(buffer, this,
-                        methodIdItems[methodIdIdx],
-                        protoIdItems[methodIdItems[methodIdIdx].proto_idx],
+                dexMethods.add(new DexMethodImpl(buffer.createCopy(), this,
+                        methodIdItems.get(methodIdIdx),
+                        protoIdItems.get(methodIdItems.get(methodIdIdx).proto_idx),
                         method.access_flags, idToMethodAnnotation
                                 .get(methodIdIdx), idToParameterAnnotation
                                 .get(methodIdIdx), stringPool, typeIds,
@@ -307,24 +312,27 @@ import dex.structure.DexMethod;
 
 
 
-    public synchronized List<String> getInterfaces() {
-        if (interfaces == null) {
-            interfaces = new LinkedList<String>();
+    public List<String> getInterfaces() {
+        List<String> result = interfaces;
+        if (result == null) {
+            result = new LinkedList<String>();
             if (classDefItem.interfaces_off != 0) {
-                buffer.setPosition(classDefItem.interfaces_off);
-                int size = buffer.readUInt();
+                DexBuffer interfacesBuffer = buffer.createCopy();
+                interfacesBuffer.setPosition(classDefItem.interfaces_off);
+                int size = interfacesBuffer.readUInt();
                 for (int i = 0; i < size; i++) {
-                    interfaces.add(stringPool[typeIds[buffer.readUShort()]]);
+                    result.add(stringPool.get(typeIds[interfacesBuffer.readUShort()]));
                 }
             }
+            interfaces = result;
         }
-        return interfaces;
+        return result;
     }
 
     // returns null if no super class is present
     public String getSuperClass() {
         return classDefItem.superclass_idx == NO_INDEX ? null
-                : stringPool[typeIds[classDefItem.superclass_idx]];
+                : stringPool.get(typeIds[classDefItem.superclass_idx]);
     }
 
     public Set<DexAnnotation> getAnnotations() {
@@ -332,7 +340,7 @@ import dex.structure.DexMethod;
     }
 
     public String getName() {
-        return stringPool[typeIds[classDefItem.class_idx]];
+        return stringPool.get(typeIds[classDefItem.class_idx]);
     }
 
     public int getModifiers() {
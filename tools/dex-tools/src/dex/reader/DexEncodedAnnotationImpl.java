@@ -17,6 +17,7 @@
 package dex.reader;
 
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.structure.DexAnnotation;
 import dex.structure.DexAnnotationAttribute;
 import dex.structure.DexEncodedAnnotation;
@@ -31,13 +32,13 @@ import java.util.List;
     private List<DexAnnotationAttribute> values;
     private final DexBuffer buffer;
     private final int[] typeIds;
-    private final String[] stringPool;
+    private final IdTable<String> stringPool;
     private int typeIdx;
-    private final FieldIdItem[] fieldIdItems;
+    private final IdTable<FieldIdItem> fieldIdItems;
     private final DexAnnotation annotation;
 
     public DexEncodedAnnotationImpl(DexBuffer buffer, DexAnnotation annotation,
-            int[] typeIds, String[] stringPool, FieldIdItem[] fieldIdItems) {
+            int[] typeIds, IdTable<String> stringPool, IdTable<FieldIdItem> fieldIdItems) {
         this.buffer = buffer;
         this.annotation = annotation;
         this.typeIds = typeIds;
@@ -65,7 +66,7 @@ import java.util.List;
     }
 
     public String getTypeName() {
-        return stringPool[typeIds[typeIdx]];
+        return stringPool.get(typeIds[typeIdx]);
     }
 
     @Override
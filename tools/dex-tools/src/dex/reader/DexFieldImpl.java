@@ -18,6 +18,7 @@ package dex.reader;
 
 import dex.reader.DexClassImpl.FieldAnnotation;
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.structure.DexAnnotation;
 import dex.structure.DexClass;
 import dex.structure.DexField;
@@ -29,7 +30,7 @@ import java.util.Set;
 /* package */final class DexFieldImpl implements DexField {
 
     private DexBuffer buffer;
-    private String[] stringPool;
+    private IdTable<String> stringPool;
     private FieldIdItem fieldIdItem;
     private int[] typeIds;
     private final int accessFlags;
@@ -37,12 +38,12 @@ import java.util.Set;
     private FieldAnnotation fieldAnnotation;
     private TypeFormatter formatter = new TypeFormatter();
     private final DexClass declaringClass;
-    private final FieldIdItem[] fieldIdItems;
+    private final IdTable<FieldIdItem> fieldIdItems;
 
     public DexFieldImpl(DexBuffer buffer, DexClass declaringClass,
             FieldIdItem fieldIdItem, int accessFlags,
-            FieldAnnotation fieldAnnotation, String[] stringPool,
-            int[] typeIds, FieldIdItem[] fieldIdItems) {
+            FieldAnnotation fieldAnnotation, IdTable<String> stringPool,
+            int[] typeIds, IdTable<FieldIdItem> fieldIdItems) {
         this.buffer = buffer;
         this.declaringClass = declaringClass;
         this.fieldIdItem = fieldIdItem;
@@ -67,11 +68,11 @@ import java.util.Set;
     }
 
     public String getName() {
-        return stringPool[fieldIdItem.name_idx];
+        return stringPool.get(fieldIdItem.name_idx);
     }
 
     public String getType() {
-        return stringPool[typeIds[fieldIdItem.type_idx]];
+        return stringPool.get(typeIds[fieldIdItem.type_idx]);
     }
 
     public int getModifiers() {
@@ -18,6 +18,7 @@ package dex.reader;
 
 import dex.reader.DexFileReader.ClassDefItem;
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.reader.DexFileReader.MethodsIdItem;
 import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexClass;
@@ -29,19 +30,19 @@ import java.util.List;
 
 /* package */final class DexFileImpl implements DexFile {
 
-    private final String[] stringPool;
+    private final IdTable<String> stringPool;
     private final int[] typeIds;
-    private ProtIdItem[] protoIdItems;
-    private FieldIdItem[] fieldIdItems;
-    private MethodsIdItem[] methodIdItems;
+    private IdTable<ProtIdItem> protoIdItems;
+    private IdTable<FieldIdItem> fieldIdItems;
+    private IdTable<MethodsIdItem> methodIdItems;
     private ClassDefItem[] classDefItems;
     private final DexBuffer buffer;
 
     private List<DexClass> classes = null;
 
-    public DexFileImpl(DexBuffer buffer, String[] stringPool, int[] typeIds,
-            ProtIdItem[] protoIds, FieldIdItem[] fieldIdItems,
-            MethodsIdItem[] methodIdItems, ClassDefItem[] classDefItems) {
+    public DexFileImpl(DexBuffer buffer, IdTable<String> stringPool, int[] typeIds,
+            IdTable<ProtIdItem> protoIds, IdTable<FieldIdItem> fieldIdItems,
+            IdTable<MethodsIdItem> methodIdItems, ClassDefItem[] classDefItems) {
         this.buffer = buffer;
         this.stringPool = stringPool;
         this.typeIds = typeIds;
@@ -71,14 +72,14 @@ import java.util.List;
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
-        b.append("StringPool:\n").append(Arrays.toString(stringPool));
+        b.append("StringPool:\n").append(stringPool);
         b.append("\nTypes:\n");
         for (int i = 0; i < typeIds.length; i++) {
-            b.append(stringPool[typeIds[i]] + "\n");
+            b.append(stringPool.get(typeIds[i]) + "\n");
         }
-        b.append("\nProtos:\n").append(Arrays.toString(protoIdItems));
-        b.append("\nFields:\n").append(Arrays.toString(fieldIdItems));
-        b.append("\nMethods:\n").append(Arrays.toString(methodIdItems));
+        b.append("\nProtos:\n").append(protoIdItems);
+        b.append("\nFields:\n").append(fieldIdItems);
+        b.append("\nMethods:\n").append(methodIdItems);
         b.append("\nClasses:\n").append(Arrays.toString(classDefItems));
         return b.toString();
     }
@@ -19,6 +19,7 @@ package dex.reader;
 import dex.structure.DexFile;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public final class DexFileReader {
 
@@ -57,13 +58,62 @@ public final class DexFileReader {
 
 
     //
-    private String[] stringPool;
+    private IdTable<String> stringPool;
     private int[] typeIds; // values are index of stringPool
-    private ProtIdItem[] protoIdItems;
-    private FieldIdItem[] fieldIdItems;
-    private MethodsIdItem[] methodIdItems;
+    private IdTable<ProtIdItem> protoIdItems;
+    private IdTable<FieldIdItem> fieldIdItems;
+    private IdTable<MethodsIdItem> methodIdItems;
     private ClassDefItem[] classDefItems;
 
+    /**
+     * A table of fixed size items of the dex file, such as the string or method ids. Each item is
+     * only decoded when it is first accessed, and then kept.
+     */
+    abstract static class IdTable<T> {
+        private final DexBuffer buffer;
+        private final int offset;
+        private final int itemSize;
+        private final AtomicReferenceArray<T> items;
+
+        IdTable(DexBuffer buffer, int offset, int size, int itemSize) {
+            // A copy, so that decoding an item does not move the position of other readers
+            this.buffer = buffer.createCopy();
+            this.offset = offset;
+            this.itemSize = itemSize;
+            this.items = new AtomicReferenceArray<T>(size);
+        }
+
+        /**
+         * Reads the item at the current position of the buffer.
+         */
+        abstract T read(DexBuffer buffer);
+
+        public T get(int index) {
+            T item = items.get(index);
+            if (item == null) {
+                synchronized (buffer) {
+                    buffer.setPosition(offset + index * itemSize);
+                    item = read(buffer);
+                }
+                items.set(index, item);
+            }
+            return item;
+        }
+
+        public int size() {
+            return items.length();
+        }
+
+        @Override
+        public String toString() {
+            Object[] all = new Object[size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = get(i);
+            }
+            return Arrays.toString(all);
+        }
+    }
+
     // starting buffer at zero
     public DexFile read(DexBuffer buffer) {
         this.b = buffer;
@@ -144,25 +194,15 @@ public final class DexFileReader {
         off[attribute] = b.readUInt();
     }
 
-    // reads the string pool
+    // reads the string pool, strings are decoded when first accessed
     private void readStrings() {
-        int nStrings = size[STRING_IDS];
-        b.setPosition(off[STRING_IDS]); // the first string offset is here
-        int[] stringDataOffsets = new int[nStrings];
-
-        for (int i = 0; i < stringDataOffsets.length; i++) {
-            stringDataOffsets[i] = b.readUInt();
-        }
-
-        stringPool = new String[nStrings];
-        for (int i = 0; i < stringDataOffsets.length; i++) {
-            b.setPosition(stringDataOffsets[i]); // set buffer to offset
-            // Position
-            int lenght = b.readUleb128(); // read uleb128
-            byte[] values = new byte[lenght];
-            b.readBytes(values);
-            stringPool[i] = new String(values);
-        }
+        stringPool = new IdTable<String>(b, off[STRING_IDS], size[STRING_IDS], 4) {
+            @Override
+            String read(DexBuffer buffer) {
+                buffer.setPosition(buffer.readUInt()); // the string data offset
+                return buffer.readMutf8String();
+            }
+        };
     }
 
     private void readTypeIds() {
@@ -182,18 +222,16 @@ public final class DexFileReader {
     }
 
     private void readProtos() {
-        int nProtos = size[PROTO_IDS];
-        b.setPosition(off[PROTO_IDS]);
-        protoIdItems = new ProtIdItem[nProtos];
-
-        ProtIdItem item = null;
-        for (int i = 0; i < protoIdItems.length; i++) {
-            item = new ProtIdItem();
-            item.shorty_idx = b.readUInt();
-            item.return_type_idx = b.readUInt();
-            item.parameter_off = b.readUInt();
-            protoIdItems[i] = item;
-        }
+        protoIdItems = new IdTable<ProtIdItem>(b, off[PROTO_IDS], size[PROTO_IDS], 12) {
+            @Override
+            ProtIdItem read(DexBuffer buffer) {
+                ProtIdItem item = new ProtIdItem();
+                item.shorty_idx = buffer.readUInt();
+                item.return_type_idx = buffer.readUInt();
+                item.parameter_off = buffer.readUInt();
+                return item;
+            }
+        };
     }
 
     static class FieldIdItem {
@@ -204,18 +242,16 @@ public final class DexFileReader {
     }
 
     private void readFields() {
-        int nFields = size[FIELD_IDS];
-        b.setPosition(off[FIELD_IDS]);
-        fieldIdItems = new FieldIdItem[nFields];
-
-        FieldIdItem item = null;
-        for (int i = 0; i < fieldIdItems.length; i++) {
-            item = new FieldIdItem();
-            item.class_idx = b.readUShort();
-            item.type_idx = b.readUShort();
-            item.name_idx = b.readUInt();
-            fieldIdItems[i] = item;
-        }
+        fieldIdItems = new IdTable<FieldIdItem>(b, off[FIELD_IDS], size[FIELD_IDS], 8) {
+            @Override
+            FieldIdItem read(DexBuffer buffer) {
+                FieldIdItem item = new FieldIdItem();
+                item.class_idx = buffer.readUShort();
+                item.type_idx = buffer.readUShort();
+                item.name_idx = buffer.readUInt();
+                return item;
+            }
+        };
     }
 
     static class MethodsIdItem {
@@ -226,18 +262,16 @@ public final class DexFileReader {
     }
 
     private void readMethods() {
-        int nMethods = size[METHOD_IDS];
-        b.setPosition(off[METHOD_IDS]);
-        methodIdItems = new MethodsIdItem[nMethods];
-
-        MethodsIdItem item = null;
-        for (int i = 0; i < methodIdItems.length; i++) {
-            item = new MethodsIdItem();
-            item.class_idx = b.readUShort();
-            item.proto_idx = b.readUShort();
-            item.name_idx = b.readUInt();
-            methodIdItems[i] = item;
-        }
+        methodIdItems = new IdTable<MethodsIdItem>(b, off[METHOD_IDS], size[METHOD_IDS], 8) {
+            @Override
+            MethodsIdItem read(DexBuffer buffer) {
+                MethodsIdItem item = new MethodsIdItem();
+                item.class_idx = buffer.readUShort();
+                item.proto_idx = buffer.readUShort();
+                item.name_idx = buffer.readUInt();
+                return item;
+            }
+        };
     }
 
     public static class ClassDefItem {
@@ -27,6 +27,7 @@ import java.util.Set;
 import dex.reader.DexClassImpl.MethodAnnotation;
 import dex.reader.DexClassImpl.ParameterAnnotation;
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.reader.DexFileReader.MethodsIdItem;
 import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexAnnotation;
@@ -38,7 +39,7 @@ import dex.structure.DexParameter;
 
     private DexBuffer buffer;
     private MethodsIdItem methodsIdItem;
-    private String[] stringPool;
+    private IdTable<String> stringPool;
     private int[] typeIds;
     private ProtIdItem protoIdItem;
     private List<DexParameter> parameters;
@@ -49,13 +50,13 @@ import dex.structure.DexParameter;
     private final DexClass declaringClass;
     private final ParameterAnnotation parameterAnnotation;
     private Map<Integer, Integer> parameterIdToIndex;
-    private final FieldIdItem[] fieldIdItems;
+    private final IdTable<FieldIdItem> fieldIdItems;
 
     public DexMethodImpl(DexBuffer buffer, DexClass declaringClass,
             MethodsIdItem methodsIdItem, ProtIdItem protoIdItem,
             int accessFlags, MethodAnnotation methodAnnotation,
-            ParameterAnnotation parameterAnnotation, String[] stringPool,
-            int[] typeIds, FieldIdItem[] fieldIdItems) {
+            ParameterAnnotation parameterAnnotation, IdTable<String> stringPool,
+            int[] typeIds, IdTable<FieldIdItem> fieldIdItems) {
         this.buffer = buffer;
         this.declaringClass = declaringClass;
         this.methodsIdItem = methodsIdItem;
@@ -94,11 +95,11 @@ import dex.structure.DexParameter;
     }
 
     public String getName() {
-        return stringPool[methodsIdItem.name_idx];
+        return stringPool.get(methodsIdItem.name_idx);
     }
 
     public String getReturnType() {
-        return stringPool[typeIds[protoIdItem.return_type_idx]];
+        return stringPool.get(typeIds[protoIdItem.return_type_idx]);
     }
 
     public synchronized List<DexParameter> getParameters() {
@@ -115,7 +116,7 @@ import dex.structure.DexParameter;
                 }
                 for (int i = 0; i < paramTypeIdx.length; i++) {
                     parameters.add(new DexParameterImpl(buffer.createCopy(),
-                            stringPool[typeIds[paramTypeIdx[i]]],
+                            stringPool.get(typeIds[paramTypeIdx[i]]),
                             parameterIdToIndex.get(i), typeIds, stringPool,
                             fieldIdItems));
                 }
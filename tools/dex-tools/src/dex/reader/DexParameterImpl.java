@@ -20,6 +20,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import dex.reader.DexFileReader.FieldIdItem;
+import dex.reader.DexFileReader.IdTable;
 import dex.structure.DexAnnotation;
 import dex.structure.DexParameter;
 
@@ -30,12 +31,12 @@ public class DexParameterImpl implements DexParameter {
     private Set<DexAnnotation> annotations;
     private final DexBuffer buffer;
     private final int[] typeIds;
-    private final String[] stringPool;
-    private final FieldIdItem[] fieldIdItems;
+    private final IdTable<String> stringPool;
+    private final IdTable<FieldIdItem> fieldIdItems;
 
     public DexParameterImpl(DexBuffer buffer, String typeName,
-            Integer annotationOffset, int[] typeIds, String[] stringPool,
-            FieldIdItem[] fieldIdItems) {
+            Integer annotationOffset, int[] typeIds, IdTable<String> stringPool,
+            IdTable<FieldIdItem> fieldIdItems) {
         this.buffer = buffer;
         this.typeName = typeName;
         this.annotationOffset = annotationOffset;
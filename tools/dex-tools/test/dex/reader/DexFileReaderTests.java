@@ -347,6 +347,26 @@ public class DexFileReaderTests extends DexTestsCommon {
         System.out.println(E.getFields());
     }
 
+    static final JavaSource nonAsciiNames = new JavaSource("U",
+            "public class U {" +
+            "  public int caf\u00e9;" +
+            "  public int \u4e2d\u6587;" +
+            "}");
+
+    /**
+     * Tests decoding of MUTF-8 encoded names with two and three byte sequences.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testNonAsciiNames() throws IOException {
+        DexFile dexFile = javaToDexUtil.getFrom(nonAsciiNames);
+        DexClass U = getClass(dexFile, "LU;");
+        assertEquals(2, U.getFields().size());
+        assertPublic(getField(U, "caf\u00e9"));
+        assertPublic(getField(U, "\u4e2d\u6587"));
+    }
+
     /**
      * Tests parsing of huge dex file. 
      * @throws IOException
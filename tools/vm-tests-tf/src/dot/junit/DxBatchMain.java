@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Runs a batch of generated Main_testXXX classes in one VM, instead of starting a VM for each.
+ * <p>
+ * The batch file holds one line per main class: the class name followed by a space and the
+ * classpath to run it with. Each main class is loaded by its own class loader, so that classes
+ * which fail to load or verify in one test do not affect the next, as if it ran in its own VM.
+ * <p>
+ * Anything a main class prints is captured. As when running in its own VM, the test passes if it
+ * prints nothing. For each main class a line is printed to the real standard output:
+ * <pre>
+ * #VMTEST# PASS main-class
+ * #VMTEST# FAIL main-class escaped-output
+ * </pre>
+ * where newlines and backslashes in the escaped output are written as "\n" and "\\".
+ */
+public class DxBatchMain {
+
+    public static final String PREFIX = "#VMTEST# ";
+    public static final String PASS = "PASS";
+    public static final String FAIL = "FAIL";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: DxBatchMain batch-file");
+            System.exit(1);
+        }
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        Constructor<?> loaderConstructor = Class.forName("dalvik.system.PathClassLoader")
+                .getConstructor(String.class, ClassLoader.class);
+        ClassLoader parent = DxBatchMain.class.getClassLoader().getParent();
+
+        BufferedReader reader = new BufferedReader(new FileReader(args[0]));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                int separator = line.indexOf(' ');
+                String mainClass = line.substring(0, separator);
+                String classpath = line.substring(separator + 1);
+
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                PrintStream capture = new PrintStream(output, true);
+                System.setOut(capture);
+                System.setErr(capture);
+                try {
+                    ClassLoader loader =
+                            (ClassLoader) loaderConstructor.newInstance(classpath, parent);
+                    Method main = Class.forName(mainClass, true, loader)
+                            .getMethod("main", String[].class);
+                    main.invoke(null, (Object) new String[0]);
+                } catch (InvocationTargetException e) {
+                    capture.print("Exception in thread \"main\" ");
+                    e.getCause().printStackTrace(capture);
+                } catch (Throwable t) {
+                    t.printStackTrace(capture);
+                } finally {
+                    capture.flush();
+                    System.setOut(out);
+                    System.setErr(err);
+                }
+
+                String result = output.toString();
+                if (result.length() == 0) {
+                    out.println(PREFIX + PASS + " " + mainClass);
+                } else {
+                    out.println(PREFIX + FAIL + " " + mainClass + " " + escape(result));
+                }
+                out.flush();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Host-side outputs of the main classes run by a {@link DxBatchMain} batch.
+ * <p>
+ * The generated host test of a test class holds one instance, and the batch is run the first
+ * time the output of one of its main classes is needed. The test instance runs all the tests
+ * of the class on one device and ABI, so each run of the class, e.g. in a later invocation or a
+ * retry, runs the batch on the device again.
+ */
+public class DxBatchOutputs {
+
+    /**
+     * Runs the batch on the device.
+     */
+    public interface BatchRunner {
+        /**
+         * @return what the batch printed to its standard output.
+         */
+        String run() throws Exception;
+    }
+
+    // the output of each main class reported by the batch, null until the batch has run
+    private Map<String, String> outputs;
+
+    /**
+     * @return the output of the given main class, an empty string if it passed, or null if the
+     * batch did not report it. The batch is run with the given runner on the first call.
+     */
+    public String get(String mainClass, BatchRunner runner) throws Exception {
+        if (outputs == null) {
+            outputs = parse(runner.run());
+        }
+        return outputs.get(mainClass);
+    }
+
+    static Map<String, String> parse(String batchOutput) {
+        Map<String, String> outputs = new HashMap<String, String>();
+        for (String line : batchOutput.split("\r?\n")) {
+            if (!line.startsWith(DxBatchMain.PREFIX)) {
+                continue;
+            }
+            String[] parts = line.substring(DxBatchMain.PREFIX.length()).split(" ", 3);
+            if (parts[0].equals(DxBatchMain.PASS) && parts.length >= 2) {
+                outputs.put(parts[1], "");
+            } else if (parts[0].equals(DxBatchMain.FAIL) && parts.length == 3) {
+                outputs.put(parts[1], unescape(parts[2]));
+            }
+        }
+        return outputs;
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i) == 'n' ? '\n' : s.charAt(i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -16,9 +16,8 @@
 
 package util.build;
 
-import com.android.dex.util.FileUtils;
-
 import dot.junit.AllTests;
+import dot.junit.DxBatchMain;
 import util.build.BuildStep.BuildFile;
 
 import junit.framework.TestCase;
@@ -28,7 +27,6 @@ import junit.textui.TestRunner;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -36,15 +34,12 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Map.Entry;
-import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -77,8 +72,18 @@ public class BuildDalvikSuite {
 
     private static String restrictTo = null; // e.g. restrict to "opcodes.add_double"
 
+    // whether the generated host tests run all the Main_testN1 classes of a test class in one
+    // vm, using dot.junit.DxBatchMain, instead of starting a vm for each of them
+    private static boolean batchMains = Boolean.getBoolean("vm-tests.batch-mains");
+
     private static final String TARGET_JAR_ROOT_PATH = "/data/local/tmp/vm-tests";
 
+    // timeout for running a single Main_testN1 class on the device, in minutes
+    private static final int MAIN_TIMEOUT_MINUTES = 6;
+
+    private static final Pattern TITLE_PATTERN = Pattern.compile("@title (.*)", Pattern.DOTALL);
+    private static final Pattern CONSTRAINT_PATTERN = Pattern.compile("@constraint (.*)");
+
     private int testClassCnt = 0;
     private int testMethodsCnt = 0;
     private boolean useJack;
@@ -136,6 +141,9 @@ public class BuildDalvikSuite {
               restrictTo = args[6];
               System.out.println("restricting build to: " + restrictTo);
           }
+          if (batchMains) {
+              System.out.println("generating batched host tests");
+          }
           return true;
       } else {
           return false;
@@ -202,9 +210,13 @@ public class BuildDalvikSuite {
     private String curJunitFileName = null;
     private String curJunitName = null;
     private String curJunitFileData = "";
+    // lines of the batch file for the current test class, see dot.junit.DxBatchMain
+    private StringBuilder curBatchFileData = new StringBuilder();
 
     private SourceBuildStep hostJunitBuildStep;
 
+    private TestSourceIndex sourceIndex;
+
     private void flushHostJunitFile() {
         if (curJunitFileName != null) {
             File toWrite = new File(curJunitFileName);
@@ -237,25 +249,71 @@ public class BuildDalvikSuite {
         "import com.android.tradefed.testtype.IAbiReceiver;\n" +
         "import com.android.tradefed.testtype.DeviceTestCase;\n" +
         "import com.android.tradefed.util.AbiFormatter;\n" +
+        (batchMains ? "\nimport dot.junit.DxBatchOutputs;\n" : "") +
         "\n" +
         "public class " + sourceName + " extends DeviceTestCase implements IAbiReceiver {\n";
     }
 
+    private String getShellExecJavaCmd(String classpath, String mainclass, String args) {
+      return String.format("ANDROID_DATA=%s dalvikvm|#ABI#| -Xmx512M -Xss32K " +
+              "-Djava.io.tmpdir=%s -classpath %s %s%s", TARGET_JAR_ROOT_PATH, TARGET_JAR_ROOT_PATH,
+              classpath, mainclass, args);
+    }
+
     private String getShellExecJavaLine(String classpath, String mainclass) {
-      String cmd = String.format("ANDROID_DATA=%s dalvikvm|#ABI#| -Xmx512M -Xss32K " +
-              "-Djava.io.tmpdir=%s -classpath %s %s", TARGET_JAR_ROOT_PATH, TARGET_JAR_ROOT_PATH,
-              classpath, mainclass);
+      String cmd = getShellExecJavaCmd(classpath, mainclass, "");
       StringBuilder code = new StringBuilder();
       code.append("    String cmd = AbiFormatter.formatCmdForAbi(\"")
           .append(cmd)
-          .append("\", mAbi.getBitness());\n")
-          .append("    CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n")
-          .append("    getDevice().executeShellCommand(cmd, receiver, 6, TimeUnit.MINUTES, 1);\n")
-          .append("    // A sucessful adb shell command returns an empty string.\n")
-          .append("    assertEquals(cmd, \"\", receiver.getOutput());");
+          .append("\", mAbi.getBitness());\n");
+      if (batchMains) {
+          // Fall back to running the main class on its own if the batch did not report it,
+          // for example because the vm crashed.
+          code.append("    String output = getBatchedOutput(\"").append(mainclass).append("\");\n")
+              .append("    if (output == null) {\n")
+              .append("        CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n")
+              .append("        getDevice().executeShellCommand(cmd, receiver, ")
+              .append(MAIN_TIMEOUT_MINUTES).append(", TimeUnit.MINUTES, 1);\n")
+              .append("        output = receiver.getOutput();\n")
+              .append("    }\n")
+              .append("    // A sucessful adb shell command returns an empty string.\n")
+              .append("    assertEquals(cmd, \"\", output);");
+      } else {
+          code.append("    CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n")
+              .append("    getDevice().executeShellCommand(cmd, receiver, ")
+              .append(MAIN_TIMEOUT_MINUTES).append(", TimeUnit.MINUTES, 1);\n")
+              .append("    // A sucessful adb shell command returns an empty string.\n")
+              .append("    assertEquals(cmd, \"\", receiver.getOutput());");
+      }
       return code.toString();
     }
 
+    /**
+     * @return the code running all main classes of the current test class in one vm, and
+     * returning the output of the given main class, or null if the batch did not report it.
+     */
+    private String getBatchedOutputMethod(String pName, String classOnlyName, int mainCount) {
+      String batchFile = String.format("%s/%s/%s.batch", TARGET_JAR_ROOT_PATH,
+              pName.replace('.', '/'), classOnlyName);
+      String cmd = getShellExecJavaCmd(String.format("%s/dot/junit/dexcore.jar",
+              TARGET_JAR_ROOT_PATH), "dot.junit.DxBatchMain", " " + batchFile);
+      return "// Kept by this instance, so the batch runs once in each run of the class\n" +
+          "private final DxBatchOutputs batchOutputs = new DxBatchOutputs();\n\n" +
+          "private String getBatchedOutput(String mainclass) throws Exception {\n" +
+          "    return batchOutputs.get(mainclass, new DxBatchOutputs.BatchRunner() {\n" +
+          "        @Override\n" +
+          "        public String run() throws Exception {\n" +
+          "            String cmd = AbiFormatter.formatCmdForAbi(\"" + cmd +
+          "\", mAbi.getBitness());\n" +
+          "            CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n" +
+          "            getDevice().executeShellCommand(cmd, receiver, " +
+          (MAIN_TIMEOUT_MINUTES * mainCount) + ", TimeUnit.MINUTES, 1);\n" +
+          "            return receiver.getOutput();\n" +
+          "        }\n" +
+          "    });\n" +
+          "}\n\n";
+    }
+
     private String getWarningMessage() {
         return "//Autogenerated code by " + this.getClass().getName() + "; do not edit.\n";
     }
@@ -281,6 +339,7 @@ public class BuildDalvikSuite {
         //"dot.junit.opcodes.add_double_2addr.Main_testN2";
         String mainclass = pName + ".Main_" + method;
         curJunitFileData += getShellExecJavaLine(cp, mainclass);
+        curBatchFileData.append(mainclass).append(' ').append(cp).append('\n');
         curJunitFileData += "\n}\n\n";
     }
 
@@ -291,8 +350,14 @@ public class BuildDalvikSuite {
         Set<BuildStep> targets = new TreeSet<BuildStep>();
 
         SourceBuildStep srcBuildStep;
+        sourceIndex = new TestSourceIndex(JAVASRC_FOLDER);
         hostJunitBuildStep = new JavacBuildStep(
             HOSTJUNIT_CLASSES_OUTPUT_FOLDER, CLASS_PATH);
+        if (batchMains) {
+            // the generated host tests read the outputs of the batches with it
+            hostJunitBuildStep.addSourceFile(new File(JAVASRC_FOLDER,
+                    "dot/junit/DxBatchOutputs.java").getAbsolutePath());
+        }
 
         String mainsJar = OUTPUT_FOLDER + File.separator + TARGET_MAIN_FILE;
         if (useJack) {
@@ -311,6 +376,7 @@ public class BuildDalvikSuite {
             String instPrefix = "new " + classOnlyName + "()";
 
             openCTSHostFileFor(pName, classOnlyName);
+            curBatchFileData.setLength(0);
 
             curJunitFileData += "\n" +
                     "protected IAbi mAbi;\n" +
@@ -345,7 +411,7 @@ public class BuildDalvikSuite {
                 String methodContent = md.methodBody;
 
                 Set<String> dependentTestClassNames = parseTestClassName(pName,
-                        classOnlyName, methodContent);
+                        classOnlyName, method);
 
                 addCTSHostMethod(pName, method, md, dependentTestClassNames);
 
@@ -451,6 +517,12 @@ public class BuildDalvikSuite {
                         targets);
             }
 
+            if (batchMains) {
+                curJunitFileData += getBatchedOutputMethod(pName, classOnlyName, methods.size());
+                File batchFile = new File(OUTPUT_FOLDER + "/" + pName.replace('.', '/'),
+                        classOnlyName + ".batch");
+                writeToFileMkdir(batchFile, curBatchFileData.toString());
+            }
 
         }
 
@@ -480,12 +552,10 @@ public class BuildDalvikSuite {
             System.exit(1);
         }
 
-        for (BuildStep buildStep : targets) {
-            if (!buildStep.build()) {
-                System.out.println("building failed. buildStep: " +
-                        buildStep.getClass().getName() + ", " + buildStep);
-                System.exit(1);
-            }
+        // the targets do not depend on each other, only on the steps added as their children
+        BuildExecutor executor = new BuildExecutor();
+        if (!executor.build(targets)) {
+            System.exit(1);
         }
     }
 
@@ -637,145 +707,25 @@ public class BuildDalvikSuite {
     /**
      * @param pName
      * @param classOnlyName
-     * @param methodSource
+     * @param method
      * @return testclass names
      */
     private Set<String> parseTestClassName(String pName, String classOnlyName,
-            String methodSource) {
-        Set<String> entries = new HashSet<String>();
-        String opcodeName = classOnlyName.substring(5);
-
-        Scanner scanner = new Scanner(methodSource);
-
-        String[] patterns = new String[] {"new\\s(T_" + opcodeName + "\\w*)",
-                "(T_" + opcodeName + "\\w*)", "new\\s(T\\w*)"};
-
-        String token = null;
-        for (String pattern : patterns) {
-            token = scanner.findWithinHorizon(pattern, methodSource.length());
-            if (token != null) {
-                break;
-            }
-        }
-
-        if (token == null) {
-            System.err.println("warning: failed to find dependent test class name: " + pName +
-                    ", " + classOnlyName + " in methodSource:\n" + methodSource);
-            return entries;
-        }
-
-        MatchResult result = scanner.match();
-
-        entries.add((pName + ".d." + result.group(1)).trim());
-
-        // search additional @uses directives
-        Pattern p = Pattern.compile("@uses\\s+(.*)\\s+", Pattern.MULTILINE);
-        Matcher m = p.matcher(methodSource);
-        while (m.find()) {
-            String res = m.group(1);
-            entries.add(res.trim());
-        }
-
-        // search for " load(\"...\" " and add as dependency
-        Pattern loadPattern = Pattern.compile("load\\(\"([^\"]*)\"", Pattern.MULTILINE);
-        Matcher loadMatcher = loadPattern.matcher(methodSource);
-        while (loadMatcher.find()) {
-            String res = loadMatcher.group(1);
-            entries.add(res.trim());
-        }
-
-        // search for " loadAndRun(\"...\" " and add as dependency
-        Pattern loadAndRunPattern = Pattern.compile("loadAndRun\\(\"([^\"]*)\"", Pattern.MULTILINE);
-        Matcher loadAndRunMatcher = loadAndRunPattern.matcher(methodSource);
-        while (loadAndRunMatcher.find()) {
-            String res = loadAndRunMatcher.group(1);
-            entries.add(res.trim());
-        }
-
-        // lines with the form @uses
-        // dot.junit.opcodes.add_double.jm.T_add_double_2
-        // one dependency per one @uses
-        // TODO
-
-        return entries;
+            String method) {
+        return sourceIndex.getMethod(pName, classOnlyName, method).dependencies;
     }
 
     private MethodData parseTestMethod(String pname, String classOnlyName,
             String method) {
-
-        String path = pname.replaceAll("\\.", "/");
-        String absPath = JAVASRC_FOLDER + "/" + path + "/" + classOnlyName + ".java";
-        File f = new File(absPath);
-
-        Scanner scanner;
-        try {
-            scanner = new Scanner(f);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("error while reading to file: " + e.getClass().getName() +
-                    ", msg:" + e.getMessage());
-        }
-
-        String methodPattern = "public\\s+void\\s+" + method + "[^\\{]+\\{";
-
-        String token = scanner.findWithinHorizon(methodPattern, (int) f.length());
-        if (token == null) {
-            throw new RuntimeException("cannot find method source of 'public void " + method +
-                    "' in file '" + absPath + "'");
-        }
-
-        MatchResult result = scanner.match();
-        result.start();
-        result.end();
-
-        StringBuilder builder = new StringBuilder();
-        //builder.append(token);
-
-        try {
-            FileReader reader = new FileReader(f);
-            reader.skip(result.end());
-
-            char currentChar;
-            int blocks = 1;
-            while ((currentChar = (char) reader.read()) != -1 && blocks > 0) {
-                switch (currentChar) {
-                    case '}': {
-                        blocks--;
-                        builder.append(currentChar);
-                        break;
-                    }
-                    case '{': {
-                        blocks++;
-                        builder.append(currentChar);
-                        break;
-                    }
-                    default: {
-                        builder.append(currentChar);
-                        break;
-                    }
-                }
-            }
-            if (reader != null) {
-                reader.close();
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("failed to parse", e);
-        }
+        TestSourceIndex.MethodSource source = sourceIndex.getMethod(pname, classOnlyName, method);
 
         // find the @title/@constraint in javadoc comment for this method
-        // using platform's default charset
-        String all = new String(FileUtils.readFile(f));
-        // System.out.println("grepping javadoc found for method " + method +
-        // " in " + pname + "," + classOnlyName);
-        String commentPattern = "/\\*\\*([^{]*)\\*/\\s*" + methodPattern;
-        Pattern p = Pattern.compile(commentPattern, Pattern.DOTALL);
-        Matcher m = p.matcher(all);
         String title = null, constraint = null;
-        if (m.find()) {
-            String res = m.group(1);
+        if (source.comment != null) {
+            String res = source.comment;
             // System.out.println("res: " + res);
             // now grep @title and @constraint
-            Matcher titleM = Pattern.compile("@title (.*)", Pattern.DOTALL)
-            .matcher(res);
+            Matcher titleM = TITLE_PATTERN.matcher(res);
             if (titleM.find()) {
                 title = titleM.group(1).replaceAll("\\n     \\*", "");
                 title = title.replaceAll("\\n", " ");
@@ -786,8 +736,7 @@ public class BuildDalvikSuite {
                         "," + classOnlyName);
             }
             // constraint can be one line only
-            Matcher constraintM = Pattern.compile("@constraint (.*)").matcher(
-                    res);
+            Matcher constraintM = CONSTRAINT_PATTERN.matcher(res);
             if (constraintM.find()) {
                 constraint = constraintM.group(1);
                 constraint = constraint.trim();
@@ -802,12 +751,9 @@ public class BuildDalvikSuite {
                     "," + classOnlyName);
         }
         MethodData md = new MethodData();
-        md.methodBody = builder.toString();
+        md.methodBody = source.body;
         md.constraint = constraint;
         md.title = title;
-        if (scanner != null) {
-            scanner.close();
-        }
         return md;
     }
 
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a set of build steps, running the steps that do not depend on each other concurrently.
+ * <p>
+ * A step is built once all of its children (see {@link BuildStep#addChild}) are built.
+ */
+class BuildExecutor {
+
+    private final int threadCount;
+
+    BuildExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    BuildExecutor(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * A step to build, with the steps waiting for it.
+     */
+    private static class Node {
+        final BuildStep step;
+        // equal steps added as children of other steps, see BuildStep#equals
+        final List<BuildStep> instances = new ArrayList<BuildStep>();
+        final List<Node> parents = new ArrayList<Node>();
+        int pendingChildren;
+
+        Node(BuildStep step) {
+            this.step = step;
+        }
+    }
+
+    /**
+     * Builds the given targets and the steps they depend on.
+     *
+     * @return true if all steps were built successfully
+     */
+    boolean build(Collection<BuildStep> targets) {
+        Map<BuildStep, Node> nodes = new HashMap<BuildStep, Node>();
+        for (BuildStep target : targets) {
+            addNode(target, nodes);
+        }
+
+        int remaining = 0;
+        for (Node node : nodes.values()) {
+            remaining++;
+            for (Node parent : node.parents) {
+                parent.pendingChildren++;
+            }
+        }
+        List<Node> ready = new ArrayList<Node>();
+        for (Node node : nodes.values()) {
+            if (node.pendingChildren == 0) {
+                ready.add(node);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        CountDownLatch finished = new CountDownLatch(remaining > 0 ? 1 : 0);
+        AtomicInteger remainingCount = new AtomicInteger(remaining);
+        try {
+            for (Node node : ready) {
+                submit(executor, node, failed, remainingCount, finished);
+            }
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } finally {
+            // Let the steps already running finish, so that their output is complete
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return !failed.get();
+    }
+
+    private Node addNode(BuildStep step, Map<BuildStep, Node> nodes) {
+        Node node = nodes.get(step);
+        if (node != null) {
+            node.instances.add(step);
+            return node;
+        }
+        node = new Node(step);
+        node.instances.add(step);
+        nodes.put(step, node);
+        for (BuildStep child : step.getChildren()) {
+            Node childNode = addNode(child, nodes);
+            childNode.parents.add(node);
+        }
+        return node;
+    }
+
+    private void submit(final ExecutorService executor, final Node node,
+            final AtomicBoolean failed, final AtomicInteger remaining,
+            final CountDownLatch finished) {
+        executor.execute(new Runnable() {
+            public void run() {
+                if (failed.get()) {
+                    return;
+                }
+                boolean success;
+                try {
+                    success = node.step.build();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    success = false;
+                }
+                if (!success) {
+                    System.out.println("building failed. buildStep: " +
+                            node.step.getClass().getName() + ", " + node.step);
+                    failed.set(true);
+                    finished.countDown();
+                    return;
+                }
+                for (BuildStep instance : node.instances) {
+                    instance.built = true;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    finished.countDown();
+                    return;
+                }
+                for (Node parent : node.parents) {
+                    boolean ready;
+                    synchronized (parent) {
+                        ready = --parent.pendingChildren == 0;
+                    }
+                    if (ready) {
+                        submit(executor, parent, failed, remaining, finished);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -21,6 +21,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -80,10 +81,14 @@ abstract class BuildStep implements Comparable<BuildStep> {
 
     private Set<BuildStep> children;
 
+    // set by BuildExecutor once the step has been built, so that it is not built again by the
+    // steps depending on it
+    volatile boolean built;
+
     boolean build() {
         if (children != null) {
             for (BuildStep child : children) {
-                if (!child.build()) {
+                if (!child.built && !child.build()) {
                     return false;
                 }
             }
@@ -91,6 +96,13 @@ abstract class BuildStep implements Comparable<BuildStep> {
         return true;
     }
 
+    Set<BuildStep> getChildren() {
+        if (children == null) {
+            return Collections.emptySet();
+        }
+        return children;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) return false;
@@ -21,6 +21,7 @@ import dasm.DasmError;
 import dasm.Utils;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,6 +29,7 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.io.Reader;
 
 class DasmBuildStep extends BuildStep {
@@ -57,6 +59,9 @@ class DasmBuildStep extends BuildStep {
     
     private boolean assemble(File file) {
         DAsm dAsm = new DAsm();
+        // steps are built concurrently, keep the errors of the file together
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        dAsm.setErrorStream(new PrintStream(errors, true));
         String fname = file.getAbsolutePath();
         
         // read and parse .d file
@@ -83,7 +88,7 @@ class DasmBuildStep extends BuildStep {
         
         if(dAsm.errorCount() > 0) {
             System.err.println("Found " + dAsm.errorCount() + " errors " +
-                    " while reading and parsing " + fname);
+                    " while reading and parsing " + fname + ":\n" + errors);
                 return false;
         }
 
@@ -42,7 +42,10 @@ public class DxBuildStep extends BuildStep {
 
             int result = 0;
             try {
-                result = Main.run(args);
+                // dx keeps the state of a run in static fields, so only one run at a time
+                synchronized (Main.class) {
+                    result = Main.run(args);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
                 return false;
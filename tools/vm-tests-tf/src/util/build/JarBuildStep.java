@@ -16,10 +16,14 @@
 
 package util.build;
 
-import sun.tools.jar.Main;
-
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 
 public class JarBuildStep extends BuildStep {
@@ -37,46 +41,57 @@ public class JarBuildStep extends BuildStep {
     @Override
     boolean build() {
         if (super.build()) {
-            File tempFile = new File(inputFile.folder, destFileName);
-            try {
-                if (!inputFile.fileName.equals(tempFile)) {
-                    copyFile(inputFile.fileName, tempFile);
-                } else {
-                    tempFile = null;
-                }
-            } catch (IOException e) {
-                System.err.println("io exception:"+e.getMessage());
-                e.printStackTrace();
-                return false;
-            }
-
             File outDir = outputFile.fileName.getParentFile();
             if (!outDir.exists() && !outDir.mkdirs()) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
                 return false;
             }
-            String[] arguments = new String[] {
-                    "-cMf", outputFile.fileName.getAbsolutePath(), "-C",
-                    inputFile.folder.getAbsolutePath(), destFileName};
-            Main main = new Main(System.out, System.err, "jar");
-            boolean success = main.run(arguments);
+            // Write the input straight into the jar under its destination name, rather than
+            // copying it next to the input first, so that steps jarring inputs from the same
+            // folder can run concurrently.
+            try {
+                writeJar();
+            } catch (IOException e) {
+                System.err.println("exception in JarBuildStep while writing " +
+                        outputFile.fileName.getAbsolutePath() + " from " +
+                        inputFile.fileName.getAbsolutePath() + " as " + destFileName);
+                e.printStackTrace();
+                return false;
+            }
+            if (deleteInputFileAfterBuild) {
+                inputFile.fileName.delete();
+            }
+            return true;
+        }
+        return false;
+    }
 
-            if (success) {
-                if (tempFile != null) {
-                    tempFile.delete();
-                }
-                if (deleteInputFileAfterBuild) {
-                    inputFile.fileName.delete();
+    private void writeJar() throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(
+                new FileOutputStream(outputFile.fileName)));
+        try {
+            // add the parent directory entries, as the jar tool does
+            String entryName = destFileName.replace(File.separatorChar, '/');
+            for (int i = entryName.indexOf('/'); i >= 0; i = entryName.indexOf('/', i + 1)) {
+                out.putNextEntry(new ZipEntry(entryName.substring(0, i + 1)));
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry(entryName));
+            InputStream in = new FileInputStream(inputFile.fileName);
+            try {
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
                 }
-            } else {
-                System.err.println("exception in JarBuildStep while calling jar with args:" +
-                        " \"-cMf\", "+outputFile.fileName.getAbsolutePath()+", \"-C\"," + 
-                        inputFile.folder.getAbsolutePath()+", "+ destFileName);
+            } finally {
+                in.close();
             }
-            return success;
+            out.closeEntry();
+        } finally {
+            out.close();
         }
-        return false;
     }
 
     @Override
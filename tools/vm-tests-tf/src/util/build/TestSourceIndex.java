@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import com.android.dex.util.FileUtils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the test methods in the test class sources. Each source file is read and scanned
+ * once, the first time one of its methods is looked up, and the body, javadoc comment and
+ * dependent test classes of all of its test methods are kept for later lookups.
+ */
+class TestSourceIndex {
+
+    private static final Pattern METHOD_PATTERN =
+            Pattern.compile("public\\s+void\\s+(\\w+)[^\\{]+\\{");
+    // the javadoc comment right before a method declaration, which must not contain a '{'
+    private static final Pattern COMMENT_PATTERN =
+            Pattern.compile("/\\*\\*([^{]*)\\*/\\s*$", Pattern.DOTALL);
+    // lines with the form @uses dot.junit.opcodes.add_double.jm.T_add_double_2, one dependency
+    // per @uses
+    private static final Pattern USES_PATTERN =
+            Pattern.compile("@uses\\s+(.*)\\s+", Pattern.MULTILINE);
+    private static final Pattern LOAD_PATTERN =
+            Pattern.compile("load\\(\"([^\"]*)\"", Pattern.MULTILINE);
+    private static final Pattern LOAD_AND_RUN_PATTERN =
+            Pattern.compile("loadAndRun\\(\"([^\"]*)\"", Pattern.MULTILINE);
+
+    static class MethodSource {
+        // the method body, after the opening brace and up to and including the closing brace
+        final String body;
+        // the content of the javadoc comment of the method, or null if there is none
+        final String comment;
+        // the names of the test classes the method depends on
+        final Set<String> dependencies;
+
+        MethodSource(String body, String comment, Set<String> dependencies) {
+            this.body = body;
+            this.comment = comment;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final String srcFolder;
+
+    // key: source file path, value: the methods of the file by name
+    private final Map<String, Map<String, MethodSource>> files =
+            new HashMap<String, Map<String, MethodSource>>();
+
+    /**
+     * @param srcFolder the folder containing the test sources
+     */
+    TestSourceIndex(String srcFolder) {
+        this.srcFolder = srcFolder;
+    }
+
+    /**
+     * @return the source of the given method of the given test class
+     * @throws RuntimeException if the source file or the method is not found
+     */
+    MethodSource getMethod(String pName, String classOnlyName, String method) {
+        String absPath = srcFolder + "/" + pName.replace('.', '/') + "/" + classOnlyName + ".java";
+        Map<String, MethodSource> methods = files.get(absPath);
+        if (methods == null) {
+            methods = indexFile(new File(absPath), pName, classOnlyName);
+            files.put(absPath, methods);
+        }
+        MethodSource source = methods.get(method);
+        if (source == null) {
+            throw new RuntimeException("cannot find method source of 'public void " + method +
+                    "' in file '" + absPath + "'");
+        }
+        return source;
+    }
+
+    private static Map<String, MethodSource> indexFile(File f, String pName,
+            String classOnlyName) {
+        if (!f.exists()) {
+            throw new RuntimeException("error while reading to file: " + f.getAbsolutePath() +
+                    " not found");
+        }
+        // using platform's default charset
+        String all = new String(FileUtils.readFile(f));
+        Map<String, MethodSource> methods = new HashMap<String, MethodSource>();
+        String opcodeName = classOnlyName.substring(5);
+        Pattern[] testClassPatterns = new Pattern[] {
+                Pattern.compile("new\\s(T_" + opcodeName + "\\w*)"),
+                Pattern.compile("(T_" + opcodeName + "\\w*)"),
+                Pattern.compile("new\\s(T\\w*)")};
+        Matcher m = METHOD_PATTERN.matcher(all);
+        while (m.find()) {
+            int bodyEnd = findBlockEnd(all, m.end());
+
+            // a javadoc comment can only be found between the declaration and the last
+            // opening brace before it
+            int commentStart = all.lastIndexOf('{', m.start()) + 1;
+            String comment = null;
+            Matcher commentMatcher =
+                    COMMENT_PATTERN.matcher(all.substring(commentStart, m.start()));
+            if (commentMatcher.find()) {
+                comment = commentMatcher.group(1);
+            }
+
+            String name = m.group(1);
+            // only test methods are looked up
+            if (name.startsWith("test") && !methods.containsKey(name)) {
+                String body = all.substring(m.end(), bodyEnd);
+                methods.put(name, new MethodSource(body, comment,
+                        findDependencies(pName, classOnlyName, body, testClassPatterns)));
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * @return the names of the test classes the given method body depends on
+     */
+    private static Set<String> findDependencies(String pName, String classOnlyName,
+            String methodSource, Pattern[] testClassPatterns) {
+        Set<String> entries = new HashSet<String>();
+
+        String testClassName = null;
+        for (Pattern pattern : testClassPatterns) {
+            Matcher m = pattern.matcher(methodSource);
+            if (m.find()) {
+                testClassName = m.group(1);
+                break;
+            }
+        }
+        if (testClassName == null) {
+            System.err.println("warning: failed to find dependent test class name: " + pName +
+                    ", " + classOnlyName + " in methodSource:\n" + methodSource);
+            return entries;
+        }
+        entries.add((pName + ".d." + testClassName).trim());
+
+        // search additional @uses directives, " load(\"...\" " and " loadAndRun(\"...\" "
+        for (Pattern pattern : new Pattern[] {USES_PATTERN, LOAD_PATTERN, LOAD_AND_RUN_PATTERN}) {
+            Matcher m = pattern.matcher(methodSource);
+            while (m.find()) {
+                entries.add(m.group(1).trim());
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the index after the brace closing the block that starts at the given index
+     */
+    private static int findBlockEnd(String source, int start) {
+        int blocks = 1;
+        int i = start;
+        while (i < source.length() && blocks > 0) {
+            char c = source.charAt(i++);
+            if (c == '}') {
+                blocks--;
+            } else if (c == '{') {
+                blocks++;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link DxBatchOutputs}.
+ */
+public class DxBatchOutputsTest extends TestCase {
+
+    private static final String MAIN_N1 = "dot.junit.opcodes.add_int.Main_testN1";
+    private static final String MAIN_N2 = "dot.junit.opcodes.add_int.Main_testN2";
+
+    /**
+     * Stands for a device, counting the batches run on it.
+     */
+    private static class CountingRunner implements DxBatchOutputs.BatchRunner {
+        private final String output;
+        int runs;
+
+        CountingRunner(String output) {
+            this.output = output;
+        }
+
+        @Override
+        public String run() {
+            runs++;
+            return output;
+        }
+    }
+
+    public void testGet_runsBatchOnce() throws Exception {
+        CountingRunner device = new CountingRunner(
+                "#VMTEST# PASS " + MAIN_N1 + "\n#VMTEST# FAIL " + MAIN_N2 + " wrong\n");
+        DxBatchOutputs outputs = new DxBatchOutputs();
+        assertEquals("", outputs.get(MAIN_N1, device));
+        assertEquals("wrong", outputs.get(MAIN_N2, device));
+        assertEquals(1, device.runs);
+    }
+
+    /**
+     * Each run of a test class has its own instance, so a second run on the same device, e.g. a
+     * retry, runs the batch on the device again and sees its new result.
+     */
+    public void testGet_twoRunsOnSameDevice() throws Exception {
+        CountingRunner firstRun = new CountingRunner("#VMTEST# FAIL " + MAIN_N1 + " wrong\n");
+        assertEquals("wrong", new DxBatchOutputs().get(MAIN_N1, firstRun));
+        CountingRunner secondRun = new CountingRunner("#VMTEST# PASS " + MAIN_N1 + "\n");
+        assertEquals("", new DxBatchOutputs().get(MAIN_N1, secondRun));
+        assertEquals(1, firstRun.runs);
+        assertEquals(1, secondRun.runs);
+    }
+
+    public void testGet_batchFailed() throws Exception {
+        DxBatchOutputs outputs = new DxBatchOutputs();
+        try {
+            outputs.get(MAIN_N1, new DxBatchOutputs.BatchRunner() {
+                @Override
+                public String run() throws Exception {
+                    throw new Exception("device offline");
+                }
+            });
+            fail("Expected exception");
+        } catch (Exception e) {
+            assertEquals("device offline", e.getMessage());
+        }
+        // nothing is kept from the failed batch, the next test runs it again
+        CountingRunner device = new CountingRunner("#VMTEST# PASS " + MAIN_N1 + "\n");
+        assertEquals("", outputs.get(MAIN_N1, device));
+        assertEquals(1, device.runs);
+    }
+
+    public void testParse() {
+        Map<String, String> outputs = DxBatchOutputs.parse(
+                "WARNING: linker: unused DT entry\r\n"
+                + "#VMTEST# PASS " + MAIN_N1 + "\r\n"
+                + "#VMTEST# FAIL " + MAIN_N2 + " Exception in thread \"main\" a\\nb\\\\n\n"
+                + "#VMTEST# FAIL dot.junit.opcodes.add_int.Main_testB1\n");
+        assertEquals("", outputs.get(MAIN_N1));
+        assertEquals("Exception in thread \"main\" a\nb\\n", outputs.get(MAIN_N2));
+        // a failure without its output, e.g. cut by a vm crash, is not reported
+        assertFalse(outputs.containsKey("dot.junit.opcodes.add_int.Main_testB1"));
+        assertEquals(2, outputs.size());
+    }
+}